@@ -0,0 +1,430 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AbstractHeapFile is the part of a DbFile that stores a collection of tuples
+ * in no particular order that does not depend on the format of its pages.
+ * Pages are read and written with positional I/O on the channel of the backing
+ * file, and a FreeSpaceMap points inserts at pages with room. Subclasses
+ * supply the page format: how an image is decoded, how much room a page has
+ * left, and how tuples are put on and taken off a page.
+ *
+ * @see simpledb.HeapFile
+ * @see simpledb.FreeSpaceMap
+ */
+public abstract class AbstractHeapFile implements TupleFile {
+
+  private final File backingFile;
+  private final FileChannel channel;
+  private final TupleDesc tupleDesc;
+  private final AtomicInteger numberOfPages;
+  private final FreeSpaceMap freeSpaceMap;
+  private final int pageSize;
+
+  /**
+   * Constructs a file backed by the specified file, with pages of the
+   * specified size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @param pageSize the size of the pages of the file in bytes
+   */
+  protected AbstractHeapFile(File f, TupleDesc td, int pageSize) {
+    this.backingFile = f;
+    this.pageSize = pageSize;
+    try {
+      this.channel = new RandomAccessFile(f, "rw").getChannel();
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    this.tupleDesc = td;
+    this.numberOfPages = new AtomicInteger((int) (backingFile.length() / pageSize));
+    this.freeSpaceMap = FreeSpaceMap.open(f, numberOfPages.get());
+  }
+
+  /**
+   * Decodes the specified image of a page of this file.
+   */
+  protected abstract Page createPage(PageId pid, byte[] data);
+
+  /**
+   * Returns the image of an empty page of this file.
+   */
+  protected abstract byte[] createEmptyPageData();
+
+  /**
+   * Returns the entry of the free space map for the specified page, i.e. the
+   * number of tuples that can still be inserted into it.
+   */
+  protected abstract int getFreeSlots(Page page);
+
+  /**
+   * Returns true if the specified tuple fits on the specified page.
+   */
+  protected abstract boolean hasRoomFor(Page page, Tuple t);
+
+  /**
+   * Puts the specified tuple on the specified page, which has room for it.
+   */
+  protected abstract void addTuple(Page page, Tuple t) throws DbException;
+
+  /**
+   * Takes the specified tuple off the specified page.
+   */
+  protected abstract void removeTuple(Page page, Tuple t) throws DbException;
+
+  /**
+   * Returns an iterator over the tuples on the specified page.
+   *
+   * @see #iterator(TransactionId, boolean[], List)
+   */
+  protected abstract Iterator<Tuple> iterator(Page page, boolean[] fields,
+      List<Predicate> predicates);
+
+  /**
+   * Returns the File backing this file on disk.
+   *
+   * @return the File backing this file on disk.
+   */
+  public File getFile() {
+    return backingFile;
+  }
+
+  /**
+   * Returns an ID uniquely identifying this file, the hash code of the
+   * absolute name of the backing file.
+   *
+   * @return an ID uniquely identifying this file.
+   */
+  @Override
+  public int getId() {
+    return backingFile.getAbsoluteFile().hashCode();
+  }
+
+  /**
+   * Returns the TupleDesc of the table stored in this DbFile.
+   *
+   * @return TupleDesc of this DbFile.
+   */
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the number of pages in this file.
+   */
+  public int numPages() {
+    return numberOfPages.get();
+  }
+
+  /**
+   * Sets the number of pages in this file, for subclasses that truncate the
+   * backing file.
+   */
+  protected void setNumPages(int newNumberOfPages) {
+    numberOfPages.set(newNumberOfPages);
+  }
+
+  /**
+   * Returns the free space map of this file.
+   */
+  protected FreeSpaceMap getFreeSpaceMap() {
+    return freeSpaceMap;
+  }
+
+  /**
+   * Returns the channel of the backing file, for subclasses that access the
+   * file in other ways than reading and writing single pages.
+   */
+  protected FileChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Reads the specified page from disk. A page past the end of the file reads
+   * as an empty page: it was truncated away by {@link HeapFile#compact} while
+   * the caller was waiting for its lock, and it comes back if it is written.
+   */
+  @Override
+  public Page readPage(PageId pid) {
+    long offset = (long) pageSize * pid.pageNumber();
+    try {
+      ByteBuffer readData = ByteBuffer.allocate(pageSize);
+      while (readData.hasRemaining()) {
+        int numberOfBytesRead = channel.read(readData, offset + readData.position());
+        if (numberOfBytesRead < 0 && readData.position() == 0) {
+          // truncated away by compact while the caller waited for its lock
+          return createPage(pid, createEmptyPageData());
+        }
+        if (numberOfBytesRead < 0) {
+          throw new RuntimeException("Did not read entire page successfully.");
+        }
+      }
+      return createPage(pid, readData.array());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public List<Page> readPages(int startPageNumber, int count) {
+    byte[][] images = readPageImages(channel, pageSize, startPageNumber, count);
+    List<Page> pages = new ArrayList<Page>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(createPage(new HeapPageId(getId(), startPageNumber + i), images[i]));
+    }
+    return pages;
+  }
+
+  /**
+   * Reads the images of the specified run of pages of a file into one array
+   * each with a single scattering read, so that a run of pages costs one
+   * system call instead of one per page. The read goes through the position of
+   * the channel, which positional reads and writes leave alone, so only
+   * concurrent scattering reads need to be kept apart.
+   */
+  static byte[][] readPageImages(FileChannel channel, int pageSize, int startPageNumber,
+      int count) {
+    byte[][] images = new byte[count][pageSize];
+    ByteBuffer[] buffers = new ByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      buffers[i] = ByteBuffer.wrap(images[i]);
+    }
+    try {
+      synchronized (channel) {
+        channel.position((long) pageSize * startPageNumber);
+        while (buffers[count - 1].hasRemaining()) {
+          if (channel.read(buffers) < 0) {
+            throw new IllegalArgumentException("Pages " + startPageNumber + " to "
+                + (startPageNumber + count - 1) + " are not all in the file.");
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return images;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public void writePage(Page page) throws IOException {
+    int pageNumber = page.getId().pageNumber();
+    writePageData(pageNumber, page.getPageData());
+    growNumberOfPages(pageNumber + 1);
+    freeSpaceMap.updateAndPersist(pageNumber, getFreeSlots(page));
+  }
+
+  /**
+   * Writes the serialized image of the specified page to its place in the
+   * backing file. Like readPage, this uses positional I/O on the channel, so
+   * concurrent reads and writes of different pages do not interfere.
+   */
+  protected void writePageData(int pageNumber, byte[] pageData) {
+    long offset = (long) pageSize * pageNumber;
+    try {
+      ByteBuffer writeData = ByteBuffer.wrap(pageData);
+      while (writeData.hasRemaining()) {
+        channel.write(writeData, offset + writeData.position());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Pages can be written past the end of the file by recovery, so make sure
+   * they are counted.
+   */
+  protected void growNumberOfPages(int minimumNumberOfPages) {
+    int current = numberOfPages.get();
+    while (current < minimumNumberOfPages
+        && !numberOfPages.compareAndSet(current, minimumNumberOfPages)) {
+      current = numberOfPages.get();
+    }
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
+      TransactionAbortedException {
+    Page insertedPage = null;
+    int pageNumber = freeSpaceMap.findPageWithFreeSpace(numberOfPages.get());
+    while (insertedPage == null && pageNumber != -1) {
+      insertedPage = attemptTupleInsert(tid, t, pageNumber);
+      if (insertedPage == null) {
+        pageNumber = freeSpaceMap.findPageWithFreeSpace(numberOfPages.get());
+      }
+    }
+    if (insertedPage == null && !hasRoomFor(createPage(new HeapPageId(getId(), numPages()),
+        createEmptyPageData()), t)) {
+      // appending pages would never end
+      throw new DbException("Tuple does not fit on an empty page of " + getPageSize()
+          + " bytes.");
+    }
+    while (insertedPage == null) {
+      insertedPage = attemptTupleInsert(tid, t, appendEmptyPage());
+    }
+    ArrayList<Page> affectedPages = new ArrayList<Page>();
+    affectedPages.add(insertedPage);
+    return affectedPages;
+  }
+
+  /**
+   * Writes an empty page at the end of the file and returns its number.
+   * Synchronized with {@link HeapFile#compact}, so that a new page is never
+   * cut off again.
+   */
+  private synchronized int appendEmptyPage() throws IOException {
+    int newPageNumber = numberOfPages.get();
+    writePage(createPage(new HeapPageId(getId(), newPageNumber), createEmptyPageData()));
+    return newPageNumber;
+  }
+
+  /**
+   * Inserts the tuple into the specified page if it has room.
+   */
+  private Page attemptTupleInsert(TransactionId tid, Tuple t, int pageNumber)
+      throws DbException, TransactionAbortedException {
+    Page page = lockPageWithFreeSpace(tid, pageNumber, t);
+    if (page != null) {
+      insertTuple(page, t);
+    }
+    return page;
+  }
+
+  /**
+   * Returns the specified page locked for writing if the specified tuple fits
+   * on it, or null if it does not. The free space map only tells us which page
+   * probably has room, so the page is locked for writing right away and
+   * checked. If it turns out to be full, the map is corrected and the lock is
+   * given back, unless the transaction already held a lock on the page before
+   * we came along.
+   */
+  protected Page lockPageWithFreeSpace(TransactionId tid, int pageNumber, Tuple t)
+      throws DbException, TransactionAbortedException {
+    PageId pageId = new HeapPageId(getId(), pageNumber);
+    BufferPool bufferPool = Database.getBufferPool();
+    boolean alreadyLocked = bufferPool.holdsLock(tid, pageId);
+    Page page = bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+    if (hasRoomFor(page, t)) {
+      return page;
+    }
+    freeSpaceMap.update(pageNumber, 0);
+    if (!alreadyLocked) {
+      bufferPool.releasePage(tid, pageId);
+    }
+    return null;
+  }
+
+  /**
+   * Inserts the tuple into the specified page, which must be locked for
+   * writing and have room for it, and updates the free space map.
+   */
+  protected void insertTuple(Page page, Tuple t) throws DbException {
+    addTuple(page, t);
+    freeSpaceMap.update(page.getId().pageNumber(), getFreeSlots(page));
+  }
+
+  /**
+   * Records the free space of the specified page in the free space map. Used
+   * by the buffer pool when it puts back the before-image of a page that an
+   * aborted transaction modified, so that room given back by the abort is
+   * used again.
+   */
+  public void updateFreeSpace(Page page) {
+    freeSpaceMap.update(page.getId().pageNumber(), getFreeSlots(page));
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+      TransactionAbortedException {
+    PageId pageId = t.getRecordId().getPageId();
+    if (pageId == null || pageId.getTableId() != getId()) {
+      throw new DbException("File cannot delete tuple that it does not contain.");
+    }
+    Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+    removeTuple(page, t);
+    freeSpaceMap.update(pageId.pageNumber(), getFreeSlots(page));
+    return page;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public DbFileIterator iterator(TransactionId tid) {
+    return iterator(tid, null, null);
+  }
+
+  /**
+   * Returns an iterator over the tuples of this file that satisfy all of the
+   * specified predicates, reading only the specified fields. Both are handed
+   * to {@link #iterator(Page, boolean[], List)} for every page.
+   *
+   * @param tid the transaction the iterator runs as a part of
+   * @param fields for every field of the table, whether the returned tuples
+   *          should contain it, or null to return whole tuples. Fields that are
+   *          not returned are null.
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  protected DbFileIterator iterator(final TransactionId tid, final boolean[] fields,
+      final List<Predicate> predicates) {
+    final int tableId = getId();
+    final int numberOfPagesAtStart = numberOfPages.get();
+    return new AbstractDbFileIterator() {
+      // not open until open() is called
+      private int currentPageNumber = numberOfPagesAtStart;
+      private Iterator<Tuple> currentPageIterator = null;
+
+      @Override
+      public void open() throws DbException, TransactionAbortedException {
+        currentPageNumber = -1;
+        currentPageIterator = null;
+      }
+
+      @Override
+      public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+      }
+
+      @Override
+      public void close() {
+        super.close();
+        currentPageNumber = numberOfPagesAtStart;
+        currentPageIterator = null;
+      }
+
+      @Override
+      protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (currentPageIterator == null || !currentPageIterator.hasNext()) {
+          if (currentPageNumber + 1 >= numberOfPagesAtStart) {
+            return null;
+          }
+          currentPageNumber++;
+          PageId pageId = new HeapPageId(tableId, currentPageNumber);
+          Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+          currentPageIterator = iterator(page, fields, predicates);
+        }
+        return currentPageIterator.next();
+      }
+    };
+  }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
@@ -106,12 +107,21 @@ public class Aggregate extends Operator {
   public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
     this.open = true;
     super.open();
+    TupleDesc tupleDesc = getTupleDesc();
+    if (!isGrouping && aggregateOperator == Aggregator.Op.COUNT && child instanceof BitmapScan) {
+      // the bitmaps know how many tuples satisfy the condition without the
+      // tuples being read
+      Tuple count = new Tuple(tupleDesc);
+      count.setField(0, new IntField(((BitmapScan) child).count()));
+      aggregateResultsIterator = new TupleIterator(tupleDesc, Arrays.asList(count));
+      aggregateResultsIterator.open();
+      return;
+    }
     child.open();
     while (child.hasNext()) {
       aggregator.mergeTupleIntoGroup(child.next());
     }
     child.close();
-    TupleDesc tupleDesc = getTupleDesc();
     aggregateResultsIterator = new TupleIterator(tupleDesc, aggregator.getTuples(tupleDesc));
     aggregateResultsIterator.open();
   }
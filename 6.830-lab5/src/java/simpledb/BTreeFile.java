@@ -0,0 +1,573 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BTreeFile is a B+tree index on an integer field of a table stored in a
+ * HeapFile. It holds one entry per tuple of the table, made of the value of
+ * the field and the record id of the tuple, and can return the tuples whose
+ * field satisfies a comparison with a constant without scanning the table.
+ * The format of the pages is described in BTreePage.
+ * <p>
+ * The pages of the index go through the buffer pool like the pages of any
+ * other file, so they are locked and logged the same way, and the buffer pool
+ * keeps the index up to date, see {@link IndexFile}. Pages are split when
+ * they fill up, but they are not merged when they empty: deleting leaves
+ * underfull leaves behind, which scans simply step over.
+ * <p>
+ * As a DbFile, a BTreeFile has the TupleDesc of its table, and its iterator
+ * returns the tuples of the table in the order of the indexed field.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+  private static final int META_PAGE_NUMBER = 0;
+
+  private final File backingFile;
+  private final FileChannel channel;
+  private final int tableId;
+  private final TupleDesc tupleDesc;
+  private final int keyField;
+  private final int pageSize;
+  private final AtomicInteger numberOfPages;
+
+  /**
+   * Opens the index stored in the specified file, with pages of the default
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @see BufferPool#getPageSize()
+   */
+  public BTreeFile(File f, HeapFile table, int keyField) {
+    this(f, table, keyField, BufferPool.getPageSize());
+  }
+
+  /**
+   * Opens the index stored in the specified file, with pages of the specified
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @param pageSize the size of the pages of the index in bytes
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public BTreeFile(File f, HeapFile table, int keyField, int pageSize) {
+    if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + keyField + " is not an integer field.");
+    }
+    if (BTreePage.getMaxEntries(pageSize, BTreePage.INTERNAL) < 2) {
+      throw new IllegalArgumentException("Pages of " + pageSize + " bytes are too small.");
+    }
+    this.backingFile = f;
+    this.tableId = table.getId();
+    this.tupleDesc = table.getTupleDesc();
+    this.keyField = keyField;
+    this.pageSize = pageSize;
+    try {
+      this.channel = new RandomAccessFile(f, "rw").getChannel();
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    this.numberOfPages = new AtomicInteger((int) (backingFile.length() / pageSize));
+    if (numberOfPages.get() == 0) {
+      BTreePage meta = new BTreePage(new HeapPageId(getId(), META_PAGE_NUMBER),
+          BTreePage.createEmptyPageData(pageSize, BTreePage.META));
+      meta.setRootPageNumber(1);
+      writePageData(META_PAGE_NUMBER, meta.getPageData());
+      writePageData(1, BTreePage.createEmptyPageData(pageSize, BTreePage.LEAF));
+      numberOfPages.set(2);
+    }
+  }
+
+  /**
+   * Returns the File backing this BTreeFile on disk.
+   */
+  public File getFile() {
+    return backingFile;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getTableId() {
+    return tableId;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getKeyField() {
+    return keyField;
+  }
+
+  /**
+   * Supports every comparison but LIKE and NOT_EQUALS.
+   */
+  @Override
+  public boolean supports(Predicate.Op op) {
+    return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+        || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+        || op == Predicate.Op.GREATER_THAN_OR_EQ;
+  }
+
+  /**
+   * Returns an ID uniquely identifying this BTreeFile, the hash code of the
+   * absolute name of its file, like HeapFile.
+   */
+  @Override
+  public int getId() {
+    return backingFile.getAbsoluteFile().hashCode();
+  }
+
+  /**
+   * Returns the indexed table.
+   */
+  private TupleFile getTable() {
+    return (TupleFile) Database.getCatalog().getDatabaseFile(tableId);
+  }
+
+  /**
+   * Returns the TupleDesc of the indexed table.
+   */
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the number of pages in this BTreeFile, including the meta page.
+   */
+  public int numPages() {
+    return numberOfPages.get();
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Page readPage(PageId pid) {
+    if (pid.pageNumber() >= numberOfPages.get()) {
+      throw new IllegalArgumentException("Page " + pid.pageNumber() + " is not in the index.");
+    }
+    return readPages(pid.pageNumber(), 1).get(0);
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public List<Page> readPages(int startPageNumber, int count) {
+    byte[][] images = AbstractHeapFile.readPageImages(channel, pageSize, startPageNumber, count);
+    List<Page> pages = new ArrayList<Page>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(new BTreePage(new HeapPageId(getId(), startPageNumber + i), images[i]));
+    }
+    return pages;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public void writePage(Page page) throws IOException {
+    int pageNumber = page.getId().pageNumber();
+    writePageData(pageNumber, page.getPageData());
+    int current = numberOfPages.get();
+    while (current <= pageNumber && !numberOfPages.compareAndSet(current, pageNumber + 1)) {
+      current = numberOfPages.get();
+    }
+  }
+
+  private void writePageData(int pageNumber, byte[] pageData) {
+    long offset = (long) pageSize * pageNumber;
+    try {
+      ByteBuffer writeData = ByteBuffer.wrap(pageData);
+      while (writeData.hasRemaining()) {
+        channel.write(writeData, offset + writeData.position());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private BTreePage getPage(TransactionId tid, int pageNumber, Permissions perm)
+      throws DbException, TransactionAbortedException {
+    return (BTreePage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNumber),
+        perm);
+  }
+
+  /**
+   * Appends an empty page of the specified kind to the file and returns it,
+   * locked for writing. Like new HeapFile pages, the empty page is written
+   * straight to disk so that the buffer pool can read it.
+   */
+  private BTreePage allocatePage(TransactionId tid, byte kind) throws DbException,
+      TransactionAbortedException {
+    int pageNumber = numberOfPages.getAndIncrement();
+    writePageData(pageNumber, BTreePage.createEmptyPageData(pageSize, kind));
+    return getPage(tid, pageNumber, Permissions.READ_WRITE);
+  }
+
+  /**
+   * Returns the leaf that holds or would hold the specified entry, locked with
+   * the specified permissions. The internal pages on the way are locked for
+   * reading, and their numbers are added to path, from the root down, unless
+   * path is null.
+   */
+  private BTreePage findLeaf(TransactionId tid, int key, int pageNumber, int tupleNumber,
+      List<Integer> path, Permissions perm) throws DbException, TransactionAbortedException {
+    BTreePage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    int currentPageNumber = meta.getRootPageNumber();
+    while (true) {
+      BTreePage page = getPage(tid, currentPageNumber, Permissions.READ_ONLY);
+      if (page.isLeaf()) {
+        if (perm == Permissions.READ_WRITE) {
+          page = getPage(tid, currentPageNumber, perm);
+        }
+        return page;
+      }
+      if (path != null) {
+        path.add(Integer.valueOf(currentPageNumber));
+      }
+      currentPageNumber = page.findChild(key, pageNumber, tupleNumber);
+    }
+  }
+
+  private int getKey(Tuple t) {
+    return ((IntField) t.getField(keyField)).getValue();
+  }
+
+  private static void markDirty(TransactionId tid, BTreePage page, List<Page> dirtiedPages) {
+    page.markDirty(true, tid);
+    if (!dirtiedPages.contains(page)) {
+      dirtiedPages.add(page);
+    }
+  }
+
+  /**
+   * Adds an entry for the specified tuple, which must already be stored in the
+   * indexed table, to this index. Full pages on the way are split, up to the
+   * root.
+   *
+   * @throws DbException if the tuple is already in the index
+   */
+  @Override
+  public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
+      TransactionAbortedException {
+    int key = getKey(t);
+    int pageNumber = t.getRecordId().getPageId().pageNumber();
+    int tupleNumber = t.getRecordId().tupleno();
+    List<Integer> path = new ArrayList<Integer>();
+    BTreePage leaf = findLeaf(tid, key, pageNumber, tupleNumber, path, Permissions.READ_WRITE);
+    if (leaf.entryEquals(leaf.findEntry(key, pageNumber, tupleNumber), key, pageNumber,
+        tupleNumber)) {
+      throw new DbException("Tuple is already in the index.");
+    }
+    ArrayList<Page> dirtiedPages = new ArrayList<Page>();
+    insertEntry(tid, path, leaf, key, pageNumber, tupleNumber, -1, dirtiedPages);
+    return dirtiedPages;
+  }
+
+  /**
+   * Inserts an entry into the specified page, with the specified child to its
+   * right if the page is internal. If the page is full, it is split and the
+   * separator between the two halves is inserted into its parent, the last
+   * page of path, or into a new root if path is empty.
+   */
+  private void insertEntry(TransactionId tid, List<Integer> path, BTreePage page, int key,
+      int pageNumber, int tupleNumber, int rightChild, List<Page> dirtiedPages)
+      throws DbException, TransactionAbortedException {
+    if (page.getNumEntries() < page.getMaxEntries()) {
+      page.insertEntry(page.findEntry(key, pageNumber, tupleNumber), key, pageNumber, tupleNumber,
+          rightChild);
+      markDirty(tid, page, dirtiedPages);
+      return;
+    }
+    BTreePage sibling = allocatePage(tid, page.isLeaf() ? BTreePage.LEAF : BTreePage.INTERNAL);
+    int siblingNumber = sibling.getId().pageNumber();
+    int[] separator = page.splitInto(sibling);
+    if (page.isLeaf()) {
+      sibling.setNextLeaf(page.getNextLeaf());
+      page.setNextLeaf(siblingNumber);
+    }
+    BTreePage target = BTreePage.compare(key, pageNumber, tupleNumber, separator[0],
+        separator[1], separator[2]) < 0 ? page : sibling;
+    target.insertEntry(target.findEntry(key, pageNumber, tupleNumber), key, pageNumber,
+        tupleNumber, rightChild);
+    markDirty(tid, page, dirtiedPages);
+    markDirty(tid, sibling, dirtiedPages);
+
+    if (path.isEmpty()) {
+      BTreePage root = allocatePage(tid, BTreePage.INTERNAL);
+      root.setFirstChild(page.getId().pageNumber());
+      root.insertEntry(0, separator[0], separator[1], separator[2], siblingNumber);
+      markDirty(tid, root, dirtiedPages);
+      BTreePage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_WRITE);
+      meta.setRootPageNumber(root.getId().pageNumber());
+      markDirty(tid, meta, dirtiedPages);
+      return;
+    }
+    int parentNumber = path.remove(path.size() - 1).intValue();
+    BTreePage parent = getPage(tid, parentNumber, Permissions.READ_WRITE);
+    insertEntry(tid, path, parent, separator[0], separator[1], separator[2], siblingNumber,
+        dirtiedPages);
+  }
+
+  /**
+   * Removes the entry of the specified tuple from this index. The tuple must
+   * still have its record id.
+   *
+   * @return the leaf the entry was removed from
+   * @throws DbException if the tuple is not in the index
+   */
+  @Override
+  public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+      TransactionAbortedException {
+    int key = getKey(t);
+    int pageNumber = t.getRecordId().getPageId().pageNumber();
+    int tupleNumber = t.getRecordId().tupleno();
+    BTreePage leaf = findLeaf(tid, key, pageNumber, tupleNumber, null, Permissions.READ_WRITE);
+    int index = leaf.findEntry(key, pageNumber, tupleNumber);
+    if (!leaf.entryEquals(index, key, pageNumber, tupleNumber)) {
+      throw new DbException("Tuple is not in the index.");
+    }
+    leaf.deleteEntry(index);
+    leaf.markDirty(true, tid);
+    return leaf;
+  }
+
+  /**
+   * Returns an iterator over all the tuples of the indexed table, in the order
+   * of the indexed field.
+   */
+  @Override
+  public DbFileIterator iterator(TransactionId tid) {
+    return new IndexIterator(tid, null, 0);
+  }
+
+  /**
+   * Returns an iterator over the tuples of the indexed table whose indexed
+   * field compares to the specified value with the specified operator, in the
+   * order of the indexed field. Only the leaves that hold such tuples are
+   * read, along with the pages of the table that hold them.
+   *
+   * @throws IllegalArgumentException if the operator is not supported
+   * @see #supports
+   */
+  @Override
+  public DbFileIterator iterator(TransactionId tid, Predicate.Op op, int value) {
+    if (!supports(op)) {
+      throw new IllegalArgumentException("B+tree indexes cannot answer " + op + " predicates.");
+    }
+    return new IndexIterator(tid, op, value);
+  }
+
+  /**
+   * Walks the leaves from the first entry that can satisfy the predicate until
+   * the first entry past the last one that can, fetching the tuples of the
+   * entries that do from the table a leaf at a time with
+   * {@link BufferPool#getTuples}.
+   */
+  private class IndexIterator extends AbstractDbFileIterator {
+    private final TransactionId tid;
+    private final Predicate.Op op;
+    private final int value;
+    private BTreePage leaf;
+    private int index;
+    private Iterator<Tuple> leafTuples;
+
+    IndexIterator(TransactionId tid, Predicate.Op op, int value) {
+      this.tid = tid;
+      this.op = op;
+      this.value = value;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+      if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+        leaf = findLeaf(tid, value, Integer.MIN_VALUE, Integer.MIN_VALUE, null,
+            Permissions.READ_ONLY);
+        index = leaf.findEntry(value, Integer.MIN_VALUE, Integer.MIN_VALUE);
+      } else if (op == Predicate.Op.GREATER_THAN) {
+        leaf = findLeaf(tid, value, Integer.MAX_VALUE, Integer.MAX_VALUE, null,
+            Permissions.READ_ONLY);
+        index = leaf.findEntry(value, Integer.MAX_VALUE, Integer.MAX_VALUE);
+      } else {
+        leaf = findLeaf(tid, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, null,
+            Permissions.READ_ONLY);
+        index = 0;
+      }
+    }
+
+    /**
+     * Fetches the tuples of the matching entries from the current entry to the
+     * end of the leaf, and moves on to the next leaf, or past the last leaf if
+     * no later entry can match.
+     */
+    private Iterator<Tuple> readLeaf() throws DbException, TransactionAbortedException {
+      List<RecordId> recordIds = new ArrayList<RecordId>();
+      boolean pastLastMatch = false;
+      for (; index < leaf.getNumEntries(); index++) {
+        if (op != null && !IntField.compare(leaf.getKey(index), op, value)) {
+          if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+              || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            pastLastMatch = true;
+            break;
+          }
+          continue;
+        }
+        recordIds.add(new RecordId(new HeapPageId(tableId, leaf.getRecordPageNumber(index)),
+            leaf.getRecordTupleNumber(index)));
+      }
+      int nextLeaf = leaf.getNextLeaf();
+      leaf = pastLastMatch || nextLeaf == -1 ? null : getPage(tid, nextLeaf,
+          Permissions.READ_ONLY);
+      index = 0;
+      return Database.getBufferPool().getTuples(tid, getTable(), recordIds,
+          Permissions.READ_ONLY).iterator();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+      while (true) {
+        while (leafTuples != null && leafTuples.hasNext()) {
+          Tuple t = leafTuples.next();
+          if (t != null) {
+            return t;
+          }
+        }
+        if (leaf == null) {
+          return null;
+        }
+        leafTuples = readLeaf();
+      }
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+      close();
+      open();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      leaf = null;
+      leafTuples = null;
+    }
+  }
+
+  /**
+   * Fills this index, which must be empty, with the entries of every tuple of
+   * its table. The entries are sorted in memory and the tree is written
+   * straight to the file from the leaves up, bypassing the buffer pool and the
+   * log, so this must not run while other transactions use the table or the
+   * index. Leaves are filled completely.
+   *
+   * @throws IllegalStateException if the index is not empty
+   */
+  @Override
+  public void build() throws DbException, TransactionAbortedException, IOException {
+    BTreePage root = (BTreePage) readPage(new HeapPageId(getId(), 1));
+    if (numberOfPages.get() != 2 || root.getNumEntries() != 0) {
+      throw new IllegalStateException("Only empty indexes can be built.");
+    }
+    Database.getBufferPool().discardPage(new HeapPageId(getId(), META_PAGE_NUMBER));
+    Database.getBufferPool().discardPage(root.getId());
+    // a scan returns the tuples in record id order, so a stable sort on the
+    // key puts the entries in index order
+    int[] pageNumbers = new int[1024];
+    int[] tupleNumbers = new int[1024];
+    long[] order = new long[1024];
+    int numEntries = 0;
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (numEntries == order.length) {
+        pageNumbers = Arrays.copyOf(pageNumbers, numEntries * 2);
+        tupleNumbers = Arrays.copyOf(tupleNumbers, numEntries * 2);
+        order = Arrays.copyOf(order, numEntries * 2);
+      }
+      pageNumbers[numEntries] = t.getRecordId().getPageId().pageNumber();
+      tupleNumbers[numEntries] = t.getRecordId().tupleno();
+      order[numEntries] = ((long) getKey(t) << 32) | numEntries;
+      numEntries++;
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Arrays.sort(order, 0, numEntries);
+
+    // each level lists its pages with the smallest entry below each of them
+    int maxLeafEntries = BTreePage.getMaxEntries(pageSize, BTreePage.LEAF);
+    int numLeaves = Math.max(1, (numEntries + maxLeafEntries - 1) / maxLeafEntries);
+    int[] levelPages = new int[numLeaves];
+    int[][] levelFirstEntries = new int[numLeaves][];
+    int nextPageNumber = 1;
+    for (int leafIndex = 0; leafIndex < numLeaves; leafIndex++) {
+      int pageNumber = nextPageNumber++;
+      BTreePage leaf = new BTreePage(new HeapPageId(getId(), pageNumber),
+          BTreePage.createEmptyPageData(pageSize, BTreePage.LEAF));
+      int start = leafIndex * maxLeafEntries;
+      int end = Math.min(numEntries, start + maxLeafEntries);
+      for (int i = start; i < end; i++) {
+        int entry = (int) order[i];
+        leaf.insertEntry(i - start, (int) (order[i] >> 32), pageNumbers[entry],
+            tupleNumbers[entry]);
+      }
+      leaf.setNextLeaf(leafIndex == numLeaves - 1 ? -1 : pageNumber + 1);
+      writePageData(pageNumber, leaf.getPageData());
+      levelPages[leafIndex] = pageNumber;
+      if (start < end) {
+        int entry = (int) order[start];
+        levelFirstEntries[leafIndex] = new int[] { (int) (order[start] >> 32),
+            pageNumbers[entry], tupleNumbers[entry] };
+      }
+    }
+
+    int maxChildren = BTreePage.getMaxEntries(pageSize, BTreePage.INTERNAL) + 1;
+    while (levelPages.length > 1) {
+      int numParents = (levelPages.length + maxChildren - 1) / maxChildren;
+      int[] parentPages = new int[numParents];
+      int[][] parentFirstEntries = new int[numParents][];
+      for (int parentIndex = 0; parentIndex < numParents; parentIndex++) {
+        int pageNumber = nextPageNumber++;
+        BTreePage parent = new BTreePage(new HeapPageId(getId(), pageNumber),
+            BTreePage.createEmptyPageData(pageSize, BTreePage.INTERNAL));
+        int start = parentIndex * maxChildren;
+        int end = Math.min(levelPages.length, start + maxChildren);
+        parent.setFirstChild(levelPages[start]);
+        for (int i = start + 1; i < end; i++) {
+          int[] separator = levelFirstEntries[i];
+          parent.insertEntry(i - start - 1, separator[0], separator[1], separator[2],
+              levelPages[i]);
+        }
+        writePageData(pageNumber, parent.getPageData());
+        parentPages[parentIndex] = pageNumber;
+        parentFirstEntries[parentIndex] = levelFirstEntries[start];
+      }
+      levelPages = parentPages;
+      levelFirstEntries = parentFirstEntries;
+    }
+
+    BTreePage meta = new BTreePage(new HeapPageId(getId(), META_PAGE_NUMBER),
+        BTreePage.createEmptyPageData(pageSize, BTreePage.META));
+    meta.setRootPageNumber(levelPages[0]);
+    writePageData(META_PAGE_NUMBER, meta.getPageData());
+    numberOfPages.set(nextPageNumber);
+  }
+}
@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of BTreePage stores one page of a BTreeFile. There are three
+ * kinds of pages:
+ * <ul>
+ * <li>the meta page, always page 0 of the file, which holds the number of the
+ * root page;</li>
+ * <li>leaf pages, which hold index entries in sorted order and the number of
+ * the next leaf, or -1 for the last leaf;</li>
+ * <li>internal pages, which hold n + 1 child page numbers separated by n
+ * entries. Child i holds the entries that are at least separator i - 1 and
+ * less than separator i.</li>
+ * </ul>
+ * An entry is a key with the record id of the tuple it belongs to, stored as
+ * three integers: the key, the page number and the tuple number. Entries are
+ * ordered by key, then by record id, so that every entry is unique even when
+ * keys are not.
+ * <p>
+ * The page image starts with a nine byte header: the kind of page in one
+ * byte, the number of entries, and the next leaf or root page number. Leaf
+ * entries follow the header. Internal pages store their first child after
+ * the header and every separator followed by the child to its right.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+  /** Kind of the meta page. */
+  static final byte META = 1;
+  /** Kind of pages that hold index entries. */
+  static final byte LEAF = 2;
+  /** Kind of pages that hold separators and child page numbers. */
+  static final byte INTERNAL = 3;
+
+  private static final int HEADER_SIZE = 9;
+  private static final int ENTRY_SIZE = 12;
+  private static final int CHILD_SIZE = 4;
+  private static final int INTERNAL_ENTRY_SIZE = ENTRY_SIZE + CHILD_SIZE;
+
+  private final PageId pageId;
+  private final byte[] pageData;
+  private final ByteBuffer buffer;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a BTreePage from a set of bytes of data read from disk. The page
+   * works on a private copy of the data.
+   */
+  public BTreePage(PageId id, byte[] data) {
+    this.pageId = id;
+    this.pageData = data.clone();
+    this.buffer = ByteBuffer.wrap(pageData);
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty page of the specified
+   * kind. Leaves have no next leaf, and the meta page has no root.
+   */
+  static byte[] createEmptyPageData(int pageSize, byte kind) {
+    ByteBuffer data = ByteBuffer.allocate(pageSize);
+    data.put(kind);
+    data.putInt(0);
+    data.putInt(-1);
+    return data.array();
+  }
+
+  /**
+   * Returns the largest number of entries that a page of the specified size
+   * and kind can hold.
+   */
+  static int getMaxEntries(int pageSize, byte kind) {
+    if (kind == LEAF) {
+      return (pageSize - HEADER_SIZE) / ENTRY_SIZE;
+    }
+    return (pageSize - HEADER_SIZE - CHILD_SIZE) / INTERNAL_ENTRY_SIZE;
+  }
+
+  /**
+   * Compares two entries in index order.
+   */
+  static int compare(int key, int pageNumber, int tupleNumber, int otherKey,
+      int otherPageNumber, int otherTupleNumber) {
+    if (key != otherKey) {
+      return key < otherKey ? -1 : 1;
+    }
+    if (pageNumber != otherPageNumber) {
+      return pageNumber < otherPageNumber ? -1 : 1;
+    }
+    if (tupleNumber != otherTupleNumber) {
+      return tupleNumber < otherTupleNumber ? -1 : 1;
+    }
+    return 0;
+  }
+
+  public boolean isLeaf() {
+    return pageData[0] == LEAF;
+  }
+
+  public int getNumEntries() {
+    return buffer.getInt(1);
+  }
+
+  private void setNumEntries(int numEntries) {
+    buffer.putInt(1, numEntries);
+  }
+
+  /**
+   * Returns the largest number of entries this page can hold.
+   */
+  public int getMaxEntries() {
+    return getMaxEntries(pageData.length, pageData[0]);
+  }
+
+  /**
+   * Returns the number of the leaf after this one, or -1 if this is the last
+   * leaf.
+   */
+  public int getNextLeaf() {
+    return buffer.getInt(5);
+  }
+
+  void setNextLeaf(int pageNumber) {
+    captureBeforeImage();
+    buffer.putInt(5, pageNumber);
+  }
+
+  /**
+   * Returns the number of the root page, if this is the meta page.
+   */
+  public int getRootPageNumber() {
+    return buffer.getInt(5);
+  }
+
+  void setRootPageNumber(int pageNumber) {
+    captureBeforeImage();
+    buffer.putInt(5, pageNumber);
+  }
+
+  private int getEntryOffset(int index) {
+    if (isLeaf()) {
+      return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+    return HEADER_SIZE + CHILD_SIZE + index * INTERNAL_ENTRY_SIZE;
+  }
+
+  /** Returns the key of the specified entry. */
+  public int getKey(int index) {
+    return buffer.getInt(getEntryOffset(index));
+  }
+
+  /** Returns the page number of the record id of the specified entry. */
+  public int getRecordPageNumber(int index) {
+    return buffer.getInt(getEntryOffset(index) + 4);
+  }
+
+  /** Returns the tuple number of the record id of the specified entry. */
+  public int getRecordTupleNumber(int index) {
+    return buffer.getInt(getEntryOffset(index) + 8);
+  }
+
+  /**
+   * Returns the page number of the specified child of this internal page,
+   * from 0 to getNumEntries().
+   */
+  public int getChild(int index) {
+    if (index == 0) {
+      return buffer.getInt(HEADER_SIZE);
+    }
+    return buffer.getInt(getEntryOffset(index - 1) + ENTRY_SIZE);
+  }
+
+  void setFirstChild(int pageNumber) {
+    captureBeforeImage();
+    buffer.putInt(HEADER_SIZE, pageNumber);
+  }
+
+  /**
+   * Compares the specified entry of this page to the specified entry.
+   */
+  private int compareEntry(int index, int key, int pageNumber, int tupleNumber) {
+    return compare(getKey(index), getRecordPageNumber(index), getRecordTupleNumber(index), key,
+        pageNumber, tupleNumber);
+  }
+
+  /**
+   * Returns the index of the first entry of this page that is not less than
+   * the specified entry, or getNumEntries() if there is none. On internal
+   * pages this is also the index of the child that covers the entry, unless
+   * the entry equals the separator found.
+   */
+  public int findEntry(int key, int pageNumber, int tupleNumber) {
+    int low = 0;
+    int high = getNumEntries();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareEntry(middle, key, pageNumber, tupleNumber) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns true if the specified entry of this page equals the specified
+   * entry.
+   */
+  public boolean entryEquals(int index, int key, int pageNumber, int tupleNumber) {
+    return index < getNumEntries() && compareEntry(index, key, pageNumber, tupleNumber) == 0;
+  }
+
+  /**
+   * Returns the number of the child of this internal page that covers the
+   * specified entry.
+   */
+  public int findChild(int key, int pageNumber, int tupleNumber) {
+    int index = findEntry(key, pageNumber, tupleNumber);
+    if (entryEquals(index, key, pageNumber, tupleNumber)) {
+      index++;
+    }
+    return getChild(index);
+  }
+
+  /**
+   * Inserts an entry into this leaf page at the specified index.
+   *
+   * @throws DbException if the page is full
+   */
+  void insertEntry(int index, int key, int pageNumber, int tupleNumber) throws DbException {
+    insertEntry(index, key, pageNumber, tupleNumber, -1);
+  }
+
+  /**
+   * Inserts a separator into this internal page at the specified index, with
+   * the specified child to its right, or an entry into this leaf page if
+   * rightChild is -1.
+   *
+   * @throws DbException if the page is full
+   */
+  void insertEntry(int index, int key, int pageNumber, int tupleNumber, int rightChild)
+      throws DbException {
+    int numEntries = getNumEntries();
+    if (numEntries >= getMaxEntries()) {
+      throw new DbException("No room on B+tree page for another entry.");
+    }
+    captureBeforeImage();
+    int offset = getEntryOffset(index);
+    System.arraycopy(pageData, offset, pageData, getEntryOffset(index + 1), getEntryOffset(
+        numEntries) - offset);
+    buffer.putInt(offset, key);
+    buffer.putInt(offset + 4, pageNumber);
+    buffer.putInt(offset + 8, tupleNumber);
+    if (!isLeaf()) {
+      buffer.putInt(offset + ENTRY_SIZE, rightChild);
+    }
+    setNumEntries(numEntries + 1);
+  }
+
+  /**
+   * Removes the specified entry from this leaf page.
+   */
+  void deleteEntry(int index) {
+    int numEntries = getNumEntries();
+    captureBeforeImage();
+    int offset = getEntryOffset(index);
+    int end = getEntryOffset(numEntries);
+    System.arraycopy(pageData, getEntryOffset(index + 1), pageData, offset, end
+        - getEntryOffset(index + 1));
+    for (int i = end - ENTRY_SIZE; i < end; i++) {
+      pageData[i] = 0;
+    }
+    setNumEntries(numEntries - 1);
+  }
+
+  /**
+   * Moves the upper half of the entries of this page to the specified empty
+   * page of the same kind and returns the entry that separates the two pages
+   * in their parent as { key, page number, tuple number }. On internal pages
+   * the separator moves up to the parent, so it is removed from this page
+   * and the child to its right becomes the first child of the sibling. Leaf
+   * pointers are left alone.
+   */
+  int[] splitInto(BTreePage sibling) {
+    int numEntries = getNumEntries();
+    int middle = numEntries / 2;
+    int[] separator = new int[] { getKey(middle), getRecordPageNumber(middle),
+        getRecordTupleNumber(middle) };
+    captureBeforeImage();
+    sibling.captureBeforeImage();
+    int end = getEntryOffset(numEntries);
+    int moved;
+    if (isLeaf()) {
+      moved = numEntries - middle;
+      System.arraycopy(pageData, getEntryOffset(middle), sibling.pageData, sibling
+          .getEntryOffset(0), end - getEntryOffset(middle));
+    } else {
+      moved = numEntries - middle - 1;
+      sibling.buffer.putInt(HEADER_SIZE, getChild(middle + 1));
+      System.arraycopy(pageData, getEntryOffset(middle + 1), sibling.pageData, sibling
+          .getEntryOffset(0), end - getEntryOffset(middle + 1));
+    }
+    for (int i = getEntryOffset(middle); i < end; i++) {
+      pageData[i] = 0;
+    }
+    setNumEntries(middle);
+    sibling.setNumEntries(moved);
+    return separator;
+  }
+
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public BTreePage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new BTreePage(pageId, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
@@ -0,0 +1,530 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BitmapIndexFile is a bitmap index on an integer field of a table stored in a
+ * HeapFile, for fields with few distinct values such as status or type codes.
+ * It keeps a compressed bitmap per distinct value, with a bit for the position
+ * of every tuple that has the value: the number of its page times the number
+ * of tuple slots per page of the table, plus its tuple number. The format of
+ * the bitmaps is described in BitmapIndexPage.
+ * <p>
+ * Any comparison but LIKE is answered by ORing the bitmaps of the values that
+ * satisfy it, and BitmapScan combines the bitmaps of several predicates with
+ * AND and OR before reading a single tuple, or instead of reading any when
+ * only their number is needed. The meta page, which lists the values, has room
+ * for a few hundred of them; inserting a tuple with a value beyond that fails.
+ * <p>
+ * Like BTreeFile, the pages go through the buffer pool and the buffer pool
+ * keeps the index up to date, see {@link IndexFile}. Bitmap pages that empty
+ * stay in their chain.
+ *
+ * @see BitmapIndexPage
+ * @see BitmapScan
+ */
+public class BitmapIndexFile implements IndexFile {
+
+  private static final int META_PAGE_NUMBER = 0;
+
+  private final File backingFile;
+  private final FileChannel channel;
+  private final int tableId;
+  private final TupleDesc tupleDesc;
+  private final int keyField;
+  private final int pageSize;
+  private final int chunkSize;
+  private final int slotsPerPage;
+  private final AtomicInteger numberOfPages;
+
+  /**
+   * Opens the index stored in the specified file, with pages of the default
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @see BufferPool#getPageSize()
+   */
+  public BitmapIndexFile(File f, HeapFile table, int keyField) {
+    this(f, table, keyField, BufferPool.getPageSize());
+  }
+
+  /**
+   * Opens the index stored in the specified file, with pages of the specified
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @param pageSize the size of the pages of the index in bytes
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public BitmapIndexFile(File f, HeapFile table, int keyField, int pageSize) {
+    if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + keyField + " is not an integer field.");
+    }
+    if (BitmapIndexPage.getChunkSize(pageSize) < 64) {
+      throw new IllegalArgumentException("Pages of " + pageSize + " bytes are too small.");
+    }
+    this.backingFile = f;
+    this.tableId = table.getId();
+    this.tupleDesc = table.getTupleDesc();
+    this.keyField = keyField;
+    this.pageSize = pageSize;
+    this.chunkSize = BitmapIndexPage.getChunkSize(pageSize);
+    this.slotsPerPage = HeapPage.getNumTuples(tupleDesc, table.getPageSize());
+    try {
+      this.channel = new RandomAccessFile(f, "rw").getChannel();
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    this.numberOfPages = new AtomicInteger((int) (backingFile.length() / pageSize));
+    if (numberOfPages.get() == 0) {
+      writePageData(META_PAGE_NUMBER, BitmapIndexPage.createEmptyMetaPageData(pageSize));
+      numberOfPages.set(1);
+    }
+  }
+
+  /**
+   * Returns the File backing this BitmapIndexFile on disk.
+   */
+  public File getFile() {
+    return backingFile;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getTableId() {
+    return tableId;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getKeyField() {
+    return keyField;
+  }
+
+  /**
+   * Supports every comparison but LIKE.
+   */
+  @Override
+  public boolean supports(Predicate.Op op) {
+    return op != Predicate.Op.LIKE;
+  }
+
+  /**
+   * Returns an ID uniquely identifying this BitmapIndexFile, the hash code of
+   * the absolute name of its file, like HeapFile.
+   */
+  @Override
+  public int getId() {
+    return backingFile.getAbsoluteFile().hashCode();
+  }
+
+  /**
+   * Returns the TupleDesc of the indexed table.
+   */
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the number of pages in this BitmapIndexFile, including the meta
+   * page.
+   */
+  public int numPages() {
+    return numberOfPages.get();
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Page readPage(PageId pid) {
+    if (pid.pageNumber() >= numberOfPages.get()) {
+      throw new IllegalArgumentException("Page " + pid.pageNumber() + " is not in the index.");
+    }
+    return readPages(pid.pageNumber(), 1).get(0);
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public List<Page> readPages(int startPageNumber, int count) {
+    byte[][] images = AbstractHeapFile.readPageImages(channel, pageSize, startPageNumber, count);
+    List<Page> pages = new ArrayList<Page>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(new BitmapIndexPage(new HeapPageId(getId(), startPageNumber + i), images[i]));
+    }
+    return pages;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public void writePage(Page page) throws IOException {
+    int pageNumber = page.getId().pageNumber();
+    writePageData(pageNumber, page.getPageData());
+    int current = numberOfPages.get();
+    while (current <= pageNumber && !numberOfPages.compareAndSet(current, pageNumber + 1)) {
+      current = numberOfPages.get();
+    }
+  }
+
+  private void writePageData(int pageNumber, byte[] pageData) {
+    long offset = (long) pageSize * pageNumber;
+    try {
+      ByteBuffer writeData = ByteBuffer.wrap(pageData);
+      while (writeData.hasRemaining()) {
+        channel.write(writeData, offset + writeData.position());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private BitmapIndexPage getPage(TransactionId tid, int pageNumber, Permissions perm)
+      throws DbException, TransactionAbortedException {
+    return (BitmapIndexPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(getId(), pageNumber), perm);
+  }
+
+  /**
+   * Appends an empty bitmap page to the file and returns it, locked for
+   * writing. Like new HeapFile pages, the empty page is written straight to
+   * disk so that the buffer pool can read it.
+   */
+  private BitmapIndexPage allocatePage(TransactionId tid, int value, int chunk)
+      throws DbException, TransactionAbortedException {
+    int pageNumber = numberOfPages.getAndIncrement();
+    writePageData(pageNumber, BitmapIndexPage.createEmptyBitmapPageData(pageSize, value, chunk));
+    return getPage(tid, pageNumber, Permissions.READ_WRITE);
+  }
+
+  /**
+   * Returns the position of the specified tuple, which must have a record id.
+   */
+  private int getPosition(Tuple t) {
+    RecordId rid = t.getRecordId();
+    return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+  }
+
+  private int getKey(Tuple t) {
+    return ((IntField) t.getField(keyField)).getValue();
+  }
+
+  /**
+   * Returns the page of the bitmap of the specified value that covers the
+   * specified chunk, locked for writing, adding it to the chain or adding the
+   * value to the meta page if needed. The pages it allocates or links are
+   * added to the dirtied pages.
+   */
+  private BitmapIndexPage getChunkPage(TransactionId tid, int value, int chunk,
+      List<Page> dirtiedPages) throws DbException, TransactionAbortedException {
+    BitmapIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    int valueIndex = meta.findValue(value);
+    if (valueIndex == -1) {
+      meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_WRITE);
+      BitmapIndexPage page = allocatePage(tid, value, chunk);
+      meta.addValue(value, page.getId().pageNumber());
+      meta.markDirty(true, tid);
+      dirtiedPages.add(meta);
+      return page;
+    }
+    BitmapIndexPage previous = null;
+    int pageNumber = meta.getFirstPage(valueIndex);
+    while (pageNumber != -1) {
+      BitmapIndexPage page = getPage(tid, pageNumber, Permissions.READ_ONLY);
+      if (page.getChunk() == chunk) {
+        return getPage(tid, pageNumber, Permissions.READ_WRITE);
+      }
+      if (page.getChunk() > chunk) {
+        break;
+      }
+      previous = page;
+      pageNumber = page.getNextPage();
+    }
+    // the chunk has no page yet, it goes before the page of the next chunk
+    BitmapIndexPage page = allocatePage(tid, value, chunk);
+    page.setNextPage(pageNumber);
+    if (previous == null) {
+      meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_WRITE);
+      meta.setFirstPage(valueIndex, page.getId().pageNumber());
+      meta.markDirty(true, tid);
+      dirtiedPages.add(meta);
+    } else {
+      previous = getPage(tid, previous.getId().pageNumber(), Permissions.READ_WRITE);
+      previous.setNextPage(page.getId().pageNumber());
+      previous.markDirty(true, tid);
+      dirtiedPages.add(previous);
+    }
+    return page;
+  }
+
+  /**
+   * Sets the bit of the specified tuple, which must already be stored in the
+   * indexed table, in the bitmap of its value.
+   *
+   * @throws DbException if the tuple is already in the index, or if the field
+   *           has more distinct values than the index can hold
+   */
+  @Override
+  public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
+      TransactionAbortedException {
+    int position = getPosition(t);
+    ArrayList<Page> dirtiedPages = new ArrayList<Page>();
+    BitmapIndexPage page = getChunkPage(tid, getKey(t), position / chunkSize, dirtiedPages);
+    if (!page.add(position % chunkSize)) {
+      throw new DbException("Tuple is already in the index.");
+    }
+    page.markDirty(true, tid);
+    dirtiedPages.add(page);
+    return dirtiedPages;
+  }
+
+  /**
+   * Clears the bit of the specified tuple in the bitmap of its value. The tuple
+   * must still have its record id.
+   *
+   * @return the page the bit was cleared on
+   * @throws DbException if the tuple is not in the index
+   */
+  @Override
+  public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+      TransactionAbortedException {
+    int position = getPosition(t);
+    int chunk = position / chunkSize;
+    BitmapIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    int valueIndex = meta.findValue(getKey(t));
+    int pageNumber = valueIndex == -1 ? -1 : meta.getFirstPage(valueIndex);
+    while (pageNumber != -1) {
+      BitmapIndexPage page = getPage(tid, pageNumber, Permissions.READ_ONLY);
+      if (page.getChunk() == chunk) {
+        page = getPage(tid, pageNumber, Permissions.READ_WRITE);
+        if (!page.remove(position % chunkSize)) {
+          break;
+        }
+        page.markDirty(true, tid);
+        return page;
+      }
+      pageNumber = page.getNextPage();
+    }
+    throw new DbException("Tuple is not in the index.");
+  }
+
+  /**
+   * Returns the positions of the tuples whose indexed field compares to the
+   * specified value with the specified operator, the OR of the bitmaps of the
+   * values that do. Only the index is read.
+   *
+   * @throws IllegalArgumentException if the operator is not supported
+   */
+  public BitSet getPositions(TransactionId tid, Predicate.Op op, int value) throws DbException,
+      TransactionAbortedException {
+    if (!supports(op)) {
+      throw new IllegalArgumentException("Bitmap indexes cannot answer " + op + " predicates.");
+    }
+    BitmapIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    IntField operand = new IntField(value);
+    long[] words = new long[0];
+    for (int i = 0; i < meta.getNumValues(); i++) {
+      if (!new IntField(meta.getValue(i)).compare(op, operand)) {
+        continue;
+      }
+      int pageNumber = meta.getFirstPage(i);
+      while (pageNumber != -1) {
+        BitmapIndexPage page = getPage(tid, pageNumber, Permissions.READ_ONLY);
+        int neededWords = (page.getChunk() + 1) * (chunkSize / 64);
+        if (words.length < neededWords) {
+          words = Arrays.copyOf(words, neededWords);
+        }
+        page.orInto(words);
+        pageNumber = page.getNextPage();
+      }
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /**
+   * Returns an iterator over all the tuples of the indexed table, in the
+   * order of their positions.
+   */
+  @Override
+  public DbFileIterator iterator(final TransactionId tid) {
+    return new PositionIterator(tid, tableId, slotsPerPage) {
+      @Override
+      protected BitSet getPositions() throws DbException, TransactionAbortedException {
+        BitSet positions = new BitSet();
+        BitmapIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+        for (int i = 0; i < meta.getNumValues(); i++) {
+          positions.or(BitmapIndexFile.this.getPositions(tid, Predicate.Op.EQUALS,
+              meta.getValue(i)));
+        }
+        return positions;
+      }
+    };
+  }
+
+  /**
+   * Returns an iterator over the tuples of the indexed table whose indexed
+   * field compares to the specified value with the specified operator, in the
+   * order of their positions, which is the order of the table.
+   *
+   * @throws IllegalArgumentException if the operator is not supported
+   * @see #supports
+   */
+  @Override
+  public DbFileIterator iterator(final TransactionId tid, final Predicate.Op op, final int value) {
+    if (!supports(op)) {
+      throw new IllegalArgumentException("Bitmap indexes cannot answer " + op + " predicates.");
+    }
+    return new PositionIterator(tid, tableId, slotsPerPage) {
+      @Override
+      protected BitSet getPositions() throws DbException, TransactionAbortedException {
+        return BitmapIndexFile.this.getPositions(tid, op, value);
+      }
+    };
+  }
+
+  /**
+   * Returns the number of tuple slots per page of the indexed table, by which
+   * positions are numbered.
+   */
+  int getSlotsPerPage() {
+    return slotsPerPage;
+  }
+
+  /**
+   * Reads the tuples at a set of positions from the indexed table, page by
+   * page in increasing order. The positions are computed on open.
+   */
+  abstract static class PositionIterator extends AbstractDbFileIterator {
+    private final TransactionId tid;
+    private final int tableId;
+    private final int slotsPerPage;
+    private BitSet positions;
+    private int position;
+
+    PositionIterator(TransactionId tid, int tableId, int slotsPerPage) {
+      this.tid = tid;
+      this.tableId = tableId;
+      this.slotsPerPage = slotsPerPage;
+    }
+
+    /** Returns the positions of the tuples to read. */
+    protected abstract BitSet getPositions() throws DbException, TransactionAbortedException;
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+      positions = getPositions();
+      position = positions.nextSetBit(0);
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+      while (positions != null && position >= 0) {
+        PageId pageId = new HeapPageId(tableId, position / slotsPerPage);
+        int tupleNumber = position % slotsPerPage;
+        position = positions.nextSetBit(position + 1);
+        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId,
+            Permissions.READ_ONLY);
+        Tuple t = heapPage.getTuple(tupleNumber);
+        if (t != null) {
+          return t;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+      close();
+      open();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      positions = null;
+    }
+  }
+
+  /**
+   * Fills this index, which must be empty, with the bits of every tuple of its
+   * table. The positions of every value are collected in memory and the
+   * bitmaps are written straight to the file, bypassing the buffer pool and
+   * the log, so this must not run while other transactions use the table or
+   * the index.
+   *
+   * @throws IllegalStateException if the index is not empty
+   * @throws DbException if the field has more distinct values than the index
+   *           can hold
+   */
+  @Override
+  public void build() throws DbException, TransactionAbortedException, IOException {
+    BitmapIndexPage meta = (BitmapIndexPage) readPage(new HeapPageId(getId(), META_PAGE_NUMBER));
+    if (numberOfPages.get() != 1 || meta.getNumValues() != 0) {
+      throw new IllegalStateException("Only empty indexes can be built.");
+    }
+    Database.getBufferPool().discardPage(meta.getId());
+    long[] entries = new long[1024];
+    int numEntries = 0;
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (numEntries == entries.length) {
+        entries = Arrays.copyOf(entries, numEntries * 2);
+      }
+      // positions are not negative, so this sorts by value, then position
+      entries[numEntries++] = ((long) getKey(t) << 32) | getPosition(t);
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    Arrays.sort(entries, 0, numEntries);
+
+    int nextPageNumber = 1;
+    int start = 0;
+    while (start < numEntries) {
+      int value = (int) (entries[start] >> 32);
+      meta.addValue(value, nextPageNumber);
+      while (start < numEntries && (int) (entries[start] >> 32) == value) {
+        int chunk = (int) entries[start] / chunkSize;
+        int end = start;
+        while (end < numEntries && entries[end] >> 32 == value
+            && (int) entries[end] / chunkSize == chunk) {
+          end++;
+        }
+        int[] offsets = new int[end - start];
+        for (int i = start; i < end; i++) {
+          offsets[i - start] = (int) entries[i] % chunkSize;
+        }
+        BitmapIndexPage page = new BitmapIndexPage(new HeapPageId(getId(), nextPageNumber),
+            BitmapIndexPage.createEmptyBitmapPageData(pageSize, value, chunk));
+        page.setOffsets(offsets);
+        if (end < numEntries && entries[end] >> 32 == value) {
+          page.setNextPage(nextPageNumber + 1);
+        }
+        writePageData(nextPageNumber++, page.getPageData());
+        start = end;
+      }
+    }
+    writePageData(META_PAGE_NUMBER, meta.getPageData());
+    numberOfPages.set(nextPageNumber);
+  }
+}
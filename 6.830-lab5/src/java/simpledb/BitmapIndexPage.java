@@ -0,0 +1,471 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of BitmapIndexPage stores one page of a BitmapIndexFile. There
+ * are two kinds of pages:
+ * <ul>
+ * <li>the meta page, always page 0 of the file, which holds the distinct
+ * values of the indexed field, each with the number of the first page of its
+ * bitmap;</li>
+ * <li>bitmap pages, which hold the positions of the tuples with one value
+ * within one chunk of positions. The bitmap of a value is a chain of such
+ * pages in chunk order, and chunks without any tuple of the value have no
+ * page.</li>
+ * </ul>
+ * The position of a tuple is the number of its page times the number of tuple
+ * slots per page of the table, plus its tuple number, see BitmapIndexFile.
+ * <p>
+ * Like the containers of a roaring bitmap, a bitmap page stores its positions
+ * either as a sorted array of two byte offsets into the chunk, while there are
+ * few of them, or as a plain bitmap of the chunk once the array would take
+ * more room than the bitmap. The page switches between the two as positions
+ * are added and removed.
+ * <p>
+ * The page image starts with a seventeen byte header: the kind of page in one
+ * byte and four integers. The meta page stores the number of values in the
+ * first one and (value, page number) pairs after the header. Bitmap pages
+ * store the value, the chunk number, the next page of the chain, or -1 for the
+ * last one, and the number of positions on the page.
+ *
+ * @see BitmapIndexFile
+ */
+public class BitmapIndexPage implements Page {
+
+  /** Kind of the meta page. */
+  static final byte META = 1;
+  /** Kind of pages that hold the positions of a chunk. */
+  static final byte BITMAP = 2;
+
+  private static final int HEADER_SIZE = 17;
+  private static final int VALUE_ENTRY_SIZE = 8;
+  private static final int OFFSET_SIZE = 2;
+
+  /** Chunks never cover more positions than two byte offsets can address. */
+  private static final int MAX_CHUNK_SIZE = 1 << 16;
+
+  private final PageId pageId;
+  private final byte[] pageData;
+  private final ByteBuffer buffer;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a BitmapIndexPage from a set of bytes of data read from disk. The
+   * page works on a private copy of the data.
+   */
+  public BitmapIndexPage(PageId id, byte[] data) {
+    this.pageId = id;
+    this.pageData = data.clone();
+    this.buffer = ByteBuffer.wrap(pageData);
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty meta page.
+   */
+  static byte[] createEmptyMetaPageData(int pageSize) {
+    ByteBuffer data = ByteBuffer.allocate(pageSize);
+    data.put(META);
+    return data.array();
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty bitmap page of the
+   * specified chunk of the bitmap of the specified value, at the end of its
+   * chain.
+   */
+  static byte[] createEmptyBitmapPageData(int pageSize, int value, int chunk) {
+    ByteBuffer data = ByteBuffer.allocate(pageSize);
+    data.put(BITMAP);
+    data.putInt(value);
+    data.putInt(chunk);
+    data.putInt(-1);
+    data.putInt(0);
+    return data.array();
+  }
+
+  /**
+   * Returns the number of positions per chunk for pages of the specified size:
+   * as many as a plain bitmap on the page can hold, rounded down to whole
+   * longs.
+   */
+  static int getChunkSize(int pageSize) {
+    return Math.min(MAX_CHUNK_SIZE, (pageSize - HEADER_SIZE) * 8 / 64 * 64);
+  }
+
+  /**
+   * Returns the largest number of positions that a page of the specified size
+   * stores as an array, the number at which the array is half as large as the
+   * bitmap.
+   */
+  static int getMaxArraySize(int pageSize) {
+    return getChunkSize(pageSize) / 16;
+  }
+
+  /**
+   * Returns the number of distinct values that the meta page of a file with
+   * pages of the specified size can hold.
+   */
+  static int getMaxValues(int pageSize) {
+    return (pageSize - HEADER_SIZE) / VALUE_ENTRY_SIZE;
+  }
+
+  /** Returns true if this page holds positions. */
+  public boolean isBitmap() {
+    return pageData[0] == BITMAP;
+  }
+
+  private int getHeaderInt(int index) {
+    return buffer.getInt(1 + 4 * index);
+  }
+
+  private void setHeaderInt(int index, int value) {
+    captureBeforeImage();
+    buffer.putInt(1 + 4 * index, value);
+  }
+
+  /** Returns the number of distinct values, if this is the meta page. */
+  public int getNumValues() {
+    return getHeaderInt(0);
+  }
+
+  /** Returns the specified distinct value, if this is the meta page. */
+  public int getValue(int index) {
+    return buffer.getInt(HEADER_SIZE + index * VALUE_ENTRY_SIZE);
+  }
+
+  /**
+   * Returns the first page of the bitmap of the specified distinct value, if
+   * this is the meta page.
+   */
+  public int getFirstPage(int index) {
+    return buffer.getInt(HEADER_SIZE + index * VALUE_ENTRY_SIZE + 4);
+  }
+
+  void setFirstPage(int index, int pageNumber) {
+    captureBeforeImage();
+    buffer.putInt(HEADER_SIZE + index * VALUE_ENTRY_SIZE + 4, pageNumber);
+  }
+
+  /**
+   * Returns the index of the specified value on this meta page, or -1 if it is
+   * not on it.
+   */
+  public int findValue(int value) {
+    for (int i = 0; i < getNumValues(); i++) {
+      if (getValue(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a distinct value, whose bitmap starts at the specified page, to this
+   * meta page.
+   *
+   * @throws DbException if the meta page is full, as the field has too many
+   *           distinct values for a bitmap index
+   */
+  void addValue(int value, int pageNumber) throws DbException {
+    int numValues = getNumValues();
+    if (numValues >= getMaxValues(pageData.length)) {
+      throw new DbException("Too many distinct values for a bitmap index, at most "
+          + getMaxValues(pageData.length) + " are supported.");
+    }
+    setHeaderInt(0, numValues + 1);
+    buffer.putInt(HEADER_SIZE + numValues * VALUE_ENTRY_SIZE, value);
+    buffer.putInt(HEADER_SIZE + numValues * VALUE_ENTRY_SIZE + 4, pageNumber);
+  }
+
+  /** Returns the value whose positions this bitmap page holds. */
+  public int getBitmapValue() {
+    return getHeaderInt(0);
+  }
+
+  /** Returns the number of the chunk this bitmap page covers. */
+  public int getChunk() {
+    return getHeaderInt(1);
+  }
+
+  /**
+   * Returns the number of the next page of the chain, or -1 if this is the
+   * last one.
+   */
+  public int getNextPage() {
+    return getHeaderInt(2);
+  }
+
+  void setNextPage(int pageNumber) {
+    setHeaderInt(2, pageNumber);
+  }
+
+  /** Returns the number of positions on this bitmap page. */
+  public int getCardinality() {
+    return getHeaderInt(3);
+  }
+
+  private boolean isArray(int cardinality) {
+    return cardinality <= getMaxArraySize(pageData.length);
+  }
+
+  private int getArrayOffset(int index) {
+    return buffer.getShort(HEADER_SIZE + index * OFFSET_SIZE) & 0xffff;
+  }
+
+  /**
+   * Returns the index of the specified offset in the array of this page, or
+   * -(insertion point) - 1 if it is not in it, like Arrays.binarySearch.
+   */
+  private int searchArray(int offset) {
+    int low = 0;
+    int high = getCardinality() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int middleOffset = getArrayOffset(middle);
+      if (middleOffset < offset) {
+        low = middle + 1;
+      } else if (middleOffset > offset) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private boolean getBit(int offset) {
+    return (pageData[HEADER_SIZE + offset / 8] & (1 << (offset % 8))) != 0;
+  }
+
+  /**
+   * Returns true if the specified offset into the chunk is set on this bitmap
+   * page.
+   */
+  public boolean contains(int offset) {
+    if (isArray(getCardinality())) {
+      return searchArray(offset) >= 0;
+    }
+    return getBit(offset);
+  }
+
+  /**
+   * Sets the specified offset into the chunk on this bitmap page, turning the
+   * array into a bitmap if it grows too large.
+   *
+   * @return false if the offset was already set
+   */
+  boolean add(int offset) {
+    int cardinality = getCardinality();
+    captureBeforeImage();
+    if (!isArray(cardinality)) {
+      if (getBit(offset)) {
+        return false;
+      }
+      pageData[HEADER_SIZE + offset / 8] |= 1 << (offset % 8);
+    } else {
+      int index = searchArray(offset);
+      if (index >= 0) {
+        return false;
+      }
+      index = -index - 1;
+      if (isArray(cardinality + 1)) {
+        int start = HEADER_SIZE + index * OFFSET_SIZE;
+        System.arraycopy(pageData, start, pageData, start + OFFSET_SIZE, (cardinality - index)
+            * OFFSET_SIZE);
+        buffer.putShort(start, (short) offset);
+      } else {
+        int[] offsets = new int[cardinality + 1];
+        for (int i = 0; i < cardinality; i++) {
+          offsets[i < index ? i : i + 1] = getArrayOffset(i);
+        }
+        offsets[index] = offset;
+        writeBitmap(offsets);
+      }
+    }
+    setHeaderInt(3, cardinality + 1);
+    return true;
+  }
+
+  /**
+   * Clears the specified offset into the chunk on this bitmap page, turning
+   * the bitmap into an array once it is small enough.
+   *
+   * @return false if the offset was not set
+   */
+  boolean remove(int offset) {
+    int cardinality = getCardinality();
+    captureBeforeImage();
+    if (isArray(cardinality)) {
+      int index = searchArray(offset);
+      if (index < 0) {
+        return false;
+      }
+      int start = HEADER_SIZE + index * OFFSET_SIZE;
+      System.arraycopy(pageData, start + OFFSET_SIZE, pageData, start, (cardinality - index - 1)
+          * OFFSET_SIZE);
+      buffer.putShort(HEADER_SIZE + (cardinality - 1) * OFFSET_SIZE, (short) 0);
+    } else {
+      if (!getBit(offset)) {
+        return false;
+      }
+      pageData[HEADER_SIZE + offset / 8] &= ~(1 << (offset % 8));
+      if (isArray(cardinality - 1)) {
+        writeArray(readBitmap(cardinality - 1));
+      }
+    }
+    setHeaderInt(3, cardinality - 1);
+    return true;
+  }
+
+  /**
+   * Replaces the contents of this page with a bitmap of the specified offsets.
+   */
+  private void writeBitmap(int[] offsets) {
+    clearContents();
+    for (int offset : offsets) {
+      pageData[HEADER_SIZE + offset / 8] |= 1 << (offset % 8);
+    }
+  }
+
+  /**
+   * Replaces the contents of this page with an array of the specified sorted
+   * offsets.
+   */
+  private void writeArray(int[] offsets) {
+    clearContents();
+    for (int i = 0; i < offsets.length; i++) {
+      buffer.putShort(HEADER_SIZE + i * OFFSET_SIZE, (short) offsets[i]);
+    }
+  }
+
+  private void clearContents() {
+    for (int i = HEADER_SIZE; i < pageData.length; i++) {
+      pageData[i] = 0;
+    }
+  }
+
+  /**
+   * Fills this empty bitmap page with the specified sorted offsets, in the
+   * format that suits their number.
+   */
+  void setOffsets(int[] offsets) {
+    captureBeforeImage();
+    if (isArray(offsets.length)) {
+      writeArray(offsets);
+    } else {
+      writeBitmap(offsets);
+    }
+    setHeaderInt(3, offsets.length);
+  }
+
+  /** Returns the offsets set on this bitmap page, in increasing order. */
+  public int[] getOffsets() {
+    int cardinality = getCardinality();
+    if (!isArray(cardinality)) {
+      return readBitmap(cardinality);
+    }
+    int[] offsets = new int[cardinality];
+    for (int i = 0; i < cardinality; i++) {
+      offsets[i] = getArrayOffset(i);
+    }
+    return offsets;
+  }
+
+  /** Returns the offsets set in the bitmap of this page, of which there are count. */
+  private int[] readBitmap(int count) {
+    int[] offsets = new int[count];
+    int chunkSize = getChunkSize(pageData.length);
+    int found = 0;
+    for (int offset = 0; offset < chunkSize && found < count; offset++) {
+      if (getBit(offset)) {
+        offsets[found++] = offset;
+      }
+    }
+    return offsets;
+  }
+
+  /**
+   * Sets the positions of this bitmap page in the specified words of a bitmap
+   * of all positions, one bit per position in the order of java.util.BitSet.
+   */
+  public void orInto(long[] words) {
+    int firstWord = getChunk() * (getChunkSize(pageData.length) / 64);
+    int cardinality = getCardinality();
+    if (isArray(cardinality)) {
+      for (int i = 0; i < cardinality; i++) {
+        int offset = getArrayOffset(i);
+        words[firstWord + offset / 64] |= 1L << (offset % 64);
+      }
+      return;
+    }
+    int numWords = Math.min(getChunkSize(pageData.length) / 64, words.length - firstWord);
+    for (int i = 0; i < numWords; i++) {
+      long word = 0;
+      for (int b = 7; b >= 0; b--) {
+        word = (word << 8) | (pageData[HEADER_SIZE + i * 8 + b] & 0xff);
+      }
+      words[firstWord + i] |= word;
+    }
+  }
+
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public BitmapIndexPage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new BitmapIndexPage(pageId, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
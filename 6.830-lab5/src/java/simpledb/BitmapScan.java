@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a table that satisfy
+ * a condition on fields with a {@link BitmapIndexFile}. The condition is a
+ * conjunction of disjunctions of predicates: the bitmaps of the predicates of
+ * every disjunction are ORed, the results are ANDed, and only then are the
+ * tuples at the remaining positions read, in the order of the table. It
+ * returns exactly the tuples that satisfy the condition, so no Filter is
+ * needed above it, and {@link #count} gives their number from the bitmaps
+ * alone.
+ */
+public class BitmapScan implements DbIterator {
+
+  private static final long serialVersionUID = 1L;
+
+  private final TransactionId tid;
+  private final int tableId;
+  private final String tableAlias;
+  private final List<List<Predicate>> conditions;
+  private final List<List<BitmapIndexFile>> indexes;
+  private final TupleDesc tupleDesc;
+  private final DbFileIterator iterator;
+
+  /**
+   * Creates a scan of the tuples of the specified table that satisfy the
+   * specified condition, as a part of the specified transaction.
+   *
+   * @param tid The transaction this scan is running as a part of.
+   * @param tableId the table to scan
+   * @param tableAlias the alias of the table; the returned tupleDesc has
+   *          fields with name tableAlias.fieldName, like SeqScan
+   * @param conditions the predicates the tuples must satisfy: a tuple is
+   *          returned if it satisfies at least one predicate of every list.
+   *          The predicates have integer operands and are on fields with a
+   *          bitmap index, numbered like the fields of the table.
+   * @throws IllegalArgumentException if a predicate cannot be answered from a
+   *           bitmap index
+   */
+  public BitmapScan(TransactionId tid, int tableId, String tableAlias,
+      List<List<Predicate>> conditions) {
+    this.tid = tid;
+    this.tableId = tableId;
+    this.tableAlias = tableAlias;
+    this.conditions = conditions;
+    this.indexes = new ArrayList<List<BitmapIndexFile>>();
+    BitmapIndexFile anyIndex = null;
+    for (List<Predicate> disjunction : conditions) {
+      List<BitmapIndexFile> disjunctionIndexes = new ArrayList<BitmapIndexFile>();
+      for (Predicate p : disjunction) {
+        BitmapIndexFile index = findIndex(tableId, p.getField());
+        if (index == null || !index.supports(p.getOp()) || !(p.getOperand() instanceof IntField)) {
+          throw new IllegalArgumentException("No bitmap index can answer " + p);
+        }
+        disjunctionIndexes.add(index);
+        anyIndex = index;
+      }
+      indexes.add(disjunctionIndexes);
+    }
+    if (anyIndex == null) {
+      throw new IllegalArgumentException("A bitmap scan needs at least one predicate.");
+    }
+    this.tupleDesc = SeqScan.getPrefixedTupleDesc(tableId, tableAlias);
+    int slotsPerPage = anyIndex.getSlotsPerPage();
+    this.iterator = new BitmapIndexFile.PositionIterator(tid, tableId, slotsPerPage) {
+      @Override
+      protected BitSet getPositions() throws DbException, TransactionAbortedException {
+        return BitmapScan.this.getPositions();
+      }
+    };
+  }
+
+  /**
+   * Returns the bitmap index on the specified field of the specified table, or
+   * null if there is none.
+   */
+  static BitmapIndexFile findIndex(int tableId, int field) {
+    for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+      if (index instanceof BitmapIndexFile && index.getKeyField() == field) {
+        return (BitmapIndexFile) index;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the positions of the tuples that satisfy the condition of this
+   * scan, reading only the indexes.
+   */
+  private BitSet getPositions() throws DbException, TransactionAbortedException {
+    BitSet positions = null;
+    for (int i = 0; i < conditions.size(); i++) {
+      BitSet disjunctionPositions = new BitSet();
+      for (int j = 0; j < conditions.get(i).size(); j++) {
+        Predicate p = conditions.get(i).get(j);
+        disjunctionPositions.or(indexes.get(i).get(j).getPositions(tid, p.getOp(),
+            ((IntField) p.getOperand()).getValue()));
+      }
+      if (positions == null) {
+        positions = disjunctionPositions;
+      } else {
+        positions.and(disjunctionPositions);
+      }
+      if (positions.isEmpty()) {
+        break;
+      }
+    }
+    return positions;
+  }
+
+  /**
+   * Returns the number of tuples that satisfy the condition of this scan,
+   * without reading any of them.
+   */
+  public int count() throws DbException, TransactionAbortedException {
+    return getPositions().cardinality();
+  }
+
+  /**
+   * @return the name of the table this operator scans, as it is in the
+   *         catalog.
+   */
+  public String getTableName() {
+    return Database.getCatalog().getTableName(tableId);
+  }
+
+  /**
+   * @return the alias of the table this operator scans.
+   */
+  public String getAlias() {
+    return tableAlias;
+  }
+
+  /**
+   * @return the condition this scan answers from the bitmap indexes, see the
+   *         constructor.
+   */
+  public List<List<Predicate>> getConditions() {
+    return conditions;
+  }
+
+  @Override
+  public void open() throws DbException, TransactionAbortedException {
+    iterator.open();
+  }
+
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  @Override
+  public boolean hasNext() throws TransactionAbortedException, DbException {
+    return iterator.hasNext();
+  }
+
+  @Override
+  public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+    return iterator.next();
+  }
+
+  @Override
+  public void close() {
+    iterator.close();
+  }
+
+  @Override
+  public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+    iterator.rewind();
+  }
+}
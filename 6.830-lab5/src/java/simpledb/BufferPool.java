@@ -1,13 +1,28 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -17,11 +32,40 @@ import java.util.concurrent.atomic.AtomicInteger;
  * The BufferPool is also responsible for locking; when a transaction fetches a
  * page, BufferPool checks that the transaction has the appropriate locks to
  * read/write the page.
+ * <p>
+ * Scans can ask for pages they are about to need to be read ahead of time with
+ * {@link #prefetch}. The pages are read by a background thread and put in the
+ * pool without any locks; getPage still locks them when they are asked for,
+ * and waits for a page that is still being read ahead instead of reading it a
+ * second time.
+ * <p>
+ * Which page is evicted when the pool is full is up to an
+ * {@link EvictionPolicy}, {@link ClockEvictionPolicy} by default. Scans of
+ * tables that are large compared to the pool recycle a {@link BufferRing} of
+ * their own instead, see {@link #getScanRing}.
+ * <p>
+ * The page table is a concurrent map, so getPage finds pages in the pool
+ * without taking the lock on the pool, and queues the access for the eviction
+ * policy, which sees it before it next chooses a victim. A page that is not in
+ * the pool is read once, outside the lock, by the first transaction that asks
+ * for it; the others wait for that read like they wait for a read-ahead.
+ * <p>
+ * Callers that hold on to a page, like scans iterating over its tuples, can
+ * pin it with {@link #pinPage} so that it is not evicted under them.
+ * <p>
+ * A commit logs the pages the transaction dirtied and forces the log, but
+ * does not write the pages. A background page cleaner writes them in page
+ * order, runs of adjacent pages at a time, so that evictions seldom have to
+ * write their victims. Recovery redoes the commits whose pages were not
+ * written yet from the log.
  * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
-  /** Bytes per page, including header. */
+  /**
+   * Bytes per page, including header, for tables that do not specify their own
+   * page size.
+   */
   private static final int PAGE_SIZE = 4096;
 
   /**
@@ -31,31 +75,249 @@ public class BufferPool {
    */
   public static final int DEFAULT_PAGES = 50;
 
-  private final int maxPages;
-  private final AtomicInteger currentPages;
+  /**
+   * Largest number of bytes read ahead with a single read, and the default
+   * number of bytes that sequential scans read ahead.
+   */
+  public static final int MAX_READ_AHEAD_BYTES = 1 << 20;
+
+  /**
+   * Largest number of bytes of pages in the ring of a large scan.
+   */
+  public static final int SCAN_RING_BYTES = 256 << 10;
+
+  /**
+   * Number of accesses found without the lock after which the queued
+   * accesses are passed on to the eviction policy.
+   */
+  private static final int ACCESS_QUEUE_LENGTH = 1024;
 
-  private final Map<PageId, Page> pageIdToPages;
+  /** Completes the future of a load when the page is in the pool. */
+  private static final Runnable LOADED = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  /** Largest number of bytes of adjacent pages the page cleaner writes at once. */
+  private static final int CLEANER_RUN_BYTES = 64 << 10;
+
+  /** Orders pages by table, then by page number. */
+  private static final Comparator<PageId> PAGE_ORDER = new Comparator<PageId>() {
+    @Override
+    public int compare(PageId a, PageId b) {
+      if (a.getTableId() != b.getTableId()) {
+        return a.getTableId() < b.getTableId() ? -1 : 1;
+      }
+      return a.pageNumber() - b.pageNumber();
+    }
+  };
+
+  private final long maxBytes;
+  private final AtomicLong currentBytes;
+
+  private final ConcurrentHashMap<PageId, Page> pageIdToPages;
+  private final Map<PageId, Integer> pageIdToSizes;
   private final Map<TransactionId, Set<PageId>> transactionsToDirtiedFlushedPages;
+  /**
+   * Pages each transaction may have dirtied: the pages it asked for with
+   * READ_WRITE, and the pages its inserts and deletes dirtied.
+   */
+  private final ConcurrentHashMap<TransactionId, Set<PageId>> transactionsToWritablePages;
+  private final Map<PageId, Integer> pinCounts;
+  private final Map<TransactionId, List<PageId>> transactionsToPinnedPages;
+
+  /** Pages of committed transactions that are not on disk yet. */
+  private final TreeSet<PageId> unwrittenPages;
+  /**
+   * Pages the page cleaner is writing without the lock on the pool. They are
+   * not evicted, and transactions that want to change them wait until they
+   * are written.
+   */
+  private final Set<PageId> cleanedPages;
+  private Thread pageCleaner;
+  private boolean pageCleanerStopped;
+  /** Why the last page cleaner stopped, until a transaction reports it. */
+  private Exception pageCleanerFailure;
+  private final AtomicLong evictionWrites;
 
   private final LockManager lockManager;
+  private final EvictionPolicy evictionPolicy;
+  private final ConcurrentLinkedQueue<PageId> accesses;
+  private final AtomicLong accessCount;
+
+  /** Pages that getPage is reading, so that nobody else reads them again. */
+  private final Map<PageId, FutureTask<Void>> pendingLoads;
+
+  private final Map<PageId, Future<Void>> pendingReadAheads;
+  private final Set<PageId> unusedReadAheads;
+  private long readAheadBytes;
+  private volatile int readAheadPages;
+  private ThreadPoolExecutor readAheadExecutor;
+  private final AtomicLong hits;
+  /** Pages that left a scan ring, to be evicted before any other page. */
+  private final Set<PageId> recycledPages;
+  private final AtomicLong scanRingHits;
+  private final AtomicLong scanRingMisses;
+  private final AtomicLong prefetchHits;
+  private final AtomicLong prefetchMisses;
 
   /**
-   * Creates a BufferPool that caches up to numPages pages.
+   * Creates a BufferPool that caches up to numPages pages of the default page
+   * size. Tables with larger pages get correspondingly fewer pages.
    * 
    * @param numPages maximum number of pages in this buffer pool.
    */
   public BufferPool(int numPages) {
-    this.maxPages = numPages;
-    this.pageIdToPages = new HashMap<PageId, Page>();
+    this(numPages, new ClockEvictionPolicy());
+  }
+
+  /**
+   * Creates a BufferPool that caches up to numPages pages of the default page
+   * size and evicts pages as the specified policy says.
+   * 
+   * @param numPages maximum number of pages in this buffer pool.
+   * @param evictionPolicy a new policy, used by this pool only
+   */
+  public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+    this((long) numPages * PAGE_SIZE, evictionPolicy);
+  }
+
+  private BufferPool(long capacityBytes, EvictionPolicy evictionPolicy) {
+    this.maxBytes = capacityBytes;
+    this.evictionPolicy = evictionPolicy;
+    this.pageIdToPages = new ConcurrentHashMap<PageId, Page>();
+    this.pageIdToSizes = new HashMap<PageId, Integer>();
     this.transactionsToDirtiedFlushedPages = new HashMap<TransactionId, Set<PageId>>();
+    this.transactionsToWritablePages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+    this.pinCounts = new HashMap<PageId, Integer>();
+    this.transactionsToPinnedPages = new HashMap<TransactionId, List<PageId>>();
+    this.unwrittenPages = new TreeSet<PageId>(PAGE_ORDER);
+    this.cleanedPages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+    this.pageCleanerStopped = false;
+    this.evictionWrites = new AtomicLong(0);
     this.lockManager = LockManager.create();
-    currentPages = new AtomicInteger(0);
+    this.accesses = new ConcurrentLinkedQueue<PageId>();
+    this.accessCount = new AtomicLong(0);
+    this.pendingLoads = new HashMap<PageId, FutureTask<Void>>();
+    currentBytes = new AtomicLong(0);
+    this.pendingReadAheads = new HashMap<PageId, Future<Void>>();
+    this.unusedReadAheads = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+    this.readAheadBytes = 0;
+    // a quarter of the pool, so that read-ahead leaves room for other pages
+    this.readAheadPages = (int) Math.min(MAX_READ_AHEAD_BYTES, capacityBytes / 4) / PAGE_SIZE;
+    this.hits = new AtomicLong(0);
+    this.recycledPages = new LinkedHashSet<PageId>();
+    this.scanRingHits = new AtomicLong(0);
+    this.scanRingMisses = new AtomicLong(0);
+    this.prefetchHits = new AtomicLong(0);
+    this.prefetchMisses = new AtomicLong(0);
+  }
+
+  /**
+   * Creates a BufferPool that caches pages of up to capacityBytes bytes in
+   * total, whatever the page sizes of the tables they belong to.
+   * 
+   * @param capacityBytes maximum number of bytes of pages in this buffer pool
+   */
+  public static BufferPool createWithCapacity(long capacityBytes) {
+    return new BufferPool(capacityBytes, new ClockEvictionPolicy());
   }
 
+  /**
+   * Returns the default page size, used by tables that do not specify their
+   * own.
+   * 
+   * @see Catalog#getPageSize
+   */
   public static int getPageSize() {
     return PAGE_SIZE;
   }
 
+  /**
+   * Returns the maximum number of bytes of pages in this buffer pool.
+   */
+  public long getCapacity() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the number of bytes of the pages currently in this buffer pool.
+   */
+  public long getUsedBytes() {
+    return currentBytes.get();
+  }
+
+  /**
+   * Returns the number of pages that sequential scans ask to be read ahead of
+   * the page they are on. Defaults to as many pages of the default size as fit
+   * in a quarter of the pool, up to {@link #MAX_READ_AHEAD_BYTES}.
+   */
+  public int getReadAheadPages() {
+    return readAheadPages;
+  }
+
+  /**
+   * Sets the number of pages that sequential scans ask to be read ahead of the
+   * page they are on; zero turns read-ahead off.
+   */
+  public void setReadAheadPages(int pages) {
+    if (pages < 0) {
+      throw new IllegalArgumentException("Cannot read ahead " + pages + " pages.");
+    }
+    readAheadPages = pages;
+  }
+
+  /**
+   * Returns the number of pages returned by getPage that were in the pool
+   * already, read ahead or not. Along with {@link #getPrefetchMisses}, the
+   * pages getPage had to read, it gives the hit ratio of the pool.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of the hits, see {@link #getHits}, of scans with a
+   * {@link BufferRing}. The other hits show how well the rest of the pool
+   * does.
+   */
+  public long getScanRingHits() {
+    return scanRingHits.get();
+  }
+
+  /**
+   * Returns the number of the pages getPage had to read, see
+   * {@link #getPrefetchMisses}, for scans with a {@link BufferRing}.
+   */
+  public long getScanRingMisses() {
+    return scanRingMisses.get();
+  }
+
+  /**
+   * Returns the number of evicted pages that had to be written first because
+   * the page cleaner had not written them yet.
+   */
+  public long getEvictionWrites() {
+    return evictionWrites.get();
+  }
+
+  /**
+   * Returns the number of pages returned by getPage that had been read ahead,
+   * including pages that getPage had to wait for.
+   */
+  public long getPrefetchHits() {
+    return prefetchHits.get();
+  }
+
+  /**
+   * Returns the number of pages that getPage had to read itself because they
+   * were neither in the pool nor being read ahead.
+   */
+  public long getPrefetchMisses() {
+    return prefetchMisses.get();
+  }
+
   /**
    * Retrieve the specified page with the associated permissions. Will acquire a
    * lock and may block if that lock is held by another transaction.
@@ -74,20 +336,467 @@ public class BufferPool {
    */
   public Page getPage(TransactionId tid, PageId pid, Permissions perm) throws DbException,
       TransactionAbortedException {
+    return getPage(tid, pid, perm, null);
+  }
+
+  /**
+   * Returns a new ring for a sequential scan of the specified number of pages
+   * of a table, or null if the scan is small enough to use the pool like
+   * everybody else. A scan gets a ring if it reads more than a quarter of the
+   * pool; the ring holds up to {@link #SCAN_RING_BYTES} of pages, and at most
+   * an eighth of the pool.
+   */
+  public BufferRing getScanRing(int tableId, int numberOfPages) {
+    int pageSize = Database.getCatalog().getDatabaseFile(tableId).getPageSize();
+    if ((long) numberOfPages * pageSize <= maxBytes / 4) {
+      return null;
+    }
+    return new BufferRing((int) Math.max(1, Math.min(SCAN_RING_BYTES, maxBytes / 8) / pageSize));
+  }
+
+  /**
+   * Retrieves the specified page like {@link #getPage(TransactionId, PageId,
+   * Permissions)}, on behalf of a scan with the specified ring. A page that is
+   * read for the scan, or was read ahead for it, goes into the ring. Once the
+   * ring is full, the page it has held the longest is recycled: it is the
+   * first page to be evicted when the pool needs room, so that the scan
+   * takes free frames and its own pages rather than those of the rest of the
+   * pool. Pages of the ring are not reported to the eviction policy as
+   * accessed.
+   * 
+   * @param ring the ring of the scan, or null to use the pool as usual
+   */
+  public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+      throws DbException, TransactionAbortedException {
     lockManager.acquireLock(tid, pid, perm);
-    if (pageIdToPages.containsKey(pid)) {
-      return pageIdToPages.get(pid);
+    if (perm == Permissions.READ_WRITE) {
+      addWritablePage(tid, pid);
+      if (cleanedPages.contains(pid)) {
+        awaitCleaning(pid);
+      }
+    }
+    Page page = pageIdToPages.get(pid);
+    if (page != null && !unusedReadAheads.contains(pid)) {
+      hits.incrementAndGet();
+      if (ring != null) {
+        scanRingHits.incrementAndGet();
+      }
+      if (ring == null || !ring.contains(pid)) {
+        queueAccess(pid);
+      }
+      return page;
+    }
+    while (true) {
+      Future<Void> pending;
+      FutureTask<Void> load = null;
+      DbFile dbFile = null;
+      synchronized (this) {
+        drainAccesses();
+        page = pageIdToPages.get(pid);
+        if (page != null) {
+          boolean readAheadPage = unusedReadAheads.remove(pid);
+          if (readAheadPage) {
+            readAheadBytes -= pageIdToSizes.get(pid).intValue();
+            prefetchHits.incrementAndGet();
+          }
+          hits.incrementAndGet();
+          recycledPages.remove(pid);
+          if (ring == null) {
+            evictionPolicy.pageAccessed(pid);
+          } else {
+            scanRingHits.incrementAndGet();
+            if (readAheadPage) {
+              addToRing(ring, pid);
+            } else if (!ring.contains(pid)) {
+              evictionPolicy.pageAccessed(pid);
+            }
+          }
+          return page;
+        }
+        pending = pendingReadAheads.get(pid);
+        if (pending == null) {
+          pending = pendingLoads.get(pid);
+        }
+        if (pending == null) {
+          prefetchMisses.incrementAndGet();
+          if (ring != null) {
+            scanRingMisses.incrementAndGet();
+            addToRing(ring, pid);
+          }
+          dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+          load = new FutureTask<Void>(LOADED, null);
+          pendingLoads.put(pid, load);
+        }
+      }
+      if (load != null) {
+        return loadPage(dbFile, pid, load, ring);
+      }
+      // a read that failed or was dropped leaves the page out of the pool, and
+      // the next round reads it
+      try {
+        pending.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // read it ourselves
+      }
+    }
+  }
+
+  /**
+   * Retrieves the specified page like {@link #getPage(TransactionId, PageId,
+   * Permissions, BufferRing)} and pins it: the page is not evicted until the
+   * transaction unpins it with {@link #unpinPage}, or completes. A page may be
+   * pinned several times, by one transaction or more, and stays pinned until
+   * every pin is released.
+   */
+  public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+      throws DbException, TransactionAbortedException {
+    while (true) {
+      Page page = getPage(tid, pid, perm, ring);
+      synchronized (this) {
+        // the page may have been evicted since getPage found it
+        if (pageIdToPages.get(pid) == page) {
+          Integer pinCount = pinCounts.get(pid);
+          pinCounts.put(pid, pinCount == null ? 1 : pinCount + 1);
+          List<PageId> pinnedPages = transactionsToPinnedPages.get(tid);
+          if (pinnedPages == null) {
+            pinnedPages = new ArrayList<PageId>();
+            transactionsToPinnedPages.put(tid, pinnedPages);
+          }
+          pinnedPages.add(pid);
+          return page;
+        }
+      }
+    }
+  }
+
+  /**
+   * Releases a pin the specified transaction holds on the specified page, if
+   * it still holds one.
+   */
+  public synchronized void unpinPage(TransactionId tid, PageId pid) {
+    List<PageId> pinnedPages = transactionsToPinnedPages.get(tid);
+    if (pinnedPages != null && pinnedPages.remove(pid)) {
+      releasePin(pid);
+    }
+  }
+
+  private void releasePin(PageId pid) {
+    int pinCount = pinCounts.get(pid);
+    if (pinCount == 1) {
+      pinCounts.remove(pid);
+    } else {
+      pinCounts.put(pid, pinCount - 1);
+    }
+  }
+
+  private boolean isPinned(PageId pid) {
+    // the page cleaner pins the pages it writes
+    return pinCounts.containsKey(pid) || cleanedPages.contains(pid);
+  }
+
+  /**
+   * Remembers that the specified transaction may dirty the specified page, so
+   * that completing the transaction only looks at the pages it may have
+   * dirtied rather than at every page in the pool.
+   */
+  private void addWritablePage(TransactionId tid, PageId pid) {
+    if (tid == null) {
+      return;
+    }
+    Set<PageId> writablePages = transactionsToWritablePages.get(tid);
+    if (writablePages == null) {
+      writablePages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+      Set<PageId> existing = transactionsToWritablePages.putIfAbsent(tid, writablePages);
+      if (existing != null) {
+        writablePages = existing;
+      }
+    }
+    writablePages.add(pid);
+  }
+
+  /**
+   * Returns the pages the specified transaction may have dirtied, including
+   * those flushed while it ran.
+   */
+  private Set<PageId> getWritablePages(TransactionId tid) {
+    Set<PageId> pageIds = new HashSet<PageId>();
+    Set<PageId> writablePages = transactionsToWritablePages.get(tid);
+    if (writablePages != null) {
+      pageIds.addAll(writablePages);
     }
-    if (currentPages.get() == maxPages) {
+    Set<PageId> dirtiedFlushedPages = transactionsToDirtiedFlushedPages.get(tid);
+    if (dirtiedFlushedPages != null) {
+      pageIds.addAll(dirtiedFlushedPages);
+    }
+    return pageIds;
+  }
+
+  /**
+   * Reads the specified page for getPage, without holding the lock on the
+   * pool, and adds it to the pool unless it was discarded in the meantime.
+   * Completing the load wakes up the transactions waiting for the page,
+   * whether it was added or not.
+   */
+  private Page loadPage(DbFile dbFile, PageId pid, FutureTask<Void> load, BufferRing ring)
+      throws DbException {
+    try {
+      Page page = dbFile.readPage(pid);
+      synchronized (this) {
+        if (pendingLoads.get(pid) == load) {
+          drainAccesses();
+          makeRoom(dbFile.getPageSize());
+          addPage(pid, page, dbFile.getPageSize());
+          if (ring == null) {
+            evictionPolicy.pageAccessed(pid);
+          }
+        }
+      }
+      return page;
+    } finally {
+      synchronized (this) {
+        if (pendingLoads.get(pid) == load) {
+          pendingLoads.remove(pid);
+        }
+      }
+      load.run();
+    }
+  }
+
+  /**
+   * Queues an access to a page found without the lock on the pool, and passes
+   * the queue on to the eviction policy every so often so that it stays short.
+   */
+  private void queueAccess(PageId pageId) {
+    accesses.add(pageId);
+    if (accessCount.incrementAndGet() % ACCESS_QUEUE_LENGTH == 0) {
+      drainAccesses();
+    }
+  }
+
+  /**
+   * Passes the queued accesses to pages that are still in the pool on to the
+   * eviction policy. An accessed page is no longer recycled.
+   */
+  private synchronized void drainAccesses() {
+    PageId pageId;
+    while ((pageId = accesses.poll()) != null) {
+      if (pageIdToPages.containsKey(pageId)) {
+        recycledPages.remove(pageId);
+        evictionPolicy.pageAccessed(pageId);
+      }
+    }
+  }
+
+  /**
+   * Retrieves the tuples with the specified record ids with the associated
+   * permissions. The record ids are sorted by page, so that every page is
+   * locked and fetched with {@link #getPage} once however the ids are ordered
+   * and repeated, and runs of consecutive pages are read ahead with
+   * {@link #prefetch}. Record ids in random order, e.g. from an index, are
+   * thus read almost sequentially.
+   * 
+   * @param tid the ID of the transaction requesting the tuples
+   * @param file the file the tuples are stored in
+   * @param recordIds the record ids of the requested tuples, all of them in
+   *          file
+   * @param perm the requested permissions on the pages of the tuples
+   * @return the tuples, in the order of recordIds, with null for the record
+   *         ids of empty slots
+   */
+  public List<Tuple> getTuples(TransactionId tid, TupleFile file,
+      final List<RecordId> recordIds, Permissions perm) throws DbException,
+      TransactionAbortedException {
+    Integer[] order = new Integer[recordIds.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i, Integer j) {
+        RecordId a = recordIds.get(i);
+        RecordId b = recordIds.get(j);
+        int pageOrder = PAGE_ORDER.compare(a.getPageId(), b.getPageId());
+        return pageOrder != 0 ? pageOrder : a.tupleno() - b.tupleno();
+      }
+    });
+
+    // read ahead every run of more than one consecutive page
+    int runStart = 0;
+    while (runStart < order.length) {
+      PageId first = recordIds.get(order[runStart]).getPageId();
+      int runLength = 1;
+      int runEnd = runStart + 1;
+      for (; runEnd < order.length; runEnd++) {
+        PageId pid = recordIds.get(order[runEnd]).getPageId();
+        if (pid.getTableId() != first.getTableId()) {
+          break;
+        }
+        if (pid.pageNumber() == first.pageNumber() + runLength) {
+          runLength++;
+        } else if (pid.pageNumber() != first.pageNumber() + runLength - 1) {
+          break;
+        }
+      }
+      if (runLength > 1) {
+        prefetch(first.getTableId(), first.pageNumber(), runLength);
+      }
+      runStart = runEnd;
+    }
+
+    Tuple[] tuples = new Tuple[order.length];
+    Page page = null;
+    for (int i : order) {
+      RecordId recordId = recordIds.get(i);
+      if (page == null || !page.getId().equals(recordId.getPageId())) {
+        page = getPage(tid, recordId.getPageId(), perm);
+      }
+      tuples[i] = file.getTuple(page, recordId.tupleno());
+    }
+    return Arrays.asList(tuples);
+  }
+
+  /**
+   * Asks for the specified run of pages of a table to be read into the pool in
+   * the background, without locking them. Pages that are in the pool or
+   * already being read ahead are skipped, and the others are read with
+   * {@link DbFile#readPages} in runs of up to {@link #MAX_READ_AHEAD_BYTES}.
+   * 
+   * @return the number of pages at the start of the run that are in the pool
+   *         or being read ahead now. This falls short of count if read-ahead
+   *         is off or the pages read ahead but not yet used would fill more
+   *         than half of the pool.
+   */
+  public int prefetch(int tableId, int startPageNumber, int count) {
+    List<ReadAhead> readAheads = new ArrayList<ReadAhead>();
+    int accepted = 0;
+    synchronized (this) {
+      if (readAheadPages == 0) {
+        return 0;
+      }
+      DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+      int pageSize = dbFile.getPageSize();
+      int maxRunLength = Math.max(1, MAX_READ_AHEAD_BYTES / pageSize);
+      ReadAhead run = null;
+      for (; accepted < count; accepted++) {
+        PageId pid = new HeapPageId(tableId, startPageNumber + accepted);
+        if (pageIdToPages.containsKey(pid) || pendingReadAheads.containsKey(pid)
+            || pendingLoads.containsKey(pid)) {
+          run = null;
+          continue;
+        }
+        if (readAheadBytes + pageSize > maxBytes / 2) {
+          break;
+        }
+        if (run == null || run.count == maxRunLength) {
+          run = new ReadAhead(dbFile, startPageNumber + accepted);
+          readAheads.add(run);
+        }
+        run.count++;
+        pendingReadAheads.put(pid, run.task);
+        readAheadBytes += pageSize;
+      }
+      if (!readAheads.isEmpty() && readAheadExecutor == null) {
+        readAheadExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "BufferPool read-ahead");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+        readAheadExecutor.allowCoreThreadTimeOut(true);
+      }
+    }
+    for (ReadAhead readAhead : readAheads) {
+      readAheadExecutor.execute(readAhead.task);
+    }
+    return accepted;
+  }
+
+  /**
+   * Reads a run of pages in the background and adds them to the pool, except
+   * for pages that were discarded in the meantime or that only dirty pages
+   * could make room for.
+   */
+  private class ReadAhead implements Callable<Void> {
+    private final DbFile dbFile;
+    private final int startPageNumber;
+    private int count;
+    private final FutureTask<Void> task;
+
+    ReadAhead(DbFile dbFile, int startPageNumber) {
+      this.dbFile = dbFile;
+      this.startPageNumber = startPageNumber;
+      this.count = 0;
+      this.task = new FutureTask<Void>(this);
+    }
+
+    @Override
+    public Void call() {
+      List<Page> pages = null;
+      try {
+        pages = dbFile.readPages(startPageNumber, count);
+      } finally {
+        int pageSize = dbFile.getPageSize();
+        synchronized (BufferPool.this) {
+          for (int i = 0; i < count; i++) {
+            PageId pageId = new HeapPageId(dbFile.getId(), startPageNumber + i);
+            if (pendingReadAheads.get(pageId) != task) {
+              continue;
+            }
+            pendingReadAheads.remove(pageId);
+            readAheadBytes -= pageSize;
+            if (pages != null && !pageIdToPages.containsKey(pageId) && tryMakeRoom(pageSize)) {
+              // marked first, so that getPage never takes it for a used page
+              unusedReadAheads.add(pageId);
+              readAheadBytes += pageSize;
+              addPage(pageId, pages.get(i), pageSize);
+            }
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Adds the specified page to the ring, and recycles the page it replaces if
+   * that is still in the pool.
+   */
+  private synchronized void addToRing(BufferRing ring, PageId pageId) {
+    PageId replaced = ring.add(pageId);
+    if (replaced != null && pageIdToPages.containsKey(replaced)) {
+      recycledPages.add(replaced);
+    }
+  }
+
+  /**
+   * Evicts pages until a page of the specified size fits. A page larger than
+   * the whole pool is let in once the pool is empty.
+   */
+  private synchronized void makeRoom(int pageSize) throws DbException {
+    while (currentBytes.get() + pageSize > maxBytes && !pageIdToPages.isEmpty()) {
       evictPage();
     }
-    int tableId = pid.getTableId();
-    Catalog catalog = Database.getCatalog();
-    DbFile dbFile = catalog.getDatabaseFile(tableId);
-    Page page = dbFile.readPage(pid);
-    pageIdToPages.put(pid, page);
-    currentPages.incrementAndGet();
-    return page;
+  }
+
+  private synchronized boolean tryMakeRoom(int pageSize) {
+    try {
+      makeRoom(pageSize);
+      return true;
+    } catch (DbException e) {
+      return false;
+    }
+  }
+
+  private synchronized void addPage(PageId pageId, Page page, int pageSize) {
+    pageIdToPages.put(pageId, page);
+    pageIdToSizes.put(pageId, pageSize);
+    currentBytes.addAndGet(pageSize);
+    evictionPolicy.pageAdded(pageId);
   }
 
   /**
@@ -118,36 +827,74 @@ public class BufferPool {
 
   /**
    * Commit or abort a given transaction; release all locks associated to the
-   * transaction.
+   * transaction. Only the pages the transaction may have dirtied are looked
+   * at, so this takes time in proportion to them, not to the size of the
+   * pool.
    * 
    * @param tid the ID of the transaction requesting the unlock
    * @param commit a flag indicating whether we should commit or abort
    */
-  public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+  public synchronized void transactionComplete(TransactionId tid, boolean commit)
+      throws IOException {
     if (commit) {
       Set<PageId> dirtiedFlushedPages = transactionsToDirtiedFlushedPages.get(tid);
-      for (PageId pageId : pageIdToPages.keySet()) {
+      boolean logged = false;
+      for (PageId pageId : getWritablePages(tid)) {
         Page page = pageIdToPages.get(pageId);
+        if (page == null) {
+          // dirty pages are never evicted, so it was clean
+          continue;
+        }
         if (tid.equals(page.isDirty())) {
-          flushPage(pageId);
+          // the page cleaner writes the page later; until then the log has it
+          Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+          page.markDirty(false, null);
           // use current page contents as the before-image
           // for the next transaction that modifies this page.
           page.setBeforeImage();
+          unwrittenPages.add(pageId);
+          logged = true;
         } else if (dirtiedFlushedPages != null && dirtiedFlushedPages.contains(pageId)) {
           page.setBeforeImage();
         }
       }
+      if (logged) {
+        Database.getLogFile().force();
+        startPageCleaner();
+      }
     } else {
-      for (PageId pageId : pageIdToPages.keySet()) {
+      for (PageId pageId : getWritablePages(tid)) {
         Page page = pageIdToPages.get(pageId);
-        if (tid.equals(page.isDirty())) {
-          pageIdToPages.put(pageId, page.getBeforeImage());
+        if (page != null && tid.equals(page.isDirty())) {
+          Page beforeImage = page.getBeforeImage();
+          pageIdToPages.put(pageId, beforeImage);
           page.markDirty(false, null);
+          DbFile file = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+          if (file instanceof AbstractHeapFile) {
+            // the inserts of the transaction may have marked the page full
+            ((AbstractHeapFile) file).updateFreeSpace(beforeImage);
+          }
         }
       }
     }
     transactionsToDirtiedFlushedPages.remove(tid);
+    transactionsToWritablePages.remove(tid);
+    List<PageId> pinnedPages = transactionsToPinnedPages.remove(tid);
+    if (pinnedPages != null) {
+      for (PageId pageId : pinnedPages) {
+        releasePin(pageId);
+      }
+    }
     lockManager.releasePages(tid);
+    if (!unwrittenPages.isEmpty()) {
+      // the page cleaner may be waiting for the pages of the transaction
+      notifyAll();
+    }
+    if (pageCleanerFailure != null) {
+      Exception failure = pageCleanerFailure;
+      pageCleanerFailure = null;
+      throw new IOException("The page cleaner failed, its pages are written later.", failure);
+    }
     // if commit, flush dirty pages associated with transaction
     // if !commit, restore dirty pages associated with transaction to previous
     // state
@@ -162,6 +909,9 @@ public class BufferPool {
    * Marks any pages that were dirtied by the operation as dirty by calling
    * their markDirty bit, and updates cached versions of any pages that have
    * been dirtied so that future requests see up-to-date pages.
+   * <p>
+   * Once the tuple is in the table, an entry for it is added to every index on
+   * the table.
    * 
    * @param tid the transaction adding the tuple
    * @param tableId the table to add the tuple to
@@ -169,10 +919,14 @@ public class BufferPool {
    */
   public void insertTuple(TransactionId tid, int tableId, Tuple t) throws DbException, IOException,
       TransactionAbortedException {
-    HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-    List<Page> dirtiedPages = heapFile.insertTuple(tid, t);
+    DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+    List<Page> dirtiedPages = new ArrayList<Page>(dbFile.insertTuple(tid, t));
+    for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+      dirtiedPages.addAll(index.insertTuple(tid, t));
+    }
     for (Page dirtiedPage : dirtiedPages) {
       dirtiedPage.markDirty(true, tid);
+      addWritablePage(tid, dirtiedPage.getId());
     }
   }
 
@@ -185,16 +939,267 @@ public class BufferPool {
    * their markDirty bit. Does not need to update cached versions of any pages
    * that have been dirtied, as it is not possible that a new page was created
    * during the deletion (note difference from addTuple).
+   * <p>
+   * The entries of the tuple are removed from the indexes on the table first,
+   * while the tuple still has its record id.
    * 
    * @param tid the transaction deleting the tuple.
    * @param t the tuple to delete
    */
   public void deleteTuple(TransactionId tid, Tuple t) throws DbException,
       TransactionAbortedException {
-    HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(
-        t.getRecordId().getPageId().getTableId());
-    Page dirtiedPage = heapFile.deleteTuple(tid, t);
+    int tableId = t.getRecordId().getPageId().getTableId();
+    for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+      Page indexPage = index.deleteTuple(tid, t);
+      indexPage.markDirty(true, tid);
+      addWritablePage(tid, indexPage.getId());
+    }
+    DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+    Page dirtiedPage = dbFile.deleteTuple(tid, t);
     dirtiedPage.markDirty(true, tid);
+    addWritablePage(tid, dirtiedPage.getId());
+  }
+
+  private void startPageCleaner() {
+    if (pageCleanerStopped) {
+      return;
+    }
+    if (pageCleaner == null) {
+      pageCleaner = new Thread(new PageCleaner(), "BufferPool page cleaner");
+      pageCleaner.setDaemon(true);
+      pageCleaner.start();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Stops the page cleaner, leaving the pages it has not written yet to
+   * recovery, as if the database had crashed. Used when this pool is thrown
+   * away. Returns once the page cleaner has finished the run it is writing,
+   * so that it does not write pages after the pool is replaced.
+   */
+  void stopPageCleaner() {
+    Thread cleaner;
+    synchronized (this) {
+      pageCleanerStopped = true;
+      cleaner = pageCleaner;
+      notifyAll();
+    }
+    if (cleaner == null || cleaner == Thread.currentThread()) {
+      return;
+    }
+    // not interrupted: an interrupt during a write closes the channel of the file
+    boolean interrupted = false;
+    while (cleaner.isAlive()) {
+      try {
+        cleaner.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the pages of committed transactions to disk, runs of adjacent
+   * pages at a time in page order, while there are some that have not been
+   * written yet. A run is copied with the lock on the pool held and written
+   * without it.
+   * <p>
+   * If a write fails, the pages of the run are left unwritten, the page
+   * cleaner stops, and the next transaction that completes reports the
+   * failure. The next commit starts a new page cleaner.
+   */
+  private class PageCleaner implements Runnable {
+    @Override
+    public void run() {
+      PageId lastWritten = null;
+      Exception failure = null;
+      try {
+        while (true) {
+          CleanerRun run;
+          synchronized (BufferPool.this) {
+            PageId pageId;
+            while ((pageId = findUnwrittenPage(lastWritten)) == null && !pageCleanerStopped) {
+              BufferPool.this.wait();
+            }
+            if (pageCleanerStopped) {
+              return;
+            }
+            run = startRun(pageId);
+          }
+          boolean written = false;
+          try {
+            for (Page page : run.pages) {
+              run.file.writePage(page);
+            }
+            written = true;
+          } finally {
+            finishRun(run, written);
+          }
+          if (!run.pages.isEmpty()) {
+            lastWritten = run.pages.get(run.pages.size() - 1).getId();
+          }
+          // let getPage and commits have the pool between runs
+          Thread.yield();
+        }
+      } catch (InterruptedException e) {
+        // the pool is being thrown away
+      } catch (IOException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        synchronized (BufferPool.this) {
+          pageCleaner = null;
+          if (failure != null) {
+            pageCleanerFailure = failure;
+          }
+        }
+      }
+    }
+  }
+
+  /** Copies of adjacent pages of a file that the page cleaner writes together. */
+  private static class CleanerRun {
+    final DbFile file;
+    final List<Page> pages;
+
+    CleanerRun(DbFile file) {
+      this.file = file;
+      this.pages = new ArrayList<Page>();
+    }
+  }
+
+  /**
+   * Returns the first unwritten page after the specified one that no running
+   * transaction may be changing, going back to the first unwritten page if
+   * there is none, or null if there is no such page at all.
+   */
+  private PageId findUnwrittenPage(PageId after) {
+    if (after != null) {
+      for (PageId pageId : unwrittenPages.tailSet(after, false)) {
+        if (!isBeingChanged(pageId)) {
+          return pageId;
+        }
+      }
+    }
+    for (PageId pageId : unwrittenPages) {
+      if (!isBeingChanged(pageId)) {
+        return pageId;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether a running transaction may be changing the specified page.
+   * The page cleaner leaves such pages alone until the transaction completes:
+   * writing the committed image would also reset the zone map and free space
+   * entries of the page to that image, dropping what the transaction added.
+   */
+  private boolean isBeingChanged(PageId pageId) {
+    if (pageIdToPages.get(pageId).isDirty() != null) {
+      return true;
+    }
+    for (Set<PageId> writablePages : transactionsToWritablePages.values()) {
+      if (writablePages.contains(pageId)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Takes the specified unwritten page and the adjacent unwritten pages that
+   * follow it, up to {@link #CLEANER_RUN_BYTES}, off the unwritten pages for
+   * the page cleaner, stopping at pages that are being changed. The file of
+   * the pages is looked up here, with the lock on the pool held, so that the
+   * page cleaner does not use the catalog while it writes.
+   * 
+   * @return copies of the committed images of the pages and their file
+   */
+  private CleanerRun startRun(PageId pageId) {
+    DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+    int maxRunLength = Math.max(1, CLEANER_RUN_BYTES / dbFile.getPageSize());
+    CleanerRun run = new CleanerRun(dbFile);
+    while (true) {
+      // mark the page first, so that a transaction that starts changing it
+      // either waits for it or is seen here
+      cleanedPages.add(pageId);
+      if (isBeingChanged(pageId)) {
+        cleanedPages.remove(pageId);
+        notifyAll();
+        return run;
+      }
+      unwrittenPages.remove(pageId);
+      run.pages.add(pageIdToPages.get(pageId).getBeforeImage());
+      PageId next = unwrittenPages.higher(pageId);
+      if (run.pages.size() == maxRunLength || next == null
+          || next.getTableId() != pageId.getTableId()
+          || next.pageNumber() != pageId.pageNumber() + 1) {
+        return run;
+      }
+      pageId = next;
+    }
+  }
+
+  /**
+   * Releases the pages of a run of the page cleaner, and puts them back on
+   * the unwritten pages unless they were written.
+   */
+  private synchronized void finishRun(CleanerRun run, boolean written) {
+    for (Page page : run.pages) {
+      PageId pageId = page.getId();
+      cleanedPages.remove(pageId);
+      if (!written && pageIdToPages.containsKey(pageId)) {
+        unwrittenPages.add(pageId);
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Waits until the page cleaner has written the specified page, or all of
+   * the pages it is writing if pageId is null.
+   */
+  private synchronized void awaitCleaning(PageId pageId) {
+    boolean interrupted = false;
+    while (pageId == null ? !cleanedPages.isEmpty() : cleanedPages.contains(pageId)) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the committed contents of an unwritten page. A transaction may be
+   * changing the page again already, in which case its before-image is what
+   * was committed.
+   */
+  private void writeCommittedPage(DbFile dbFile, PageId pageId) throws IOException {
+    unwrittenPages.remove(pageId);
+    Page page = pageIdToPages.get(pageId);
+    dbFile.writePage(page.isDirty() == null ? page : page.getBeforeImage());
+  }
+
+  /**
+   * Writes the pages of committed transactions that the page cleaner has not
+   * written yet.
+   */
+  public synchronized void flushCommittedPages() throws IOException {
+    awaitCleaning(null);
+    while (!unwrittenPages.isEmpty()) {
+      PageId pageId = unwrittenPages.first();
+      writeCommittedPage(Database.getCatalog().getDatabaseFile(pageId.getTableId()), pageId);
+    }
   }
 
   /**
@@ -203,6 +1208,7 @@ public class BufferPool {
    * mode.
    */
   public synchronized void flushAllPages() throws IOException {
+    awaitCleaning(null);
     for (PageId pageId : pageIdToPages.keySet()) {
       flushPage(pageId);
     }
@@ -211,12 +1217,21 @@ public class BufferPool {
   /**
    * Remove the specific page id from the buffer pool. Needed by the recovery
    * manager to ensure that the buffer pool doesn't keep a rolled back page in
-   * its cache.
+   * its cache. Committed changes to the page that the page cleaner has not
+   * written yet are written first.
    */
-  public synchronized void discardPage(PageId pageId) {
+  public synchronized void discardPage(PageId pageId) throws IOException {
+    awaitCleaning(pageId);
+    DbFile dbFile = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+    if (pendingReadAheads.remove(pageId) != null) {
+      readAheadBytes -= dbFile.getPageSize();
+    }
+    pendingLoads.remove(pageId);
     if (pageIdToPages.containsKey(pageId)) {
-      pageIdToPages.remove(pageId);
-      currentPages.decrementAndGet();
+      if (unwrittenPages.contains(pageId)) {
+        writeCommittedPage(dbFile, pageId);
+      }
+      removePage(pageId);
     }
   }
   
@@ -231,7 +1246,8 @@ public class BufferPool {
   }
 
   /**
-   * Flushes a certain page to disk
+   * Flushes a certain page to disk, if it is dirty or the page cleaner has
+   * not written it yet
    * 
    * @param pageId an ID indicating the page to flush
    */
@@ -247,6 +1263,9 @@ public class BufferPool {
         Database.getLogFile().force();
         Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(page);
         page.markDirty(false, null);
+        unwrittenPages.remove(pageId);
+      } else if (unwrittenPages.remove(pageId)) {
+        Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(page);
       }
     }
   }
@@ -255,9 +1274,9 @@ public class BufferPool {
    * Write all pages of the specified transaction to disk.
    */
   public synchronized void flushPages(TransactionId tid) throws IOException {
-    for (PageId pageId : pageIdToPages.keySet()) {
+    for (PageId pageId : getWritablePages(tid)) {
       Page page = pageIdToPages.get(pageId);
-      if (page.isDirty() == tid) {
+      if (page != null && page.isDirty() == tid) {
         flushPage(pageId);
       }
     }
@@ -268,20 +1287,45 @@ public class BufferPool {
   }
 
   /**
-   * Discards a page from the buffer pool. Flushes the page to disk to ensure
-   * dirty pages are updated on disk.
+   * Discards the page the eviction policy chooses from the buffer pool.
+   * Flushes the page to disk to ensure dirty pages are updated on disk. Pinned
+   * pages are never evicted, and pages that were read ahead but have not been
+   * used yet or that the page cleaner has not written yet are only evicted if
+   * there is no other clean page.
    */
   private synchronized void evictPage() throws DbException {
-    Iterator<PageId> pageIdIterator = pageIdToPages.keySet().iterator();
+    drainAccesses();
     PageId pageId = null;
-    while (pageIdIterator.hasNext()) {
-      pageId = pageIdIterator.next();
-      if (!isDirty(pageId)) {
+    for (PageId recycled : recycledPages) {
+      if (!isDirty(recycled) && !isPinned(recycled) && !unusedReadAheads.contains(recycled)
+          && !unwrittenPages.contains(recycled)) {
+        pageId = recycled;
         break;
       }
     }
-    if (pageId == null || isDirty(pageId)) {
-      throw new DbException("All pages in BufferPool are dirty and therefore none can be evicted.");
+    if (pageId == null) {
+      pageId = evictionPolicy.chooseVictim(new EvictionPolicy.Evictable() {
+        @Override
+        public boolean isEvictable(PageId candidate) {
+          return !isDirty(candidate) && !isPinned(candidate)
+              && !unusedReadAheads.contains(candidate) && !unwrittenPages.contains(candidate);
+        }
+      });
+    }
+    if (pageId == null) {
+      pageId = evictionPolicy.chooseVictim(new EvictionPolicy.Evictable() {
+        @Override
+        public boolean isEvictable(PageId candidate) {
+          return !isDirty(candidate) && !isPinned(candidate);
+        }
+      });
+    }
+    if (pageId == null) {
+      throw new DbException(
+          "All pages in BufferPool are dirty or pinned and therefore none can be evicted.");
+    }
+    if (unwrittenPages.contains(pageId)) {
+      evictionWrites.incrementAndGet();
     }
     try {
       flushPage(pageId);
@@ -289,8 +1333,19 @@ public class BufferPool {
       e.printStackTrace();
       throw new DbException("IOException while flushing page during eviction.");
     }
+    removePage(pageId);
+  }
+
+  private void removePage(PageId pageId) {
+    evictionPolicy.pageRemoved(pageId);
+    recycledPages.remove(pageId);
+    unwrittenPages.remove(pageId);
     pageIdToPages.remove(pageId);
-    currentPages.decrementAndGet();
+    int pageSize = pageIdToSizes.remove(pageId).intValue();
+    currentBytes.addAndGet(-pageSize);
+    if (unusedReadAheads.remove(pageId)) {
+      readAheadBytes -= pageSize;
+    }
   }
 
 }
@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * BufferRing is a small private set of frames that a large sequential scan
+ * recycles instead of competing for the whole {@link BufferPool}. The pages
+ * the scan reads in, or that were read ahead for it, are put in its ring; once
+ * the ring is full, the page that has been in it the longest is recycled, i.e.
+ * evicted before any other page when the pool needs room. The pages stay cold
+ * for the {@link EvictionPolicy} as well, so a scan of a table larger than the
+ * pool fills the free frames of the pool and then reuses its own, leaving the
+ * rest of the pool, and the hot pages in it, alone.
+ * <p>
+ * Pages that were in the pool before the scan asked for them are used as
+ * usual and never join the ring, and a recycled page that is asked for again
+ * is a page like any other.
+ *
+ * @see BufferPool#getScanRing
+ */
+public class BufferRing {
+
+  private final int capacity;
+  private final Set<PageId> pageIds;
+
+  BufferRing(int capacity) {
+    this.capacity = capacity;
+    this.pageIds = new LinkedHashSet<PageId>();
+  }
+
+  /**
+   * Returns the number of pages this ring holds at most.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  boolean contains(PageId pageId) {
+    return pageIds.contains(pageId);
+  }
+
+  /**
+   * Adds the specified page to the ring, and returns the page it replaces if
+   * the ring was full, or null.
+   */
+  PageId add(PageId pageId) {
+    PageId replaced = null;
+    if (pageIds.size() >= capacity) {
+      Iterator<PageId> oldest = pageIds.iterator();
+      replaced = oldest.next();
+      oldest.remove();
+    }
+    pageIds.add(pageId);
+    return replaced;
+  }
+}
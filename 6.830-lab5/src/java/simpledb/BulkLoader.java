@@ -0,0 +1,462 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader converts delimited text files into the page format of HeapFile,
+ * and is what HeapFileEncoder, <tt>SimpleDb convert</tt> and the COPY
+ * statement of the Parser are built on.
+ * <p>
+ * The input is split into chunks of about {@link #DEFAULT_CHUNK_SIZE} bytes
+ * that are parsed on a pool of threads. A line belongs to the chunk in which it
+ * starts, so every worker reads its chunk with positional reads, skips the
+ * partial line at the front and finishes the one hanging off the end. Workers
+ * turn their lines into an array of serialized records. A single writer then
+ * packs the records of the chunks, in input order, into fully formed pages of
+ * a large output buffer, which it appends to the file with sequential writes.
+ * Every page but the last is full, so the result is the same whatever the
+ * number of threads. At most two chunks per thread are in flight, so memory
+ * use does not grow with the size of the input.
+ * <p>
+ * Lines are of the form <tt>field,...,field</tt>; blank lines and carriage
+ * returns are ignored, and surrounding whitespace of fields is trimmed. String
+ * fields are truncated to {@link Type#STRING_LEN} bytes.
+ *
+ * @see HeapFile
+ * @see HeapPage
+ */
+public class BulkLoader {
+
+  /** Number of input bytes parsed by a worker at a time. */
+  public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+  /** Size of the buffer of pages appended to the output file at a time. */
+  private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+  private final Type[] types;
+  private final int pageSize;
+  private final char fieldSeparator;
+  private final int numberOfThreads;
+  private final int chunkSize;
+  private final int recordSize;
+  private final int tuplesPerPage;
+  private final int headerSize;
+
+  private BulkLoader(Type[] types, int pageSize, char fieldSeparator, int numberOfThreads,
+      int chunkSize) {
+    this.types = types.clone();
+    this.pageSize = pageSize;
+    this.fieldSeparator = fieldSeparator;
+    this.numberOfThreads = numberOfThreads;
+    this.chunkSize = chunkSize;
+    int size = 0;
+    for (Type type : types) {
+      size += type.getLen();
+    }
+    this.recordSize = size;
+    this.tuplesPerPage = (pageSize * 8) / (recordSize * 8 + 1);
+    this.headerSize = (tuplesPerPage + 7) / 8;
+  }
+
+  /**
+   * Creates a loader for tuples of the specified types that uses one thread
+   * per available processor.
+   */
+  public static BulkLoader create(Type[] types, int pageSize, char fieldSeparator) {
+    return create(types, pageSize, fieldSeparator, Runtime.getRuntime().availableProcessors(),
+        DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates a loader for tuples of the specified types.
+   *
+   * @param types the types of the fields of every line
+   * @param pageSize the size of the pages of the output file in bytes
+   * @param fieldSeparator the character between the fields of a line
+   * @param numberOfThreads the number of threads that parse the input
+   * @param chunkSize the number of input bytes a thread parses at a time
+   */
+  public static BulkLoader create(Type[] types, int pageSize, char fieldSeparator,
+      int numberOfThreads, int chunkSize) {
+    if (numberOfThreads < 1 || chunkSize < 1) {
+      throw new IllegalArgumentException("Need at least one thread and one byte per chunk.");
+    }
+    return new BulkLoader(types, pageSize, fieldSeparator, numberOfThreads, chunkSize);
+  }
+
+  /**
+   * Returns the number of tuples stored on every full page.
+   */
+  public int getTuplesPerPage() {
+    return tuplesPerPage;
+  }
+
+  /**
+   * Converts the specified text file into a new heap file, replacing the
+   * output file and its free space map if they exist. Like HeapFileEncoder
+   * always has, an empty input produces a file with a single empty page.
+   *
+   * @return the number of tuples written
+   * @throws IOException if the files cannot be accessed or a line is malformed
+   */
+  public long load(File inFile, File outFile) throws IOException {
+    FreeSpaceMap.delete(outFile);
+    ZoneMap.delete(outFile);
+    RandomAccessFile output = new RandomAccessFile(outFile, "rw");
+    try {
+      output.setLength(0);
+      FileChannel channel = output.getChannel();
+      long numberOfTuples = append(inFile, channel, 0);
+      if (numberOfTuples == 0) {
+        channel.write(ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize)), 0);
+      }
+      return numberOfTuples;
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Converts the tuples of the specified text file into pages that are
+   * written to the specified channel starting at the specified page number.
+   *
+   * @return the number of tuples written; they fill
+   *         ceiling(tuples / {@link #getTuplesPerPage}) pages
+   * @throws IOException if the files cannot be accessed or a line is malformed
+   */
+  public long append(File inFile, FileChannel output, int firstPageNumber) throws IOException {
+    FileInputStream input = new FileInputStream(inFile);
+    ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+      final FileChannel inputChannel = input.getChannel();
+      long inputSize = inputChannel.size();
+      PageWriter writer = new PageWriter(output, firstPageNumber);
+      LinkedList<Future<Records>> inFlight = new LinkedList<Future<Records>>();
+      long nextChunkStart = 0;
+      while (nextChunkStart < inputSize || !inFlight.isEmpty()) {
+        while (nextChunkStart < inputSize && inFlight.size() < 2 * numberOfThreads) {
+          final long start = nextChunkStart;
+          final long end = Math.min(inputSize, start + chunkSize);
+          inFlight.add(executor.submit(new Callable<Records>() {
+            @Override
+            public Records call() throws IOException {
+              return parseChunk(inputChannel, start, end);
+            }
+          }));
+          nextChunkStart = end;
+        }
+        writer.add(getRecords(inFlight.removeFirst()));
+      }
+      writer.finish();
+      return writer.getNumberOfTuples();
+    } finally {
+      executor.shutdownNow();
+      input.close();
+    }
+  }
+
+  /**
+   * Converts the specified tuples of integers into pages that are written to
+   * the specified channel starting at the specified page number. The tuples
+   * are serialized and written one page at a time.
+   *
+   * @return the number of tuples written
+   */
+  public long append(List<? extends List<Integer>> tuples, FileChannel output,
+      int firstPageNumber) throws IOException {
+    PageWriter writer = new PageWriter(output, firstPageNumber);
+    Records records = new Records(tuplesPerPage * recordSize);
+    for (List<Integer> tuple : tuples) {
+      if (tuple.size() != types.length) {
+        throw new RuntimeException("Tuple has " + tuple.size() + " fields instead of "
+            + types.length + ": (" + Utility.listToString(new ArrayList<Integer>(tuple)) + ")");
+      }
+      for (int i = 0; i < types.length; i++) {
+        if (types[i] != Type.INT_TYPE) {
+          throw new IllegalArgumentException("Only integer fields can be loaded from lists.");
+        }
+        records.putInt(tuple.get(i).intValue());
+      }
+      records.count++;
+      if (records.count == tuplesPerPage) {
+        writer.add(records);
+        records = new Records(tuplesPerPage * recordSize);
+      }
+    }
+    writer.add(records);
+    writer.finish();
+    return writer.getNumberOfTuples();
+  }
+
+  private static Records getRecords(Future<Records> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * The serialized records of a run of consecutive tuples.
+   */
+  private static class Records {
+    byte[] data;
+    int length;
+    int count;
+
+    Records(int capacity) {
+      this.data = new byte[Math.max(capacity, 64)];
+      this.length = 0;
+      this.count = 0;
+    }
+
+    void ensureRemaining(int bytes) {
+      if (length + bytes > data.length) {
+        data = Arrays.copyOf(data, Math.max(length + bytes, data.length * 2));
+      }
+    }
+
+    void putInt(int value) {
+      ensureRemaining(4);
+      data[length++] = (byte) (value >>> 24);
+      data[length++] = (byte) (value >>> 16);
+      data[length++] = (byte) (value >>> 8);
+      data[length++] = (byte) value;
+    }
+  }
+
+  /**
+   * Reads the lines that start within [start, end) of the input and parses
+   * them into records.
+   */
+  private Records parseChunk(FileChannel input, long start, long end) throws IOException {
+    // include the byte before the chunk, to know whether a line starts at start
+    long readStart = start == 0 ? 0 : start - 1;
+    byte[] text = read(input, readStart, (int) (end - readStart), new byte[0], 0);
+    int textLength = text.length;
+    int lineStart = 0;
+    if (start > 0) {
+      lineStart = indexOf(text, 0, textLength, (byte) '\n') + 1;
+      if (lineStart == 0) {
+        // no line starts in this chunk
+        return new Records(0);
+      }
+    }
+    // finish the line that contains the last byte of the chunk
+    long inputSize = input.size();
+    while (text[textLength - 1] != '\n' && readStart + textLength < inputSize) {
+      int extra = (int) Math.min(64 * 1024, inputSize - readStart - textLength);
+      text = read(input, readStart + textLength, extra, text, textLength);
+      int newline = indexOf(text, textLength, textLength + extra, (byte) '\n');
+      textLength = newline >= 0 ? newline + 1 : textLength + extra;
+    }
+
+    Records records = new Records((int) ((end - start) / 2) + recordSize);
+    while (lineStart < textLength) {
+      int lineEnd = indexOf(text, lineStart, textLength, (byte) '\n');
+      if (lineEnd < 0) {
+        lineEnd = textLength;
+      }
+      parseLine(text, lineStart, lineEnd, records, readStart + lineStart);
+      lineStart = lineEnd + 1;
+    }
+    return records;
+  }
+
+  /**
+   * Reads length bytes at the specified position of the input into the
+   * specified array at the specified offset, growing the array if necessary.
+   */
+  private static byte[] read(FileChannel input, long position, int length, byte[] into,
+      int offset) throws IOException {
+    byte[] data = into.length < offset + length ? Arrays.copyOf(into, offset + length) : into;
+    ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+    while (buffer.hasRemaining()) {
+      if (input.read(buffer, position + buffer.position() - offset) < 0) {
+        throw new IOException("Input file shrank while it was being loaded.");
+      }
+    }
+    return data;
+  }
+
+  private static int indexOf(byte[] data, int from, int to, byte value) {
+    for (int i = from; i < to; i++) {
+      if (data[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses the line in [from, to) of the text and appends its record to the
+   * specified records. Blank lines are skipped.
+   */
+  private void parseLine(byte[] text, int from, int to, Records records, long lineOffset)
+      throws IOException {
+    while (to > from && text[to - 1] == '\r') {
+      to--;
+    }
+    if (isBlank(text, from, to)) {
+      return;
+    }
+    records.ensureRemaining(recordSize);
+    int fieldStart = from;
+    for (int field = 0; field < types.length; field++) {
+      int fieldEnd = field == types.length - 1 ? to : indexOf(text, fieldStart, to,
+          (byte) fieldSeparator);
+      if (fieldEnd < 0) {
+        throw malformed("has fewer than " + types.length + " fields", lineOffset);
+      }
+      if (field == types.length - 1 && indexOf(text, fieldStart, to, (byte) fieldSeparator) >= 0) {
+        throw malformed("has more than " + types.length + " fields", lineOffset);
+      }
+      int valueStart = fieldStart;
+      int valueEnd = fieldEnd;
+      while (valueStart < valueEnd && text[valueStart] <= ' ') {
+        valueStart++;
+      }
+      while (valueEnd > valueStart && text[valueEnd - 1] <= ' ') {
+        valueEnd--;
+      }
+      if (types[field] == Type.INT_TYPE) {
+        records.putInt(parseInt(text, valueStart, valueEnd, lineOffset));
+      } else {
+        int length = Math.min(valueEnd - valueStart, Type.STRING_LEN);
+        records.putInt(length);
+        System.arraycopy(text, valueStart, records.data, records.length, length);
+        // the rest of the field is already zero
+        records.length += Type.STRING_LEN;
+      }
+      fieldStart = fieldEnd + 1;
+    }
+    records.count++;
+  }
+
+  private int parseInt(byte[] text, int from, int to, long lineOffset) throws IOException {
+    boolean negative = from < to && text[from] == '-';
+    int i = negative || (from < to && text[from] == '+') ? from + 1 : from;
+    if (i == to) {
+      throw malformed("has an empty integer field", lineOffset);
+    }
+    long value = 0;
+    for (; i < to; i++) {
+      int digit = text[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw malformed("has a bad integer: " + new String(text, from, to - from), lineOffset);
+      }
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1) {
+        throw malformed("has an integer out of range", lineOffset);
+      }
+    }
+    value = negative ? -value : value;
+    if (value > Integer.MAX_VALUE) {
+      throw malformed("has an integer out of range", lineOffset);
+    }
+    return (int) value;
+  }
+
+  private static boolean isBlank(byte[] text, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (text[i] > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static IOException malformed(String problem, long lineOffset) {
+    return new IOException("The line at byte " + lineOffset + " of the input " + problem + ".");
+  }
+
+  /**
+   * Packs records into pages of an output buffer and appends the buffer to
+   * the output channel whenever it fills up.
+   */
+  private class PageWriter {
+    private final FileChannel output;
+    private final byte[] buffer;
+    private long writePosition;
+    private int pageStart;
+    private int tuplesOnPage;
+    private long numberOfTuples;
+
+    PageWriter(FileChannel output, int firstPageNumber) {
+      this.output = output;
+      this.buffer = new byte[Math.max(1, OUTPUT_BUFFER_SIZE / pageSize) * pageSize];
+      this.writePosition = (long) firstPageNumber * pageSize;
+      this.pageStart = 0;
+      this.tuplesOnPage = 0;
+      this.numberOfTuples = 0;
+    }
+
+    long getNumberOfTuples() {
+      return numberOfTuples;
+    }
+
+    void add(Records records) throws IOException {
+      int copied = 0;
+      while (copied < records.count) {
+        int count = Math.min(records.count - copied, tuplesPerPage - tuplesOnPage);
+        System.arraycopy(records.data, copied * recordSize, buffer, pageStart + headerSize
+            + tuplesOnPage * recordSize, count * recordSize);
+        copied += count;
+        tuplesOnPage += count;
+        numberOfTuples += count;
+        if (tuplesOnPage == tuplesPerPage) {
+          finishPage();
+        }
+      }
+    }
+
+    /** Sets the header bits of the current page and moves on to the next. */
+    private void finishPage() throws IOException {
+      Arrays.fill(buffer, pageStart, pageStart + tuplesOnPage / 8, (byte) 0xFF);
+      if (tuplesOnPage % 8 != 0) {
+        buffer[pageStart + tuplesOnPage / 8] = (byte) ((1 << (tuplesOnPage % 8)) - 1);
+      }
+      pageStart += pageSize;
+      tuplesOnPage = 0;
+      if (pageStart == buffer.length) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      ByteBuffer data = ByteBuffer.wrap(buffer, 0, pageStart);
+      while (data.hasRemaining()) {
+        writePosition += output.write(data, writePosition);
+      }
+      Arrays.fill(buffer, 0, pageStart, (byte) 0);
+      pageStart = 0;
+    }
+
+    /** Writes out the last, partially filled page and anything buffered. */
+    void finish() throws IOException {
+      if (tuplesOnPage > 0) {
+        finishPage();
+      }
+      flush();
+    }
+  }
+}
@@ -22,11 +22,19 @@ import java.util.UUID;
  */
 public class Catalog {
 
+  /**
+   * Largest page size a table can be declared with; page formats store
+   * offsets within a page in unsigned shorts.
+   */
+  public static final int MAX_PAGE_SIZE = 65536;
+
   private final List<DbFile> files;
   private final List<String> tableNames;
   private final List<String> primaryKeyFields;
   private final Map<String, Integer> nameToIdMap;
   private final Map<Integer, Integer> idToIndexMap;
+  private final Map<Integer, IndexFile> indexes;
+  private final Map<Integer, List<IndexFile>> tableIdToIndexes;
 
   /**
    * Constructor. Creates a new, empty catalog.
@@ -37,6 +45,8 @@ public class Catalog {
     this.primaryKeyFields = new ArrayList<String>();
     this.nameToIdMap = new HashMap<String, Integer>();
     this.idToIndexMap = new HashMap<Integer, Integer>();
+    this.indexes = new HashMap<Integer, IndexFile>();
+    this.tableIdToIndexes = new HashMap<Integer, List<IndexFile>>();
   }
 
   /**
@@ -76,6 +86,56 @@ public class Catalog {
     addTable(file, (UUID.randomUUID()).toString());
   }
 
+  /**
+   * Add an index on a table of the catalog. The pages of the index can then be
+   * read through the buffer pool, and the buffer pool keeps the index up to
+   * date as tuples are inserted into and deleted from the table. The index
+   * must already hold the entries of the tuples in the table, see
+   * {@link IndexFile#build}.
+   */
+  public void addIndex(IndexFile index) {
+    Integer tableId = new Integer(index.getTableId());
+    checkId(tableId.intValue());
+    indexes.put(new Integer(index.getId()), index);
+    if (!tableIdToIndexes.containsKey(tableId)) {
+      tableIdToIndexes.put(tableId, new ArrayList<IndexFile>());
+    }
+    tableIdToIndexes.get(tableId).add(index);
+  }
+
+  /**
+   * Returns the indexes on the specified table, which may be empty.
+   */
+  public List<IndexFile> getIndexes(int tableId) {
+    List<IndexFile> tableIndexes = tableIdToIndexes.get(new Integer(tableId));
+    if (tableIndexes == null) {
+      return new ArrayList<IndexFile>();
+    }
+    return tableIndexes;
+  }
+
+  /**
+   * Returns an index on the specified field of the specified table that can
+   * answer predicates with the specified operator, or null if there is none.
+   * Hash indexes are preferred over B+tree indexes, as they answer equality
+   * predicates with fewer page reads.
+   */
+  public IndexFile getIndex(int tableId, int field, Predicate.Op op) {
+    IndexFile found = null;
+    for (IndexFile index : getIndexes(tableId)) {
+      if (index.getKeyField() != field || !index.supports(op)) {
+        continue;
+      }
+      if (index instanceof HashIndexFile) {
+        return index;
+      }
+      if (found == null) {
+        found = index;
+      }
+    }
+    return found;
+  }
+
   /**
    * Return the id of the table with a specified name,
    * 
@@ -112,15 +172,31 @@ public class Catalog {
 
   /**
    * Returns the DbFile that can be used to read the contents of the specified
-   * table.
+   * table, or the specified index.
    * 
    * @param tableid The id of the table, as specified by the DbFile.getId()
-   *          function passed to addTable
+   *          function passed to addTable or addIndex
    */
   public DbFile getDatabaseFile(int tableId) throws NoSuchElementException {
+    IndexFile index = indexes.get(new Integer(tableId));
+    if (index != null) {
+      return index;
+    }
     return files.get(getIndex(tableId));
   }
 
+  /**
+   * Returns the size in bytes of the pages of the specified table.
+   * 
+   * @param tableid The id of the table, as specified by the DbFile.getId()
+   *          function passed to addTable
+   * @throws NoSuchElementException if the table doesn't exist
+   * @see DbFile#getPageSize()
+   */
+  public int getPageSize(int tableId) throws NoSuchElementException {
+    return getDatabaseFile(tableId).getPageSize();
+  }
+
   public String getPrimaryKey(int tableId) {
     return primaryKeyFields.get(getIndex(tableId));
   }
@@ -164,6 +240,8 @@ public class Catalog {
     tableNames.clear();
     primaryKeyFields.clear();
     nameToIdMap.clear();
+    indexes.clear();
+    tableIdToIndexes.clear();
   }
 
   /**
@@ -179,7 +257,8 @@ public class Catalog {
       BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
       while ((line = br.readLine()) != null) {
-        // assume line is of the format name (field type, field type, ...)
+        // assume line is of the format
+        // name (field type, field type, ...) [option option ...]
         String name = line.substring(0, line.indexOf("(")).trim();
         // System.out.println("TABLE NAME: " + name);
         String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -210,9 +289,17 @@ public class Catalog {
         Type[] typeAr = types.toArray(new Type[0]);
         String[] namesAr = names.toArray(new String[0]);
         TupleDesc t = new TupleDesc(typeAr, namesAr);
-        HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+        String[] options = line.substring(line.indexOf(")") + 1).trim().split("\\s+");
+        DbFile tabHf = createTableFile(new File(baseFolder + "/" + name + ".dat"), t, options);
         addTable(tabHf, name, primaryKey);
         System.out.println("Added table : " + name + " with schema " + t);
+        for (String option : options) {
+          int equals = option.indexOf('=');
+          if (equals != -1 && isIndexOption(option.substring(0, equals).toLowerCase())) {
+            addSchemaIndex(baseFolder, name, tabHf, option.substring(0, equals).toLowerCase(),
+                option.substring(equals + 1));
+          }
+        }
       }
       br.close();
     } catch (IOException e) {
@@ -223,4 +310,163 @@ public class Catalog {
       System.exit(0);
     }
   }
+
+  /**
+   * Creates the DbFile for a table declared in a schema file. The storage of
+   * the table can be chosen with options following the field list:
+   * <ul>
+   * <li>mmap: the table is a {@link MappedHeapFile}</li>
+   * <li>slotted: the table is a {@link SlottedHeapFile}, which stores strings
+   * in variable length records</li>
+   * <li>columnar: the table is a {@link PaxHeapFile}, which stores each field
+   * in a minipage of its own so that scans read only the fields a query
+   * uses</li>
+   * <li>compressed: the table is a {@link CompressedHeapFile}, which
+   * compresses every column of a page</li>
+   * </ul>
+   * Tables without options are plain HeapFiles. At most one of these options
+   * can be given. In addition, the option pagesize=N sets the size of the pages
+   * of the table to N bytes, e.g. pagesize=65536 for a table that is mostly
+   * scanned; the default is {@link BufferPool#getPageSize()}. The option
+   * index=FIELD adds a B+tree index on an integer field of a HeapFile or
+   * MappedHeapFile table, see addSchemaIndex; it can be given once per field.
+   * Likewise, hashindex=FIELD adds a hash index, which only answers equality
+   * predicates but needs fewer page reads to do so, and bitmapindex=FIELD adds
+   * a bitmap index, for fields with few distinct values.
+   */
+  private DbFile createTableFile(File file, TupleDesc td, String[] options) {
+    String storage = null;
+    int pageSize = BufferPool.getPageSize();
+    for (String option : options) {
+      if (option.length() == 0) {
+        continue;
+      }
+      String lowerCaseOption = option.toLowerCase();
+      if (lowerCaseOption.startsWith("pagesize=")) {
+        pageSize = parsePageSize(option.substring("pagesize=".length()));
+        continue;
+      }
+      if (lowerCaseOption.indexOf('=') != -1
+          && isIndexOption(lowerCaseOption.substring(0, lowerCaseOption.indexOf('=')))) {
+        continue;
+      }
+      if (!lowerCaseOption.equals("mmap") && !lowerCaseOption.equals("slotted")
+          && !lowerCaseOption.equals("columnar") && !lowerCaseOption.equals("compressed")) {
+        System.out.println("Unknown table option " + option);
+        System.exit(0);
+      }
+      if (storage != null && !storage.equals(lowerCaseOption)) {
+        System.out.println("Table options " + storage + " and " + lowerCaseOption
+            + " cannot be combined");
+        System.exit(0);
+      }
+      storage = lowerCaseOption;
+    }
+    int minPageSize = getMinPageSize(storage, td);
+    if (pageSize < minPageSize) {
+      System.out.println("Page size " + pageSize + " cannot hold a tuple of the table, must be"
+          + " at least " + minPageSize);
+      System.exit(0);
+    }
+    if ("mmap".equals(storage)) {
+      return new MappedHeapFile(file, td, pageSize);
+    }
+    if ("slotted".equals(storage)) {
+      return new SlottedHeapFile(file, td, pageSize);
+    }
+    if ("columnar".equals(storage)) {
+      return new PaxHeapFile(file, td, pageSize);
+    }
+    if ("compressed".equals(storage)) {
+      return new CompressedHeapFile(file, td, pageSize);
+    }
+    return new HeapFile(file, td, pageSize);
+  }
+
+  private static boolean isIndexOption(String option) {
+    return option.equals("index") || option.equals("hashindex") || option.equals("bitmapindex");
+  }
+
+  /**
+   * Adds an index on the specified field of a table declared in a schema file.
+   * The kind of index is the name of its option: a B+tree index is stored next
+   * to the table in NAME.FIELD.idx, a hash index in NAME.FIELD.hidx and a
+   * bitmap index in NAME.FIELD.bidx, with pages of the size of the pages of the
+   * table. The index is built from the table when that file does not exist
+   * yet. An index that already exists is used as it is, so it must be deleted
+   * to be rebuilt after the table has been changed without going through the
+   * buffer pool, e.g. by a bulk load.
+   */
+  private void addSchemaIndex(String baseFolder, String tableName, DbFile table, String kind,
+      String fieldName) {
+    if (!(table instanceof HeapFile)) {
+      System.out.println("Table " + tableName + " cannot be indexed, only heap files can");
+      System.exit(0);
+    }
+    int field = -1;
+    try {
+      field = table.getTupleDesc().fieldNameToIndex(fieldName);
+    } catch (NoSuchElementException e) {
+      // reported below
+    }
+    if (field == -1 || table.getTupleDesc().getFieldType(field) != Type.INT_TYPE) {
+      System.out.println("Cannot index " + fieldName + ", it is not an int field of "
+          + tableName);
+      System.exit(0);
+    }
+    String extension = kind.equals("hashindex") ? ".hidx" : kind.equals("bitmapindex") ? ".bidx"
+        : ".idx";
+    File indexFile = new File(baseFolder + "/" + tableName + "." + fieldName + extension);
+    boolean exists = indexFile.length() > 0;
+    IndexFile index;
+    if (kind.equals("hashindex")) {
+      index = new HashIndexFile(indexFile, (HeapFile) table, field, table.getPageSize());
+    } else if (kind.equals("bitmapindex")) {
+      index = new BitmapIndexFile(indexFile, (HeapFile) table, field, table.getPageSize());
+    } else {
+      index = new BTreeFile(indexFile, (HeapFile) table, field, table.getPageSize());
+    }
+    addIndex(index);
+    if (!exists) {
+      try {
+        index.build();
+      } catch (Exception e) {
+        e.printStackTrace();
+        System.exit(0);
+      }
+    }
+    System.out.println("Added " + kind + " on " + tableName + "." + fieldName);
+  }
+
+  /**
+   * Returns the size of the smallest page of the specified storage, as in
+   * createTableFile, that holds a tuple of the specified TupleDesc.
+   */
+  private static int getMinPageSize(String storage, TupleDesc td) {
+    if ("slotted".equals(storage)) {
+      return SlottedPage.getMinPageSize(td);
+    }
+    if ("columnar".equals(storage)) {
+      return PaxPage.getMinPageSize(td);
+    }
+    if ("compressed".equals(storage)) {
+      return CompressedPageEncoder.getMinPageSize(td);
+    }
+    return HeapPage.getMinPageSize(td);
+  }
+
+  private static int parsePageSize(String value) {
+    int pageSize = 0;
+    try {
+      pageSize = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+      System.out.println("Invalid page size " + value + ", must be between 1 and "
+          + MAX_PAGE_SIZE);
+      System.exit(0);
+    }
+    return pageSize;
+  }
 }
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ClockEvictionPolicy approximates LRU with one reference bit per page. The
+ * pages sit in a ring of frames that a hand sweeps: a page whose bit is set
+ * gets a second chance and has its bit cleared, and the first evictable page
+ * whose bit is clear is the victim. Accesses only set a bit, so they are
+ * cheaper than moving a page in a list.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+  private final List<PageId> frames;
+  private final Map<PageId, Integer> pageIdToFrames;
+  private final BitSet referenced;
+  private final LinkedList<Integer> freeFrames;
+  private int hand;
+
+  public ClockEvictionPolicy() {
+    this.frames = new ArrayList<PageId>();
+    this.pageIdToFrames = new HashMap<PageId, Integer>();
+    this.referenced = new BitSet();
+    this.freeFrames = new LinkedList<Integer>();
+    this.hand = 0;
+  }
+
+  @Override
+  public void pageAdded(PageId pageId) {
+    int frame;
+    if (freeFrames.isEmpty()) {
+      frame = frames.size();
+      frames.add(pageId);
+    } else {
+      frame = freeFrames.removeFirst();
+      frames.set(frame, pageId);
+    }
+    pageIdToFrames.put(pageId, frame);
+    referenced.clear(frame);
+  }
+
+  @Override
+  public void pageAccessed(PageId pageId) {
+    Integer frame = pageIdToFrames.get(pageId);
+    if (frame != null) {
+      referenced.set(frame);
+    }
+  }
+
+  @Override
+  public void pageRemoved(PageId pageId) {
+    Integer frame = pageIdToFrames.remove(pageId);
+    if (frame != null) {
+      frames.set(frame, null);
+      referenced.clear(frame);
+      freeFrames.add(frame);
+    }
+  }
+
+  /**
+   * Sweeps the ring at most twice: once to clear the bits of the evictable
+   * pages, and once more to find one of them with a clear bit.
+   */
+  @Override
+  public PageId chooseVictim(Evictable evictable) {
+    for (int step = 0; step < 2 * frames.size(); step++) {
+      if (hand >= frames.size()) {
+        hand = 0;
+      }
+      int frame = hand++;
+      PageId pageId = frames.get(frame);
+      if (pageId == null || !evictable.isEvictable(pageId)) {
+        continue;
+      }
+      if (referenced.get(frame)) {
+        referenced.clear(frame);
+        continue;
+      }
+      return pageId;
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "CLOCK";
+  }
+}
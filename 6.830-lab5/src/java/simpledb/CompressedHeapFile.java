@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * CompressedHeapFile is a DbFile that stores a collection of tuples in no
+ * particular order on CompressedPages, which compress every column of a page
+ * with a scheme chosen for its values. Everything but the page format is
+ * shared with HeapFile, see AbstractHeapFile.
+ * <p>
+ * The free space map of a CompressedHeapFile holds an estimate of the number
+ * of tuples that still fit on every page, based on how well the tuples on the
+ * page compress. Like PaxHeapFile, scans can ask for only some of the fields
+ * of the table and evaluate predicates on the encoded pages.
+ *
+ * @see simpledb.CompressedPage
+ * @see simpledb.AbstractHeapFile
+ */
+public class CompressedHeapFile extends AbstractHeapFile {
+
+  /**
+   * Constructs a compressed heap file backed by the specified file, with pages of the
+   * default size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @see BufferPool#getPageSize()
+   */
+  public CompressedHeapFile(File f, TupleDesc td) {
+    this(f, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Constructs a compressed heap file backed by the specified file, with pages of the
+   * specified size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @param pageSize the size of the pages of the file in bytes
+   */
+  public CompressedHeapFile(File f, TupleDesc td, int pageSize) {
+    super(f, td, pageSize);
+  }
+
+  /**
+   * Writes the specified tuples to a new compressed heap file, filling each
+   * page as far as the tuples compress. Any existing contents of the file are
+   * replaced.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td)
+      throws IOException {
+    encode(tuples, outFile, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Writes the specified tuples to a new file with pages of the specified
+   * size, in the same way as {@link #encode(Iterator, File, TupleDesc)}.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td, int pageSize)
+      throws IOException {
+    FreeSpaceMap.delete(outFile);
+    FileOutputStream os = new FileOutputStream(outFile);
+    try {
+      CompressedPageEncoder encoder = new CompressedPageEncoder(td, pageSize);
+      while (tuples.hasNext()) {
+        Tuple t = tuples.next();
+        if (!encoder.add(t)) {
+          os.write(encoder.encode());
+          encoder = new CompressedPageEncoder(td, pageSize);
+          if (!encoder.add(t)) {
+            throw new IOException("Tuple does not fit on an empty page.");
+          }
+        }
+      }
+      if (encoder.getNumberOfSlots() > 0) {
+        os.write(encoder.encode());
+      }
+    } finally {
+      os.close();
+    }
+  }
+
+  @Override
+  protected Page createPage(PageId pid, byte[] data) {
+    return new CompressedPage(pid, data);
+  }
+
+  @Override
+  protected byte[] createEmptyPageData() {
+    return CompressedPage.createEmptyPageData(getPageSize());
+  }
+
+  @Override
+  protected int getFreeSlots(Page page) {
+    return ((CompressedPage) page).getEstimatedFreeSlots();
+  }
+
+  @Override
+  protected boolean hasRoomFor(Page page, Tuple t) {
+    return ((CompressedPage) page).hasRoomFor(t);
+  }
+
+  @Override
+  protected void addTuple(Page page, Tuple t) throws DbException {
+    ((CompressedPage) page).insertTuple(t);
+  }
+
+  @Override
+  protected void removeTuple(Page page, Tuple t) throws DbException {
+    ((CompressedPage) page).deleteTuple(t);
+  }
+
+  @Override
+  protected Iterator<Tuple> iterator(Page page, boolean[] fields, List<Predicate> predicates) {
+    return ((CompressedPage) page).iterator(fields, predicates);
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Tuple getTuple(Page page, int tupleNumber) {
+    CompressedPage compressedPage = (CompressedPage) page;
+    return compressedPage.isSlotUsed(tupleNumber) ? compressedPage.getTuple(tupleNumber, null)
+        : null;
+  }
+
+  /**
+   * Returns an iterator over the tuples of this file that satisfy all of the
+   * specified predicates, reading only the specified fields.
+   *
+   * @param tid the transaction the iterator runs as a part of
+   * @param fields for every field of the table, whether the returned tuples
+   *          should contain it, or null to return whole tuples. Fields that are
+   *          not returned are null.
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  @Override
+  public DbFileIterator iterator(TransactionId tid, boolean[] fields, List<Predicate> predicates) {
+    return super.iterator(tid, fields, predicates);
+  }
+}
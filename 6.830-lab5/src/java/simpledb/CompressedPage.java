@@ -0,0 +1,547 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of CompressedPage stores data for one page of a
+ * CompressedHeapFile. Like a PaxPage it stores the values of every field
+ * together, but every column is compressed with frame of reference or delta
+ * encoding for integers and dictionary encoding for strings, so a page of
+ * small integers and repeated strings holds many times more tuples than a
+ * HeapPage.
+ * <p>
+ * The page image starts with the number of slots as an unsigned short and a
+ * bitmap of the slots in use, followed by the columns in the format written
+ * by {@link CompressedPageEncoder}. Values are decoded straight from the
+ * image when they are asked for. Predicates are evaluated on the encoded
+ * values where possible: integer comparisons are translated into comparisons
+ * of frame of reference codes, and string predicates are evaluated once per
+ * dictionary entry instead of once per tuple.
+ * <p>
+ * Deleting a tuple only clears its slot. Inserting a tuple re-encodes the
+ * page, reusing the first empty slot, and fails if the result does not fit.
+ *
+ * @see CompressedHeapFile
+ * @see CompressedPageEncoder
+ */
+public class CompressedPage implements Page {
+
+  private final PageId pageId;
+  private final TupleDesc tupleDesc;
+  private final int pageSize;
+  private byte[] pageData;
+
+  // layout of the current image, see parse()
+  private int numberOfSlots;
+  private int usedBytes;
+  private final int[] schemes;
+  private final long[] bases;
+  private final long[] minimumDeltas;
+  private final int[] widths;
+  private final int[] dataOffsets;
+  private final String[][] dictionaries;
+  private final int[][] decodedDeltaColumns;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a CompressedPage from a set of bytes of data read from disk. The
+   * page works on a private copy of the data.
+   *
+   * @see Database#getCatalog
+   * @see Catalog#getTupleDesc
+   */
+  public CompressedPage(PageId id, byte[] data) {
+    this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+  }
+
+  /**
+   * Create a CompressedPage for a table that is not (yet) in the catalog, e.g.
+   * while a file is being built.
+   */
+  CompressedPage(PageId id, TupleDesc td, byte[] data) {
+    this.pageId = id;
+    this.tupleDesc = td;
+    this.pageSize = data.length;
+    int numFields = td.numFields();
+    this.schemes = new int[numFields];
+    this.bases = new long[numFields];
+    this.minimumDeltas = new long[numFields];
+    this.widths = new int[numFields];
+    this.dataOffsets = new int[numFields];
+    this.dictionaries = new String[numFields][];
+    this.decodedDeltaColumns = new int[numFields][];
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+    setPageData(data.clone());
+  }
+
+  /**
+   * Static method to generate a byte array corresponding to an empty
+   * CompressedPage.
+   */
+  public static byte[] createEmptyPageData() {
+    return createEmptyPageData(BufferPool.getPageSize());
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty CompressedPage of a
+   * table with the specified page size.
+   */
+  public static byte[] createEmptyPageData(int pageSize) {
+    return new byte[pageSize];
+  }
+
+  /**
+   * Replaces the image of this page and parses the column headers of the new
+   * image.
+   */
+  private void setPageData(byte[] data) {
+    this.pageData = data;
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    numberOfSlots = buffer.getShort() & 0xFFFF;
+    buffer.position(CompressedPageEncoder.HEADER_SIZE + (numberOfSlots + 7) / 8);
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      decodedDeltaColumns[i] = null;
+      dictionaries[i] = null;
+      if (numberOfSlots == 0) {
+        // an all-zero image is an empty page
+        schemes[i] = tupleDesc.getFieldType(i) == Type.INT_TYPE
+            ? CompressedPageEncoder.FRAME_OF_REFERENCE : CompressedPageEncoder.DICTIONARY;
+        continue;
+      }
+      schemes[i] = buffer.get();
+      int count = numberOfSlots;
+      if (schemes[i] == CompressedPageEncoder.FRAME_OF_REFERENCE) {
+        bases[i] = buffer.getInt();
+      } else if (schemes[i] == CompressedPageEncoder.DELTA) {
+        bases[i] = buffer.getInt();
+        minimumDeltas[i] = buffer.getLong();
+        count = numberOfSlots - 1;
+      } else {
+        String[] dictionary = new String[buffer.getShort() & 0xFFFF];
+        for (int j = 0; j < dictionary.length; j++) {
+          byte[] bytes = new byte[buffer.get() & 0xFF];
+          buffer.get(bytes);
+          dictionary[j] = new String(bytes);
+        }
+        dictionaries[i] = dictionary;
+      }
+      widths[i] = buffer.get();
+      dataOffsets[i] = buffer.position();
+      buffer.position(buffer.position() + CompressedPageEncoder.getPackedSize(count, widths[i]));
+    }
+    usedBytes = buffer.position();
+  }
+
+  /**
+   * Returns true if associated slot on this page is filled.
+   */
+  public boolean isSlotUsed(int slotId) {
+    int headerByte = CompressedPageEncoder.HEADER_SIZE + slotId / 8;
+    return slotId < numberOfSlots && (pageData[headerByte] & (1 << (slotId % 8))) != 0;
+  }
+
+  /**
+   * Returns the number of tuples on this page.
+   */
+  public int getNumTuples() {
+    int count = 0;
+    for (int i = 0; i < numberOfSlots; i++) {
+      if (isSlotUsed(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns a rough estimate of the number of tuples that can still be
+   * inserted into this page, assuming they compress as well as the tuples
+   * already on it.
+   */
+  public int getEstimatedFreeSlots() {
+    if (numberOfSlots == 0) {
+      return Integer.MAX_VALUE;
+    }
+    int bytesPerSlot = Math.max(1, (usedBytes - CompressedPageEncoder.HEADER_SIZE)
+        / numberOfSlots);
+    return (pageSize - usedBytes) / bytesPerSlot;
+  }
+
+  private long getCode(int slotId, int fieldIndex) {
+    return CompressedPageEncoder.getBits(pageData, dataOffsets[fieldIndex], slotId,
+        widths[fieldIndex]);
+  }
+
+  /**
+   * Returns the values of the specified delta encoded column, decoding the
+   * whole column the first time it is asked for.
+   */
+  private int[] getDeltaColumn(int fieldIndex) {
+    int[] values = decodedDeltaColumns[fieldIndex];
+    if (values == null) {
+      values = new int[numberOfSlots];
+      long value = bases[fieldIndex];
+      values[0] = (int) value;
+      for (int i = 1; i < numberOfSlots; i++) {
+        value += minimumDeltas[fieldIndex] + getCode(i - 1, fieldIndex);
+        values[i] = (int) value;
+      }
+      decodedDeltaColumns[fieldIndex] = values;
+    }
+    return values;
+  }
+
+  /**
+   * Returns the value of the specified integer field of the tuple in the
+   * specified slot.
+   *
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public int getInt(int slotId, int fieldIndex) {
+    if (tupleDesc.getFieldType(fieldIndex) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + fieldIndex + " is not an integer field.");
+    }
+    if (schemes[fieldIndex] == CompressedPageEncoder.DELTA) {
+      return getDeltaColumn(fieldIndex)[slotId];
+    }
+    return (int) (bases[fieldIndex] + getCode(slotId, fieldIndex));
+  }
+
+  /**
+   * Returns the specified field of the tuple in the specified slot, decoding
+   * only that field.
+   */
+  public Field getField(int slotId, int fieldIndex) {
+    if (tupleDesc.getFieldType(fieldIndex) == Type.INT_TYPE) {
+      return new IntField(getInt(slotId, fieldIndex));
+    }
+    return new StringField(dictionaries[fieldIndex][(int) getCode(slotId, fieldIndex)],
+        Type.STRING_LEN);
+  }
+
+  /**
+   * Returns true if the tuple in the specified (used) slot satisfies the
+   * specified predicate.
+   */
+  public boolean satisfies(int slotId, Predicate predicate) {
+    return satisfies(slotId, predicate, null);
+  }
+
+  /**
+   * Returns true if the tuple in the specified (used) slot satisfies the
+   * specified predicate, looking up string predicates in the specified
+   * results of the predicate for every dictionary entry if they are given.
+   */
+  private boolean satisfies(int slotId, Predicate predicate, boolean[] dictionaryMatches) {
+    int fieldIndex = predicate.getField();
+    switch (schemes[fieldIndex]) {
+    case CompressedPageEncoder.FRAME_OF_REFERENCE:
+      // value op operand holds exactly if code op (operand - base) does
+      long target = ((IntField) predicate.getOperand()).getValue() - bases[fieldIndex];
+      return compare(getCode(slotId, fieldIndex), predicate.getOp(), target);
+    case CompressedPageEncoder.DELTA:
+      return IntField.compare(getDeltaColumn(fieldIndex)[slotId], predicate.getOp(),
+          ((IntField) predicate.getOperand()).getValue());
+    default:
+      int code = (int) getCode(slotId, fieldIndex);
+      if (dictionaryMatches != null) {
+        return dictionaryMatches[code];
+      }
+      return new StringField(dictionaries[fieldIndex][code], Type.STRING_LEN).compare(
+          predicate.getOp(), predicate.getOperand());
+    }
+  }
+
+  private static boolean compare(long value, Predicate.Op op, long operand) {
+    switch (op) {
+    case EQUALS:
+    case LIKE:
+      return value == operand;
+    case NOT_EQUALS:
+      return value != operand;
+    case GREATER_THAN:
+      return value > operand;
+    case GREATER_THAN_OR_EQ:
+      return value >= operand;
+    case LESS_THAN:
+      return value < operand;
+    case LESS_THAN_OR_EQ:
+      return value <= operand;
+    }
+    return false;
+  }
+
+  /**
+   * Evaluates a string predicate on every entry of the dictionary of its
+   * field.
+   */
+  private boolean[] evaluateOnDictionary(Predicate predicate) {
+    String[] dictionary = dictionaries[predicate.getField()];
+    boolean[] matches = new boolean[dictionary.length];
+    for (int i = 0; i < dictionary.length; i++) {
+      matches[i] = new StringField(dictionary[i], Type.STRING_LEN).compare(predicate.getOp(),
+          predicate.getOperand());
+    }
+    return matches;
+  }
+
+  /**
+   * Returns false if no tuple on this page can satisfy the specified
+   * predicate, judging only from the column headers.
+   */
+  private boolean mayMatch(Predicate predicate, boolean[] dictionaryMatches) {
+    int fieldIndex = predicate.getField();
+    if (dictionaryMatches != null) {
+      for (boolean match : dictionaryMatches) {
+        if (match) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (schemes[fieldIndex] != CompressedPageEncoder.FRAME_OF_REFERENCE) {
+      return true;
+    }
+    // codes lie between zero and the largest value of the column's width
+    long target = ((IntField) predicate.getOperand()).getValue() - bases[fieldIndex];
+    long maximumCode = (1L << widths[fieldIndex]) - 1;
+    Predicate.Op op = predicate.getOp();
+    if (op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE) {
+      return target >= 0 && target <= maximumCode;
+    }
+    return op == Predicate.Op.NOT_EQUALS || compare(0, op, target)
+        || compare(maximumCode, op, target);
+  }
+
+  /**
+   * Decodes the specified fields of the tuple in the specified used slot. The
+   * other fields of the returned tuple are null.
+   */
+  Tuple getTuple(int slotId, boolean[] fields) {
+    Tuple t = new Tuple(tupleDesc);
+    t.setRecordId(new RecordId(pageId, slotId));
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      if (fields == null || fields[i]) {
+        t.setField(i, getField(slotId, i));
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Returns the image this page would have after inserting the specified
+   * tuple into its first empty slot, or null if it would not fit.
+   */
+  private byte[] encodeWith(Tuple t) {
+    CompressedPageEncoder encoder = new CompressedPageEncoder(tupleDesc, pageSize);
+    int insertSlot = getFirstEmptySlot();
+    boolean[] used = new boolean[Math.max(numberOfSlots, insertSlot + 1)];
+    for (int slot = 0; slot < used.length; slot++) {
+      boolean added;
+      if (slot == insertSlot) {
+        added = encoder.add(t);
+      } else {
+        // empty slots keep their old values, which are never returned
+        added = encoder.add(getTuple(slot, null));
+      }
+      if (!added) {
+        return null;
+      }
+      used[slot] = slot == insertSlot || isSlotUsed(slot);
+    }
+    return encoder.encode(used);
+  }
+
+  private int getFirstEmptySlot() {
+    int slot = 0;
+    while (slot < numberOfSlots && isSlotUsed(slot)) {
+      slot++;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns true if the specified tuple can be inserted into this page.
+   */
+  public boolean hasRoomFor(Tuple t) {
+    return encodeWith(t) != null;
+  }
+
+  /**
+   * Adds the specified tuple to the page; the tuple should be updated to
+   * reflect that it is now stored on this page.
+   *
+   * @throws DbException if the page does not have room for the tuple or
+   *           tupledesc is mismatch.
+   * @param t The tuple to add.
+   */
+  public void insertTuple(Tuple t) throws DbException {
+    if (!(t.getTupleDesc().equals(tupleDesc))) {
+      throw new DbException("Cannot insert a Tuple with a different TupleDesc.");
+    }
+    int slotId = getFirstEmptySlot();
+    byte[] newData = encodeWith(t);
+    if (newData == null) {
+      throw new DbException("Not enough space on page for Tuple insertion.");
+    }
+    captureBeforeImage();
+    setPageData(newData);
+    t.setRecordId(new RecordId(pageId, slotId));
+  }
+
+  /**
+   * Delete the specified tuple from the page; the tuple should be updated to
+   * reflect that it is no longer stored on any page.
+   *
+   * @throws DbException if this tuple is not on this page, or tuple slot is
+   *           already empty.
+   * @param t The tuple to delete
+   */
+  public void deleteTuple(Tuple t) throws DbException {
+    if (t.getRecordId() == null || !(t.getRecordId().getPageId().equals(pageId))) {
+      throw new DbException("Tuple can only be deleted from its page.");
+    }
+    int slotId = t.getRecordId().tupleno();
+    if (!isSlotUsed(slotId)) {
+      throw new DbException("Tuple's slot is already empty.");
+    }
+    captureBeforeImage();
+    pageData[CompressedPageEncoder.HEADER_SIZE + slotId / 8] &= ~(1 << (slotId % 8));
+    t.setRecordId(null);
+  }
+
+  /**
+   * @return an iterator over all tuples on this page (calling remove on this
+   *         iterator throws an UnsupportedOperationException)
+   */
+  public Iterator<Tuple> iterator() {
+    return iterator(null, null);
+  }
+
+  /**
+   * @return an iterator over the tuples on this page that satisfy all of the
+   *         specified predicates, with only the specified fields filled in.
+   * @param fields for every field of the table, whether the returned tuples
+   *          should contain it, or null to return whole tuples
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  public Iterator<Tuple> iterator(final boolean[] fields, final List<Predicate> predicates) {
+    final boolean[][] dictionaryMatches = new boolean[predicates == null ? 0 : predicates.size()][];
+    boolean pageMayMatch = true;
+    for (int i = 0; i < dictionaryMatches.length; i++) {
+      Predicate predicate = predicates.get(i);
+      if (schemes[predicate.getField()] == CompressedPageEncoder.DICTIONARY) {
+        dictionaryMatches[i] = evaluateOnDictionary(predicate);
+      }
+      pageMayMatch = pageMayMatch && mayMatch(predicate, dictionaryMatches[i]);
+    }
+    final int lastSlot = pageMayMatch ? numberOfSlots : 0;
+
+    return new Iterator<Tuple>() {
+
+      int currentSlot = getNextMatchingSlot(0);
+
+      private int getNextMatchingSlot(int startSlot) {
+        int slot = startSlot;
+        while (slot < lastSlot && !(isSlotUsed(slot) && satisfiesAll(slot))) {
+          slot++;
+        }
+        return slot;
+      }
+
+      private boolean satisfiesAll(int slotId) {
+        for (int i = 0; i < dictionaryMatches.length; i++) {
+          if (!satisfies(slotId, predicates.get(i), dictionaryMatches[i])) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return currentSlot < lastSlot;
+      }
+
+      @Override
+      public Tuple next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Tuple tuple = getTuple(currentSlot, fields);
+        currentSlot = getNextMatchingSlot(currentSlot + 1);
+        return tuple;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return the PageId associated with this page.
+   */
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public CompressedPage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new CompressedPage(pageId, tupleDesc, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
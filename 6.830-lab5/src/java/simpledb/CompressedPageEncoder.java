@@ -0,0 +1,350 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CompressedPageEncoder builds the image of a CompressedPage from a sequence
+ * of tuples. Tuples are added one at a time; the encoder keeps enough
+ * statistics about every column to know the size of the encoded page after
+ * each addition, so it can refuse a tuple that would not fit.
+ * <p>
+ * Every column of a page is compressed with one of three schemes:
+ * <ul>
+ * <li>frame of reference (INT): the minimum value of the column, followed by
+ * the difference of every value from it, bit-packed with as many bits as the
+ * largest difference needs.</li>
+ * <li>delta (INT): the first value and the smallest difference between
+ * consecutive values, followed by the amount by which every difference
+ * exceeds the smallest one, bit-packed. Used instead of frame of reference
+ * when it is smaller, e.g. for ascending keys.</li>
+ * <li>dictionary (STRING): the distinct strings of the column, followed by the
+ * position of every value in that list, bit-packed.</li>
+ * </ul>
+ *
+ * @see CompressedPage
+ */
+public class CompressedPageEncoder {
+
+  static final int FRAME_OF_REFERENCE = 0;
+  static final int DELTA = 1;
+  static final int DICTIONARY = 2;
+
+  /** Size of the page header holding the number of slots. */
+  static final int HEADER_SIZE = 2;
+  private static final int MAX_SLOTS = 0xFFFF;
+
+  private final TupleDesc tupleDesc;
+  private final int pageSize;
+  private final ArrayList<Field[]> rows;
+
+  // statistics of INT columns
+  private final long[] minimums;
+  private final long[] maximums;
+  private final long[] minimumDeltas;
+  private final long[] maximumDeltas;
+
+  // dictionaries of STRING columns, mapping every string to its code
+  private final ArrayList<LinkedHashMap<String, Integer>> dictionaries;
+  private final int[] dictionarySizes;
+
+  /**
+   * Creates an encoder for pages of the specified size holding tuples of the
+   * specified TupleDesc.
+   */
+  public CompressedPageEncoder(TupleDesc td, int pageSize) {
+    this.tupleDesc = td;
+    this.pageSize = pageSize;
+    this.rows = new ArrayList<Field[]>();
+    int numFields = td.numFields();
+    this.minimums = new long[numFields];
+    this.maximums = new long[numFields];
+    this.minimumDeltas = new long[numFields];
+    this.maximumDeltas = new long[numFields];
+    this.dictionaries = new ArrayList<LinkedHashMap<String, Integer>>();
+    this.dictionarySizes = new int[numFields];
+    for (int i = 0; i < numFields; i++) {
+      dictionaries.add(new LinkedHashMap<String, Integer>());
+    }
+  }
+
+  /**
+   * Returns the number of tuples added so far.
+   */
+  public int getNumberOfSlots() {
+    return rows.size();
+  }
+
+  /**
+   * Appends the specified tuple to the page if the encoded page still fits in
+   * the page size afterwards.
+   *
+   * @return true if the tuple was added, false if it does not fit
+   */
+  public boolean add(Tuple t) {
+    Field[] row = new Field[tupleDesc.numFields()];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = t.getField(i);
+    }
+    return add(row);
+  }
+
+  /**
+   * Appends a row of fields to the page if the encoded page still fits in the
+   * page size afterwards.
+   *
+   * @return true if the row was added, false if it does not fit
+   */
+  boolean add(Field[] row) {
+    int count = rows.size() + 1;
+    if (count > MAX_SLOTS) {
+      return false;
+    }
+    int size = HEADER_SIZE + (count + 7) / 8;
+    for (int i = 0; i < row.length; i++) {
+      if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+        long value = ((IntField) row[i]).getValue();
+        long minimum = rows.isEmpty() ? value : Math.min(minimums[i], value);
+        long maximum = rows.isEmpty() ? value : Math.max(maximums[i], value);
+        long minimumDelta = minimumDeltas[i];
+        long maximumDelta = maximumDeltas[i];
+        if (!rows.isEmpty()) {
+          long delta = value - ((IntField) rows.get(rows.size() - 1)[i]).getValue();
+          minimumDelta = count == 2 ? delta : Math.min(minimumDelta, delta);
+          maximumDelta = count == 2 ? delta : Math.max(maximumDelta, delta);
+        }
+        size += getIntColumnSize(count, minimum, maximum, minimumDelta, maximumDelta);
+      } else {
+        String value = getStringValue(row[i]);
+        int entries = dictionaries.get(i).size();
+        int bytes = dictionarySizes[i];
+        if (!dictionaries.get(i).containsKey(value)) {
+          entries++;
+          bytes += 1 + value.length();
+        }
+        size += getStringColumnSize(count, entries, bytes);
+      }
+      if (size > pageSize) {
+        return false;
+      }
+    }
+
+    // the row fits, so update the statistics
+    for (int i = 0; i < row.length; i++) {
+      if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+        long value = ((IntField) row[i]).getValue();
+        if (!rows.isEmpty()) {
+          long delta = value - ((IntField) rows.get(rows.size() - 1)[i]).getValue();
+          minimumDeltas[i] = count == 2 ? delta : Math.min(minimumDeltas[i], delta);
+          maximumDeltas[i] = count == 2 ? delta : Math.max(maximumDeltas[i], delta);
+        }
+        minimums[i] = rows.isEmpty() ? value : Math.min(minimums[i], value);
+        maximums[i] = rows.isEmpty() ? value : Math.max(maximums[i], value);
+      } else {
+        String value = getStringValue(row[i]);
+        LinkedHashMap<String, Integer> dictionary = dictionaries.get(i);
+        if (!dictionary.containsKey(value)) {
+          dictionary.put(value, dictionary.size());
+          dictionarySizes[i] += 1 + value.length();
+        }
+      }
+    }
+    rows.add(row);
+    return true;
+  }
+
+  private static String getStringValue(Field field) {
+    String value = ((StringField) field).getValue();
+    return value.length() > Type.STRING_LEN ? value.substring(0, Type.STRING_LEN) : value;
+  }
+
+  /**
+   * Returns the size of the smallest page that holds any single tuple of the
+   * specified TupleDesc, with every string as long as it can be.
+   */
+  static int getMinPageSize(TupleDesc td) {
+    int size = HEADER_SIZE + 1;
+    for (int i = 0; i < td.numFields(); i++) {
+      if (td.getFieldType(i) == Type.INT_TYPE) {
+        size += getIntColumnSize(1, 0, 0, 0, 0);
+      } else {
+        size += getStringColumnSize(1, 1, 1 + Type.STRING_LEN);
+      }
+    }
+    return size;
+  }
+
+  private static int getFrameOfReferenceSize(int count, long minimum, long maximum) {
+    return 4 + 1 + getPackedSize(count, getBitWidth(maximum - minimum));
+  }
+
+  private static int getDeltaSize(int count, long minimumDelta, long maximumDelta) {
+    return 4 + 8 + 1 + getPackedSize(count - 1, getBitWidth(maximumDelta - minimumDelta));
+  }
+
+  private static int getIntColumnSize(int count, long minimum, long maximum, long minimumDelta,
+      long maximumDelta) {
+    int size = getFrameOfReferenceSize(count, minimum, maximum);
+    if (count > 1) {
+      size = Math.min(size, getDeltaSize(count, minimumDelta, maximumDelta));
+    }
+    return 1 + size;
+  }
+
+  private static int getStringColumnSize(int count, int entries, int dictionaryBytes) {
+    return 1 + 2 + dictionaryBytes + 1 + getPackedSize(count, getBitWidth(entries - 1));
+  }
+
+  /**
+   * Returns the image of a page holding the tuples added so far, padded to
+   * the page size. The used slots of the page are the same as the rows that
+   * were added; call {@link #encode(boolean[])} to mark some of them empty.
+   */
+  public byte[] encode() {
+    boolean[] used = new boolean[rows.size()];
+    for (int i = 0; i < used.length; i++) {
+      used[i] = true;
+    }
+    return encode(used);
+  }
+
+  /**
+   * Returns the image of a page holding the rows added so far, of which the
+   * specified ones are in use. The values of unused slots are encoded as well,
+   * but are never returned by the page.
+   */
+  byte[] encode(boolean[] used) {
+    int count = rows.size();
+    byte[] data = new byte[pageSize];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    buffer.putShort((short) count);
+    for (int slot = 0; slot < count; slot++) {
+      if (used[slot]) {
+        data[HEADER_SIZE + slot / 8] |= 1 << (slot % 8);
+      }
+    }
+    buffer.position(HEADER_SIZE + (count + 7) / 8);
+
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      if (tupleDesc.getFieldType(i) == Type.INT_TYPE) {
+        encodeIntColumn(buffer, i);
+      } else {
+        encodeStringColumn(buffer, i);
+      }
+    }
+    return data;
+  }
+
+  private long getIntValue(int slot, int field) {
+    return ((IntField) rows.get(slot)[field]).getValue();
+  }
+
+  private void encodeIntColumn(ByteBuffer buffer, int field) {
+    int count = rows.size();
+    if (count == 0) {
+      buffer.put((byte) FRAME_OF_REFERENCE);
+      buffer.putInt(0);
+      buffer.put((byte) 0);
+      return;
+    }
+    int frameOfReferenceSize = getFrameOfReferenceSize(count, minimums[field], maximums[field]);
+    boolean useDelta = count > 1
+        && getDeltaSize(count, minimumDeltas[field], maximumDeltas[field]) < frameOfReferenceSize;
+    if (useDelta) {
+      int width = getBitWidth(maximumDeltas[field] - minimumDeltas[field]);
+      buffer.put((byte) DELTA);
+      buffer.putInt((int) getIntValue(0, field));
+      buffer.putLong(minimumDeltas[field]);
+      buffer.put((byte) width);
+      for (int slot = 1; slot < count; slot++) {
+        long delta = getIntValue(slot, field) - getIntValue(slot - 1, field);
+        putBits(buffer.array(), buffer.position(), slot - 1, width, delta - minimumDeltas[field]);
+      }
+      buffer.position(buffer.position() + getPackedSize(count - 1, width));
+    } else {
+      int width = getBitWidth(maximums[field] - minimums[field]);
+      buffer.put((byte) FRAME_OF_REFERENCE);
+      buffer.putInt((int) minimums[field]);
+      buffer.put((byte) width);
+      for (int slot = 0; slot < count; slot++) {
+        putBits(buffer.array(), buffer.position(), slot, width, getIntValue(slot, field)
+            - minimums[field]);
+      }
+      buffer.position(buffer.position() + getPackedSize(count, width));
+    }
+  }
+
+  private void encodeStringColumn(ByteBuffer buffer, int field) {
+    LinkedHashMap<String, Integer> dictionary = dictionaries.get(field);
+    buffer.put((byte) DICTIONARY);
+    buffer.putShort((short) dictionary.size());
+    for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+      String value = entry.getKey();
+      buffer.put((byte) value.length());
+      // same encoding as StringField.serialize, only the low byte of each char
+      for (int i = 0; i < value.length(); i++) {
+        buffer.put((byte) value.charAt(i));
+      }
+    }
+    int width = getBitWidth(dictionary.size() - 1);
+    buffer.put((byte) width);
+    for (int slot = 0; slot < rows.size(); slot++) {
+      int code = dictionary.get(getStringValue(rows.get(slot)[field]));
+      putBits(buffer.array(), buffer.position(), slot, width, code);
+    }
+    buffer.position(buffer.position() + getPackedSize(rows.size(), width));
+  }
+
+  /**
+   * Returns the number of bits needed to store values from zero to the
+   * specified maximum.
+   */
+  static int getBitWidth(long maximum) {
+    return maximum <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(maximum);
+  }
+
+  /**
+   * Returns the number of bytes taken by the specified number of bit-packed
+   * values of the specified width.
+   */
+  static int getPackedSize(int count, int width) {
+    return (int) (((long) count * width + 7) / 8);
+  }
+
+  /**
+   * Stores the value with the specified index in a bit-packed array of values
+   * of the specified width that starts at the specified offset. The bits of
+   * the value must still be zero.
+   */
+  static void putBits(byte[] data, int offset, int index, int width, long value) {
+    long bit = (long) index * width;
+    for (int remaining = width; remaining > 0;) {
+      int bitInByte = (int) (bit & 7);
+      int take = Math.min(8 - bitInByte, remaining);
+      int chunk = (int) (value >>> (remaining - take)) & ((1 << take) - 1);
+      data[offset + (int) (bit >>> 3)] |= chunk << (8 - bitInByte - take);
+      bit += take;
+      remaining -= take;
+    }
+  }
+
+  /**
+   * Returns the value with the specified index in a bit-packed array of values
+   * of the specified width that starts at the specified offset.
+   */
+  static long getBits(byte[] data, int offset, int index, int width) {
+    long result = 0;
+    long bit = (long) index * width;
+    for (int remaining = width; remaining > 0;) {
+      int bitInByte = (int) (bit & 7);
+      int take = Math.min(8 - bitInByte, remaining);
+      int current = data[offset + (int) (bit >>> 3)] & 0xFF;
+      result = (result << take) | ((current >>> (8 - bitInByte - take)) & ((1 << take) - 1));
+      bit += take;
+      remaining -= take;
+    }
+    return result;
+  }
+}
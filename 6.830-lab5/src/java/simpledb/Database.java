@@ -56,11 +56,39 @@ public class Database {
    * return it
    */
   public static BufferPool resetBufferPool(int pages) {
+    return setBufferPool(new BufferPool(pages));
+  }
+
+  /**
+   * Method used for testing -- create a new instance of the buffer pool that
+   * evicts pages as the specified policy says and return it
+   */
+  public static BufferPool resetBufferPool(int pages, EvictionPolicy evictionPolicy) {
+    return setBufferPool(new BufferPool(pages, evictionPolicy));
+  }
+
+  /**
+   * Method used for testing -- create a new instance of the buffer pool that
+   * holds up to the specified number of bytes of pages and return it
+   */
+  public static BufferPool resetBufferPoolCapacity(long capacityBytes) {
+    return setBufferPool(BufferPool.createWithCapacity(capacityBytes));
+  }
+
+  private static BufferPool setBufferPool(BufferPool bufferPool) {
+    // the old pool writes out its committed pages first
+    BufferPool oldBufferPool = getBufferPool();
+    try {
+      oldBufferPool.flushCommittedPages();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    oldBufferPool.stopPageCleaner();
     java.lang.reflect.Field bufferPoolF = null;
     try {
       bufferPoolF = Database.class.getDeclaredField("_bufferpool");
       bufferPoolF.setAccessible(true);
-      bufferPoolF.set(_instance.get(), new BufferPool(pages));
+      bufferPoolF.set(_instance.get(), bufferPool);
     } catch (NoSuchFieldException e) {
       e.printStackTrace();
     } catch (SecurityException e) {
@@ -76,6 +104,9 @@ public class Database {
 
   // reset the database, used for unit tests only.
   public static void reset() {
+    // like a crash, the pages the page cleaner has not written are left to
+    // recovery
+    _instance.get()._bufferpool.stopPageCleaner();
     _instance.set(new Database());
   }
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -18,6 +19,17 @@ public interface DbFile {
    */
   public Page readPage(PageId id);
 
+  /**
+   * Read the specified run of consecutive pages from disk, with as few reads
+   * as the file allows. Used by the buffer pool to read ahead of scans.
+   * 
+   * @param startPageNumber the number of the first page to read
+   * @param count the number of pages to read
+   * @return the pages, in order
+   * @throws IllegalArgumentException if a page does not exist in this file.
+   */
+  public List<Page> readPages(int startPageNumber, int count);
+
   /**
    * Push the specified page to disk.
    * 
@@ -84,4 +96,11 @@ public interface DbFile {
    * @return TupleDesc of this DbFile.
    */
   public TupleDesc getTupleDesc();
+
+  /**
+   * Returns the size in bytes of the pages of this file. Different files may
+   * use different page sizes, e.g. larger pages for tables that are mostly
+   * scanned.
+   */
+  public int getPageSize();
 }
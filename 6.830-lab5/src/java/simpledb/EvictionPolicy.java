@@ -0,0 +1,52 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which page the {@link BufferPool} evicts when it
+ * needs room. The pool tells the policy about every page that enters or
+ * leaves it and about every time a page is asked for, and asks it for a
+ * victim among the pages that may be evicted.
+ * <p>
+ * A policy keeps state about the pages of a single pool, so every pool needs
+ * its own instance. The pool calls it while holding its own lock, so
+ * implementations need not be thread-safe.
+ *
+ * @see ClockEvictionPolicy
+ * @see LruKEvictionPolicy
+ * @see TwoQueueEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+  /**
+   * Tells which of the pages in the pool may be evicted right now; pages that
+   * are dirty, for instance, may not.
+   */
+  public interface Evictable {
+    public boolean isEvictable(PageId pageId);
+  }
+
+  /**
+   * Called when the specified page enters the pool, either because a
+   * transaction asked for it or because it was read ahead. Asking for it is
+   * reported separately with {@link #pageAccessed}.
+   */
+  public void pageAdded(PageId pageId);
+
+  /**
+   * Called every time {@link BufferPool#getPage} returns the specified page.
+   */
+  public void pageAccessed(PageId pageId);
+
+  /**
+   * Called when the specified page leaves the pool, because it was evicted or
+   * discarded.
+   */
+  public void pageRemoved(PageId pageId);
+
+  /**
+   * Chooses the page to evict among the pages in the pool that are evictable.
+   * The page stays in the pool until the pool removes it.
+   *
+   * @return the page to evict, or null if no page is evictable
+   */
+  public PageId chooseVictim(Evictable evictable);
+}
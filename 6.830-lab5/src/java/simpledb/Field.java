@@ -3,6 +3,7 @@ package simpledb;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -16,6 +17,14 @@ public interface Field extends Serializable {
    */
   void serialize(DataOutputStream dos) throws IOException;
 
+  /**
+   * Write the bytes representing this field to the specified buffer, starting
+   * at its current position, in the same format as serialize(DataOutputStream).
+   * 
+   * @param buffer The buffer to write to.
+   */
+  void serialize(ByteBuffer buffer);
+
   /**
    * Compare the value of this field object to the passed in value.
    * 
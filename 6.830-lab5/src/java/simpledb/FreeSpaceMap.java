@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap is a persistent sidecar to a HeapFile that records, for every
+ * page of the file, an approximate number of free tuple slots. Inserts consult
+ * the map to go straight to a page with room instead of probing every page of
+ * the file.
+ * <p>
+ * The map is stored next to the heap file as one unsigned byte per page. An
+ * entry of {@link #UNKNOWN} (zero, so holes in a sparse sidecar read back as
+ * unknown) means the page has not been inspected yet and may have room; any
+ * other entry is one more than the (capped) number of free slots seen the last
+ * time the page was inspected. Entries are only hints: callers must re-check
+ * the page itself before relying on them.
+ * <p>
+ * The on-disk entry of a page is rewritten every time the page is written
+ * through {@link HeapFile#writePage}, which includes the redo and undo writes
+ * performed by {@link LogFile#recover()} and {@link LogFile#rollback}, so the
+ * map converges to the contents of the heap file after recovery. Likewise, the
+ * buffer pool resets the entry of a page when an abort puts back its
+ * before-image, so that a page filled by an aborted transaction is not skipped
+ * as full.
+ * <p>
+ * The sidecar is only open while an entry is read or written, so that a map
+ * does not hold on to a file descriptor for as long as its heap file lives.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+  /** Entry value for pages whose free space is not known. */
+  static final int UNKNOWN = 0;
+  /** Entry value for pages that have no free slots. */
+  static final int FULL = 1;
+  /** Largest free slot count that an entry can represent. */
+  static final int MAX_TRACKED_SLOTS = 0xFF - FULL;
+
+  private static final String SIDECAR_SUFFIX = ".fsm";
+
+  private final File sidecarFile;
+  private byte[] entries;
+  private int searchStart;
+
+  private FreeSpaceMap(File sidecarFile, byte[] entries) {
+    this.sidecarFile = sidecarFile;
+    this.entries = entries;
+    this.searchStart = 0;
+  }
+
+  /**
+   * Opens the free space map that belongs to the specified heap file, creating
+   * it if necessary. Pages that the sidecar does not know about are marked
+   * {@link #UNKNOWN}.
+   *
+   * @param heapFile the file backing the heap file
+   * @param numPages the number of pages currently in the heap file
+   */
+  public static FreeSpaceMap open(File heapFile, int numPages) {
+    File sidecarFile = getSidecarFile(heapFile);
+    try {
+      RandomAccessFile accessFile = new RandomAccessFile(sidecarFile, "rw");
+      try {
+        byte[] entries = new byte[Math.max(numPages, 1)];
+        int persistedEntries = (int) Math.min(accessFile.length(), numPages);
+        accessFile.seek(0);
+        accessFile.readFully(entries, 0, persistedEntries);
+        return new FreeSpaceMap(sidecarFile, entries);
+      } finally {
+        accessFile.close();
+      }
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Deletes the free space map of the specified heap file. Used by tools that
+   * rewrite a heap file from scratch so that stale hints are not picked up.
+   */
+  public static void delete(File heapFile) {
+    getSidecarFile(heapFile).delete();
+  }
+
+  private static File getSidecarFile(File heapFile) {
+    return new File(heapFile.getPath() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * Returns the number of a page below numPages whose entry says it may have a
+   * free slot, or -1 if there is none. The search resumes where the previous
+   * successful search ended so that consecutive inserts fill the same page.
+   */
+  public synchronized int findPageWithFreeSpace(int numPages) {
+    int limit = Math.min(numPages, entries.length);
+    if (limit == 0) {
+      return -1;
+    }
+    int start = searchStart < limit ? searchStart : 0;
+    for (int i = 0; i < limit; i++) {
+      int pageNumber = (start + i) % limit;
+      if (entries[pageNumber] != FULL) {
+        searchStart = pageNumber;
+        return pageNumber;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the number of the first page in the specified range whose entry
+   * says it may have a free slot, or -1 if there is none. Unlike
+   * {@link #findPageWithFreeSpace(int)}, this always searches from the start
+   * of the range, so that {@link HeapFile#compact} fills the first pages of
+   * the file.
+   *
+   * @param start the first page to consider
+   * @param end the page after the last page to consider
+   */
+  public synchronized int findFirstPageWithFreeSpace(int start, int end) {
+    int limit = Math.min(end, entries.length);
+    for (int pageNumber = Math.max(start, 0); pageNumber < limit; pageNumber++) {
+      if (entries[pageNumber] != FULL) {
+        return pageNumber;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Records in memory that the specified page has the specified number of free
+   * slots.
+   */
+  public synchronized void update(int pageNumber, int freeSlots) {
+    ensureCapacity(pageNumber + 1);
+    entries[pageNumber] = encode(freeSlots);
+  }
+
+  /**
+   * Records that the specified page has the specified number of free slots and
+   * writes the entry through to the sidecar file.
+   */
+  public synchronized void updateAndPersist(int pageNumber, int freeSlots) throws IOException {
+    update(pageNumber, freeSlots);
+    RandomAccessFile accessFile = new RandomAccessFile(sidecarFile, "rw");
+    try {
+      accessFile.seek(pageNumber);
+      accessFile.write(entries[pageNumber]);
+    } finally {
+      accessFile.close();
+    }
+  }
+
+  private static byte encode(int freeSlots) {
+    return (byte) (FULL + Math.min(Math.max(freeSlots, 0), MAX_TRACKED_SLOTS));
+  }
+
+  private void ensureCapacity(int numPages) {
+    if (numPages <= entries.length) {
+      return;
+    }
+    entries = Arrays.copyOf(entries, Math.max(numPages, entries.length * 2));
+  }
+}
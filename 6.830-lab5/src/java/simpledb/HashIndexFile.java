@@ -0,0 +1,718 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HashIndexFile is an extendible hash index on an integer field of a table
+ * stored in a HeapFile. It only answers equality predicates, but does so by
+ * reading the meta page, one directory page and the bucket of the key, and
+ * the first two are read by every lookup so they stay in the buffer pool. The
+ * format of the pages is described in HashIndexPage.
+ * <p>
+ * The directory has 2^d slots for a global depth of d, and slot s points to
+ * the bucket of the keys whose hash ends in the d bits of s. A bucket with
+ * local depth l is pointed to by the 2^(d - l) slots that share its last l
+ * bits. When a bucket fills up it is split in two on bit l of the hash,
+ * doubling the directory first if l equals d. Entries whose hashes are all the
+ * same cannot be split apart, so their bucket grows a chain of pages instead,
+ * as do buckets once the directory has reached the largest size the meta page
+ * can describe. Buckets are not merged when they empty.
+ * <p>
+ * Like BTreeFile, the pages go through the buffer pool and the buffer pool
+ * keeps the index up to date, see {@link IndexFile}.
+ *
+ * @see HashIndexPage
+ * @see IndexScan
+ */
+public class HashIndexFile implements IndexFile {
+
+  private static final int META_PAGE_NUMBER = 0;
+
+  /** Share of the entries of a bucket page that build fills on average. */
+  private static final double BUILD_FILL_FACTOR = 0.75;
+
+  private final File backingFile;
+  private final FileChannel channel;
+  private final int tableId;
+  private final TupleDesc tupleDesc;
+  private final int keyField;
+  private final int pageSize;
+  private final int slotsPerDirectoryPage;
+  private final int maxGlobalDepth;
+  private final AtomicInteger numberOfPages;
+
+  /**
+   * Opens the index stored in the specified file, with pages of the default
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @see BufferPool#getPageSize()
+   */
+  public HashIndexFile(File f, HeapFile table, int keyField) {
+    this(f, table, keyField, BufferPool.getPageSize());
+  }
+
+  /**
+   * Opens the index stored in the specified file, with pages of the specified
+   * size, or creates an empty one if the file is empty.
+   *
+   * @param f the file that stores the index
+   * @param table the indexed table
+   * @param keyField the index of the indexed field of the table
+   * @param pageSize the size of the pages of the index in bytes
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public HashIndexFile(File f, HeapFile table, int keyField, int pageSize) {
+    if (table.getTupleDesc().getFieldType(keyField) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + keyField + " is not an integer field.");
+    }
+    if (HashIndexPage.getCapacity(pageSize, HashIndexPage.BUCKET) < 1) {
+      throw new IllegalArgumentException("Pages of " + pageSize + " bytes are too small.");
+    }
+    this.backingFile = f;
+    this.tableId = table.getId();
+    this.tupleDesc = table.getTupleDesc();
+    this.keyField = keyField;
+    this.pageSize = pageSize;
+    this.slotsPerDirectoryPage = HashIndexPage.getCapacity(pageSize, HashIndexPage.DIRECTORY);
+    long maxSlots = (long) slotsPerDirectoryPage
+        * HashIndexPage.getCapacity(pageSize, HashIndexPage.META);
+    int depth = 0;
+    while (depth < 30 && (1L << (depth + 1)) <= maxSlots) {
+      depth++;
+    }
+    this.maxGlobalDepth = depth;
+    try {
+      this.channel = new RandomAccessFile(f, "rw").getChannel();
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+    this.numberOfPages = new AtomicInteger((int) (backingFile.length() / pageSize));
+    if (numberOfPages.get() == 0) {
+      writeEmptyIndex();
+    }
+  }
+
+  /**
+   * Writes an index with a global depth of zero: the meta page, a directory
+   * page with one slot and an empty bucket.
+   */
+  private void writeEmptyIndex() {
+    HashIndexPage meta = new HashIndexPage(new HeapPageId(getId(), META_PAGE_NUMBER),
+        HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.META));
+    HashIndexPage directory = new HashIndexPage(new HeapPageId(getId(), 1),
+        HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.DIRECTORY));
+    try {
+      meta.addDirectoryPage(1);
+    } catch (DbException e) {
+      throw new RuntimeException(e);
+    }
+    directory.setBucket(0, 2);
+    writePageData(META_PAGE_NUMBER, meta.getPageData());
+    writePageData(1, directory.getPageData());
+    writePageData(2, HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.BUCKET));
+    numberOfPages.set(3);
+  }
+
+  /**
+   * Returns the File backing this HashIndexFile on disk.
+   */
+  public File getFile() {
+    return backingFile;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getTableId() {
+    return tableId;
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public int getKeyField() {
+    return keyField;
+  }
+
+  /**
+   * Supports equality only.
+   */
+  @Override
+  public boolean supports(Predicate.Op op) {
+    return op == Predicate.Op.EQUALS;
+  }
+
+  /**
+   * Returns an ID uniquely identifying this HashIndexFile, the hash code of the
+   * absolute name of its file, like HeapFile.
+   */
+  @Override
+  public int getId() {
+    return backingFile.getAbsoluteFile().hashCode();
+  }
+
+  /**
+   * Returns the indexed table.
+   */
+  private TupleFile getTable() {
+    return (TupleFile) Database.getCatalog().getDatabaseFile(tableId);
+  }
+
+  /**
+   * Returns the TupleDesc of the indexed table.
+   */
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns the number of pages in this HashIndexFile, including the meta and
+   * directory pages.
+   */
+  public int numPages() {
+    return numberOfPages.get();
+  }
+
+  /**
+   * Returns the largest global depth the directory can grow to.
+   */
+  int getMaxGlobalDepth() {
+    return maxGlobalDepth;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Page readPage(PageId pid) {
+    if (pid.pageNumber() >= numberOfPages.get()) {
+      throw new IllegalArgumentException("Page " + pid.pageNumber() + " is not in the index.");
+    }
+    return readPages(pid.pageNumber(), 1).get(0);
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public List<Page> readPages(int startPageNumber, int count) {
+    byte[][] images = AbstractHeapFile.readPageImages(channel, pageSize, startPageNumber, count);
+    List<Page> pages = new ArrayList<Page>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(new HashIndexPage(new HeapPageId(getId(), startPageNumber + i), images[i]));
+    }
+    return pages;
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public void writePage(Page page) throws IOException {
+    int pageNumber = page.getId().pageNumber();
+    writePageData(pageNumber, page.getPageData());
+    int current = numberOfPages.get();
+    while (current <= pageNumber && !numberOfPages.compareAndSet(current, pageNumber + 1)) {
+      current = numberOfPages.get();
+    }
+  }
+
+  private void writePageData(int pageNumber, byte[] pageData) {
+    long offset = (long) pageSize * pageNumber;
+    try {
+      ByteBuffer writeData = ByteBuffer.wrap(pageData);
+      while (writeData.hasRemaining()) {
+        channel.write(writeData, offset + writeData.position());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private HashIndexPage getPage(TransactionId tid, int pageNumber, Permissions perm)
+      throws DbException, TransactionAbortedException {
+    return (HashIndexPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(getId(), pageNumber), perm);
+  }
+
+  /**
+   * Appends an empty page of the specified kind to the file and returns it,
+   * locked for writing. Like new HeapFile pages, the empty page is written
+   * straight to disk so that the buffer pool can read it.
+   */
+  private HashIndexPage allocatePage(TransactionId tid, byte kind) throws DbException,
+      TransactionAbortedException {
+    int pageNumber = numberOfPages.getAndIncrement();
+    writePageData(pageNumber, HashIndexPage.createEmptyPageData(pageSize, kind));
+    return getPage(tid, pageNumber, Permissions.READ_WRITE);
+  }
+
+  /**
+   * Scrambles the bits of a key, so that the last bits of the hash, which pick
+   * the bucket, depend on all bits of the key. This is the finalizer of
+   * MurmurHash3.
+   */
+  static int hash(int key) {
+    int h = key;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int getSlot(int hash, int depth) {
+    return hash & ((1 << depth) - 1);
+  }
+
+  /**
+   * Returns the number of the first page of the bucket of the specified hash.
+   * The meta page and the directory page are locked for reading.
+   */
+  private int findBucket(TransactionId tid, int hash) throws DbException,
+      TransactionAbortedException {
+    HashIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    int slot = getSlot(hash, meta.getGlobalDepth());
+    HashIndexPage directory = getPage(tid, meta.getDirectoryPage(slot / slotsPerDirectoryPage),
+        Permissions.READ_ONLY);
+    return directory.getBucket(slot % slotsPerDirectoryPage);
+  }
+
+  /**
+   * Returns the pages of the bucket that starts at the specified page, in
+   * chain order, locked with the specified permissions.
+   */
+  private List<HashIndexPage> getBucketPages(TransactionId tid, int pageNumber,
+      Permissions perm) throws DbException, TransactionAbortedException {
+    List<HashIndexPage> pages = new ArrayList<HashIndexPage>();
+    while (pageNumber != -1) {
+      HashIndexPage page = getPage(tid, pageNumber, perm);
+      pages.add(page);
+      pageNumber = page.getNextPage();
+    }
+    return pages;
+  }
+
+  private int getKey(Tuple t) {
+    return ((IntField) t.getField(keyField)).getValue();
+  }
+
+  private static void markDirty(TransactionId tid, HashIndexPage page, List<Page> dirtiedPages) {
+    page.markDirty(true, tid);
+    if (!dirtiedPages.contains(page)) {
+      dirtiedPages.add(page);
+    }
+  }
+
+  /**
+   * Adds an entry for the specified tuple, which must already be stored in the
+   * indexed table, to this index. A full bucket is split, or grows a chain of
+   * pages if it cannot be split.
+   *
+   * @throws DbException if the tuple is already in the index
+   */
+  @Override
+  public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
+      TransactionAbortedException {
+    int key = getKey(t);
+    int hash = hash(key);
+    int pageNumber = t.getRecordId().getPageId().pageNumber();
+    int tupleNumber = t.getRecordId().tupleno();
+    ArrayList<Page> dirtiedPages = new ArrayList<Page>();
+    while (true) {
+      List<HashIndexPage> bucket = getBucketPages(tid, findBucket(tid, hash),
+          Permissions.READ_WRITE);
+      HashIndexPage free = null;
+      boolean sameHash = true;
+      for (HashIndexPage page : bucket) {
+        if (page.findEntry(key, pageNumber, tupleNumber) != -1) {
+          throw new DbException("Tuple is already in the index.");
+        }
+        if (free == null && page.getNumEntries() < page.getMaxEntries()) {
+          free = page;
+        }
+        for (int i = 0; sameHash && i < page.getNumEntries(); i++) {
+          sameHash = hash(page.getKey(i)) == hash;
+        }
+      }
+      if (free != null) {
+        free.addEntry(key, pageNumber, tupleNumber);
+        markDirty(tid, free, dirtiedPages);
+        return dirtiedPages;
+      }
+      if (sameHash || !splitBucket(tid, bucket, dirtiedPages)) {
+        appendEntry(tid, bucket, key, pageNumber, tupleNumber, dirtiedPages);
+        return dirtiedPages;
+      }
+    }
+  }
+
+  /**
+   * Adds an entry to the first page of the specified bucket that has room for
+   * it, or to a new page at the end of the bucket.
+   */
+  private void appendEntry(TransactionId tid, List<HashIndexPage> bucket, int key,
+      int pageNumber, int tupleNumber, List<Page> dirtiedPages) throws DbException,
+      TransactionAbortedException {
+    for (HashIndexPage page : bucket) {
+      if (page.getNumEntries() < page.getMaxEntries()) {
+        page.addEntry(key, pageNumber, tupleNumber);
+        markDirty(tid, page, dirtiedPages);
+        return;
+      }
+    }
+    HashIndexPage last = bucket.get(bucket.size() - 1);
+    HashIndexPage next = allocatePage(tid, HashIndexPage.BUCKET);
+    last.setNextPage(next.getId().pageNumber());
+    next.addEntry(key, pageNumber, tupleNumber);
+    bucket.add(next);
+    markDirty(tid, last, dirtiedPages);
+    markDirty(tid, next, dirtiedPages);
+  }
+
+  /**
+   * Splits the specified bucket on the bit of the hash after its local depth,
+   * doubling the directory first if needed. The entries whose hash has that
+   * bit set move to a new bucket, and the directory slots that end in that bit
+   * and the bits of the bucket are pointed at it.
+   *
+   * @return false if the bucket cannot be split because the directory has
+   *         reached its largest size
+   */
+  private boolean splitBucket(TransactionId tid, List<HashIndexPage> bucket,
+      List<Page> dirtiedPages) throws DbException, TransactionAbortedException {
+    HashIndexPage head = bucket.get(0);
+    int localDepth = head.getLocalDepth();
+    HashIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+    if (localDepth == meta.getGlobalDepth()) {
+      if (localDepth == maxGlobalDepth) {
+        return false;
+      }
+      doubleDirectory(tid, dirtiedPages);
+    }
+
+    int bit = 1 << localDepth;
+    int bucketBits = getSlot(hash(head.getKey(0)), localDepth);
+    HashIndexPage sibling = allocatePage(tid, HashIndexPage.BUCKET);
+    head.setLocalDepth(localDepth + 1);
+    sibling.setLocalDepth(localDepth + 1);
+    markDirty(tid, sibling, dirtiedPages);
+
+    List<int[]> entries = new ArrayList<int[]>();
+    for (HashIndexPage page : bucket) {
+      for (int i = 0; i < page.getNumEntries(); i++) {
+        entries.add(new int[] { page.getKey(i), page.getRecordPageNumber(i),
+            page.getRecordTupleNumber(i) });
+      }
+      page.clearEntries();
+      markDirty(tid, page, dirtiedPages);
+    }
+    List<HashIndexPage> siblingBucket = new ArrayList<HashIndexPage>();
+    siblingBucket.add(sibling);
+    for (int[] entry : entries) {
+      List<HashIndexPage> target = (hash(entry[0]) & bit) == 0 ? bucket : siblingBucket;
+      appendEntry(tid, target, entry[0], entry[1], entry[2], dirtiedPages);
+    }
+    // pages at the end of the chain that were emptied are unlinked for good
+    for (int i = bucket.size() - 1; i > 0 && bucket.get(i).getNumEntries() == 0; i--) {
+      bucket.get(i - 1).setNextPage(-1);
+    }
+
+    int globalDepth = meta.getGlobalDepth();
+    int siblingNumber = sibling.getId().pageNumber();
+    for (int slot = bucketBits | bit; slot < 1 << globalDepth; slot += bit << 1) {
+      HashIndexPage directory = getPage(tid, meta.getDirectoryPage(slot / slotsPerDirectoryPage),
+          Permissions.READ_WRITE);
+      directory.setBucket(slot % slotsPerDirectoryPage, siblingNumber);
+      markDirty(tid, directory, dirtiedPages);
+    }
+    return true;
+  }
+
+  /**
+   * Doubles the number of directory slots, adding directory pages as needed.
+   * Each new slot points to the same bucket as the slot whose bits it ends in.
+   */
+  private void doubleDirectory(TransactionId tid, List<Page> dirtiedPages) throws DbException,
+      TransactionAbortedException {
+    HashIndexPage meta = getPage(tid, META_PAGE_NUMBER, Permissions.READ_WRITE);
+    int globalDepth = meta.getGlobalDepth();
+    int numSlots = 1 << globalDepth;
+    int neededPages = (2 * numSlots + slotsPerDirectoryPage - 1) / slotsPerDirectoryPage;
+    while (meta.getNumDirectoryPages() < neededPages) {
+      HashIndexPage directory = allocatePage(tid, HashIndexPage.DIRECTORY);
+      meta.addDirectoryPage(directory.getId().pageNumber());
+    }
+    HashIndexPage from = null;
+    HashIndexPage to = null;
+    for (int slot = 0; slot < numSlots; slot++) {
+      if (slot % slotsPerDirectoryPage == 0) {
+        from = getPage(tid, meta.getDirectoryPage(slot / slotsPerDirectoryPage),
+            Permissions.READ_ONLY);
+      }
+      int newSlot = slot + numSlots;
+      if (to == null || newSlot % slotsPerDirectoryPage == 0) {
+        to = getPage(tid, meta.getDirectoryPage(newSlot / slotsPerDirectoryPage),
+            Permissions.READ_WRITE);
+        markDirty(tid, to, dirtiedPages);
+      }
+      to.setBucket(newSlot % slotsPerDirectoryPage, from.getBucket(slot % slotsPerDirectoryPage));
+    }
+    meta.setGlobalDepth(globalDepth + 1);
+    markDirty(tid, meta, dirtiedPages);
+  }
+
+  /**
+   * Removes the entry of the specified tuple from this index. The tuple must
+   * still have its record id.
+   *
+   * @return the page the entry was removed from
+   * @throws DbException if the tuple is not in the index
+   */
+  @Override
+  public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+      TransactionAbortedException {
+    int key = getKey(t);
+    int pageNumber = t.getRecordId().getPageId().pageNumber();
+    int tupleNumber = t.getRecordId().tupleno();
+    int bucketPageNumber = findBucket(tid, hash(key));
+    while (bucketPageNumber != -1) {
+      HashIndexPage page = getPage(tid, bucketPageNumber, Permissions.READ_ONLY);
+      int index = page.findEntry(key, pageNumber, tupleNumber);
+      if (index != -1) {
+        page = getPage(tid, bucketPageNumber, Permissions.READ_WRITE);
+        page.deleteEntry(index);
+        page.markDirty(true, tid);
+        return page;
+      }
+      bucketPageNumber = page.getNextPage();
+    }
+    throw new DbException("Tuple is not in the index.");
+  }
+
+  /**
+   * Returns an iterator over all the tuples of the indexed table, in no
+   * particular order.
+   */
+  @Override
+  public DbFileIterator iterator(TransactionId tid) {
+    return new IndexIterator(tid, null, 0);
+  }
+
+  // see IndexFile.java for javadocs
+  @Override
+  public DbFileIterator iterator(TransactionId tid, Predicate.Op op, int value) {
+    if (!supports(op)) {
+      throw new IllegalArgumentException("Hash indexes cannot answer " + op + " predicates.");
+    }
+    return new IndexIterator(tid, op, value);
+  }
+
+  /**
+   * Walks the pages of the bucket of the value, or every bucket page of the
+   * file if there is no predicate, fetching the tuples of the matching entries
+   * from the table a page at a time with {@link BufferPool#getTuples}.
+   */
+  private class IndexIterator extends AbstractDbFileIterator {
+    private final TransactionId tid;
+    private final Predicate.Op op;
+    private final int value;
+    private int lastPageNumber;
+    private HashIndexPage page;
+    private Iterator<Tuple> pageTuples;
+
+    IndexIterator(TransactionId tid, Predicate.Op op, int value) {
+      this.tid = tid;
+      this.op = op;
+      this.value = value;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+      if (op == null) {
+        lastPageNumber = numberOfPages.get() - 1;
+        page = getPage(tid, META_PAGE_NUMBER, Permissions.READ_ONLY);
+      } else {
+        page = getPage(tid, findBucket(tid, hash(value)), Permissions.READ_ONLY);
+      }
+    }
+
+    private HashIndexPage getNextPage() throws DbException, TransactionAbortedException {
+      int nextPageNumber;
+      if (op == null) {
+        nextPageNumber = page.getId().pageNumber() + 1;
+        if (nextPageNumber > lastPageNumber) {
+          nextPageNumber = -1;
+        }
+      } else {
+        nextPageNumber = page.getNextPage();
+      }
+      return nextPageNumber == -1 ? null : getPage(tid, nextPageNumber, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Fetches the tuples of the matching entries of the current page, and
+     * moves on to the next page.
+     */
+    private Iterator<Tuple> fetchPageTuples() throws DbException, TransactionAbortedException {
+      List<RecordId> recordIds = new ArrayList<RecordId>();
+      if (page.isBucket()) {
+        for (int i = 0; i < page.getNumEntries(); i++) {
+          if (op == null || page.getKey(i) == value) {
+            recordIds.add(new RecordId(new HeapPageId(tableId, page.getRecordPageNumber(i)),
+                page.getRecordTupleNumber(i)));
+          }
+        }
+      }
+      page = getNextPage();
+      return Database.getBufferPool().getTuples(tid, getTable(), recordIds,
+          Permissions.READ_ONLY).iterator();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+      while (true) {
+        while (pageTuples != null && pageTuples.hasNext()) {
+          Tuple t = pageTuples.next();
+          if (t != null) {
+            return t;
+          }
+        }
+        if (page == null) {
+          return null;
+        }
+        pageTuples = fetchPageTuples();
+      }
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+      close();
+      open();
+    }
+
+    @Override
+    public void close() {
+      super.close();
+      page = null;
+      pageTuples = null;
+    }
+  }
+
+  /**
+   * Fills this index, which must be empty, with the entries of every tuple of
+   * its table. The directory is made deep enough for the buckets to be about
+   * three quarters full, and the index is written straight to the file,
+   * bypassing the buffer pool and the log, so this must not run while other
+   * transactions use the table or the index.
+   *
+   * @throws IllegalStateException if the index is not empty
+   */
+  @Override
+  public void build() throws DbException, TransactionAbortedException, IOException {
+    HashIndexPage bucket = (HashIndexPage) readPage(new HeapPageId(getId(), 2));
+    if (numberOfPages.get() != 3 || bucket.getNumEntries() != 0) {
+      throw new IllegalStateException("Only empty indexes can be built.");
+    }
+    for (int pageNumber = 0; pageNumber < 3; pageNumber++) {
+      Database.getBufferPool().discardPage(new HeapPageId(getId(), pageNumber));
+    }
+    int[] keys = new int[1024];
+    int[] pageNumbers = new int[1024];
+    int[] tupleNumbers = new int[1024];
+    int numEntries = 0;
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (numEntries == keys.length) {
+        keys = Arrays.copyOf(keys, numEntries * 2);
+        pageNumbers = Arrays.copyOf(pageNumbers, numEntries * 2);
+        tupleNumbers = Arrays.copyOf(tupleNumbers, numEntries * 2);
+      }
+      keys[numEntries] = getKey(t);
+      pageNumbers[numEntries] = t.getRecordId().getPageId().pageNumber();
+      tupleNumbers[numEntries] = t.getRecordId().tupleno();
+      numEntries++;
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    int maxEntries = HashIndexPage.getCapacity(pageSize, HashIndexPage.BUCKET);
+    int globalDepth = 0;
+    while (globalDepth < maxGlobalDepth
+        && (1L << globalDepth) * maxEntries * BUILD_FILL_FACTOR < numEntries) {
+      globalDepth++;
+    }
+    int numSlots = 1 << globalDepth;
+    // counting sort of the entries by slot
+    int[] slotStarts = new int[numSlots + 1];
+    for (int i = 0; i < numEntries; i++) {
+      slotStarts[getSlot(hash(keys[i]), globalDepth) + 1]++;
+    }
+    for (int slot = 0; slot < numSlots; slot++) {
+      slotStarts[slot + 1] += slotStarts[slot];
+    }
+    int[] order = new int[numEntries];
+    int[] slotEnds = Arrays.copyOf(slotStarts, numSlots);
+    for (int i = 0; i < numEntries; i++) {
+      order[slotEnds[getSlot(hash(keys[i]), globalDepth)]++] = i;
+    }
+
+    // meta page, directory pages, the first page of every bucket, then the
+    // chained pages of buckets that do not fit on one page
+    int numDirectoryPages = (numSlots + slotsPerDirectoryPage - 1) / slotsPerDirectoryPage;
+    int firstBucketPage = 1 + numDirectoryPages;
+    int nextPageNumber = firstBucketPage + numSlots;
+    HashIndexPage meta = new HashIndexPage(new HeapPageId(getId(), META_PAGE_NUMBER),
+        HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.META));
+    meta.setGlobalDepth(globalDepth);
+    for (int i = 0; i < numDirectoryPages; i++) {
+      HashIndexPage directory = new HashIndexPage(new HeapPageId(getId(), 1 + i),
+          HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.DIRECTORY));
+      for (int slot = i * slotsPerDirectoryPage; slot < Math.min(numSlots, (i + 1)
+          * slotsPerDirectoryPage); slot++) {
+        directory.setBucket(slot % slotsPerDirectoryPage, firstBucketPage + slot);
+      }
+      meta.addDirectoryPage(1 + i);
+      writePageData(1 + i, directory.getPageData());
+    }
+    writePageData(META_PAGE_NUMBER, meta.getPageData());
+
+    for (int slot = 0; slot < numSlots; slot++) {
+      int pageNumber = firstBucketPage + slot;
+      int start = slotStarts[slot];
+      do {
+        HashIndexPage page = new HashIndexPage(new HeapPageId(getId(), pageNumber),
+            HashIndexPage.createEmptyPageData(pageSize, HashIndexPage.BUCKET));
+        page.setLocalDepth(globalDepth);
+        int end = Math.min(slotStarts[slot + 1], start + maxEntries);
+        for (int i = start; i < end; i++) {
+          page.addEntry(keys[order[i]], pageNumbers[order[i]], tupleNumbers[order[i]]);
+        }
+        start = end;
+        int currentPageNumber = pageNumber;
+        if (start < slotStarts[slot + 1]) {
+          pageNumber = nextPageNumber++;
+          page.setNextPage(pageNumber);
+        }
+        writePageData(currentPageNumber, page.getPageData());
+      } while (start < slotStarts[slot + 1]);
+    }
+    numberOfPages.set(nextPageNumber);
+  }
+}
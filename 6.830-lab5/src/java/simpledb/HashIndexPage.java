@@ -0,0 +1,305 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of HashIndexPage stores one page of a HashIndexFile. There are
+ * three kinds of pages:
+ * <ul>
+ * <li>the meta page, always page 0 of the file, which holds the global depth
+ * of the directory and the numbers of the pages the directory is stored
+ * on;</li>
+ * <li>directory pages, which hold the bucket page numbers of a run of
+ * directory slots;</li>
+ * <li>bucket pages, which hold index entries in no particular order, the
+ * local depth of the bucket and the number of the next page of the bucket,
+ * or -1 for the last one. A bucket only has more than one page when its
+ * entries cannot be told apart by their hash.</li>
+ * </ul>
+ * An entry is a key with the record id of the tuple it belongs to, stored as
+ * three integers like the entries of a BTreePage: the key, the page number and
+ * the tuple number.
+ * <p>
+ * The page image starts with a thirteen byte header: the kind of page in one
+ * byte and three integers. Meta pages store the global depth and the number
+ * of directory pages in them, bucket pages the number of entries, the local
+ * depth and the next page of the bucket. The directory page numbers, slots or
+ * entries follow the header.
+ *
+ * @see HashIndexFile
+ */
+public class HashIndexPage implements Page {
+
+  /** Kind of the meta page. */
+  static final byte META = 1;
+  /** Kind of pages that hold directory slots. */
+  static final byte DIRECTORY = 2;
+  /** Kind of pages that hold index entries. */
+  static final byte BUCKET = 3;
+
+  private static final int HEADER_SIZE = 13;
+  private static final int ENTRY_SIZE = 12;
+  private static final int SLOT_SIZE = 4;
+
+  private final PageId pageId;
+  private final byte[] pageData;
+  private final ByteBuffer buffer;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a HashIndexPage from a set of bytes of data read from disk. The
+   * page works on a private copy of the data.
+   */
+  public HashIndexPage(PageId id, byte[] data) {
+    this.pageId = id;
+    this.pageData = data.clone();
+    this.buffer = ByteBuffer.wrap(pageData);
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty page of the specified
+   * kind. Buckets have no next page and a local depth of zero.
+   */
+  static byte[] createEmptyPageData(int pageSize, byte kind) {
+    ByteBuffer data = ByteBuffer.allocate(pageSize);
+    data.put(kind);
+    data.putInt(0);
+    data.putInt(0);
+    data.putInt(-1);
+    return data.array();
+  }
+
+  /**
+   * Returns the number of slots, entries or directory page numbers that a
+   * page of the specified size and kind can hold.
+   */
+  static int getCapacity(int pageSize, byte kind) {
+    if (kind == BUCKET) {
+      return (pageSize - HEADER_SIZE) / ENTRY_SIZE;
+    }
+    return (pageSize - HEADER_SIZE) / SLOT_SIZE;
+  }
+
+  /** Returns true if this page holds index entries. */
+  public boolean isBucket() {
+    return pageData[0] == BUCKET;
+  }
+
+  private int getHeaderInt(int index) {
+    return buffer.getInt(1 + 4 * index);
+  }
+
+  private void setHeaderInt(int index, int value) {
+    captureBeforeImage();
+    buffer.putInt(1 + 4 * index, value);
+  }
+
+  /** Returns the global depth of the directory, if this is the meta page. */
+  public int getGlobalDepth() {
+    return getHeaderInt(0);
+  }
+
+  void setGlobalDepth(int globalDepth) {
+    setHeaderInt(0, globalDepth);
+  }
+
+  /** Returns the number of directory pages, if this is the meta page. */
+  public int getNumDirectoryPages() {
+    return getHeaderInt(1);
+  }
+
+  /**
+   * Returns the page number of the specified directory page, if this is the
+   * meta page.
+   */
+  public int getDirectoryPage(int index) {
+    return buffer.getInt(HEADER_SIZE + index * SLOT_SIZE);
+  }
+
+  /**
+   * Appends a directory page to the directory of this meta page.
+   *
+   * @throws DbException if the meta page has no room for it
+   */
+  void addDirectoryPage(int pageNumber) throws DbException {
+    int numDirectoryPages = getNumDirectoryPages();
+    if (numDirectoryPages >= getCapacity(pageData.length, META)) {
+      throw new DbException("No room on hash index meta page for another directory page.");
+    }
+    setHeaderInt(1, numDirectoryPages + 1);
+    buffer.putInt(HEADER_SIZE + numDirectoryPages * SLOT_SIZE, pageNumber);
+  }
+
+  /** Returns the bucket page number of the specified slot of this directory page. */
+  public int getBucket(int slot) {
+    return buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE);
+  }
+
+  void setBucket(int slot, int pageNumber) {
+    captureBeforeImage();
+    buffer.putInt(HEADER_SIZE + slot * SLOT_SIZE, pageNumber);
+  }
+
+  public int getNumEntries() {
+    return getHeaderInt(0);
+  }
+
+  /** Returns the largest number of entries this bucket page can hold. */
+  public int getMaxEntries() {
+    return getCapacity(pageData.length, BUCKET);
+  }
+
+  /** Returns the local depth of the bucket this page belongs to. */
+  public int getLocalDepth() {
+    return getHeaderInt(1);
+  }
+
+  void setLocalDepth(int localDepth) {
+    setHeaderInt(1, localDepth);
+  }
+
+  /**
+   * Returns the number of the next page of the bucket, or -1 if this is the
+   * last one.
+   */
+  public int getNextPage() {
+    return getHeaderInt(2);
+  }
+
+  void setNextPage(int pageNumber) {
+    setHeaderInt(2, pageNumber);
+  }
+
+  private int getEntryOffset(int index) {
+    return HEADER_SIZE + index * ENTRY_SIZE;
+  }
+
+  /** Returns the key of the specified entry. */
+  public int getKey(int index) {
+    return buffer.getInt(getEntryOffset(index));
+  }
+
+  /** Returns the page number of the record id of the specified entry. */
+  public int getRecordPageNumber(int index) {
+    return buffer.getInt(getEntryOffset(index) + 4);
+  }
+
+  /** Returns the tuple number of the record id of the specified entry. */
+  public int getRecordTupleNumber(int index) {
+    return buffer.getInt(getEntryOffset(index) + 8);
+  }
+
+  /**
+   * Returns the index of the specified entry on this bucket page, or -1 if it
+   * is not on it.
+   */
+  public int findEntry(int key, int pageNumber, int tupleNumber) {
+    for (int i = 0; i < getNumEntries(); i++) {
+      if (getKey(i) == key && getRecordPageNumber(i) == pageNumber
+          && getRecordTupleNumber(i) == tupleNumber) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds an entry to this bucket page.
+   *
+   * @throws DbException if the page is full
+   */
+  void addEntry(int key, int pageNumber, int tupleNumber) throws DbException {
+    int numEntries = getNumEntries();
+    if (numEntries >= getMaxEntries()) {
+      throw new DbException("No room on hash index page for another entry.");
+    }
+    setHeaderInt(0, numEntries + 1);
+    int offset = getEntryOffset(numEntries);
+    buffer.putInt(offset, key);
+    buffer.putInt(offset + 4, pageNumber);
+    buffer.putInt(offset + 8, tupleNumber);
+  }
+
+  /**
+   * Removes the specified entry from this bucket page, moving the last entry
+   * into its place.
+   */
+  void deleteEntry(int index) {
+    int numEntries = getNumEntries();
+    setHeaderInt(0, numEntries - 1);
+    int last = getEntryOffset(numEntries - 1);
+    System.arraycopy(pageData, last, pageData, getEntryOffset(index), ENTRY_SIZE);
+    for (int i = last; i < last + ENTRY_SIZE; i++) {
+      pageData[i] = 0;
+    }
+  }
+
+  /** Removes every entry from this bucket page. */
+  void clearEntries() {
+    int end = getEntryOffset(getNumEntries());
+    setHeaderInt(0, 0);
+    for (int i = HEADER_SIZE; i < end; i++) {
+      pageData[i] = 0;
+    }
+  }
+
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public HashIndexPage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new HashIndexPage(pageId, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
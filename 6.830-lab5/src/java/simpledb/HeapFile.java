@@ -1,11 +1,11 @@
 package simpledb;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -17,155 +17,291 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile extends AbstractHeapFile {
 
-  private final File backingFile;
-  private final RandomAccessFile accessFile;
-  private final TupleDesc tupleDesc;
-  private final AtomicInteger numberOfPages;
+  private final ZoneMap zoneMap;
 
   /**
-   * Constructs a heap file backed by the specified file.
+   * Constructs a heap file backed by the specified file, with pages of the
+   * default size.
    * 
    * @param f the file that stores the on-disk backing store for this heap file.
+   * @see BufferPool#getPageSize()
    */
   public HeapFile(File f, TupleDesc td) {
-    this.backingFile = f;
-    try {
-      this.accessFile = new RandomAccessFile(f, "rw");
-    } catch (FileNotFoundException e) {
-      throw new RuntimeException(e);
-    }
-    this.tupleDesc = td;
-    this.numberOfPages = new AtomicInteger((int) backingFile.length() / BufferPool.getPageSize());
+    this(f, td, BufferPool.getPageSize());
   }
 
   /**
-   * Returns the File backing this HeapFile on disk.
+   * Constructs a heap file backed by the specified file, with pages of the
+   * specified size.
    * 
-   * @return the File backing this HeapFile on disk.
+   * @param f the file that stores the on-disk backing store for this heap file.
+   * @param pageSize the size of the pages of the file in bytes
    */
-  public File getFile() {
-    return backingFile;
+  public HeapFile(File f, TupleDesc td, int pageSize) {
+    super(f, td, pageSize);
+    this.zoneMap = ZoneMap.open(f, td, numPages());
+  }
+
+  @Override
+  protected Page createPage(PageId pid, byte[] data) {
+    return new HeapPage(pid, ByteBuffer.wrap(data));
+  }
+
+  @Override
+  protected byte[] createEmptyPageData() {
+    return HeapPage.createEmptyPageData(getPageSize());
   }
 
-  /**
-   * Returns an ID uniquely identifying this HeapFile. Implementation note: you
-   * will need to generate this tableid somewhere ensure that each HeapFile has
-   * a "unique id," and that you always return the same value for a particular
-   * HeapFile. We suggest hashing the absolute file name of the file underlying
-   * the heapfile, i.e. f.getAbsoluteFile().hashCode().
-   * 
-   * @return an ID uniquely identifying this HeapFile.
-   */
   @Override
-  public int getId() {
-    return backingFile.getAbsoluteFile().hashCode();
+  protected int getFreeSlots(Page page) {
+    return ((HeapPage) page).getNumEmptySlots();
+  }
+
+  @Override
+  protected boolean hasRoomFor(Page page, Tuple t) {
+    return ((HeapPage) page).getNumEmptySlots() > 0;
   }
 
   /**
-   * Returns the TupleDesc of the table stored in this DbFile.
-   * 
-   * @return TupleDesc of this DbFile.
+   * Puts the specified tuple on the specified page and widens the zone map
+   * entry of the page to cover it.
    */
   @Override
-  public TupleDesc getTupleDesc() {
-    return tupleDesc;
+  protected void addTuple(Page page, Tuple t) throws DbException {
+    ((HeapPage) page).insertTuple(t);
+    zoneMap.widen(page.getId().pageNumber(), t);
   }
 
-  // see DbFile.java for javadocs
   @Override
-  public Page readPage(PageId pid) {
-    int pageSize = BufferPool.getPageSize();
-    int offset = pageSize * pid.pageNumber();
-    try {
-      byte[] readData = new byte[pageSize];
-      accessFile.seek(offset);
-      int numberOfBytesRead = accessFile.read(readData);
-      if (numberOfBytesRead == BufferPool.getPageSize()) {
-        return new HeapPage(pid, readData);
-      }
-      throw new RuntimeException("Did not read entire page successfully.");
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  protected void removeTuple(Page page, Tuple t) throws DbException {
+    ((HeapPage) page).deleteTuple(t);
+  }
+
+  @Override
+  protected Iterator<Tuple> iterator(Page page, boolean[] fields, List<Predicate> predicates) {
+    return ((HeapPage) page).iterator(predicates);
   }
 
   // see DbFile.java for javadocs
   @Override
   public void writePage(Page page) throws IOException {
-    int pageSize = BufferPool.getPageSize();
-    int offset = pageSize * page.getId().pageNumber();
-    try {
-      accessFile.seek(offset);
-      accessFile.write(page.getPageData());
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    int pageNumber = page.getId().pageNumber();
+    // the entry must never claim less than what is on disk, even after a crash
+    zoneMap.invalidateAndPersist(pageNumber);
+    super.writePage(page);
+    zoneMap.updateAndPersist(pageNumber, (HeapPage) page);
   }
 
   /**
-   * Returns the number of pages in this HeapFile.
+   * Appends the tuples of the specified delimited text file to this file as
+   * new pages, see BulkLoader. The pages are written straight to the backing
+   * file, bypassing the buffer pool and the log, so this is not transactional
+   * and must not run while other transactions modify the file. Nor are the
+   * tuples added to the indexes of the table.
+   *
+   * @return the number of tuples appended
+   * @throws IOException if the input cannot be read or a line is malformed
    */
-  public int numPages() {
-    return numberOfPages.get();
+  public long load(File input, char fieldSeparator) throws IOException {
+    TupleDesc td = getTupleDesc();
+    Type[] types = new Type[td.numFields()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = td.getFieldType(i);
+    }
+    BulkLoader loader = BulkLoader.create(types, getPageSize(), fieldSeparator);
+    int firstPageNumber = numPages();
+    long numberOfTuples = loader.append(input, getChannel(), firstPageNumber);
+    int tuplesPerPage = loader.getTuplesPerPage();
+    int loadedPages = (int) ((numberOfTuples + tuplesPerPage - 1) / tuplesPerPage);
+    if (loadedPages > 0) {
+      int lastPageNumber = firstPageNumber + loadedPages - 1;
+      FreeSpaceMap freeSpaceMap = getFreeSpaceMap();
+      for (int pageNumber = firstPageNumber; pageNumber < lastPageNumber; pageNumber++) {
+        freeSpaceMap.update(pageNumber, 0);
+      }
+      freeSpaceMap.updateAndPersist(lastPageNumber, (int) ((long) loadedPages * tuplesPerPage
+          - numberOfTuples));
+      growNumberOfPages(lastPageNumber + 1);
+      int runLength = Math.max(1, BufferPool.MAX_READ_AHEAD_BYTES / getPageSize());
+      for (int runStart = firstPageNumber; runStart <= lastPageNumber; runStart += runLength) {
+        List<Page> pages = readPages(runStart, Math.min(runLength, lastPageNumber - runStart + 1));
+        for (Page page : pages) {
+          zoneMap.updateAndPersist(page.getId().pageNumber(), (HeapPage) page);
+        }
+      }
+    }
+    return numberOfTuples;
   }
 
-  // see DbFile.java for javadocs
-  @Override
-  public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException, IOException,
-      TransactionAbortedException {
-    HeapPage insertedPage = null;
-    for (int pageNumber = 0; pageNumber < numberOfPages.get(); pageNumber++) {
-      insertedPage = attemptTupleInsert(tid, t, pageNumber);
-      if (insertedPage != null) {
-        break;
+  /**
+   * Compacts this file online and shrinks it. Tuples are moved from the last
+   * pages of the file into empty slots of the first pages, one source page per
+   * transaction, so that only a few pages are locked at a time and the moves
+   * are logged and kept in the indexes of the table like any other delete and
+   * insert. Then the empty pages at the end of the file are cut off.
+   * <p>
+   * Other transactions can use the table meanwhile. A transaction that waits
+   * for a page that is cut off finds it empty, see {@link #readPage}, and
+   * a deadlock only makes the compaction try the page again.
+   *
+   * @return the number of pages the file shrank by
+   */
+  public int compact() throws DbException, IOException {
+    BufferPool bufferPool = Database.getBufferPool();
+    int targetPageNumber = 0;
+    int sourcePageNumber = numPages() - 1;
+    while (targetPageNumber < sourcePageNumber) {
+      TransactionId tid = new TransactionId();
+      boolean committed = false;
+      try {
+        targetPageNumber = moveTuples(tid, sourcePageNumber, targetPageNumber);
+        bufferPool.transactionComplete(tid);
+        committed = true;
+      } catch (TransactionAbortedException e) {
+        // chosen as a deadlock victim, so try the page again
+        continue;
+      } finally {
+        if (!committed) {
+          bufferPool.transactionComplete(tid, false);
+        }
       }
+      sourcePageNumber--;
     }
-    if (insertedPage == null) {
-      int newPageNumber = numberOfPages.getAndIncrement();
-      HeapPage newHeapPage = new HeapPage(new HeapPageId(getId(), newPageNumber),
-          HeapPage.createEmptyPageData());
-      writePage(newHeapPage);
-      insertedPage = attemptTupleInsert(tid, t, newPageNumber);
+    return truncateEmptyPages();
+  }
+
+  /**
+   * Moves the tuples of the specified page into empty slots of earlier pages,
+   * starting the search for empty slots at the specified page.
+   *
+   * @return the first page that may still have empty slots, or
+   *         sourcePageNumber if the pages before it have run out of them
+   */
+  private int moveTuples(TransactionId tid, int sourcePageNumber, int targetPageNumber)
+      throws DbException, IOException, TransactionAbortedException {
+    BufferPool bufferPool = Database.getBufferPool();
+    HeapPage sourcePage = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(),
+        sourcePageNumber), Permissions.READ_WRITE);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (Iterator<Tuple> it = sourcePage.iterator(); it.hasNext();) {
+      tuples.add(it.next());
     }
-    ArrayList<Page> affectedPages = new ArrayList<Page>();
-    affectedPages.add(insertedPage);
-    return affectedPages;
-  }
-
-  private HeapPage attemptTupleInsert(TransactionId tid, Tuple t, int pageNumber)
-      throws DbException, TransactionAbortedException {
-    PageId pageId = new HeapPageId(getId(), pageNumber);
-    HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId,
-        Permissions.READ_ONLY);
-    int numberOfEmptySlots = heapPage.getNumEmptySlots();
-    if (numberOfEmptySlots > 0) {
-      heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-      heapPage.insertTuple(t);
-      return heapPage;
+    for (Tuple t : tuples) {
+      HeapPage targetPage = null;
+      while (targetPage == null) {
+        targetPageNumber = getFreeSpaceMap().findFirstPageWithFreeSpace(targetPageNumber,
+            sourcePageNumber);
+        if (targetPageNumber == -1) {
+          return sourcePageNumber;
+        }
+        targetPage = (HeapPage) lockPageWithFreeSpace(tid, targetPageNumber, t);
+      }
+      bufferPool.deleteTuple(tid, t);
+      // the delete may have evicted the target page, which is clean until the
+      // insert, so fetch the copy in the pool again
+      targetPage = (HeapPage) bufferPool.getPage(tid, targetPage.getId(),
+          Permissions.READ_WRITE);
+      insertTuple(targetPage, t);
+      targetPage.markDirty(true, tid);
+      for (IndexFile index : Database.getCatalog().getIndexes(getId())) {
+        for (Page indexPage : index.insertTuple(tid, t)) {
+          indexPage.markDirty(true, tid);
+        }
+      }
     }
-    Database.getBufferPool().releasePage(tid, pageId);
-    return null;
+    return targetPageNumber;
+  }
+
+  /**
+   * Cuts the empty pages at the end of the file off. The pages are locked for
+   * writing first, so none of them holds uncommitted tuples, and the pages the
+   * file does not keep are dropped from the buffer pool, which writes their
+   * committed changes first. The truncation itself is not logged: recovery
+   * may write some of the pages again, and they are empty then.
+   *
+   * @return the number of pages the file shrank by
+   */
+  private int truncateEmptyPages() throws DbException, IOException {
+    BufferPool bufferPool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    try {
+      int oldNumberOfPages = numPages();
+      int newNumberOfPages = oldNumberOfPages;
+      while (newNumberOfPages > 0) {
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(),
+            newNumberOfPages - 1), Permissions.READ_WRITE);
+        if (page.iterator().hasNext()) {
+          break;
+        }
+        newNumberOfPages--;
+      }
+      if (newNumberOfPages == oldNumberOfPages) {
+        return 0;
+      }
+      // without the lock on this file, which writing the pages may need
+      for (int pageNumber = getTruncatedNumPages(newNumberOfPages);
+          pageNumber < oldNumberOfPages; pageNumber++) {
+        bufferPool.discardPage(new HeapPageId(getId(), pageNumber));
+      }
+      synchronized (this) {
+        // pages appended meanwhile are past the pages we locked
+        if (numPages() != oldNumberOfPages) {
+          return 0;
+        }
+        setNumPages(truncateFile(newNumberOfPages));
+        return oldNumberOfPages - numPages();
+      }
+    } catch (TransactionAbortedException e) {
+      return 0;
+    } finally {
+      bufferPool.transactionComplete(tid);
+    }
+  }
+
+  /**
+   * Returns the number of pages the backing file has after truncating it to
+   * the specified number of pages. Subclasses that cannot give back some of
+   * the pages keep them.
+   */
+  protected int getTruncatedNumPages(int newNumberOfPages) {
+    return newNumberOfPages;
+  }
+
+  /**
+   * Truncates the backing file to the specified number of pages, or to as
+   * many as it keeps, and returns the number of pages it has now.
+   */
+  private int truncateFile(int newNumberOfPages) throws IOException {
+    newNumberOfPages = getTruncatedNumPages(newNumberOfPages);
+    getChannel().truncate((long) getPageSize() * newNumberOfPages);
+    return newNumberOfPages;
   }
 
   // see DbFile.java for javadocs
   @Override
-  public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
-      TransactionAbortedException {
-    PageId pageId = t.getRecordId().getPageId();
-    if (pageId == null || pageId.getTableId() != getId()) {
-      throw new DbException("File cannot delete tuple that it does not contain.");
-    }
-    HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId,
-        Permissions.READ_WRITE);
-    heapPage.deleteTuple(t);
-    return heapPage;
+  public Tuple getTuple(Page page, int tupleNumber) {
+    return ((HeapPage) page).getTuple(tupleNumber);
   }
 
   // see DbFile.java for javadocs
   @Override
   public DbFileIterator iterator(TransactionId transactionId) {
-    return HeapFileIterator.create(getId(), numberOfPages.get(), transactionId);
+    return iterator(transactionId, null);
+  }
+
+  /**
+   * Returns an iterator over the tuples of this file that satisfy all of the
+   * specified predicates. The predicates are evaluated on the page images, so
+   * tuples that do not satisfy them are never decoded, and pages whose zone
+   * map entries show that they cannot satisfy them are not even read.
+   * 
+   * @param predicates predicates over the fields of this file, or null
+   * @see ZoneMap
+   */
+  public DbFileIterator iterator(TransactionId transactionId, List<Predicate> predicates) {
+    return HeapFileIterator.create(getId(), numPages(), transactionId, predicates,
+        zoneMap);
   }
 }
@@ -1,21 +1,19 @@
 package simpledb;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts an array of
  * tuples and converts it to pages of binary data in the appropriate format for
  * simpledb heap pages Pages are padded out to a specified length, and written
- * consecutive in a data file.
+ * consecutive in a data file. The conversion itself is done by BulkLoader.
+ *
+ * @see BulkLoader
  */
 
 public class HeapFileEncoder {
@@ -34,31 +32,26 @@ public class HeapFileEncoder {
    * @param outFile The output file to write data to
    * @param npagebytes The number of bytes per page in the output file
    * @param numFields the number of fields in each input tuple
-   * @throws IOException if the temporary/output file can't be opened
+   * @throws IOException if the output file can't be opened
    */
   public static void convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int npagebytes,
       int numFields) throws IOException {
-    File tempInput = File.createTempFile("tempTable", ".txt");
-    tempInput.deleteOnExit();
-    BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-    for (ArrayList<Integer> tuple : tuples) {
-      int writtenFields = 0;
-      for (Integer field : tuple) {
-        writtenFields++;
-        if (writtenFields > numFields) {
-          bw.close();
-          throw new RuntimeException("Tuple has more than " + numFields + " fields: ("
-              + Utility.listToString(tuple) + ")");
-        }
-        bw.write(String.valueOf(field));
-        if (writtenFields < numFields) {
-          bw.write(',');
-        }
+    Type[] ts = new Type[numFields];
+    for (int i = 0; i < ts.length; i++) {
+      ts[i] = Type.INT_TYPE;
+    }
+    FreeSpaceMap.delete(outFile);
+    ZoneMap.delete(outFile);
+    RandomAccessFile output = new RandomAccessFile(outFile, "rw");
+    try {
+      output.setLength(0);
+      FileChannel channel = output.getChannel();
+      if (BulkLoader.create(ts, npagebytes, ',').append(tuples, channel, 0) == 0) {
+        channel.write(ByteBuffer.wrap(HeapPage.createEmptyPageData(npagebytes)), 0);
       }
-      bw.write('\n');
+    } finally {
+      output.close();
     }
-    bw.close();
-    convert(tempInput, outFile, npagebytes, numFields);
   }
 
   public static void convert(File inFile, File outFile, int npagebytes, int numFields)
@@ -77,12 +70,12 @@ public class HeapFileEncoder {
 
   /**
    * Convert the specified input text file into a binary page file. <br>
-   * Assume format of the input file is (note that only integer fields are
-   * supported):<br>
-   * int,...,int\n<br>
-   * int,...,int\n<br>
+   * Assume format of the input file is:<br>
+   * field,...,field\n<br>
+   * field,...,field\n<br>
    * ...<br>
-   * where each row represents a tuple.<br>
+   * where each row represents a tuple and each field is of the corresponding
+   * type of typeAr.<br>
    * <p>
    * The format of the output file will be as specified in HeapPage and
    * HeapFile.
@@ -98,135 +91,9 @@ public class HeapFileEncoder {
    */
   public static void convert(File inFile, File outFile, int npagebytes, int numFields,
       Type[] typeAr, char fieldSeparator) throws IOException {
-
-    int nrecbytes = 0;
-    for (int i = 0; i < numFields; i++) {
-      nrecbytes += typeAr[i].getLen();
-    }
-    int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1); // floor comes for
-                                                           // free
-
-    // per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-      nheaderbytes++; // ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-      int c = br.read();
-
-      // Ignore Windows/Notepad special line endings
-      if (c == '\r')
-        continue;
-
-      if (c == '\n') {
-        if (first)
-          continue;
-        recordcount++;
-        first = true;
-      } else
-        first = false;
-      if (c == fieldSeparator || c == '\n' || c == '\r') {
-        String s = new String(buf, 0, curpos);
-        if (typeAr[fieldNo] == Type.INT_TYPE) {
-          try {
-            pageStream.writeInt(Integer.parseInt(s.trim()));
-          } catch (NumberFormatException e) {
-            System.out.println("BAD LINE : " + s);
-          }
-        } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-          s = s.trim();
-          int overflow = Type.STRING_LEN - s.length();
-          if (overflow < 0) {
-            String news = s.substring(0, Type.STRING_LEN);
-            s = news;
-          }
-          pageStream.writeInt(s.length());
-          pageStream.writeBytes(s);
-          while (overflow-- > 0)
-            pageStream.write((byte) 0);
-        }
-        curpos = 0;
-        if (c == '\n')
-          fieldNo = 0;
-        else
-          fieldNo++;
-
-      } else if (c == -1) {
-        done = true;
-
-      } else {
-        buf[curpos++] = (char) c;
-        continue;
-      }
-
-      // if we wrote a full page of records, or if we're done altogether,
-      // write out the header of the page.
-      //
-      // in the header, write a 1 for bits that correspond to records we've
-      // written and 0 for empty slots.
-      //
-      // when we're done, also flush the page to disk, but only if it has
-      // records on it. however, if this file is empty, do flush an empty
-      // page to disk.
-      if (recordcount >= nrecords || done && recordcount > 0 || done && npages == 0) {
-        int i = 0;
-        byte headerbyte = 0;
-
-        for (i = 0; i < nheaderbits; i++) {
-          if (i < recordcount)
-            headerbyte |= (1 << (i % 8));
-
-          if (((i + 1) % 8) == 0) {
-            headerStream.writeByte(headerbyte);
-            headerbyte = 0;
-          }
-        }
-
-        if (i % 8 > 0)
-          headerStream.writeByte(headerbyte);
-
-        // pad the rest of the page with zeroes
-
-        for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-          pageStream.writeByte(0);
-
-        // write header and body to file
-        headerStream.flush();
-        headerBAOS.writeTo(os);
-        pageStream.flush();
-        pageBAOS.writeTo(os);
-
-        // reset header and body for next page
-        headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        headerStream = new DataOutputStream(headerBAOS);
-        pageBAOS = new ByteArrayOutputStream(npagebytes);
-        pageStream = new DataOutputStream(pageBAOS);
-
-        recordcount = 0;
-        npages++;
-      }
+    if (typeAr.length != numFields) {
+      throw new IllegalArgumentException("Expected " + numFields + " types, got " + typeAr.length);
     }
-    br.close();
-    os.close();
+    BulkLoader.create(typeAr, npagebytes, fieldSeparator).load(inFile, outFile);
   }
 }
@@ -1,27 +1,77 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
+/**
+ * HeapFileIterator scans the pages of a HeapFile in order. Once it sees that
+ * it is asked for consecutive pages, it keeps the buffer pool reading the next
+ * {@link BufferPool#getReadAheadPages} pages in the background, so that the
+ * reads overlap with the work done on the tuples of the current page. The
+ * window is topped up once half of it has been used, so that pages are read
+ * in large runs rather than one at a time.
+ * <p>
+ * When the iterator has predicates and a {@link ZoneMap}, pages whose entries
+ * show that none of their tuples can satisfy the predicates are neither read
+ * nor read ahead. Pages with unknown entries are read, and their entries are
+ * filled in from them if they are not dirty, so later scans can skip them.
+ * <p>
+ * A scan of a table that is large compared to the buffer pool reads through a
+ * {@link BufferRing}, so that it does not push the rest of the pool out, and
+ * reads ahead no more than half of its ring.
+ * <p>
+ * The page the iterator is on is pinned in the buffer pool, so that it stays
+ * there while its tuples are being read.
+ */
 public class HeapFileIterator implements DbFileIterator {
 
   private final int tableId;
   private final int numberOfPages;
   private final TransactionId transactionId;
+  private final List<Predicate> predicates;
+  private final ZoneMap zoneMap;
+  private BufferRing ring;
+  private PageId pinnedPageId;
   private int currentPageNumber;
   private Iterator<Tuple> currentPageIterator;
   private boolean open;
   private Tuple next;
+  private int lastPageNumber;
+  private int lastReadAheadPageNumber;
 
-  private HeapFileIterator(int tableId, int numberOfPages, TransactionId transactionId) {
+  private HeapFileIterator(int tableId, int numberOfPages, TransactionId transactionId,
+      List<Predicate> predicates, ZoneMap zoneMap) {
     this.tableId = tableId;
     this.numberOfPages = numberOfPages;
     this.open = false;
     this.transactionId = transactionId;
+    this.predicates = predicates;
+    this.zoneMap = zoneMap;
   }
 
   public static HeapFileIterator create(int tableId, int numberOfPages, TransactionId transactionId) {
-    return new HeapFileIterator(tableId, numberOfPages, transactionId);
+    return create(tableId, numberOfPages, transactionId, null, null);
+  }
+
+  /**
+   * Creates an iterator that only returns the tuples that satisfy all of the
+   * specified predicates, or every tuple if predicates is null.
+   */
+  public static HeapFileIterator create(int tableId, int numberOfPages,
+      TransactionId transactionId, List<Predicate> predicates) {
+    return create(tableId, numberOfPages, transactionId, predicates, null);
+  }
+
+  /**
+   * Creates an iterator that only returns the tuples that satisfy all of the
+   * specified predicates, skipping the pages that the specified zone map, which
+   * may be null, rules out.
+   */
+  public static HeapFileIterator create(int tableId, int numberOfPages,
+      TransactionId transactionId, List<Predicate> predicates, ZoneMap zoneMap) {
+    return new HeapFileIterator(tableId, numberOfPages, transactionId, predicates, zoneMap);
   }
 
   @Override
@@ -30,19 +80,87 @@ public class HeapFileIterator implements DbFileIterator {
       throw new DbException("Opened already open HeapFileIterator");
     }
     this.open = true;
+    this.ring = Database.getBufferPool().getScanRing(tableId, numberOfPages);
     rewind();
   }
 
   private Iterator<Tuple> getPageIterator(int pageNumber) throws DbException,
       TransactionAbortedException {
     PageId pageId = new HeapPageId(tableId, pageNumber);
-    Page page = Database.getBufferPool().getPage(transactionId, pageId, Permissions.READ_ONLY);
-    return ((HeapPage) page).iterator();
+    BufferPool bufferPool = Database.getBufferPool();
+    unpinPage();
+    Page page = bufferPool.pinPage(transactionId, pageId, Permissions.READ_ONLY, ring);
+    pinnedPageId = pageId;
+    if (zoneMap != null && !zoneMap.isKnown(pageNumber) && page.isDirty() == null) {
+      try {
+        zoneMap.updateAndPersist(pageNumber, (HeapPage) page);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    // pages skipped thanks to the zone map still count as consecutive
+    if (lastPageNumber >= 0 && pageNumber > lastPageNumber) {
+      readAhead(bufferPool, pageNumber);
+    }
+    lastPageNumber = pageNumber;
+    return ((HeapPage) page).iterator(predicates);
+  }
+
+  private void unpinPage() {
+    if (pinnedPageId != null) {
+      Database.getBufferPool().unpinPage(transactionId, pinnedPageId);
+      pinnedPageId = null;
+    }
+  }
+
+  private boolean mayMatch(int pageNumber) {
+    return zoneMap == null || zoneMap.mayMatch(pageNumber, predicates);
   }
 
-  private void incrementPageNumber() throws DbException, TransactionAbortedException {
-    currentPageNumber++;
+  /**
+   * Asks the buffer pool to read ahead the pages following the specified one
+   * that have not been asked for yet, in runs of pages that may match.
+   */
+  private void readAhead(BufferPool bufferPool, int pageNumber) {
+    int readAheadPages = bufferPool.getReadAheadPages();
+    if (ring != null) {
+      readAheadPages = Math.min(readAheadPages, ring.getCapacity() / 2);
+    }
+    if (lastReadAheadPageNumber - pageNumber > readAheadPages / 2) {
+      return;
+    }
+    int firstPageToReadAhead = Math.max(lastReadAheadPageNumber, pageNumber) + 1;
+    int lastPageToReadAhead = Math.min(numberOfPages - 1, pageNumber + readAheadPages);
+    int runStart = firstPageToReadAhead;
+    while (runStart <= lastPageToReadAhead) {
+      if (!mayMatch(runStart)) {
+        lastReadAheadPageNumber = runStart++;
+        continue;
+      }
+      int runEnd = runStart;
+      while (runEnd < lastPageToReadAhead && mayMatch(runEnd + 1)) {
+        runEnd++;
+      }
+      int acceptedPages = bufferPool.prefetch(tableId, runStart, runEnd - runStart + 1);
+      lastReadAheadPageNumber = runStart - 1 + acceptedPages;
+      if (acceptedPages < runEnd - runStart + 1) {
+        return;
+      }
+      runStart = runEnd + 1;
+    }
+  }
+
+  /**
+   * Moves to the first page at or after the specified one that may hold
+   * matching tuples.
+   */
+  private void moveToPage(int pageNumber) throws DbException, TransactionAbortedException {
+    currentPageNumber = pageNumber;
+    while (currentPageNumber < numberOfPages && !mayMatch(currentPageNumber)) {
+      currentPageNumber++;
+    }
     if (currentPageNumber >= numberOfPages) {
+      unpinPage();
       return;
     }
     currentPageIterator = getPageIterator(currentPageNumber);
@@ -53,7 +171,7 @@ public class HeapFileIterator implements DbFileIterator {
       if (currentPageIterator.hasNext()) {
         return currentPageIterator.next();
       }
-      incrementPageNumber();
+      moveToPage(currentPageNumber + 1);
     }
     return null;
   }
@@ -76,8 +194,9 @@ public class HeapFileIterator implements DbFileIterator {
   @Override
   public void rewind() throws DbException, TransactionAbortedException {
     if (open) {
-      this.currentPageNumber = 0;
-      this.currentPageIterator = getPageIterator(currentPageNumber);
+      this.lastPageNumber = -1;
+      this.lastReadAheadPageNumber = -1;
+      moveToPage(0);
       this.next = getNext();
     }
   }
@@ -85,6 +204,8 @@ public class HeapFileIterator implements DbFileIterator {
   @Override
   public void close() {
     open = false;
+    ring = null;
+    unpinPage();
   }
 
 }
@@ -1,11 +1,11 @@
 package simpledb;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -25,7 +25,22 @@ public class HeapPage implements Page {
   private final byte header[];
   private final Tuple tuples[];
   private final int numberOfTupleSlots;
+  private final int pageSize;
+  private final int[] fieldOffsets;
 
+  /**
+   * Canonical image of this page. Starts out as a view of the image the page
+   * was created from and is replaced by a private copy on the first
+   * modification, after which inserts and deletes update it in place.
+   */
+  private ByteBuffer pageData;
+  private boolean ownsPageData;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured lazily by the
+   * first modification after it. Null while the page has not been modified
+   * since, in which case the current contents are the before-image.
+   */
   private byte[] oldData;
 
   private final Byte oldDataLock = new Byte((byte) 0);
@@ -39,54 +54,86 @@ public class HeapPage implements Page {
    * are in use, some number of tuple slots. Specifically, the number of tuples
    * is equal to:
    * <p>
-   * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+   * floor((page size*8) / (tuple size * 8 + 1))
    * <p>
    * where tuple size is the size of tuples in this database table, which can be
-   * determined via {@link Catalog#getTupleDesc}. The number of 8-bit header
-   * words is equal to:
+   * determined via {@link Catalog#getTupleDesc}, and page size is the size of
+   * the pages of the table, see {@link Catalog#getPageSize}. The number of 8-bit
+   * header words is equal to:
    * <p>
    * ceiling(no. tuple slots / 8)
    * <p>
    * 
    * @see Database#getCatalog
    * @see Catalog#getTupleDesc
-   * @see BufferPool#getPageSize()
+   * @see Catalog#getPageSize
    */
   public HeapPage(PageId id, byte[] data) throws IOException {
+    this(id, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Create a HeapPage from the page image that starts at the current position
+   * of the specified buffer, e.g. a region of a memory-mapped file. The
+   * position of the buffer is not changed.
+   * <p>
+   * Only the header is parsed up front. The page keeps a view of the image and
+   * decodes the tuple in a slot the first time it is asked for, so slots that
+   * are never visited, or that are rejected by a predicate evaluated with
+   * {@link #satisfies}, cost no allocations. The image is copied before the
+   * page is first modified, but must not be modified by others while the page
+   * is in use.
+   * 
+   * @see #HeapPage(PageId, byte[])
+   */
+  public HeapPage(PageId id, ByteBuffer data) {
     this.heapPageId = id;
     this.tupleDesc = Database.getCatalog().getTupleDesc(id.getTableId());
-    this.numberOfTupleSlots = getNumTuples(this.tupleDesc);
-    DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+    this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+    this.numberOfTupleSlots = getNumTuples(this.tupleDesc, this.pageSize);
+    this.fieldOffsets = getFieldOffsets(this.tupleDesc);
+    ByteBuffer buffer = data.duplicate();
+    buffer.limit(buffer.position() + pageSize);
+    this.pageData = buffer.slice();
+    this.ownsPageData = false;
 
     // allocate and read the header slots of this page
     header = new byte[getHeaderSize(this.numberOfTupleSlots)];
-    for (int i = 0; i < header.length; i++)
-      header[i] = dis.readByte();
+    buffer.get(header);
 
-    // allocate and read the actual records of this page
+    // tuples are decoded lazily by getTuple
     tuples = new Tuple[numberOfTupleSlots];
-    try {
-      for (int i = 0; i < tuples.length; i++)
-        tuples[i] = readNextTuple(dis, i);
-    } catch (NoSuchElementException e) {
-      e.printStackTrace();
-    }
-    dis.close();
 
     this.isDirty = false;
     this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
 
-    setBeforeImage();
+  private static int[] getFieldOffsets(TupleDesc tupleDesc) {
+    int[] fieldOffsets = new int[tupleDesc.numFields()];
+    int offset = 0;
+    for (int i = 0; i < fieldOffsets.length; i++) {
+      fieldOffsets[i] = offset;
+      offset += tupleDesc.getFieldType(i).getLen();
+    }
+    return fieldOffsets;
   }
 
   /**
-   * Retrieve the number of tuples on this page.
+   * Retrieve the number of tuple slots on a page of the specified size.
    * 
-   * @return the number of tuples on this page
+   * @return the number of tuple slots on a page of the specified size
    */
-  private static int getNumTuples(TupleDesc tupleDesc) {
-    return (int) Math.floor((BufferPool.getPageSize() * 8)
-        / ((double) (tupleDesc.getSize() * 8 + 1)));
+  static int getNumTuples(TupleDesc tupleDesc, int pageSize) {
+    return (int) Math.floor((pageSize * 8) / ((double) (tupleDesc.getSize() * 8 + 1)));
+  }
+
+  /**
+   * Returns the size of the smallest page that has a slot for a tuple of the
+   * specified TupleDesc, i.e. room for the tuple and a header byte.
+   */
+  static int getMinPageSize(TupleDesc tupleDesc) {
+    return tupleDesc.getSize() + 1;
   }
 
   /**
@@ -110,6 +157,10 @@ public class HeapPage implements Page {
       synchronized (oldDataLock) {
         oldDataRef = oldData;
       }
+      if (oldDataRef == null) {
+        // not modified since the last setBeforeImage
+        oldDataRef = getPageData();
+      }
       return new HeapPage(heapPageId, oldDataRef);
     } catch (IOException e) {
       e.printStackTrace();
@@ -119,10 +170,26 @@ public class HeapPage implements Page {
     return null;
   }
 
+  /**
+   * Makes the current contents of this page its before-image. This is
+   * copy-on-write: nothing is copied until the page is next modified.
+   */
   @Override
   public void setBeforeImage() {
     synchronized (oldDataLock) {
-      oldData = getPageData().clone();
+      oldData = null;
+    }
+  }
+
+  /**
+   * Captures the before-image if this is the first modification of the page
+   * since the last setBeforeImage. Must be called before the page changes.
+   */
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = getPageData();
+      }
     }
   }
 
@@ -134,40 +201,91 @@ public class HeapPage implements Page {
     return heapPageId;
   }
 
+  private int getSlotOffset(int slotId) {
+    return header.length + slotId * tupleDesc.getSize();
+  }
+
   /**
-   * Suck up tuples from the source file.
+   * Returns the tuple in the specified slot, decoding it from the page image
+   * if it has not been decoded yet, or null if the slot is empty.
    */
-  private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-    // if associated bit is not set, read forward to the next tuple, and
-    // return null.
+  Tuple getTuple(int slotId) throws NoSuchElementException {
     if (!isSlotUsed(slotId)) {
-      for (int i = 0; i < tupleDesc.getSize(); i++) {
-        try {
-          dis.readByte();
-        } catch (IOException e) {
-          throw new NoSuchElementException("error reading empty tuple");
-        }
-      }
       return null;
     }
+    Tuple t = tuples[slotId];
+    if (t != null) {
+      return t;
+    }
 
     // read fields in the tuple
-    Tuple t = new Tuple(tupleDesc);
+    t = new Tuple(tupleDesc);
     RecordId rid = new RecordId(heapPageId, slotId);
     t.setRecordId(rid);
+    ByteBuffer buffer = pageData.duplicate();
+    buffer.position(getSlotOffset(slotId));
     try {
       for (int j = 0; j < tupleDesc.numFields(); j++) {
-        Field f = tupleDesc.getFieldType(j).parse(dis);
+        Field f = tupleDesc.getFieldType(j).parse(buffer);
         t.setField(j, f);
       }
-    } catch (java.text.ParseException e) {
+    } catch (BufferUnderflowException e) {
       e.printStackTrace();
       throw new NoSuchElementException("parsing error!");
     }
-
+    tuples[slotId] = t;
     return t;
   }
 
+  /**
+   * Returns the value of the specified integer field of the tuple in the
+   * specified slot without decoding the tuple.
+   * 
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public int getInt(int slotId, int fieldIndex) {
+    if (tupleDesc.getFieldType(fieldIndex) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + fieldIndex + " is not an integer field.");
+    }
+    Tuple t = tuples[slotId];
+    if (t != null) {
+      return ((IntField) t.getField(fieldIndex)).getValue();
+    }
+    return pageData.getInt(getSlotOffset(slotId) + fieldOffsets[fieldIndex]);
+  }
+
+  /**
+   * Returns the specified field of the tuple in the specified slot, decoding
+   * only that field if the tuple has not been decoded yet.
+   */
+  public Field getField(int slotId, int fieldIndex) {
+    Tuple t = tuples[slotId];
+    if (t != null) {
+      return t.getField(fieldIndex);
+    }
+    Type type = tupleDesc.getFieldType(fieldIndex);
+    if (type == Type.INT_TYPE) {
+      return new IntField(getInt(slotId, fieldIndex));
+    }
+    ByteBuffer buffer = pageData.duplicate();
+    buffer.position(getSlotOffset(slotId) + fieldOffsets[fieldIndex]);
+    return type.parse(buffer);
+  }
+
+  /**
+   * Returns true if the tuple in the specified (used) slot satisfies the
+   * specified predicate. Integer comparisons are done on the page image
+   * without decoding the tuple.
+   */
+  public boolean satisfies(int slotId, Predicate predicate) {
+    int fieldIndex = predicate.getField();
+    if (tuples[slotId] == null && tupleDesc.getFieldType(fieldIndex) == Type.INT_TYPE) {
+      return IntField.compare(getInt(slotId, fieldIndex), predicate.getOp(),
+          ((IntField) predicate.getOperand()).getValue());
+    }
+    return getField(slotId, fieldIndex).compare(predicate.getOp(), predicate.getOperand());
+  }
+
   /**
    * Generates a byte array representing the contents of this page. Used to
    * serialize this page to disk.
@@ -181,80 +299,44 @@ public class HeapPage implements Page {
    */
   @Override
   public byte[] getPageData() {
-    int len = BufferPool.getPageSize();
-    ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-    DataOutputStream dos = new DataOutputStream(baos);
-
-    // create the header of the page
-    for (int i = 0; i < header.length; i++) {
-      try {
-        dos.writeByte(header[i]);
-      } catch (IOException e) {
-        // this really shouldn't happen
-        e.printStackTrace();
-      }
-    }
-
-    // create the tuples
-    for (int i = 0; i < tuples.length; i++) {
-
-      // empty slot
-      if (!isSlotUsed(i)) {
-        for (int j = 0; j < tupleDesc.getSize(); j++) {
-          try {
-            dos.writeByte(0);
-          } catch (IOException e) {
-            e.printStackTrace();
-          }
-
-        }
-        continue;
-      }
-
-      // non-empty slot
-      for (int j = 0; j < tupleDesc.numFields(); j++) {
-        Field f = tuples[i].getField(j);
-        try {
-          f.serialize(dos);
-
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-      }
-    }
-
-    // padding
-    int zerolen = BufferPool.getPageSize() - (header.length + tupleDesc.getSize() * tuples.length); // -
-    // numSlots
-    // *
-    // td.getSize();
-    byte[] zeroes = new byte[zerolen];
-    try {
-      dos.write(zeroes, 0, zerolen);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    // the image is kept up to date by insertTuple and deleteTuple
+    byte[] data = new byte[pageSize];
+    ByteBuffer buffer = pageData.duplicate();
+    buffer.position(0);
+    buffer.get(data);
+    return data;
+  }
 
-    try {
-      dos.flush();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Returns the page image for modification, first replacing a shared view
+   * by a private copy if necessary.
+   */
+  private ByteBuffer getWritablePageData() {
+    if (!ownsPageData) {
+      pageData = ByteBuffer.wrap(getPageData());
+      ownsPageData = true;
     }
-
-    return baos.toByteArray();
+    return pageData;
   }
 
   /**
-   * Static method to generate a byte array corresponding to an empty HeapPage.
-   * Used to add new, empty pages to the file. Passing the results of this
-   * method to the HeapPage constructor will create a HeapPage with no valid
-   * tuples in it.
+   * Static method to generate a byte array corresponding to an empty HeapPage
+   * of the default page size. Used to add new, empty pages to the file. Passing
+   * the results of this method to the HeapPage constructor will create a
+   * HeapPage with no valid tuples in it.
    * 
    * @return The returned ByteArray.
    */
   public static byte[] createEmptyPageData() {
-    int len = BufferPool.getPageSize();
-    return new byte[len]; // all 0
+    return createEmptyPageData(BufferPool.getPageSize());
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty HeapPage of a table with
+   * the specified page size.
+   */
+  public static byte[] createEmptyPageData(int pageSize) {
+    return new byte[pageSize]; // all 0
   }
 
   /**
@@ -273,14 +355,22 @@ public class HeapPage implements Page {
     if (!isSlotUsed(tupleNumber)) {
       throw new DbException("Tuple's slot is already empty.");
     }
+    captureBeforeImage();
     markSlotUsed(tupleNumber, false);
     t.setRecordId(null);
     tuples[tupleNumber] = null;
+
+    // empty slots are all zeroes in the image
+    ByteBuffer image = getWritablePageData();
+    int slotOffset = getSlotOffset(tupleNumber);
+    Arrays.fill(image.array(), slotOffset, slotOffset + tupleDesc.getSize(), (byte) 0);
   }
 
   /**
    * Adds the specified tuple to the page; the tuple should be updated to
-   * reflect that it is now stored on this page.
+   * reflect that it is now stored on this page. The tuple is serialized into
+   * the page image right away and decoded again when it is read, so later
+   * changes to the caller's tuple do not reach the page.
    * 
    * @throws DbException if the page is full (no empty slots) or tupledesc is
    *           mismatch.
@@ -294,9 +384,15 @@ public class HeapPage implements Page {
     if (emptySlotIndex == numberOfTupleSlots) {
       throw new DbException("No empty slots available for Tuple insertion.");
     }
+    captureBeforeImage();
     t.setRecordId(new RecordId(heapPageId, emptySlotIndex));
     markSlotUsed(emptySlotIndex, true);
-    tuples[emptySlotIndex] = t;
+
+    ByteBuffer image = getWritablePageData().duplicate();
+    image.position(getSlotOffset(emptySlotIndex));
+    for (int j = 0; j < tupleDesc.numFields(); j++) {
+      t.getField(j).serialize(image);
+    }
   }
 
   /**
@@ -325,6 +421,13 @@ public class HeapPage implements Page {
     setSlot(i, value);
   }
 
+  /**
+   * Returns the number of tuple slots on this page, used or not.
+   */
+  public int getNumSlots() {
+    return numberOfTupleSlots;
+  }
+
   /**
    * Returns the number of empty slots on this page.
    */
@@ -363,13 +466,10 @@ public class HeapPage implements Page {
     int byteBit = i % 8;
     if (value != isSlotUsed(i)) {
       header[headerByte] ^= (1 << byteBit);
+      getWritablePageData().put(headerByte, header[headerByte]);
     }
   }
 
-  protected int getFirstUsedTupleIndex(int maxIndex) {
-    return getNextUsedTupleIndex(0, maxIndex);
-  }
-
   protected int getFirstEmptyTupleIndex() {
     return getNextTupleIndexOfValue(0, numberOfTupleSlots, false);
   }
@@ -386,20 +486,46 @@ public class HeapPage implements Page {
     return nextTupleIndex;
   }
 
-  protected Tuple[] getTuples() {
-    return tuples;
-  }
-
   /**
    * @return an iterator over all tuples on this page (calling remove on this
    *         iterator throws an UnsupportedOperationException) (note that this
    *         iterator shouldn't return tuples in empty slots!)
    */
   public Iterator<Tuple> iterator() {
+    return iterator(null);
+  }
+
+  /**
+   * @return an iterator over the tuples on this page that satisfy all of the
+   *         specified predicates. Tuples are decoded only once they are known
+   *         to satisfy the predicates.
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  public Iterator<Tuple> iterator(final List<Predicate> predicates) {
     return new Iterator<Tuple>() {
 
-      int maxIndex = getTuples().length;
-      int currentIndex = getFirstUsedTupleIndex(maxIndex);
+      int maxIndex = numberOfTupleSlots;
+      int currentIndex = getNextMatchingTupleIndex(0);
+
+      private int getNextMatchingTupleIndex(int startIndex) {
+        int index = getNextUsedTupleIndex(startIndex, maxIndex);
+        while (index < maxIndex && !satisfiesAll(index)) {
+          index = getNextUsedTupleIndex(index + 1, maxIndex);
+        }
+        return index;
+      }
+
+      private boolean satisfiesAll(int slotId) {
+        if (predicates == null) {
+          return true;
+        }
+        for (Predicate predicate : predicates) {
+          if (!satisfies(slotId, predicate)) {
+            return false;
+          }
+        }
+        return true;
+      }
 
       @Override
       public boolean hasNext() {
@@ -408,8 +534,11 @@ public class HeapPage implements Page {
 
       @Override
       public Tuple next() {
-        Tuple tuple = getTuples()[currentIndex];
-        currentIndex = getNextUsedTupleIndex(currentIndex + 1, maxIndex);
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Tuple tuple = getTuple(currentIndex);
+        currentIndex = getNextMatchingTupleIndex(currentIndex + 1);
         return tuple;
       }
 
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * The interface for indexes on an integer field of a table. An index is a
+ * DbFile of its own, whose pages go through the buffer pool, with an entry per
+ * tuple of the table. Indexes are added to the catalog with
+ * {@link Catalog#addIndex}, after which the buffer pool keeps them up to date:
+ * insertTuple adds the entry of a tuple that has just been stored in the
+ * table, and deleteTuple removes the entry of a tuple that still has its
+ * record id.
+ * 
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+  /**
+   * Returns the id of the indexed table.
+   */
+  public int getTableId();
+
+  /**
+   * Returns the index of the indexed field in the tuples of the table.
+   */
+  public int getKeyField();
+
+  /**
+   * Returns true if this index can answer predicates with the specified
+   * operator.
+   */
+  public boolean supports(Predicate.Op op);
+
+  /**
+   * Returns an iterator over the tuples of the indexed table whose indexed
+   * field compares to the specified value with the specified operator.
+   * 
+   * @throws IllegalArgumentException if the operator is not supported
+   * @see #supports
+   */
+  public DbFileIterator iterator(TransactionId tid, Predicate.Op op, int value);
+
+  /**
+   * Fills this index, which must be empty, with the entries of every tuple of
+   * its table, writing the index straight to its file.
+   * 
+   * @throws IllegalStateException if the index is not empty
+   */
+  public void build() throws DbException, TransactionAbortedException, IOException;
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate from an {@link IndexFile} on that field,
+ * instead of scanning the whole table. It returns exactly the tuples that
+ * satisfy the predicate, so no Filter is needed above it. Tuples come in the
+ * order of the field if the index is a BTreeFile.
+ */
+public class IndexScan implements DbIterator {
+
+  private static final long serialVersionUID = 1L;
+
+  private final IndexFile index;
+  private final String tableAlias;
+  private final Predicate predicate;
+  private final TupleDesc tupleDesc;
+  private final DbFileIterator iterator;
+
+  /**
+   * Creates a scan of the tuples of the table of the specified index that
+   * satisfy the specified predicate, as a part of the specified transaction.
+   *
+   * @param tid The transaction this scan is running as a part of.
+   * @param index the index to read the tuples from
+   * @param tableAlias the alias of the table; the returned tupleDesc has
+   *          fields with name tableAlias.fieldName, like SeqScan
+   * @param p a predicate on the indexed field, with an operator that the index
+   *          supports and an integer operand
+   * @throws IllegalArgumentException if the index cannot answer the predicate
+   * @see IndexFile#supports
+   */
+  public IndexScan(TransactionId tid, IndexFile index, String tableAlias, Predicate p) {
+    if (p.getField() != index.getKeyField()) {
+      throw new IllegalArgumentException("Field " + p.getField() + " is not indexed.");
+    }
+    this.index = index;
+    this.tableAlias = tableAlias;
+    this.predicate = p;
+    this.tupleDesc = SeqScan.getPrefixedTupleDesc(index.getTableId(), tableAlias);
+    this.iterator = index.iterator(tid, p.getOp(), ((IntField) p.getOperand()).getValue());
+  }
+
+  /**
+   * @return the name of the table this operator scans, as it is in the
+   *         catalog.
+   */
+  public String getTableName() {
+    return Database.getCatalog().getTableName(index.getTableId());
+  }
+
+  /**
+   * @return the alias of the table this operator scans.
+   */
+  public String getAlias() {
+    return tableAlias;
+  }
+
+  /**
+   * @return the predicate this scan answers from the index.
+   */
+  public Predicate getPredicate() {
+    return predicate;
+  }
+
+  @Override
+  public void open() throws DbException, TransactionAbortedException {
+    iterator.open();
+  }
+
+  @Override
+  public TupleDesc getTupleDesc() {
+    return tupleDesc;
+  }
+
+  @Override
+  public boolean hasNext() throws TransactionAbortedException, DbException {
+    return iterator.hasNext();
+  }
+
+  @Override
+  public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+    return iterator.next();
+  }
+
+  @Override
+  public void close() {
+    iterator.close();
+  }
+
+  @Override
+  public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+    iterator.rewind();
+  }
+}
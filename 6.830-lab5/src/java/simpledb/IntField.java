@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -45,6 +46,11 @@ public class IntField implements Field {
     dos.writeInt(value);
   }
 
+  @Override
+  public void serialize(ByteBuffer buffer) {
+    buffer.putInt(value);
+  }
+
   /**
    * Compare the specified field to the value of this Field. Return semantics
    * are as specified by Field.compare
@@ -54,29 +60,36 @@ public class IntField implements Field {
    */
   @Override
   public boolean compare(Predicate.Op op, Field val) {
+    return compare(value, op, ((IntField) val).value);
+  }
 
-    IntField iVal = (IntField) val;
-
+  /**
+   * Compares two integer values with the specified operator, without wrapping
+   * them in IntFields. Return semantics are as specified by Field.compare
+   * 
+   * @see Field#compare
+   */
+  public static boolean compare(int value, Predicate.Op op, int operand) {
     switch (op) {
     case EQUALS:
-      return value == iVal.value;
+      return value == operand;
     case NOT_EQUALS:
-      return value != iVal.value;
+      return value != operand;
 
     case GREATER_THAN:
-      return value > iVal.value;
+      return value > operand;
 
     case GREATER_THAN_OR_EQ:
-      return value >= iVal.value;
+      return value >= operand;
 
     case LESS_THAN:
-      return value < iVal.value;
+      return value < operand;
 
     case LESS_THAN_OR_EQ:
-      return value <= iVal.value;
+      return value <= operand;
 
     case LIKE:
-      return value == iVal.value;
+      return value == operand;
     }
 
     return false;
@@ -332,6 +332,10 @@ public class JoinOptimizer {
         }
       }
     }
+    if (numJoins == 0) {
+      // the plan cache has no order for the empty set of joins
+      return joins;
+    }
     Vector<LogicalJoinNode> plan = pc.getOrder(new HashSet<LogicalJoinNode>(joins));
     if (explain) {
       printJoins(plan, pc, stats, filterSelectivities);
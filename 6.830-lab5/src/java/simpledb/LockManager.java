@@ -2,7 +2,6 @@ package simpledb;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -22,8 +21,10 @@ public class LockManager {
 
   private LockManager() {
     locks = new ConcurrentHashMap<PageId, Object>();
-    sharedLocks = new HashMap<PageId, List<TransactionId>>();
-    exclusiveLocks = new HashMap<PageId, TransactionId>();
+    // written under the lock of the page, but read and written for other
+    // pages at the same time
+    sharedLocks = new ConcurrentHashMap<PageId, List<TransactionId>>();
+    exclusiveLocks = new ConcurrentHashMap<PageId, TransactionId>();
     pageIdsLockedByTransaction = new ConcurrentHashMap<TransactionId, Collection<PageId>>();
     dependencyGraph = new ConcurrentHashMap<TransactionId, Collection<TransactionId>>();
   }
@@ -264,15 +264,18 @@ public class LogFile {
       Class<?> idClass = Class.forName(idClassName);
       Class<?> pageClass = Class.forName(pageClassName);
 
-      Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
       int numIdArgs = randomAccessFile.readInt();
       Object idArgs[] = new Object[numIdArgs];
+      Class<?> idArgTypes[] = new Class<?>[numIdArgs];
       for (int i = 0; i < numIdArgs; i++) {
         idArgs[i] = new Integer(randomAccessFile.readInt());
+        idArgTypes[i] = int.class;
       }
-      pid = (PageId) idConsts[0].newInstance(idArgs);
+      pid = (PageId) idClass.getDeclaredConstructor(idArgTypes).newInstance(idArgs);
 
-      Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+      // pages may have more than one constructor, so look up the one that
+      // takes a serialized page image explicitly
+      Constructor<?> pageConst = pageClass.getDeclaredConstructor(PageId.class, byte[].class);
       int pageSize = randomAccessFile.readInt();
 
       byte[] pageData = new byte[pageSize];
@@ -282,7 +285,7 @@ public class LogFile {
       pageArgs[0] = pid;
       pageArgs[1] = pageData;
 
-      newPage = (Page) pageConsts[0].newInstance(pageArgs);
+      newPage = (Page) pageConst.newInstance(pageArgs);
 
       // Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " +
       // newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
@@ -298,6 +301,9 @@ public class LogFile {
     } catch (InvocationTargetException e) {
       e.printStackTrace();
       throw new IOException();
+    } catch (NoSuchMethodException e) {
+      e.printStackTrace();
+      throw new IOException();
     }
     return newPage;
 
@@ -2,8 +2,10 @@ package simpledb;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Vector;
@@ -104,8 +106,8 @@ public class LogicalPlan {
 
     String disambiguousField = disambiguateName(field);
 
-    LogicalFilterNode lf = new LogicalFilterNode(disambiguousField, field.split("[.]")[1], p,
-        constantValue);
+    LogicalFilterNode lf = new LogicalFilterNode(disambiguousField.split("[.]")[0],
+        disambiguousField.split("[.]")[1], p, constantValue);
     filters.addElement(lf);
   }
 
@@ -303,6 +305,82 @@ public class LogicalPlan {
     throw new ParsingException("Unknown predicate " + bigS);
   }
 
+  /**
+   * Picks, for every table, the filter that an index scan should answer
+   * instead of a sequential scan: a comparison of an integer field with a
+   * constant, with an operator that an index on the field supports, see
+   * {@link Catalog#getIndex}. Of those, the one whose index scan the table
+   * statistics estimate to be cheapest is chosen, unless even that one costs
+   * more than scanning the table.
+   * 
+   * @param statsMap the statistics of every table in the plan, by table name
+   * @return the chosen filter of every table alias that has one
+   */
+  private Map<String, LogicalFilterNode> chooseIndexFilters(Map<String, TableStats> statsMap) {
+    Map<String, LogicalFilterNode> indexFilters = new HashMap<String, LogicalFilterNode>();
+    Map<String, Double> indexCosts = new HashMap<String, Double>();
+    for (LogicalFilterNode lf : filters) {
+      Integer tableId = getTableId(lf.tableAlias);
+      if (tableId == null) {
+        continue;
+      }
+      int field;
+      try {
+        field = Database.getCatalog().getTupleDesc(tableId.intValue())
+            .fieldNameToIndex(lf.fieldPureName);
+      } catch (NoSuchElementException e) {
+        continue;
+      }
+      if (Database.getCatalog().getIndex(tableId.intValue(), field, lf.p) == null) {
+        continue;
+      }
+      TableStats stats = statsMap.get(Database.getCatalog().getTableName(tableId.intValue()));
+      double cost = stats.estimateIndexScanCost(stats.estimateSelectivity(field, lf.p,
+          new IntField(Integer.parseInt(lf.c))));
+      Double chosenCost = indexCosts.get(lf.tableAlias);
+      if (cost < (chosenCost == null ? stats.estimateScanCost() : chosenCost.doubleValue())) {
+        indexFilters.put(lf.tableAlias, lf);
+        indexCosts.put(lf.tableAlias, cost);
+      }
+    }
+    return indexFilters;
+  }
+
+  /**
+   * Picks, for every table, the filters that a bitmap scan should answer
+   * instead of a sequential scan: the comparisons of an integer field that has
+   * a bitmap index with a constant. One BitmapScan ANDs all of them, which is
+   * cheap enough that they are preferred over any other index.
+   * 
+   * @return the chosen filters of every table alias that has any
+   */
+  private Map<String, List<LogicalFilterNode>> chooseBitmapFilters() {
+    Map<String, List<LogicalFilterNode>> bitmapFilters =
+        new HashMap<String, List<LogicalFilterNode>>();
+    for (LogicalFilterNode lf : filters) {
+      Integer tableId = getTableId(lf.tableAlias);
+      if (tableId == null) {
+        continue;
+      }
+      int field;
+      try {
+        field = Database.getCatalog().getTupleDesc(tableId.intValue())
+            .fieldNameToIndex(lf.fieldPureName);
+      } catch (NoSuchElementException e) {
+        continue;
+      }
+      BitmapIndexFile index = BitmapScan.findIndex(tableId.intValue(), field);
+      if (index == null || !index.supports(lf.p)) {
+        continue;
+      }
+      if (!bitmapFilters.containsKey(lf.tableAlias)) {
+        bitmapFilters.put(lf.tableAlias, new ArrayList<LogicalFilterNode>());
+      }
+      bitmapFilters.get(lf.tableAlias).add(lf);
+    }
+    return bitmapFilters;
+  }
+
   /**
    * Convert this LogicalPlan into a physicalPlan represented by a
    * {@link DbIterator}. Attempts to find the optimal plan by using
@@ -325,6 +403,7 @@ public class LogicalPlan {
     HashMap<String, String> equivMap = new HashMap<String, String>();
     HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
     HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+    HashMap<String, SeqScan> scanMap = new HashMap<String, SeqScan>();
 
     while (tableIt.hasNext()) {
       LogicalScanNode table = tableIt.next();
@@ -335,14 +414,34 @@ public class LogicalPlan {
         throw new ParsingException("Unknown table " + table.t);
       }
 
+      ss.setReferencedFields(getReferencedFields(table.alias,
+          Database.getCatalog().getTupleDesc(table.t)));
       subplanMap.put(table.alias, ss);
+      scanMap.put(table.alias, ss);
       String baseTableName = Database.getCatalog().getTableName(table.t);
       statsMap.put(baseTableName, baseTableStats.get(baseTableName));
       filterSelectivities.put(table.alias, new Double(1.0));
 
     }
 
-    Iterator<LogicalFilterNode> filterIt = filters.iterator();
+    // filters answered by an index come first, so that they replace the scan
+    Map<String, List<LogicalFilterNode>> bitmapFilters = chooseBitmapFilters();
+    Map<String, LogicalFilterNode> indexFilters = chooseIndexFilters(statsMap);
+    indexFilters.keySet().removeAll(bitmapFilters.keySet());
+    Vector<LogicalFilterNode> orderedFilters = new Vector<LogicalFilterNode>();
+    for (List<LogicalFilterNode> tableBitmapFilters : bitmapFilters.values()) {
+      orderedFilters.addAll(tableBitmapFilters);
+    }
+    orderedFilters.addAll(indexFilters.values());
+    Map<String, List<List<Predicate>>> bitmapConditions =
+        new HashMap<String, List<List<Predicate>>>();
+    for (LogicalFilterNode lf : filters) {
+      if (!orderedFilters.contains(lf)) {
+        orderedFilters.add(lf);
+      }
+    }
+
+    Iterator<LogicalFilterNode> filterIt = orderedFilters.iterator();
     while (filterIt.hasNext()) {
       LogicalFilterNode lf = filterIt.next();
       DbIterator subplan = subplanMap.get(lf.tableAlias);
@@ -370,7 +469,31 @@ public class LogicalPlan {
       } catch (NoSuchElementException e) {
         throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
       }
-      subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+      if (bitmapFilters.containsKey(lf.tableAlias)
+          && bitmapFilters.get(lf.tableAlias).contains(lf)) {
+        // each bitmap filter replaces the bitmap scan of the ones before it
+        // with one that ANDs them all
+        if (!bitmapConditions.containsKey(lf.tableAlias)) {
+          bitmapConditions.put(lf.tableAlias, new ArrayList<List<Predicate>>());
+        }
+        bitmapConditions.get(lf.tableAlias).add(Collections.singletonList(p));
+        subplanMap.put(lf.tableAlias, new BitmapScan(t, this.getTableId(lf.tableAlias)
+            .intValue(), lf.tableAlias, bitmapConditions.get(lf.tableAlias)));
+        scanMap.remove(lf.tableAlias);
+      } else if (indexFilters.get(lf.tableAlias) == lf) {
+        // the index scan returns exactly the tuples that satisfy the filter,
+        // and the filters that come later go on top of it
+        IndexFile index = Database.getCatalog().getIndex(
+            this.getTableId(lf.tableAlias).intValue(), p.getField(), lf.p);
+        subplanMap.put(lf.tableAlias, new IndexScan(t, index, lf.tableAlias, p));
+        scanMap.remove(lf.tableAlias);
+      } else {
+        if (scanMap.containsKey(lf.tableAlias)) {
+          // filters apply before any join, so the scan sees the same fields
+          scanMap.get(lf.tableAlias).addPredicate(p);
+        }
+        subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+      }
 
       TableStats s = statsMap.get(Database.getCatalog().getTableName(
           this.getTableId(lf.tableAlias).intValue()));
@@ -523,6 +646,56 @@ public class LogicalPlan {
     return new Project(outFields, outTypes, node);
   }
 
+  /**
+   * Determines which fields of the table scanned as the specified alias are
+   * used anywhere in this plan, so that scans of tables that store fields
+   * separately need not read the others.
+   * 
+   * @param tableAlias the alias of the scanned table
+   * @param td the TupleDesc of the scanned table
+   * @return for every field of the table whether it is used, or null if all
+   *         fields may be used
+   */
+  private boolean[] getReferencedFields(String tableAlias, TupleDesc td) {
+    ArrayList<String> references = new ArrayList<String>();
+    for (LogicalSelectListNode si : selectList) {
+      references.add(si.fname);
+    }
+    for (LogicalFilterNode lf : filters) {
+      references.add(lf.fieldQuantifiedName);
+    }
+    for (LogicalJoinNode lj : joins) {
+      references.add(lj.f1QuantifiedName);
+      references.add(lj.f2QuantifiedName);
+    }
+    references.add(aggField);
+    references.add(groupByField);
+    references.add(oByField);
+
+    boolean[] referenced = new boolean[td.numFields()];
+    for (String reference : references) {
+      if (reference == null) {
+        continue;
+      }
+      // references may or may not be qualified with a table alias
+      int dot = reference.lastIndexOf('.');
+      String alias = dot < 0 ? "null" : reference.substring(0, dot);
+      String fieldName = reference.substring(dot + 1);
+      if (!alias.equals("null") && !alias.equals(tableAlias)) {
+        continue;
+      }
+      if (fieldName.equals("*")) {
+        return null;
+      }
+      for (int i = 0; i < td.numFields(); i++) {
+        if (td.getFieldName(i) == null || td.getFieldName(i).equals(fieldName)) {
+          referenced[i] = true;
+        }
+      }
+    }
+    return referenced;
+  }
+
   public static void main(String argv[]) {
     // construct a 3-column table schema
     Type types[] = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
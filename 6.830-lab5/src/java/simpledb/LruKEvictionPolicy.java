@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LruKEvictionPolicy evicts the page whose K-th most recent access is the
+ * oldest, after O'Neil, O'Neil and Weikum, "The LRU-K Page Replacement
+ * Algorithm For Database Disk Buffering". Pages accessed fewer than K times go
+ * first, least recently used first, so a page touched once by a scan does not
+ * push out a page that is used over and over, like the pages of a small table
+ * on the inner side of a join.
+ * <p>
+ * Two refinements of the paper are kept in a simple form. Accesses to a page
+ * with no access to another page in between are correlated, e.g. a lookup
+ * followed by an update, and count as one. And the access history of evicted
+ * pages is retained for as many pages as there are in the pool, so a page that
+ * comes back soon is recognized.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+  private final int k;
+  private final Map<PageId, long[]> residentHistories;
+  private final LinkedHashMap<PageId, long[]> retainedHistories;
+  private long time;
+
+  /**
+   * Creates a policy that ranks the pages by their K-th most recent access.
+   * LRU-2 is the usual choice; LRU-1 is plain LRU.
+   */
+  public LruKEvictionPolicy(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("K must be at least 1.");
+    }
+    this.k = k;
+    this.residentHistories = new HashMap<PageId, long[]>();
+    this.retainedHistories = new LinkedHashMap<PageId, long[]>();
+    this.time = 0;
+  }
+
+  @Override
+  public void pageAdded(PageId pageId) {
+    long[] history = retainedHistories.remove(pageId);
+    // time 0 stands for an access infinitely long ago
+    residentHistories.put(pageId, history == null ? new long[k] : history);
+  }
+
+  @Override
+  public void pageAccessed(PageId pageId) {
+    long[] history = residentHistories.get(pageId);
+    if (history == null) {
+      return;
+    }
+    if (history[0] != time) {
+      System.arraycopy(history, 0, history, 1, k - 1);
+    }
+    history[0] = ++time;
+  }
+
+  @Override
+  public void pageRemoved(PageId pageId) {
+    long[] history = residentHistories.remove(pageId);
+    if (history == null) {
+      return;
+    }
+    retainedHistories.put(pageId, history);
+    Iterator<PageId> oldest = retainedHistories.keySet().iterator();
+    while (retainedHistories.size() > Math.max(residentHistories.size(), 1)) {
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  @Override
+  public PageId chooseVictim(Evictable evictable) {
+    PageId victim = null;
+    long[] victimHistory = null;
+    for (Map.Entry<PageId, long[]> entry : residentHistories.entrySet()) {
+      long[] history = entry.getValue();
+      if (victim != null && !isOlder(history, victimHistory)) {
+        continue;
+      }
+      if (evictable.isEvictable(entry.getKey())) {
+        victim = entry.getKey();
+        victimHistory = history;
+      }
+    }
+    return victim;
+  }
+
+  /**
+   * Returns true if the K-th most recent access of the first history is older
+   * than that of the second, or they are equally old and the most recent
+   * access of the first is older.
+   */
+  private boolean isOlder(long[] history, long[] otherHistory) {
+    if (history[k - 1] != otherHistory[k - 1]) {
+      return history[k - 1] < otherHistory[k - 1];
+    }
+    return history[0] < otherHistory[0];
+  }
+
+  @Override
+  public String toString() {
+    return "LRU-" + k;
+  }
+}
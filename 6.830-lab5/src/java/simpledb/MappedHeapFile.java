@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MappedHeapFile is a HeapFile that accesses its backing file through memory
+ * mappings instead of a read or write system call per page. It is meant for
+ * read-mostly tables that fit in memory: pages are decoded by HeapPage
+ * straight out of the mapped region, without being copied into a fresh array
+ * first.
+ * <p>
+ * The file is mapped in extents of {@link #EXTENT_PAGES} pages. Mapping past
+ * the end of a file grows it, and HeapFile derives its page count from the
+ * file length, so only extents that lie entirely within the file are mapped.
+ * The pages of the partial extent at the end of the file go through the
+ * ordinary HeapFile path until the file has grown enough for that extent to be
+ * mapped as well.
+ *
+ * @see simpledb.HeapFile
+ * @see simpledb.HeapPage#HeapPage(PageId, ByteBuffer)
+ */
+public class MappedHeapFile extends HeapFile {
+
+  /** Number of pages covered by a single mapping. */
+  public static final int EXTENT_PAGES = 256;
+
+  private MappedByteBuffer[] extents;
+
+  /**
+   * Constructs a memory-mapped heap file backed by the specified file.
+   *
+   * @param f the file that stores the on-disk backing store for this heap file.
+   */
+  public MappedHeapFile(File f, TupleDesc td) {
+    this(f, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Constructs a memory-mapped heap file backed by the specified file, with
+   * pages of the specified size.
+   *
+   * @param f the file that stores the on-disk backing store for this heap file.
+   * @param pageSize the size of the pages of the file in bytes
+   */
+  public MappedHeapFile(File f, TupleDesc td, int pageSize) {
+    super(f, td, pageSize);
+    this.extents = new MappedByteBuffer[0];
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Page readPage(PageId pid) {
+    ByteBuffer extent = getExtent(pid.pageNumber());
+    if (extent == null) {
+      return super.readPage(pid);
+    }
+    extent.position(getOffsetInExtent(pid.pageNumber()));
+    return new HeapPage(pid, extent);
+  }
+
+  /**
+   * Pages in mapped extents are decoded in place, so only runs of pages that
+   * are not yet mapped are read from the channel.
+   */
+  @Override
+  public List<Page> readPages(int startPageNumber, int count) {
+    if (getExtent(startPageNumber + count - 1) == null) {
+      return super.readPages(startPageNumber, count);
+    }
+    List<Page> pages = new ArrayList<Page>(count);
+    for (int i = 0; i < count; i++) {
+      pages.add(readPage(new HeapPageId(getId(), startPageNumber + i)));
+    }
+    return pages;
+  }
+
+  @Override
+  protected void writePageData(int pageNumber, byte[] pageData) {
+    ByteBuffer extent = getExtent(pageNumber);
+    if (extent == null) {
+      super.writePageData(pageNumber, pageData);
+      return;
+    }
+    extent.position(getOffsetInExtent(pageNumber));
+    extent.put(pageData);
+  }
+
+  /**
+   * Accessing a mapping past the end of its file crashes the JVM, and mappings
+   * are only unmapped when they are garbage collected, so the file is not
+   * truncated below the end of the last mapped extent.
+   */
+  @Override
+  protected synchronized int getTruncatedNumPages(int newNumberOfPages) {
+    int mappedPages = 0;
+    for (int i = extents.length - 1; i >= 0 && mappedPages == 0; i--) {
+      if (extents[i] != null) {
+        mappedPages = (i + 1) * EXTENT_PAGES;
+      }
+    }
+    return Math.max(newNumberOfPages, mappedPages);
+  }
+
+  private int getOffsetInExtent(int pageNumber) {
+    return (pageNumber % EXTENT_PAGES) * getPageSize();
+  }
+
+  /**
+   * Returns a private view of the extent holding the specified page, mapping
+   * the extent first if necessary, or null if the extent is not yet entirely
+   * within the file.
+   */
+  private synchronized ByteBuffer getExtent(int pageNumber) {
+    int extentNumber = pageNumber / EXTENT_PAGES;
+    if (extentNumber >= extents.length) {
+      extents = Arrays.copyOf(extents, Math.max(extentNumber + 1, extents.length * 2));
+    }
+    if (extents[extentNumber] == null) {
+      long extentBytes = (long) EXTENT_PAGES * getPageSize();
+      long extentStart = extentNumber * extentBytes;
+      try {
+        FileChannel channel = getChannel();
+        if (extentStart + extentBytes > channel.size()) {
+          return null;
+        }
+        extents[extentNumber] = channel.map(FileChannel.MapMode.READ_WRITE, extentStart,
+            extentBytes);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return extents[extentNumber].duplicate();
+  }
+}
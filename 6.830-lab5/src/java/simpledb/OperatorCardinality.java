@@ -1,6 +1,7 @@
 package simpledb;
 
 //import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,6 +38,10 @@ public class OperatorCardinality {
         } else if (children[0] instanceof SeqScan) {
           childC = tableStats.get(((SeqScan) children[0]).getTableName()).estimateTableCardinality(
               1.0);
+        } else if (children[0] instanceof IndexScan) {
+          childC = estimateIndexScanCardinality((IndexScan) children[0], tableStats);
+        } else if (children[0] instanceof BitmapScan) {
+          childC = estimateBitmapScanCardinality((BitmapScan) children[0], tableStats);
         }
       }
       o.setEstimatedCardinality(childC);
@@ -67,6 +72,14 @@ public class OperatorCardinality {
         f.setEstimatedCardinality((int) (tableStats.get(((SeqScan) child).getTableName())
             .estimateTableCardinality(1.0) * selectivity) + 1);
         return false;
+      } else if (child instanceof IndexScan) {
+        f.setEstimatedCardinality((int) (estimateIndexScanCardinality((IndexScan) child,
+            tableStats) * selectivity) + 1);
+        return false;
+      } else if (child instanceof BitmapScan) {
+        f.setEstimatedCardinality((int) (estimateBitmapScanCardinality((BitmapScan) child,
+            tableStats) * selectivity) + 1);
+        return false;
       }
     }
     f.setEstimatedCardinality(1);
@@ -103,6 +116,10 @@ public class OperatorCardinality {
       child1Card = child1Card > 0 ? child1Card : 1;
     } else if (child1 instanceof SeqScan) {
       child1Card = tableStats.get(((SeqScan) child1).getTableName()).estimateTableCardinality(1.0);
+    } else if (child1 instanceof IndexScan) {
+      child1Card = estimateIndexScanCardinality((IndexScan) child1, tableStats);
+    } else if (child1 instanceof BitmapScan) {
+      child1Card = estimateBitmapScanCardinality((BitmapScan) child1, tableStats);
     }
 
     if (child2 instanceof Operator) {
@@ -113,6 +130,10 @@ public class OperatorCardinality {
       child2Card = child2Card > 0 ? child2Card : 1;
     } else if (child2 instanceof SeqScan) {
       child2Card = tableStats.get(((SeqScan) child2).getTableName()).estimateTableCardinality(1.0);
+    } else if (child2 instanceof IndexScan) {
+      child2Card = estimateIndexScanCardinality((IndexScan) child2, tableStats);
+    } else if (child2 instanceof BitmapScan) {
+      child2Card = estimateBitmapScanCardinality((BitmapScan) child2, tableStats);
     }
 
     j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j.getJoinPredicate()
@@ -150,6 +171,10 @@ public class OperatorCardinality {
       child1Card = child1Card > 0 ? child1Card : 1;
     } else if (child1 instanceof SeqScan) {
       child1Card = tableStats.get(((SeqScan) child1).getTableName()).estimateTableCardinality(1.0);
+    } else if (child1 instanceof IndexScan) {
+      child1Card = estimateIndexScanCardinality((IndexScan) child1, tableStats);
+    } else if (child1 instanceof BitmapScan) {
+      child1Card = estimateBitmapScanCardinality((BitmapScan) child1, tableStats);
     }
 
     if (child2 instanceof Operator) {
@@ -160,6 +185,10 @@ public class OperatorCardinality {
       child2Card = child2Card > 0 ? child2Card : 1;
     } else if (child2 instanceof SeqScan) {
       child2Card = tableStats.get(((SeqScan) child2).getTableName()).estimateTableCardinality(1.0);
+    } else if (child2 instanceof IndexScan) {
+      child2Card = estimateIndexScanCardinality((IndexScan) child2, tableStats);
+    } else if (child2 instanceof BitmapScan) {
+      child2Card = estimateBitmapScanCardinality((BitmapScan) child2, tableStats);
     }
 
     j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j.getJoinPredicate()
@@ -186,6 +215,10 @@ public class OperatorCardinality {
 
     if (child instanceof SeqScan) {
       childCard = tableStats.get(((SeqScan) child).getTableName()).estimateTableCardinality(1.0);
+    } else if (child instanceof IndexScan) {
+      childCard = estimateIndexScanCardinality((IndexScan) child, tableStats);
+    } else if (child instanceof BitmapScan) {
+      childCard = estimateBitmapScanCardinality((BitmapScan) child, tableStats);
     }
 
     String[] tmp = a.groupFieldName().split("[.]");
@@ -205,4 +238,31 @@ public class OperatorCardinality {
     a.setEstimatedCardinality(childCard);
     return hasJoinPK;
   }
+
+  private static int estimateIndexScanCardinality(IndexScan s, Map<String, TableStats> tableStats) {
+    TableStats stats = tableStats.get(s.getTableName());
+    Predicate p = s.getPredicate();
+    return stats.estimateTableCardinality(stats.estimateSelectivity(p.getField(), p.getOp(),
+        p.getOperand())) + 1;
+  }
+
+  /**
+   * Estimates the cardinality of a bitmap scan: the selectivity of a
+   * disjunction is the sum of the selectivities of its predicates, at most
+   * one, and the disjunctions are assumed to be independent.
+   */
+  private static int estimateBitmapScanCardinality(BitmapScan s,
+      Map<String, TableStats> tableStats) {
+    TableStats stats = tableStats.get(s.getTableName());
+    double selectivity = 1.0;
+    for (List<Predicate> disjunction : s.getConditions()) {
+      double disjunctionSelectivity = 0.0;
+      for (Predicate p : disjunction) {
+        disjunctionSelectivity += stats.estimateSelectivity(p.getField(), p.getOp(),
+            p.getOperand());
+      }
+      selectivity *= Math.min(1.0, disjunctionSelectivity);
+    }
+    return stats.estimateTableCardinality(selectivity) + 1;
+  }
 }
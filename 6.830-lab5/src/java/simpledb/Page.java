@@ -55,7 +55,8 @@ public interface Page {
 
   /*
    * a transaction that wrote this page just committed it. copy current content
-   * to the before image.
+   * to the before image. implementations may defer the copy until the page is
+   * next modified.
    */
   public void setBeforeImage();
 }
@@ -13,6 +13,8 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -444,6 +446,101 @@ public class Parser {
     }
   }
 
+  /**
+   * Syntax of the COPY statement, which Zql does not know about:
+   * <tt>COPY table FROM 'file' [DELIMITER 'c'];</tt>
+   */
+  private static final Pattern COPY_STATEMENT = Pattern.compile(
+      "\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * Returns true if the specified statement is a COPY statement.
+   */
+  public static boolean isCopyStatement(String s) {
+    return s.trim().toLowerCase().matches("(?s)copy\\s.*");
+  }
+
+  /**
+   * Bulk loads a delimited text file into a heap table, see
+   * {@link HeapFile#load}. The tuples are appended to the table outside of any
+   * transaction, so COPY cannot be used inside one.
+   */
+  public void handleCopyStatement(String s) throws IOException, simpledb.ParsingException {
+    Matcher matcher = COPY_STATEMENT.matcher(s);
+    if (!matcher.matches()) {
+      throw new simpledb.ParsingException("Expected COPY table FROM 'file' [DELIMITER 'c']");
+    }
+    if (inUserTrans) {
+      throw new simpledb.ParsingException("COPY cannot run inside a transaction.");
+    }
+    String tableName = matcher.group(1);
+    int tableId;
+    try {
+      tableId = Database.getCatalog().getTableId(tableName);
+    } catch (NoSuchElementException e) {
+      throw new simpledb.ParsingException("Unknown table : " + tableName);
+    }
+    DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    if (!(file instanceof HeapFile)) {
+      throw new simpledb.ParsingException("COPY only supports heap tables.");
+    }
+    if (!Database.getCatalog().getIndexes(tableId).isEmpty()) {
+      // the loaded pages bypass the buffer pool, which keeps the indexes
+      throw new simpledb.ParsingException("COPY does not support tables with indexes.");
+    }
+    char fieldSeparator = matcher.group(3) == null ? ',' : matcher.group(3).charAt(0);
+    long tuples = ((HeapFile) file).load(new File(matcher.group(2)), fieldSeparator);
+    TableStats.setTableStats(tableName, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+    System.out.println(tuples + " tuples loaded into " + tableName + ".");
+  }
+
+  /**
+   * Syntax of the VACUUM statement, which Zql does not know about:
+   * <tt>VACUUM table;</tt>
+   */
+  private static final Pattern VACUUM_STATEMENT = Pattern.compile(
+      "\\s*vacuum\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  /**
+   * Returns true if the specified statement is a VACUUM statement.
+   */
+  public static boolean isVacuumStatement(String s) {
+    return s.trim().toLowerCase().matches("(?s)vacuum\\s.*");
+  }
+
+  /**
+   * Compacts a heap table and gives the pages it no longer needs back to the
+   * file system, see {@link HeapFile#compact}. The compaction runs its own
+   * transactions, so VACUUM cannot be used inside one.
+   */
+  public void handleVacuumStatement(String s) throws DbException, IOException,
+      simpledb.ParsingException {
+    Matcher matcher = VACUUM_STATEMENT.matcher(s);
+    if (!matcher.matches()) {
+      throw new simpledb.ParsingException("Expected VACUUM table");
+    }
+    if (inUserTrans) {
+      throw new simpledb.ParsingException("VACUUM cannot run inside a transaction.");
+    }
+    String tableName = matcher.group(1);
+    int tableId;
+    try {
+      tableId = Database.getCatalog().getTableId(tableName);
+    } catch (NoSuchElementException e) {
+      throw new simpledb.ParsingException("Unknown table : " + tableName);
+    }
+    DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    if (!(file instanceof HeapFile)) {
+      throw new simpledb.ParsingException("VACUUM only supports heap tables.");
+    }
+    HeapFile heapFile = (HeapFile) file;
+    int pagesReclaimed = heapFile.compact();
+    TableStats.setTableStats(tableName, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+    System.out.println(pagesReclaimed + " pages reclaimed from " + tableName + ", "
+        + heapFile.numPages() + " pages left.");
+  }
+
   public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
       throws simpledb.ParsingException {
     ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -470,6 +567,28 @@ public class Parser {
   }
 
   public void processNextStatement(String s) {
+    if (isCopyStatement(s)) {
+      try {
+        handleCopyStatement(s);
+      } catch (IOException e) {
+        System.out.println("COPY failed: " + e.getMessage());
+      } catch (simpledb.ParsingException e) {
+        System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+      }
+      return;
+    }
+    if (isVacuumStatement(s)) {
+      try {
+        handleVacuumStatement(s);
+      } catch (DbException e) {
+        System.out.println("VACUUM failed: " + e.getMessage());
+      } catch (IOException e) {
+        System.out.println("VACUUM failed: " + e.getMessage());
+      } catch (simpledb.ParsingException e) {
+        System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+      }
+      return;
+    }
     try {
       processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
     } catch (UnsupportedEncodingException e) {
@@ -547,7 +666,8 @@ public class Parser {
 
   // Basic SQL completions
   public static final String[] SQL_COMMANDS = { "select", "from", "where", "group by", "max(",
-      "min(", "avg(", "count", "rollback", "commit", "insert", "delete", "values", "into" };
+      "min(", "avg(", "count", "rollback", "commit", "insert", "delete", "values", "into",
+      "copy", "delimiter", "vacuum" };
 
   public static void main(String argv[]) throws IOException {
 
@@ -629,7 +749,6 @@ public class Parser {
           buffer.append(line.substring(0, split + 1));
           String cmd = buffer.toString().trim();
           cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-          byte[] statementBytes = cmd.getBytes("UTF-8");
           if (cmd.equalsIgnoreCase("quit;") || cmd.equalsIgnoreCase("exit;")) {
             shutdown();
             quit = true;
@@ -637,7 +756,7 @@ public class Parser {
           }
 
           long startTime = System.currentTimeMillis();
-          processNextStatement(new ByteArrayInputStream(statementBytes));
+          processNextStatement(cmd);
           long time = System.currentTimeMillis() - startTime;
           System.out.printf("----------------\n%.2f seconds\n\n", new Double(time / 1000.0));
 
@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * PaxHeapFile is a DbFile that stores a collection of tuples in no
+ * particular order on PaxPages, which store the values of each field together
+ * in a minipage of their own. Everything but the page format is shared with
+ * HeapFile, see AbstractHeapFile.
+ * <p>
+ * Scans can ask for only some of the fields of the table, in which case the
+ * other fields are never decoded and are null in the returned tuples, and can
+ * evaluate predicates on the minipages before a tuple is built.
+ *
+ * @see simpledb.PaxPage
+ * @see simpledb.AbstractHeapFile
+ */
+public class PaxHeapFile extends AbstractHeapFile {
+
+  /**
+   * Constructs a PAX heap file backed by the specified file, with pages of the
+   * default size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @see BufferPool#getPageSize()
+   */
+  public PaxHeapFile(File f, TupleDesc td) {
+    this(f, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Constructs a PAX heap file backed by the specified file, with pages of the
+   * specified size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @param pageSize the size of the pages of the file in bytes
+   */
+  public PaxHeapFile(File f, TupleDesc td, int pageSize) {
+    super(f, td, pageSize);
+  }
+
+  /**
+   * Writes the specified tuples to a new PAX heap file, filling each page
+   * completely. Any existing contents of the file are replaced.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td)
+      throws IOException {
+    encode(tuples, outFile, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Writes the specified tuples to a new file with pages of the specified
+   * size, in the same way as {@link #encode(Iterator, File, TupleDesc)}.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td, int pageSize)
+      throws IOException {
+    FreeSpaceMap.delete(outFile);
+    FileOutputStream os = new FileOutputStream(outFile);
+    try {
+      HeapPageId pid = new HeapPageId(0, 0);
+      PaxPage page = new PaxPage(pid, td, PaxPage.createEmptyPageData(pageSize));
+      boolean empty = true;
+      while (tuples.hasNext()) {
+        Tuple t = tuples.next();
+        if (page.getNumEmptySlots() == 0) {
+          os.write(page.getPageData());
+          page = new PaxPage(pid, td, PaxPage.createEmptyPageData(pageSize));
+        }
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+          copy.setField(i, t.getField(i));
+        }
+        try {
+          page.insertTuple(copy);
+        } catch (DbException e) {
+          throw new IOException(e.getMessage());
+        }
+        empty = false;
+      }
+      if (!empty) {
+        os.write(page.getPageData());
+      }
+    } finally {
+      os.close();
+    }
+  }
+
+  @Override
+  protected Page createPage(PageId pid, byte[] data) {
+    return new PaxPage(pid, data);
+  }
+
+  @Override
+  protected byte[] createEmptyPageData() {
+    return PaxPage.createEmptyPageData(getPageSize());
+  }
+
+  @Override
+  protected int getFreeSlots(Page page) {
+    return ((PaxPage) page).getNumEmptySlots();
+  }
+
+  @Override
+  protected boolean hasRoomFor(Page page, Tuple t) {
+    return ((PaxPage) page).getNumEmptySlots() > 0;
+  }
+
+  @Override
+  protected void addTuple(Page page, Tuple t) throws DbException {
+    ((PaxPage) page).insertTuple(t);
+  }
+
+  @Override
+  protected void removeTuple(Page page, Tuple t) throws DbException {
+    ((PaxPage) page).deleteTuple(t);
+  }
+
+  @Override
+  protected Iterator<Tuple> iterator(Page page, boolean[] fields, List<Predicate> predicates) {
+    return ((PaxPage) page).iterator(fields, predicates);
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Tuple getTuple(Page page, int tupleNumber) {
+    PaxPage paxPage = (PaxPage) page;
+    return paxPage.isSlotUsed(tupleNumber) ? paxPage.getTuple(tupleNumber, null) : null;
+  }
+
+  /**
+   * Returns an iterator over the tuples of this file that satisfy all of the
+   * specified predicates, reading only the specified fields.
+   *
+   * @param tid the transaction the iterator runs as a part of
+   * @param fields for every field of the table, whether the returned tuples
+   *          should contain it, or null to return whole tuples. Fields that are
+   *          not returned are null.
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  @Override
+  public DbFileIterator iterator(TransactionId tid, boolean[] fields, List<Predicate> predicates) {
+    return super.iterator(tid, fields, predicates);
+  }
+}
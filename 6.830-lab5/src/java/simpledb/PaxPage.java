@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxHeapFile. A
+ * PaxPage holds as many tuples as a HeapPage of the same table, but stores
+ * them column by column (the PAX layout): the page image starts with the same
+ * header bitmap of used slots as a HeapPage, followed by one minipage per
+ * field holding the values of that field for every slot, one after the other.
+ * <p>
+ * A scan that only needs some of the fields of a table reads only their
+ * minipages and never decodes the others, and predicates on a field are
+ * evaluated on its minipage before any other field of the tuple is looked at.
+ *
+ * @see PaxHeapFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+  private final PageId pageId;
+  private final TupleDesc tupleDesc;
+  private final int numberOfTupleSlots;
+  private final int headerSize;
+  private final int[] minipageOffsets;
+  private final byte[] pageData;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a PaxPage from a set of bytes of data read from disk. The page works
+   * on a private copy of the data.
+   *
+   * @see Database#getCatalog
+   * @see Catalog#getTupleDesc
+   */
+  public PaxPage(PageId id, byte[] data) {
+    this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+  }
+
+  /**
+   * Create a PaxPage for a table that is not (yet) in the catalog, e.g. while
+   * a file is being built.
+   */
+  PaxPage(PageId id, TupleDesc td, byte[] data) {
+    this.pageId = id;
+    this.tupleDesc = td;
+    this.numberOfTupleSlots = getNumTuples(td, data.length);
+    this.headerSize = (numberOfTupleSlots + 7) / 8;
+    this.minipageOffsets = new int[td.numFields()];
+    int offset = headerSize;
+    for (int i = 0; i < minipageOffsets.length; i++) {
+      minipageOffsets[i] = offset;
+      offset += numberOfTupleSlots * td.getFieldType(i).getLen();
+    }
+    this.pageData = data.clone();
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
+
+  /**
+   * Returns the number of tuples that fit on a page of the default size of a
+   * table with the specified TupleDesc, which is the same as for a HeapPage.
+   */
+  public static int getNumTuples(TupleDesc td) {
+    return getNumTuples(td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Returns the number of tuples that fit on a page of the specified size of a
+   * table with the specified TupleDesc.
+   */
+  public static int getNumTuples(TupleDesc td, int pageSize) {
+    return (pageSize * 8) / (td.getSize() * 8 + 1);
+  }
+
+  /**
+   * Returns the size of the smallest page that has a slot for a tuple of the
+   * specified TupleDesc, which is the same as for a HeapPage.
+   */
+  public static int getMinPageSize(TupleDesc td) {
+    return td.getSize() + 1;
+  }
+
+  /**
+   * Static method to generate a byte array corresponding to an empty PaxPage.
+   */
+  public static byte[] createEmptyPageData() {
+    return createEmptyPageData(BufferPool.getPageSize());
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty PaxPage of a table with
+   * the specified page size.
+   */
+  public static byte[] createEmptyPageData(int pageSize) {
+    return new byte[pageSize];
+  }
+
+  private int getValueOffset(int slotId, int fieldIndex) {
+    return minipageOffsets[fieldIndex] + slotId * tupleDesc.getFieldType(fieldIndex).getLen();
+  }
+
+  /**
+   * Returns true if associated slot on this page is filled.
+   */
+  public boolean isSlotUsed(int slotId) {
+    return (pageData[slotId / 8] & (1 << (slotId % 8))) != 0;
+  }
+
+  private void setSlot(int slotId, boolean value) {
+    if (value) {
+      pageData[slotId / 8] |= 1 << (slotId % 8);
+    } else {
+      pageData[slotId / 8] &= ~(1 << (slotId % 8));
+    }
+  }
+
+  /**
+   * Returns the number of empty slots on this page.
+   */
+  public int getNumEmptySlots() {
+    int count = 0;
+    for (int i = 0; i < numberOfTupleSlots; i++) {
+      if (!isSlotUsed(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int getNextSlotOfValue(int startSlot, boolean value) {
+    int slot = startSlot;
+    while (slot < numberOfTupleSlots && isSlotUsed(slot) != value) {
+      slot++;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the value of the specified integer field of the tuple in the
+   * specified slot.
+   *
+   * @throws IllegalArgumentException if the field is not an integer field
+   */
+  public int getInt(int slotId, int fieldIndex) {
+    if (tupleDesc.getFieldType(fieldIndex) != Type.INT_TYPE) {
+      throw new IllegalArgumentException("Field " + fieldIndex + " is not an integer field.");
+    }
+    return ByteBuffer.wrap(pageData).getInt(getValueOffset(slotId, fieldIndex));
+  }
+
+  /**
+   * Returns the specified field of the tuple in the specified slot, decoding
+   * only that field.
+   */
+  public Field getField(int slotId, int fieldIndex) {
+    Type type = tupleDesc.getFieldType(fieldIndex);
+    if (type == Type.INT_TYPE) {
+      return new IntField(getInt(slotId, fieldIndex));
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(pageData);
+    buffer.position(getValueOffset(slotId, fieldIndex));
+    return type.parse(buffer);
+  }
+
+  /**
+   * Returns true if the tuple in the specified (used) slot satisfies the
+   * specified predicate. Integer comparisons are done on the minipage without
+   * creating a Field.
+   */
+  public boolean satisfies(int slotId, Predicate predicate) {
+    int fieldIndex = predicate.getField();
+    if (tupleDesc.getFieldType(fieldIndex) == Type.INT_TYPE) {
+      return IntField.compare(getInt(slotId, fieldIndex), predicate.getOp(),
+          ((IntField) predicate.getOperand()).getValue());
+    }
+    return getField(slotId, fieldIndex).compare(predicate.getOp(), predicate.getOperand());
+  }
+
+  /**
+   * Adds the specified tuple to the page; the tuple should be updated to
+   * reflect that it is now stored on this page.
+   *
+   * @throws DbException if the page is full (no empty slots) or tupledesc is
+   *           mismatch.
+   * @param t The tuple to add.
+   */
+  public void insertTuple(Tuple t) throws DbException {
+    if (!(t.getTupleDesc().equals(tupleDesc))) {
+      throw new DbException("Cannot insert a Tuple with a different TupleDesc.");
+    }
+    int slotId = getNextSlotOfValue(0, false);
+    if (slotId == numberOfTupleSlots) {
+      throw new DbException("No empty slots available for Tuple insertion.");
+    }
+    captureBeforeImage();
+    setSlot(slotId, true);
+    ByteBuffer buffer = ByteBuffer.wrap(pageData);
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      buffer.position(getValueOffset(slotId, i));
+      t.getField(i).serialize(buffer);
+    }
+    t.setRecordId(new RecordId(pageId, slotId));
+  }
+
+  /**
+   * Delete the specified tuple from the page; the tuple should be updated to
+   * reflect that it is no longer stored on any page.
+   *
+   * @throws DbException if this tuple is not on this page, or tuple slot is
+   *           already empty.
+   * @param t The tuple to delete
+   */
+  public void deleteTuple(Tuple t) throws DbException {
+    if (t.getRecordId() == null || !(t.getRecordId().getPageId().equals(pageId))) {
+      throw new DbException("Tuple can only be deleted from its page.");
+    }
+    int slotId = t.getRecordId().tupleno();
+    if (!isSlotUsed(slotId)) {
+      throw new DbException("Tuple's slot is already empty.");
+    }
+    captureBeforeImage();
+    setSlot(slotId, false);
+    // empty slots are all zeroes in the image
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      int offset = getValueOffset(slotId, i);
+      Arrays.fill(pageData, offset, offset + tupleDesc.getFieldType(i).getLen(), (byte) 0);
+    }
+    t.setRecordId(null);
+  }
+
+  /**
+   * Decodes the specified fields of the tuple in the specified used slot. The
+   * other fields of the returned tuple are null.
+   */
+  Tuple getTuple(int slotId, boolean[] fields) {
+    Tuple t = new Tuple(tupleDesc);
+    t.setRecordId(new RecordId(pageId, slotId));
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      if (fields == null || fields[i]) {
+        t.setField(i, getField(slotId, i));
+      }
+    }
+    return t;
+  }
+
+  /**
+   * @return an iterator over all tuples on this page (calling remove on this
+   *         iterator throws an UnsupportedOperationException)
+   */
+  public Iterator<Tuple> iterator() {
+    return iterator(null, null);
+  }
+
+  /**
+   * @return an iterator over the tuples on this page that satisfy all of the
+   *         specified predicates, with only the specified fields filled in.
+   * @param fields for every field of the table, whether the returned tuples
+   *          should contain it, or null to return whole tuples
+   * @param predicates the predicates to check, or null to return every tuple
+   */
+  public Iterator<Tuple> iterator(final boolean[] fields, final List<Predicate> predicates) {
+    return new Iterator<Tuple>() {
+
+      int currentSlot = getNextMatchingSlot(0);
+
+      private int getNextMatchingSlot(int startSlot) {
+        int slot = getNextSlotOfValue(startSlot, true);
+        while (slot < numberOfTupleSlots && !satisfiesAll(slot)) {
+          slot = getNextSlotOfValue(slot + 1, true);
+        }
+        return slot;
+      }
+
+      private boolean satisfiesAll(int slotId) {
+        if (predicates == null) {
+          return true;
+        }
+        for (Predicate predicate : predicates) {
+          if (!satisfies(slotId, predicate)) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return currentSlot < numberOfTupleSlots;
+      }
+
+      @Override
+      public Tuple next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Tuple tuple = getTuple(currentSlot, fields);
+        currentSlot = getNextMatchingSlot(currentSlot + 1);
+        return tuple;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return the PageId associated with this page.
+   */
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public PaxPage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new PaxPage(pageId, tupleDesc, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
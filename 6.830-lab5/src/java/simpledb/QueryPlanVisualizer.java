@@ -3,6 +3,7 @@ package simpledb;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import simpledb.TupleDesc.TDItem;
 
@@ -61,16 +62,44 @@ public class QueryPlanVisualizer {
     int adjustDepth = currentDepth == 0 ? -1 : 0;
     SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-    if (queryPlan instanceof SeqScan) {
-      SeqScan s = (SeqScan) queryPlan;
-      String tableName = s.getTableName();
-      String alias = s.getAlias();
+    if (queryPlan instanceof SeqScan || queryPlan instanceof IndexScan
+        || queryPlan instanceof BitmapScan) {
+      String tableName;
+      String alias;
+      String indexPredicate = "";
+      if (queryPlan instanceof SeqScan) {
+        SeqScan s = (SeqScan) queryPlan;
+        tableName = s.getTableName();
+        alias = s.getAlias();
+      } else if (queryPlan instanceof IndexScan) {
+        IndexScan s = (IndexScan) queryPlan;
+        tableName = s.getTableName();
+        alias = s.getAlias();
+        Predicate p = s.getPredicate();
+        indexPredicate = ",index:" + s.getTupleDesc().getFieldName(p.getField()) + p.getOp()
+            + p.getOperand();
+      } else {
+        BitmapScan s = (BitmapScan) queryPlan;
+        tableName = s.getTableName();
+        alias = s.getAlias();
+        indexPredicate = ",bitmap:";
+        for (List<Predicate> disjunction : s.getConditions()) {
+          if (!indexPredicate.endsWith(":")) {
+            indexPredicate += "&";
+          }
+          for (int i = 0; i < disjunction.size(); i++) {
+            Predicate p = disjunction.get(i);
+            indexPredicate += (i > 0 ? "|" : "") + s.getTupleDesc().getFieldName(p.getField())
+                + p.getOp() + p.getOperand();
+          }
+        }
+      }
       // TupleDesc td = s.getTupleDesc();
       if (!tableName.equals(alias))
         alias = " " + alias;
       else
         alias = "";
-      thisNode.text = String.format("%1$s(%2$s)", SCAN, tableName + alias);
+      thisNode.text = String.format("%1$s(%2$s)%3$s", SCAN, tableName + alias, indexPredicate);
       if (SCAN.length() / 2 < parentUpperBarStartShift) {
         thisNode.upBarPosition = currentStartPosition + parentUpperBarStartShift;
         thisNode.textStartPosition = thisNode.upBarPosition - SCAN.length() / 2;
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 /**
@@ -16,6 +17,8 @@ public class SeqScan implements DbIterator {
   private DbFileIterator iterator;
   private int tableId;
   private String tableAlias;
+  private final ArrayList<Predicate> predicates;
+  private boolean[] referencedFields;
 
   /**
    * Creates a sequential scan over the specified table as a part of the
@@ -32,10 +35,11 @@ public class SeqScan implements DbIterator {
    */
   public SeqScan(TransactionId tid, int tableId, String tableAlias) {
     this.transactionId = tid;
+    this.predicates = new ArrayList<Predicate>();
     reset(tableId, tableAlias);
   }
 
-  private static TupleDesc getPrefixedTupleDesc(int tableId, String tableAlias) {
+  static TupleDesc getPrefixedTupleDesc(int tableId, String tableAlias) {
     String tableAliasRepresentation = representPossiblyNullString(tableAlias);
     TupleDesc underlyingTupleDesc = Database.getCatalog().getTupleDesc(tableId);
     int tupleDescSize = underlyingTupleDesc.numFields();
@@ -84,7 +88,53 @@ public class SeqScan implements DbIterator {
     this.tableId = tid;
     this.tableAlias = alias;
     this.tupleDesc = getPrefixedTupleDesc(tid, alias);
-    this.iterator = Database.getCatalog().getDatabaseFile(tid).iterator(transactionId);
+    this.predicates.clear();
+    this.referencedFields = null;
+    this.iterator = createIterator();
+  }
+
+  private DbFileIterator createIterator() {
+    DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+    if (file instanceof PaxHeapFile) {
+      return ((PaxHeapFile) file).iterator(transactionId, referencedFields,
+          predicates.isEmpty() ? null : predicates);
+    }
+    if (file instanceof CompressedHeapFile) {
+      return ((CompressedHeapFile) file).iterator(transactionId, referencedFields,
+          predicates.isEmpty() ? null : predicates);
+    }
+    if (!predicates.isEmpty() && file instanceof HeapFile) {
+      return ((HeapFile) file).iterator(transactionId, predicates);
+    }
+    return file.iterator(transactionId);
+  }
+
+  /**
+   * Pushes the specified predicate down into this scan, so that tuples that do
+   * not satisfy it can be rejected before they are decoded. The scan may still
+   * return such tuples, e.g. if the table does not support evaluating
+   * predicates, so the predicate must also be applied by a Filter above this
+   * scan. Must be called before the scan is opened.
+   * 
+   * @param p a predicate over the fields of this scan
+   */
+  public void addPredicate(Predicate p) {
+    predicates.add(p);
+    this.iterator = createIterator();
+  }
+
+  /**
+   * Tells this scan which fields of its tuples are used by the operators above
+   * it. The scan may leave the other fields null, e.g. if the table stores
+   * each field separately and need not read the others at all. Must be called
+   * before the scan is opened.
+   * 
+   * @param fields for every field of this scan, whether it is used, or null if
+   *          all fields are used
+   */
+  public void setReferencedFields(boolean[] fields) {
+    this.referencedFields = fields;
+    this.iterator = createIterator();
   }
 
   public SeqScan(TransactionId tid, int tableid) {
@@ -43,8 +43,11 @@ public class SimpleDb {
             fieldSeparator = args[4].charAt(0);
         }
 
-        HeapFileEncoder.convert(sourceTxtFile, targetDatFile, BufferPool.getPageSize(),
-            numOfAttributes, ts, fieldSeparator);
+        long startTime = System.currentTimeMillis();
+        long tuples = BulkLoader.create(ts, BufferPool.getPageSize(), fieldSeparator).load(
+            sourceTxtFile, targetDatFile);
+        System.out.printf("Converted %d tuples in %.2f seconds\n", tuples,
+            (System.currentTimeMillis() - startTime) / 1000.0);
 
       } catch (IOException e) {
         throw new RuntimeException(e);
@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SlottedHeapFile is a DbFile that stores a collection of tuples in no
+ * particular order on SlottedPages, which store strings in only as many bytes
+ * as they need. Everything but the page format is shared with HeapFile, see
+ * AbstractHeapFile.
+ * <p>
+ * The free space map of a SlottedHeapFile counts, for every page, how many
+ * tuples of the largest possible size still fit on it. A page whose entry is
+ * zero may still have room for a short tuple, but is not used for inserts
+ * until deletions free up space on it.
+ *
+ * @see simpledb.SlottedPage
+ * @see simpledb.AbstractHeapFile
+ */
+public class SlottedHeapFile extends AbstractHeapFile {
+
+  private final int maxRecordSize;
+
+  /**
+   * Constructs a slotted heap file backed by the specified file, with pages of the
+   * default size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @see BufferPool#getPageSize()
+   */
+  public SlottedHeapFile(File f, TupleDesc td) {
+    this(f, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Constructs a slotted heap file backed by the specified file, with pages of the
+   * specified size.
+   *
+   * @param f the file that stores the on-disk backing store for this file.
+   * @param pageSize the size of the pages of the file in bytes
+   */
+  public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+    super(f, td, pageSize);
+    this.maxRecordSize = SlottedPage.getMaxRecordSize(td);
+  }
+
+  /**
+   * Writes the specified tuples to a new slotted heap file, packing each page
+   * as full as possible. Any existing contents of the file are replaced.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td)
+      throws IOException {
+    encode(tuples, outFile, td, BufferPool.getPageSize());
+  }
+
+  /**
+   * Writes the specified tuples to a new file with pages of the specified
+   * size, in the same way as {@link #encode(Iterator, File, TupleDesc)}.
+   */
+  public static void encode(Iterator<Tuple> tuples, File outFile, TupleDesc td, int pageSize)
+      throws IOException {
+    FreeSpaceMap.delete(outFile);
+    FileOutputStream os = new FileOutputStream(outFile);
+    try {
+      HeapPageId pid = new HeapPageId(0, 0);
+      SlottedPage page = new SlottedPage(pid, td, SlottedPage.createEmptyPageData(pageSize));
+      boolean empty = true;
+      while (tuples.hasNext()) {
+        Tuple t = tuples.next();
+        if (!page.hasRoomFor(t)) {
+          os.write(page.getPageData());
+          page = new SlottedPage(pid, td, SlottedPage.createEmptyPageData(pageSize));
+        }
+        Tuple copy = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+          copy.setField(i, t.getField(i));
+        }
+        try {
+          page.insertTuple(copy);
+        } catch (DbException e) {
+          throw new IOException(e.getMessage());
+        }
+        empty = false;
+      }
+      if (!empty) {
+        os.write(page.getPageData());
+      }
+    } finally {
+      os.close();
+    }
+  }
+
+  @Override
+  protected Page createPage(PageId pid, byte[] data) {
+    return new SlottedPage(pid, data);
+  }
+
+  @Override
+  protected byte[] createEmptyPageData() {
+    return SlottedPage.createEmptyPageData(getPageSize());
+  }
+
+  /**
+   * Returns the number of tuples of the largest possible size that still fit
+   * on the specified page.
+   */
+  @Override
+  protected int getFreeSlots(Page page) {
+    return ((SlottedPage) page).getFreeSpace() / maxRecordSize;
+  }
+
+  @Override
+  protected boolean hasRoomFor(Page page, Tuple t) {
+    return ((SlottedPage) page).hasRoomFor(t);
+  }
+
+  @Override
+  protected void addTuple(Page page, Tuple t) throws DbException {
+    ((SlottedPage) page).insertTuple(t);
+  }
+
+  @Override
+  protected void removeTuple(Page page, Tuple t) throws DbException {
+    ((SlottedPage) page).deleteTuple(t);
+  }
+
+  /**
+   * Slotted files are only ever scanned whole, so fields and predicates are
+   * always null.
+   */
+  @Override
+  protected Iterator<Tuple> iterator(Page page, boolean[] fields, List<Predicate> predicates) {
+    return ((SlottedPage) page).iterator();
+  }
+
+  // see DbFile.java for javadocs
+  @Override
+  public Tuple getTuple(Page page, int tupleNumber) {
+    SlottedPage slottedPage = (SlottedPage) page;
+    return slottedPage.isSlotUsed(tupleNumber) ? slottedPage.getTuple(tupleNumber) : null;
+  }
+}
@@ -0,0 +1,439 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedHeapFile.
+ * Unlike HeapPage, whose slots all have the size of the largest possible
+ * tuple, a SlottedPage stores every tuple in exactly as many bytes as it needs,
+ * so tables with short strings fit many more tuples on a page.
+ * <p>
+ * The page image starts with a four byte header holding the number of entries
+ * in the slot directory and the size of the record area, both as unsigned
+ * shorts. The slot directory follows the header, one entry per slot holding
+ * the offset and the length of the slot's record as unsigned shorts; an offset
+ * of zero marks an empty slot. Records are packed at the end of the page and
+ * grow towards the directory. Integers take four bytes and strings take a two
+ * byte length followed by the bytes of the string.
+ * <p>
+ * The slot number of a tuple does not change while the tuple is on the page,
+ * so record ids stay valid. Space freed by deletions is reclaimed by
+ * compacting the record area when an insertion would not fit otherwise.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+  private static final int HEADER_SIZE = 4;
+  private static final int SLOT_ENTRY_SIZE = 4;
+  private static final int STRING_LENGTH_SIZE = 2;
+
+  private final PageId pageId;
+  private final TupleDesc tupleDesc;
+  private final int pageSize;
+  private final byte[] pageData;
+
+  /**
+   * Image of this page as of the last setBeforeImage, captured by the first
+   * modification after it, or null if the page has not been modified since.
+   */
+  private byte[] oldData;
+  private final Byte oldDataLock = new Byte((byte) 0);
+
+  private boolean isDirty;
+  private TransactionId dirtyingTransactionId;
+
+  /**
+   * Create a SlottedPage from a set of bytes of data read from disk. The page
+   * works on a private copy of the data.
+   *
+   * @see Database#getCatalog
+   * @see Catalog#getTupleDesc
+   */
+  public SlottedPage(PageId id, byte[] data) {
+    this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+  }
+
+  /**
+   * Create a SlottedPage for a table that is not (yet) in the catalog, e.g.
+   * while a file is being built.
+   */
+  SlottedPage(PageId id, TupleDesc td, byte[] data) {
+    this.pageId = id;
+    this.tupleDesc = td;
+    this.pageSize = data.length;
+    this.pageData = data.clone();
+    this.isDirty = false;
+    this.dirtyingTransactionId = null;
+    this.oldData = null;
+  }
+
+  /**
+   * Static method to generate a byte array corresponding to an empty
+   * SlottedPage.
+   */
+  public static byte[] createEmptyPageData() {
+    return createEmptyPageData(BufferPool.getPageSize());
+  }
+
+  /**
+   * Generates a byte array corresponding to an empty SlottedPage of a
+   * table with the specified page size.
+   */
+  public static byte[] createEmptyPageData(int pageSize) {
+    return new byte[pageSize];
+  }
+
+  /**
+   * Returns the number of bytes needed to store the largest possible tuple of
+   * the specified TupleDesc, including its slot directory entry.
+   */
+  public static int getMaxRecordSize(TupleDesc td) {
+    int size = SLOT_ENTRY_SIZE;
+    for (int i = 0; i < td.numFields(); i++) {
+      if (td.getFieldType(i) == Type.STRING_TYPE) {
+        size += STRING_LENGTH_SIZE + Type.STRING_LEN;
+      } else {
+        size += td.getFieldType(i).getLen();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the size of the smallest page that holds the largest possible
+   * tuple of the specified TupleDesc.
+   */
+  public static int getMinPageSize(TupleDesc td) {
+    return HEADER_SIZE + getMaxRecordSize(td);
+  }
+
+  /**
+   * Returns the number of bytes needed to store the specified tuple on a
+   * page, not counting its slot directory entry.
+   */
+  public static int getRecordSize(Tuple t) {
+    int size = 0;
+    TupleDesc td = t.getTupleDesc();
+    for (int i = 0; i < td.numFields(); i++) {
+      if (td.getFieldType(i) == Type.STRING_TYPE) {
+        size += STRING_LENGTH_SIZE + getStringBytes(t.getField(i)).length;
+      } else {
+        size += td.getFieldType(i).getLen();
+      }
+    }
+    return size;
+  }
+
+  private static byte[] getStringBytes(Field field) {
+    String value = ((StringField) field).getValue();
+    if (value.length() > Type.STRING_LEN) {
+      value = value.substring(0, Type.STRING_LEN);
+    }
+    // same encoding as StringField.serialize, only the low byte of each char
+    byte[] bytes = new byte[value.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) value.charAt(i);
+    }
+    return bytes;
+  }
+
+  private int getUnsignedShort(int offset) {
+    return ((pageData[offset] & 0xFF) << 8) | (pageData[offset + 1] & 0xFF);
+  }
+
+  private void putUnsignedShort(int offset, int value) {
+    pageData[offset] = (byte) (value >>> 8);
+    pageData[offset + 1] = (byte) value;
+  }
+
+  private int getNumberOfSlots() {
+    return getUnsignedShort(0);
+  }
+
+  private int getRecordAreaStart() {
+    return pageSize - getUnsignedShort(2);
+  }
+
+  private int getSlotOffset(int slotId) {
+    return getUnsignedShort(HEADER_SIZE + slotId * SLOT_ENTRY_SIZE);
+  }
+
+  private int getSlotLength(int slotId) {
+    return getUnsignedShort(HEADER_SIZE + slotId * SLOT_ENTRY_SIZE + 2);
+  }
+
+  private void setSlot(int slotId, int offset, int length) {
+    putUnsignedShort(HEADER_SIZE + slotId * SLOT_ENTRY_SIZE, offset);
+    putUnsignedShort(HEADER_SIZE + slotId * SLOT_ENTRY_SIZE + 2, length);
+  }
+
+  /**
+   * Returns true if associated slot on this page is filled.
+   */
+  public boolean isSlotUsed(int slotId) {
+    return slotId < getNumberOfSlots() && getSlotOffset(slotId) != 0;
+  }
+
+  /**
+   * Returns the number of bytes between the slot directory and the record
+   * area.
+   */
+  private int getContiguousFreeSpace() {
+    return getRecordAreaStart() - (HEADER_SIZE + getNumberOfSlots() * SLOT_ENTRY_SIZE);
+  }
+
+  /**
+   * Returns the number of bytes available for a new record and its slot
+   * directory entry, counting the space that compaction would reclaim.
+   */
+  public int getFreeSpace() {
+    int used = HEADER_SIZE + getNumberOfSlots() * SLOT_ENTRY_SIZE;
+    for (int i = 0; i < getNumberOfSlots(); i++) {
+      used += getSlotLength(i);
+    }
+    return pageSize - used;
+  }
+
+  /**
+   * Returns the number of tuples on this page.
+   */
+  public int getNumTuples() {
+    int count = 0;
+    for (int i = 0; i < getNumberOfSlots(); i++) {
+      if (isSlotUsed(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private int getFirstEmptySlot() {
+    int numberOfSlots = getNumberOfSlots();
+    for (int i = 0; i < numberOfSlots; i++) {
+      if (!isSlotUsed(i)) {
+        return i;
+      }
+    }
+    return numberOfSlots;
+  }
+
+  /**
+   * Moves all records to the end of the page so that the free space between
+   * the directory and the record area is contiguous. Slot numbers do not
+   * change.
+   */
+  private void compact() {
+    byte[] oldImage = pageData.clone();
+    int recordAreaStart = pageSize;
+    for (int i = 0; i < getNumberOfSlots(); i++) {
+      if (!isSlotUsed(i)) {
+        continue;
+      }
+      int length = getSlotLength(i);
+      recordAreaStart -= length;
+      System.arraycopy(oldImage, getSlotOffset(i), pageData, recordAreaStart, length);
+      setSlot(i, recordAreaStart, length);
+    }
+    putUnsignedShort(2, pageSize - recordAreaStart);
+  }
+
+  /**
+   * Returns true if the specified tuple can be inserted into this page.
+   */
+  public boolean hasRoomFor(Tuple t) {
+    int needed = getRecordSize(t);
+    if (getFirstEmptySlot() == getNumberOfSlots()) {
+      needed += SLOT_ENTRY_SIZE;
+    }
+    return needed <= getFreeSpace();
+  }
+
+  /**
+   * Adds the specified tuple to the page; the tuple should be updated to
+   * reflect that it is now stored on this page.
+   *
+   * @throws DbException if the page does not have room for the tuple or
+   *           tupledesc is mismatch.
+   * @param t The tuple to add.
+   */
+  public void insertTuple(Tuple t) throws DbException {
+    if (!(t.getTupleDesc().equals(tupleDesc))) {
+      throw new DbException("Cannot insert a Tuple with a different TupleDesc.");
+    }
+    if (!hasRoomFor(t)) {
+      throw new DbException("Not enough space on page for Tuple insertion.");
+    }
+    int recordSize = getRecordSize(t);
+    int slotId = getFirstEmptySlot();
+    boolean newSlot = slotId == getNumberOfSlots();
+    int needed = recordSize + (newSlot ? SLOT_ENTRY_SIZE : 0);
+    captureBeforeImage();
+    if (needed > getContiguousFreeSpace()) {
+      compact();
+    }
+    if (newSlot) {
+      putUnsignedShort(0, slotId + 1);
+    }
+    int offset = getRecordAreaStart() - recordSize;
+    putUnsignedShort(2, pageSize - offset);
+    setSlot(slotId, offset, recordSize);
+
+    ByteBuffer buffer = ByteBuffer.wrap(pageData);
+    buffer.position(offset);
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      if (tupleDesc.getFieldType(i) == Type.STRING_TYPE) {
+        byte[] bytes = getStringBytes(t.getField(i));
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+      } else {
+        t.getField(i).serialize(buffer);
+      }
+    }
+    t.setRecordId(new RecordId(pageId, slotId));
+  }
+
+  /**
+   * Delete the specified tuple from the page; the tuple should be updated to
+   * reflect that it is no longer stored on any page.
+   *
+   * @throws DbException if this tuple is not on this page, or tuple slot is
+   *           already empty.
+   * @param t The tuple to delete
+   */
+  public void deleteTuple(Tuple t) throws DbException {
+    if (t.getRecordId() == null || !(t.getRecordId().getPageId().equals(pageId))) {
+      throw new DbException("Tuple can only be deleted from its page.");
+    }
+    int slotId = t.getRecordId().tupleno();
+    if (!isSlotUsed(slotId)) {
+      throw new DbException("Tuple's slot is already empty.");
+    }
+    captureBeforeImage();
+    int offset = getSlotOffset(slotId);
+    int length = getSlotLength(slotId);
+    for (int i = offset; i < offset + length; i++) {
+      pageData[i] = 0;
+    }
+    setSlot(slotId, 0, 0);
+    if (offset == getRecordAreaStart()) {
+      // the record area can shrink right away
+      putUnsignedShort(2, pageSize - (offset + length));
+    }
+    t.setRecordId(null);
+  }
+
+  /**
+   * Decodes the tuple in the specified used slot.
+   */
+  Tuple getTuple(int slotId) {
+    Tuple t = new Tuple(tupleDesc);
+    t.setRecordId(new RecordId(pageId, slotId));
+    ByteBuffer buffer = ByteBuffer.wrap(pageData);
+    buffer.position(getSlotOffset(slotId));
+    for (int i = 0; i < tupleDesc.numFields(); i++) {
+      if (tupleDesc.getFieldType(i) == Type.STRING_TYPE) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        t.setField(i, new StringField(new String(bytes), Type.STRING_LEN));
+      } else {
+        t.setField(i, tupleDesc.getFieldType(i).parse(buffer));
+      }
+    }
+    return t;
+  }
+
+  /**
+   * @return an iterator over all tuples on this page (calling remove on this
+   *         iterator throws an UnsupportedOperationException)
+   */
+  public Iterator<Tuple> iterator() {
+    return new Iterator<Tuple>() {
+
+      int numberOfSlots = getNumberOfSlots();
+      int currentSlot = getNextUsedSlot(0);
+
+      private int getNextUsedSlot(int startSlot) {
+        int slot = startSlot;
+        while (slot < numberOfSlots && !isSlotUsed(slot)) {
+          slot++;
+        }
+        return slot;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return currentSlot < numberOfSlots;
+      }
+
+      @Override
+      public Tuple next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Tuple tuple = getTuple(currentSlot);
+        currentSlot = getNextUsedSlot(currentSlot + 1);
+        return tuple;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return the PageId associated with this page.
+   */
+  @Override
+  public PageId getId() {
+    return pageId;
+  }
+
+  @Override
+  public byte[] getPageData() {
+    return pageData.clone();
+  }
+
+  /**
+   * Return a view of this page before it was modified -- used by recovery
+   */
+  @Override
+  public SlottedPage getBeforeImage() {
+    byte[] oldDataRef = null;
+    synchronized (oldDataLock) {
+      oldDataRef = oldData;
+    }
+    return new SlottedPage(pageId, tupleDesc, oldDataRef == null ? pageData : oldDataRef);
+  }
+
+  @Override
+  public void setBeforeImage() {
+    synchronized (oldDataLock) {
+      oldData = null;
+    }
+  }
+
+  private void captureBeforeImage() {
+    synchronized (oldDataLock) {
+      if (oldData == null) {
+        oldData = pageData.clone();
+      }
+    }
+  }
+
+  @Override
+  public void markDirty(boolean dirty, TransactionId tid) {
+    this.isDirty = dirty;
+    this.dirtyingTransactionId = isDirty ? tid : null;
+  }
+
+  @Override
+  public TransactionId isDirty() {
+    return isDirty ? dirtyingTransactionId : null;
+  }
+}
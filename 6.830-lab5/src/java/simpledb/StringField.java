@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -68,6 +69,22 @@ public class StringField implements Field {
       dos.write((byte) 0);
   }
 
+  @Override
+  public void serialize(ByteBuffer buffer) {
+    String s = value;
+    int overflow = maxSize - s.length();
+    if (overflow < 0) {
+      String news = s.substring(0, maxSize);
+      s = news;
+    }
+    buffer.putInt(s.length());
+    // same as DataOutputStream.writeBytes, only the low byte of each char
+    for (int i = 0; i < s.length(); i++)
+      buffer.put((byte) s.charAt(i));
+    while (overflow-- > 0)
+      buffer.put((byte) 0);
+  }
+
   /**
    * Compare the specified field to the value of this Field. Return semantics
    * are as specified by Field.compare
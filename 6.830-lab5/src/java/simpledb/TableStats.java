@@ -160,9 +160,29 @@ public class TableStats {
    * @return The estimated cost of scanning the table.
    */
   public double estimateScanCost() {
-    double tuplesPerPage = Math.floor(BufferPool.getPageSize() / tupleDesc.getSize());
-    double numPages = Math.floor((numTuples - 1) / tuplesPerPage) + 1;
-    return ioCostPerPage * numPages;
+    return ioCostPerPage * estimateNumPages();
+  }
+
+  /**
+   * Estimates the cost of reading the tuples that satisfy a predicate with
+   * the specified selectivity through an index, with the same cost per page
+   * as {@link #estimateScanCost}. The index is not clustered, so each tuple
+   * may be on a page of its own, but the tuples are read in page order, so no
+   * page is read twice. Looking them up in the index costs one more page.
+   * 
+   * @param selectivityFactor The selectivity of the predicate the index
+   *          answers
+   * @return The estimated cost of the index scan.
+   */
+  public double estimateIndexScanCost(double selectivityFactor) {
+    return ioCostPerPage
+        * (Math.min(estimateTableCardinality(selectivityFactor), estimateNumPages()) + 1);
+  }
+
+  private double estimateNumPages() {
+    int pageSize = Database.getCatalog().getPageSize(tableId);
+    double tuplesPerPage = Math.floor(pageSize / tupleDesc.getSize());
+    return Math.floor((numTuples - 1) / tuplesPerPage) + 1;
   }
 
   /**
@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * A TupleFile is a DbFile whose pages hold the tuples of a table in slots, so
+ * that a tuple can be read straight off its page by record id. The heap file
+ * formats are TupleFiles, indexes are not.
+ * 
+ * @see BufferPool#getTuples
+ */
+public interface TupleFile extends DbFile {
+
+  /**
+   * Returns the tuple in the specified slot of the specified page of this
+   * file, or null if the slot is empty. Used by {@link BufferPool#getTuples}
+   * to read tuples by record id from pages it has already fetched.
+   * 
+   * @param page a page of this file, fetched through the buffer pool
+   * @param tupleNumber the slot of the tuple, as in {@link RecordId#tupleno}
+   */
+  public Tuple getTuple(Page page, int tupleNumber);
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * TwoQueueEvictionPolicy is the full version of 2Q, after Johnson and Shasha,
+ * "2Q: A Low Overhead High Performance Buffer Management Replacement
+ * Algorithm". New pages enter a FIFO queue, A1in, and pages evicted from it
+ * are remembered, without their contents, in a second FIFO queue, A1out. Only
+ * a page that is asked for again while it is remembered in A1out enters the
+ * main LRU queue, Am. Pages that are used once, like the pages of a large
+ * scan, thus pass through A1in without disturbing the pages in Am.
+ * <p>
+ * The sizes of the queues follow the pool: A1in holds about a quarter of the
+ * pages in the pool, and A1out remembers as many pages as half the pool.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+  private final Set<PageId> a1in;
+  private final Set<PageId> a1out;
+  /** Accessed pages move to the end, so iteration runs from the LRU page. */
+  private final LinkedHashMap<PageId, Boolean> am;
+
+  public TwoQueueEvictionPolicy() {
+    this.a1in = new LinkedHashSet<PageId>();
+    this.a1out = new LinkedHashSet<PageId>();
+    this.am = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+  }
+
+  @Override
+  public void pageAdded(PageId pageId) {
+    if (a1out.remove(pageId)) {
+      am.put(pageId, Boolean.TRUE);
+    } else {
+      a1in.add(pageId);
+    }
+  }
+
+  @Override
+  public void pageAccessed(PageId pageId) {
+    // moves the page to the MRU end of Am; pages in A1in stay where they are
+    am.get(pageId);
+  }
+
+  @Override
+  public void pageRemoved(PageId pageId) {
+    if (am.remove(pageId) != null || !a1in.remove(pageId)) {
+      return;
+    }
+    a1out.add(pageId);
+    Iterator<PageId> oldest = a1out.iterator();
+    while (a1out.size() > Math.max((a1in.size() + am.size()) / 2, 1)) {
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  /**
+   * Takes the oldest evictable page of A1in while A1in holds more than its
+   * share of the pool, and the least recently used evictable page of Am
+   * otherwise, falling back to the other queue if the first has none.
+   */
+  @Override
+  public PageId chooseVictim(Evictable evictable) {
+    boolean a1inFirst = a1in.size() > (a1in.size() + am.size()) / 4;
+    PageId victim = findEvictable(a1inFirst ? a1in : am.keySet(), evictable);
+    if (victim == null) {
+      victim = findEvictable(a1inFirst ? am.keySet() : a1in, evictable);
+    }
+    return victim;
+  }
+
+  private static PageId findEvictable(Set<PageId> queue, Evictable evictable) {
+    for (PageId pageId : queue) {
+      if (evictable.isEvictable(pageId)) {
+        return pageId;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "2Q";
+  }
+}
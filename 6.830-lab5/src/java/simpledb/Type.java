@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -24,6 +25,11 @@ public enum Type {
       }
     }
 
+    @Override
+    public Field parse(ByteBuffer buffer) {
+      return new IntField(buffer.getInt());
+    }
+
   },
   STRING_TYPE() {
     @Override
@@ -43,6 +49,15 @@ public enum Type {
         throw new ParseException("couldn't parse", 0);
       }
     }
+
+    @Override
+    public Field parse(ByteBuffer buffer) {
+      int strLen = buffer.getInt();
+      byte bs[] = new byte[strLen];
+      buffer.get(bs);
+      buffer.position(buffer.position() + STRING_LEN - strLen);
+      return new StringField(new String(bs), STRING_LEN);
+    }
   };
 
   public static final int STRING_LEN = 128;
@@ -61,4 +76,12 @@ public enum Type {
    */
   public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *         read from the current position of the specified buffer. The
+   *         position of the buffer is advanced past the field.
+   * @param buffer The buffer to read from
+   */
+  public abstract Field parse(ByteBuffer buffer);
+
 }
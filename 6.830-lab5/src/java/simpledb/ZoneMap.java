@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ZoneMap is a persistent sidecar to a HeapFile that records, for every page
+ * of the file, the smallest and largest value of each integer field on the
+ * page. Scans with predicates consult the map to skip pages that cannot hold a
+ * matching tuple without reading them.
+ * <p>
+ * The map is stored next to the heap file with one fixed-size entry per page:
+ * a state byte followed by the minimum and maximum of every integer field. An
+ * entry in state {@link #UNKNOWN} (zero, so holes in a sparse sidecar read back
+ * as unknown) means nothing is known about the page and it must be read. Unlike
+ * the hints of a {@link FreeSpaceMap}, a known entry is relied upon, so it must
+ * always cover every tuple on the page:
+ * <ul>
+ * <li>inserts widen the entry of their page in memory right away;</li>
+ * <li>{@link HeapFile#writePage} marks the entry unknown on disk before it
+ * writes the page, and writes the exact entry once the page is written, so
+ * deletes narrow the entry when their page is flushed, and the redo and undo
+ * writes of recovery leave the map matching the heap file;</li>
+ * <li>scans fill in unknown entries from pages that are not dirty, whose
+ * contents are those on disk.</li>
+ * </ul>
+ * Like the sidecar of a FreeSpaceMap, the sidecar is only open while entries
+ * are read or written.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+  /** State of entries of pages whose contents are not known. */
+  static final byte UNKNOWN = 0;
+  /** State of entries that cover every tuple on their page. */
+  static final byte KNOWN = 1;
+
+  private static final String SIDECAR_SUFFIX = ".zm";
+
+  private final File sidecarFile;
+  private final int[] intFields;
+  private final int[] fieldToColumn;
+  private final int entrySize;
+  private byte[] states;
+  private int[] minimums;
+  private int[] maximums;
+
+  private ZoneMap(File sidecarFile, TupleDesc td, int numPages) {
+    this.sidecarFile = sidecarFile;
+    this.fieldToColumn = new int[td.numFields()];
+    int columns = 0;
+    for (int i = 0; i < fieldToColumn.length; i++) {
+      fieldToColumn[i] = td.getFieldType(i) == Type.INT_TYPE ? columns++ : -1;
+    }
+    this.intFields = new int[columns];
+    for (int i = 0; i < fieldToColumn.length; i++) {
+      if (fieldToColumn[i] >= 0) {
+        intFields[fieldToColumn[i]] = i;
+      }
+    }
+    this.entrySize = 1 + 8 * columns;
+    this.states = new byte[Math.max(numPages, 1)];
+    this.minimums = new int[states.length * columns];
+    this.maximums = new int[states.length * columns];
+  }
+
+  /**
+   * Opens the zone map that belongs to the specified heap file, creating it if
+   * necessary. Pages that the sidecar does not know about are
+   * {@link #UNKNOWN}.
+   *
+   * @param heapFile the file backing the heap file
+   * @param td the TupleDesc of the heap file
+   * @param numPages the number of pages currently in the heap file
+   */
+  public static ZoneMap open(File heapFile, TupleDesc td, int numPages) {
+    File sidecarFile = getSidecarFile(heapFile);
+    try {
+      ZoneMap zoneMap = new ZoneMap(sidecarFile, td, numPages);
+      RandomAccessFile accessFile = new RandomAccessFile(sidecarFile, "rw");
+      int persistedEntries;
+      byte[] data;
+      try {
+        persistedEntries = (int) Math.min(accessFile.length() / zoneMap.entrySize, numPages);
+        data = new byte[persistedEntries * zoneMap.entrySize];
+        accessFile.seek(0);
+        accessFile.readFully(data);
+      } finally {
+        accessFile.close();
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      int columns = zoneMap.intFields.length;
+      for (int page = 0; page < persistedEntries; page++) {
+        zoneMap.states[page] = buffer.get();
+        for (int column = 0; column < columns; column++) {
+          zoneMap.minimums[page * columns + column] = buffer.getInt();
+          zoneMap.maximums[page * columns + column] = buffer.getInt();
+        }
+      }
+      return zoneMap;
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Deletes the zone map of the specified heap file. Used by tools that
+   * rewrite a heap file from scratch, which would otherwise leave entries
+   * behind that do not cover the new contents.
+   */
+  public static void delete(File heapFile) {
+    getSidecarFile(heapFile).delete();
+  }
+
+  private static File getSidecarFile(File heapFile) {
+    return new File(heapFile.getPath() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * Returns true if the entry of the specified page is known.
+   */
+  public synchronized boolean isKnown(int pageNumber) {
+    return pageNumber < states.length && states[pageNumber] == KNOWN;
+  }
+
+  /**
+   * Returns false if no tuple on the specified page can satisfy the specified
+   * predicate, judging from the entry of the page. Predicates on fields that
+   * are not integers always may match.
+   */
+  public synchronized boolean mayMatch(int pageNumber, Predicate predicate) {
+    int column = fieldToColumn[predicate.getField()];
+    if (column < 0 || !isKnown(pageNumber)) {
+      return true;
+    }
+    int minimum = minimums[pageNumber * intFields.length + column];
+    int maximum = maximums[pageNumber * intFields.length + column];
+    if (minimum > maximum) {
+      // no tuples on the page
+      return false;
+    }
+    int operand = ((IntField) predicate.getOperand()).getValue();
+    switch (predicate.getOp()) {
+    case EQUALS:
+    case LIKE:
+      return minimum <= operand && operand <= maximum;
+    case NOT_EQUALS:
+      return minimum != operand || maximum != operand;
+    case GREATER_THAN:
+      return maximum > operand;
+    case GREATER_THAN_OR_EQ:
+      return maximum >= operand;
+    case LESS_THAN:
+      return minimum < operand;
+    case LESS_THAN_OR_EQ:
+      return minimum <= operand;
+    }
+    return true;
+  }
+
+  /**
+   * Returns false if no tuple on the specified page can satisfy all of the
+   * specified predicates, which may be null.
+   */
+  public synchronized boolean mayMatch(int pageNumber, List<Predicate> predicates) {
+    if (predicates != null) {
+      for (Predicate predicate : predicates) {
+        if (!mayMatch(pageNumber, predicate)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Widens the entry of the specified page in memory to cover the specified
+   * tuple, which has been inserted on the page.
+   */
+  public synchronized void widen(int pageNumber, Tuple t) {
+    if (!isKnown(pageNumber)) {
+      return;
+    }
+    for (int column = 0; column < intFields.length; column++) {
+      int value = ((IntField) t.getField(intFields[column])).getValue();
+      int index = pageNumber * intFields.length + column;
+      minimums[index] = Math.min(minimums[index], value);
+      maximums[index] = Math.max(maximums[index], value);
+    }
+  }
+
+  /**
+   * Sets the entry of the specified page to the exact ranges of the tuples on
+   * the specified page image, in memory only.
+   */
+  public synchronized void update(int pageNumber, HeapPage page) {
+    ensureCapacity(pageNumber + 1);
+    for (int column = 0; column < intFields.length; column++) {
+      int minimum = Integer.MAX_VALUE;
+      int maximum = Integer.MIN_VALUE;
+      for (int slot = 0; slot < page.getNumSlots(); slot++) {
+        if (page.isSlotUsed(slot)) {
+          int value = page.getInt(slot, intFields[column]);
+          minimum = Math.min(minimum, value);
+          maximum = Math.max(maximum, value);
+        }
+      }
+      minimums[pageNumber * intFields.length + column] = minimum;
+      maximums[pageNumber * intFields.length + column] = maximum;
+    }
+    states[pageNumber] = KNOWN;
+  }
+
+  /**
+   * Sets the entry of the specified page to the exact ranges of the tuples on
+   * the specified page image and writes it through to the sidecar file.
+   */
+  public synchronized void updateAndPersist(int pageNumber, HeapPage page) throws IOException {
+    update(pageNumber, page);
+    persist(pageNumber);
+  }
+
+  /**
+   * Marks the entry of the specified page unknown, in memory and in the
+   * sidecar file.
+   */
+  public synchronized void invalidateAndPersist(int pageNumber) throws IOException {
+    ensureCapacity(pageNumber + 1);
+    states[pageNumber] = UNKNOWN;
+    write(pageNumber, new byte[] { UNKNOWN });
+  }
+
+  private void persist(int pageNumber) throws IOException {
+    ByteBuffer entry = ByteBuffer.allocate(entrySize);
+    entry.put(states[pageNumber]);
+    for (int column = 0; column < intFields.length; column++) {
+      entry.putInt(minimums[pageNumber * intFields.length + column]);
+      entry.putInt(maximums[pageNumber * intFields.length + column]);
+    }
+    write(pageNumber, entry.array());
+  }
+
+  /**
+   * Writes the specified bytes to the sidecar file at the start of the entry
+   * of the specified page.
+   */
+  private void write(int pageNumber, byte[] data) throws IOException {
+    RandomAccessFile accessFile = new RandomAccessFile(sidecarFile, "rw");
+    try {
+      accessFile.seek((long) pageNumber * entrySize);
+      accessFile.write(data);
+    } finally {
+      accessFile.close();
+    }
+  }
+
+  private void ensureCapacity(int numPages) {
+    if (numPages <= states.length) {
+      return;
+    }
+    int capacity = Math.max(numPages, states.length * 2);
+    states = Arrays.copyOf(states, capacity);
+    minimums = Arrays.copyOf(minimums, capacity * intFields.length);
+    maximums = Arrays.copyOf(maximums, capacity * intFields.length);
+  }
+}
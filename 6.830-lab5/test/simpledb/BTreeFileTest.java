@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+  /** Small pages, so that a few thousand entries make a tree of three levels. */
+  private static final int INDEX_PAGE_SIZE = 128;
+  private static final int ROWS = 2000;
+
+  private HeapFile table;
+  private File indexFile;
+
+  @Before
+  public void createFiles() throws Exception {
+    File heapFile = File.createTempFile("btree", ".dat");
+    heapFile.deleteOnExit();
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+    table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    indexFile = File.createTempFile("btree", ".idx");
+    indexFile.deleteOnExit();
+    indexFile.delete();
+  }
+
+  private BTreeFile addIndex() {
+    BTreeFile index = new BTreeFile(indexFile, table, 0, INDEX_PAGE_SIZE);
+    Database.getCatalog().addIndex(index);
+    return index;
+  }
+
+  /** Inserts tuples with the specified first fields in one transaction. */
+  private void insert(int[] keys, boolean commit) throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int key : keys) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(key, 2));
+    }
+    Database.getBufferPool().transactionComplete(tid, commit);
+  }
+
+  /** Returns the first fields of the tuples the index returns, in order. */
+  private static List<Integer> scan(BTreeFile index, Predicate.Op op, int value)
+      throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = op == null ? index.iterator(tid) : index.iterator(tid, op, value);
+    it.open();
+    List<Integer> keys = new ArrayList<Integer>();
+    while (it.hasNext()) {
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return keys;
+  }
+
+  private static void assertSorted(List<Integer> keys) {
+    for (int i = 1; i < keys.size(); i++) {
+      assertTrue(keys.get(i - 1).intValue() <= keys.get(i).intValue());
+    }
+  }
+
+  /** Keys 0 to ROWS - 1, in an order that splits pages all over the tree. */
+  private static int[] shuffledKeys() {
+    int[] keys = new int[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      keys[i] = (int) ((i * 7919L) % ROWS);
+    }
+    return keys;
+  }
+
+  /**
+   * Tuples inserted through the buffer pool are found by every supported
+   * operator, and a full scan returns them in key order.
+   */
+  @Test
+  public void insertAndScan() throws Exception {
+    BTreeFile index = addIndex();
+    insert(shuffledKeys(), true);
+    assertTrue(index.numPages() > ROWS / BTreePage.getMaxEntries(INDEX_PAGE_SIZE,
+        BTreePage.LEAF));
+
+    List<Integer> all = scan(index, null, 0);
+    assertEquals(ROWS, all.size());
+    assertSorted(all);
+    assertEquals(Arrays.asList(1234), scan(index, Predicate.Op.EQUALS, 1234));
+    assertEquals(0, scan(index, Predicate.Op.EQUALS, ROWS).size());
+    assertEquals(100, scan(index, Predicate.Op.LESS_THAN, 100).size());
+    assertEquals(101, scan(index, Predicate.Op.LESS_THAN_OR_EQ, 100).size());
+    assertEquals(10, scan(index, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10).size());
+    assertEquals(Arrays.asList(ROWS - 2, ROWS - 1), scan(index, Predicate.Op.GREATER_THAN,
+        ROWS - 3));
+  }
+
+  /**
+   * Entries of tuples that are deleted through the buffer pool go away, also
+   * among many equal keys, and aborted inserts leave no entries behind.
+   */
+  @Test
+  public void deleteAndAbort() throws Exception {
+    BTreeFile index = addIndex();
+    int[] keys = shuffledKeys();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] %= 10;
+    }
+    insert(keys, true);
+    assertEquals(ROWS / 10, scan(index, Predicate.Op.EQUALS, 3).size());
+
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.iterator(tid, Predicate.Op.EQUALS, 3);
+    it.open();
+    List<Tuple> deleted = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      deleted.add(it.next());
+    }
+    it.close();
+    for (Tuple t : deleted) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(0, scan(index, Predicate.Op.EQUALS, 3).size());
+    assertEquals(ROWS / 10 * 3, scan(index, Predicate.Op.LESS_THAN, 3).size());
+    assertEquals(ROWS / 10 * 6, scan(index, Predicate.Op.GREATER_THAN, 3).size());
+
+    insert(new int[] { 3, 3, 42 }, false);
+    assertEquals(0, scan(index, Predicate.Op.EQUALS, 3).size());
+    assertEquals(0, scan(index, Predicate.Op.EQUALS, 42).size());
+    assertEquals(ROWS / 10 * 9, scan(index, null, 0).size());
+  }
+
+  /**
+   * Building an index over an existing table gives the same answers as
+   * maintaining it tuple by tuple, and inserts keep working afterwards.
+   */
+  @Test
+  public void build() throws Exception {
+    int[] keys = shuffledKeys();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] /= 3;
+    }
+    insert(keys, true);
+    BTreeFile index = addIndex();
+    index.build();
+
+    List<Integer> all = scan(index, null, 0);
+    assertEquals(ROWS, all.size());
+    assertSorted(all);
+    assertEquals(3, scan(index, Predicate.Op.EQUALS, 100).size());
+    assertEquals(300, scan(index, Predicate.Op.LESS_THAN, 100).size());
+
+    insert(new int[] { 100, -1 }, true);
+    assertEquals(4, scan(index, Predicate.Op.EQUALS, 100).size());
+    assertEquals(Arrays.asList(-1), scan(index, Predicate.Op.LESS_THAN, 0));
+  }
+
+  /**
+   * IndexScan names its fields like SeqScan and returns the matching tuples.
+   */
+  @Test
+  public void indexScan() throws Exception {
+    BTreeFile index = addIndex();
+    insert(shuffledKeys(), true);
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, index, "b", new Predicate(0, Predicate.Op.LESS_THAN,
+        new IntField(5)));
+    assertTrue(scan.getTupleDesc().getFieldName(0).startsWith("b."));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      assertTrue(((IntField) scan.next().getField(0)).getValue() < 5);
+      count++;
+    }
+    scan.rewind();
+    assertTrue(scan.hasNext());
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(5, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
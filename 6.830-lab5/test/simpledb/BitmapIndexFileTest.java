@@ -0,0 +1,223 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexFileTest extends SimpleDbTestBase {
+  /** Small pages, so that the bitmaps span several chunks in both formats. */
+  private static final int INDEX_PAGE_SIZE = 128;
+  private static final int ROWS = 2000;
+  private static final int STATUSES = 7;
+  private static final int TYPES = 5;
+
+  private HeapFile table;
+  private File statusFile;
+  private File typeFile;
+
+  @Before
+  public void createFiles() throws Exception {
+    File heapFile = File.createTempFile("bitmap", ".dat");
+    heapFile.deleteOnExit();
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+    table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    statusFile = File.createTempFile("status", ".bidx");
+    statusFile.deleteOnExit();
+    statusFile.delete();
+    typeFile = File.createTempFile("type", ".bidx");
+    typeFile.deleteOnExit();
+    typeFile.delete();
+  }
+
+  private BitmapIndexFile addIndex(File file, int field) {
+    BitmapIndexFile index = new BitmapIndexFile(file, table, field, INDEX_PAGE_SIZE);
+    Database.getCatalog().addIndex(index);
+    return index;
+  }
+
+  /** Inserts ROWS tuples, the i-th with status i % STATUSES and type i % TYPES. */
+  private void insertRows() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < ROWS; i++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(),
+          Utility.getHeapTuple(new int[] { i % STATUSES, i % TYPES }));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Returns the number of rows i < ROWS whose status and type are as specified. */
+  private static int countRows(int status, int type) {
+    int count = 0;
+    for (int i = 0; i < ROWS; i++) {
+      if ((status == -1 || i % STATUSES == status) && (type == -1 || i % TYPES == type)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int scanSize(DbFileIterator it) throws Exception {
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    return count;
+  }
+
+  private static Predicate equals(int field, int value) {
+    return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+  }
+
+  /**
+   * Tuples inserted through the buffer pool are found by every operator, and
+   * deleted ones are not.
+   */
+  @Test
+  public void insertScanAndDelete() throws Exception {
+    BitmapIndexFile index = addIndex(statusFile, 0);
+    insertRows();
+    TransactionId tid = new TransactionId();
+    assertEquals(countRows(3, -1), scanSize(index.iterator(tid, Predicate.Op.EQUALS, 3)));
+    assertEquals(ROWS - countRows(3, -1), scanSize(index.iterator(tid,
+        Predicate.Op.NOT_EQUALS, 3)));
+    assertEquals(countRows(0, -1) + countRows(1, -1), scanSize(index.iterator(tid,
+        Predicate.Op.LESS_THAN, 2)));
+    assertEquals(ROWS, scanSize(index.iterator(tid)));
+    assertEquals(0, scanSize(index.iterator(tid, Predicate.Op.EQUALS, STATUSES)));
+
+    // deleting most tuples of a status turns its bitmaps back into arrays
+    DbFileIterator it = index.iterator(tid, Predicate.Op.EQUALS, 3);
+    it.open();
+    List<Tuple> deleted = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(3, ((IntField) t.getField(0)).getValue());
+      deleted.add(t);
+    }
+    it.close();
+    for (Tuple t : deleted.subList(10, deleted.size())) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    assertEquals(10, scanSize(index.iterator(tid, Predicate.Op.EQUALS, 3)));
+    assertEquals(countRows(4, -1), scanSize(index.iterator(tid, Predicate.Op.EQUALS, 4)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Aborted inserts leave no bits behind.
+   */
+  @Test
+  public void abort() throws Exception {
+    BitmapIndexFile index = addIndex(statusFile, 0);
+    insertRows();
+    TransactionId tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(),
+        Utility.getHeapTuple(new int[] { 3, 0 }));
+    Database.getBufferPool().insertTuple(tid, table.getId(),
+        Utility.getHeapTuple(new int[] { 42, 0 }));
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    tid = new TransactionId();
+    assertEquals(countRows(3, -1), scanSize(index.iterator(tid, Predicate.Op.EQUALS, 3)));
+    assertEquals(0, scanSize(index.iterator(tid, Predicate.Op.EQUALS, 42)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Building an index over an existing table gives the same answers as
+   * maintaining it tuple by tuple, and inserts keep working afterwards.
+   */
+  @Test
+  public void build() throws Exception {
+    insertRows();
+    BitmapIndexFile index = addIndex(statusFile, 0);
+    index.build();
+    TransactionId tid = new TransactionId();
+    for (int status = 0; status < STATUSES; status++) {
+      assertEquals(countRows(status, -1), scanSize(index.iterator(tid, Predicate.Op.EQUALS,
+          status)));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(),
+        Utility.getHeapTuple(new int[] { -1, 0 }));
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+    assertEquals(1, scanSize(index.iterator(tid, Predicate.Op.EQUALS, -1)));
+    assertEquals(ROWS + 1, scanSize(index.iterator(tid)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A bitmap scan ANDs and ORs the bitmaps of two indexes, and COUNT over it
+   * is answered from the bitmaps.
+   */
+  @Test
+  public void bitmapScanAndCount() throws Exception {
+    addIndex(statusFile, 0);
+    addIndex(typeFile, 1);
+    insertRows();
+    TransactionId tid = new TransactionId();
+
+    // status = 2 AND (type = 1 OR type = 3)
+    List<List<Predicate>> conditions = new ArrayList<List<Predicate>>();
+    conditions.add(Collections.singletonList(equals(0, 2)));
+    conditions.add(Arrays.asList(equals(1, 1), equals(1, 3)));
+    BitmapScan scan = new BitmapScan(tid, table.getId(), "t", conditions);
+    assertTrue(scan.getTupleDesc().getFieldName(0).startsWith("t."));
+    int expected = countRows(2, 1) + countRows(2, 3);
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      assertEquals(2, ((IntField) t.getField(0)).getValue());
+      int type = ((IntField) t.getField(1)).getValue();
+      assertTrue(type == 1 || type == 3);
+      count++;
+    }
+    scan.close();
+    assertEquals(expected, count);
+    assertEquals(expected, scan.count());
+
+    Aggregate aggregate = new Aggregate(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+    aggregate.open();
+    assertEquals(expected, ((IntField) aggregate.next().getField(0)).getValue());
+    aggregate.close();
+
+    // status < 1 AND type >= 4
+    conditions = new ArrayList<List<Predicate>>();
+    conditions.add(Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN,
+        new IntField(1))));
+    conditions.add(Collections.singletonList(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(4))));
+    assertEquals(countRows(0, 4), new BitmapScan(tid, table.getId(), "t", conditions).count());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BitmapIndexFileTest.class);
+  }
+}
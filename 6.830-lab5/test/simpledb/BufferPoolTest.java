@@ -0,0 +1,500 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+  /** Counts the pages read by readPage, and takes its time reading them. */
+  private static class SlowHeapFile extends HeapFile {
+    final AtomicInteger readCount = new AtomicInteger(0);
+
+    SlowHeapFile(File f, TupleDesc td) {
+      super(f, td);
+    }
+
+    @Override
+    public Page readPage(PageId pid) {
+      readCount.incrementAndGet();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return super.readPage(pid);
+    }
+  }
+
+  /**
+   * Transactions that ask for the same page while it is being read wait for
+   * that read and get the same page, and those asking for other pages do not
+   * wait.
+   */
+  @Test
+  public void concurrentMissesReadOnce() throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 4, 1000, null, null);
+    final SlowHeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    final BufferPool bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bufferPool.setReadAheadPages(0);
+
+    final Page[] pages = new Page[8];
+    final List<Exception> errors = new ArrayList<Exception>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < pages.length; i++) {
+      final int thread = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          TransactionId tid = new TransactionId();
+          try {
+            // threads 0 and 1 ask for pages of their own, the others for page 0
+            PageId pid = new HeapPageId(table.getId(), thread < 2 ? thread + 1 : 0);
+            pages[thread] = bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            bufferPool.transactionComplete(tid);
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      });
+    }
+    long start = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals(0, errors.size());
+    assertEquals(3, table.readCount.get());
+    for (int i = 3; i < pages.length; i++) {
+      assertSame(pages[2], pages[i]);
+    }
+    assertEquals(3, bufferPool.getPrefetchMisses());
+    assertEquals(5, bufferPool.getHits());
+    // the three reads overlap rather than queue up behind the lock on the pool
+    assertTrue("took " + elapsed + " ms", elapsed < 300);
+  }
+
+  /**
+   * Pinned pages stay in the pool until every pin on them is released, and a
+   * pool full of pinned pages cannot take another page.
+   */
+  @Test
+  public void pinnedPagesAreNotEvicted() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    BufferPool bufferPool = Database.resetBufferPool(3);
+    bufferPool.setReadAheadPages(0);
+    TransactionId tid = new TransactionId();
+    TransactionId other = new TransactionId();
+    HeapPageId pinned = new HeapPageId(table.getId(), 0);
+    Page page = bufferPool.pinPage(tid, pinned, Permissions.READ_ONLY, null);
+    bufferPool.pinPage(other, pinned, Permissions.READ_ONLY, null);
+    for (int i = 1; i < 10; i++) {
+      bufferPool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+    }
+    assertSame(page, bufferPool.getPage(tid, pinned, Permissions.READ_ONLY));
+    // the pin of the other transaction and the last getPage
+    assertEquals(2, bufferPool.getHits());
+
+    // the other transaction still pins the page
+    bufferPool.unpinPage(tid, pinned);
+    for (int i = 1; i < 10; i++) {
+      bufferPool.pinPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY, null);
+      bufferPool.unpinPage(tid, new HeapPageId(table.getId(), i));
+    }
+    assertSame(page, bufferPool.getPage(tid, pinned, Permissions.READ_ONLY));
+
+    bufferPool.pinPage(tid, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY, null);
+    bufferPool.pinPage(tid, new HeapPageId(table.getId(), 2), Permissions.READ_ONLY, null);
+    try {
+      bufferPool.getPage(tid, new HeapPageId(table.getId(), 3), Permissions.READ_ONLY);
+      fail("Expected the pool to be full of pinned pages");
+    } catch (DbException e) {
+      // expected
+    }
+
+    // completing the transactions releases their pins
+    bufferPool.transactionComplete(tid);
+    bufferPool.transactionComplete(other);
+    tid = new TransactionId();
+    for (int i = 3; i < 6; i++) {
+      bufferPool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+    }
+    long misses = bufferPool.getPrefetchMisses();
+    bufferPool.getPage(tid, pinned, Permissions.READ_ONLY);
+    assertEquals(misses + 1, bufferPool.getPrefetchMisses());
+    bufferPool.transactionComplete(tid);
+  }
+
+  /**
+   * A commit leaves its pages to the page cleaner, which writes them in page
+   * order, so that evicting them later does not write them.
+   */
+  @Test
+  public void pageCleanerWritesCommittedPages() throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 20, 1000, null, null);
+    final List<Integer> writtenPageNumbers = new ArrayList<Integer>();
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(2)) {
+      @Override
+      public void writePage(Page page) throws IOException {
+        synchronized (writtenPageNumbers) {
+          writtenPageNumbers.add(page.getId().pageNumber());
+        }
+        super.writePage(page);
+      }
+    };
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    BufferPool bufferPool = Database.resetBufferPool(8);
+    bufferPool.setReadAheadPages(0);
+
+    Transaction t = new Transaction();
+    t.start();
+    for (int pageNumber : new int[] { 5, 3, 4, 0, 1 }) {
+      Page page = bufferPool.getPage(t.getId(), new HeapPageId(table.getId(), pageNumber),
+          Permissions.READ_WRITE);
+      ((HeapPage) page).deleteTuple(((HeapPage) page).iterator().next());
+      page.markDirty(true, t.getId());
+    }
+    t.commit();
+    for (int i = 0; i < 100 && writtenPageNumbers.size() < 5; i++) {
+      Thread.sleep(50);
+    }
+    synchronized (writtenPageNumbers) {
+      assertEquals(Arrays.asList(0, 1, 3, 4, 5), writtenPageNumbers);
+    }
+    HeapPage written = (HeapPage) table.readPage(new HeapPageId(table.getId(), 3));
+    assertEquals(1, written.getNumEmptySlots());
+
+    TransactionId tid = new TransactionId();
+    for (int pageNumber = 6; pageNumber < 20; pageNumber++) {
+      bufferPool.getPage(tid, new HeapPageId(table.getId(), pageNumber), Permissions.READ_ONLY);
+    }
+    bufferPool.transactionComplete(tid);
+    assertEquals(0, bufferPool.getEvictionWrites());
+    assertEquals(5, writtenPageNumbers.size());
+  }
+
+  /**
+   * The page cleaner does not write a committed page while a transaction is
+   * changing it, since that would reset the zone map entry of the page to the
+   * committed image and hide the tuples the transaction adds.
+   */
+  @Test
+  public void pageCleanerSkipsPagesBeingChanged() throws Exception {
+    File f = File.createTempFile("cleaner", ".dat");
+    f.deleteOnExit();
+    ZoneMap.delete(f);
+    FreeSpaceMap.delete(f);
+    HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    BufferPool bufferPool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(1, 2));
+    bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(2, 2));
+    TransactionId other = new TransactionId();
+    synchronized (bufferPool) {
+      // the page cleaner cannot write the committed page before it changes
+      bufferPool.transactionComplete(tid);
+      bufferPool.insertTuple(other, table.getId(), Utility.getHeapTuple(1000, 2));
+    }
+    // give the page cleaner time to write the page
+    Thread.sleep(200);
+    tid = new TransactionId();
+    synchronized (bufferPool) {
+      // nor write the new image before the scan
+      bufferPool.transactionComplete(other);
+      DbFileIterator it = table.iterator(tid, Arrays.asList(new Predicate(0,
+          Predicate.Op.GREATER_THAN, new IntField(500))));
+      it.open();
+      assertTrue(it.hasNext());
+      assertEquals(new IntField(1000), it.next().getField(0));
+      it.close();
+    }
+    bufferPool.transactionComplete(tid);
+  }
+
+  /** Deletes the first tuple of the specified page in a transaction of its own. */
+  private static void deleteFirstTuple(HeapFile table, int pageNumber) throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Page page = Database.getBufferPool().getPage(t.getId(), new HeapPageId(table.getId(),
+        pageNumber), Permissions.READ_WRITE);
+    ((HeapPage) page).deleteTuple(((HeapPage) page).iterator().next());
+    page.markDirty(true, t.getId());
+    t.commit();
+  }
+
+  /**
+   * A page cleaner that fails to write a page leaves it unwritten and stops,
+   * the next transaction to complete reports the failure, and the next commit
+   * starts a new page cleaner, which writes the page.
+   */
+  @Test
+  public void pageCleanerRestartsAfterFailure() throws Exception {
+    checkPageCleanerRestarts(new IOException("Disk full"));
+  }
+
+  /**
+   * The same goes for unchecked exceptions, such as the one writing a page of
+   * a table that is no longer in the catalog throws.
+   */
+  @Test
+  public void pageCleanerRestartsAfterUncheckedFailure() throws Exception {
+    checkPageCleanerRestarts(new NoSuchElementException("Table dropped"));
+  }
+
+  /**
+   * Checks that the page cleaner recovers from the specified exception,
+   * thrown by the first page write.
+   */
+  private static void checkPageCleanerRestarts(final Exception writeFailure) throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 2, 1000, null, null);
+    final AtomicInteger failures = new AtomicInteger(1);
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(2)) {
+      @Override
+      public void writePage(Page page) throws IOException {
+        if (failures.getAndDecrement() > 0) {
+          if (writeFailure instanceof IOException) {
+            throw (IOException) writeFailure;
+          }
+          throw (RuntimeException) writeFailure;
+        }
+        super.writePage(page);
+      }
+    };
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    BufferPool bufferPool = Database.resetBufferPool(8);
+
+    deleteFirstTuple(table, 0);
+    IOException failure = null;
+    for (int i = 0; i < 100 && failure == null; i++) {
+      Thread.sleep(50);
+      try {
+        bufferPool.transactionComplete(new TransactionId());
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    assertSame(writeFailure, failure.getCause());
+
+    deleteFirstTuple(table, 1);
+    for (int i = 0; i < 100 && failures.get() > -2; i++) {
+      Thread.sleep(50);
+    }
+    for (int pageNumber = 0; pageNumber < 2; pageNumber++) {
+      HeapPage written = (HeapPage) table.readPage(new HeapPageId(table.getId(), pageNumber));
+      assertEquals(1, written.getNumEmptySlots());
+    }
+  }
+
+  /**
+   * Resetting the database waits for the run the page cleaner is writing, so
+   * the old page cleaner does not write pages behind the new database's back.
+   */
+  @Test
+  public void resetWaitsForPageCleaner() throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504, 1000, null, null);
+    final Object writing = new Object();
+    final AtomicInteger writes = new AtomicInteger(0);
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(2)) {
+      @Override
+      public void writePage(Page page) throws IOException {
+        synchronized (writing) {
+          writing.notifyAll();
+        }
+        try {
+          Thread.sleep(300);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.writePage(page);
+        writes.incrementAndGet();
+      }
+    };
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    Database.resetBufferPool(8);
+
+    synchronized (writing) {
+      deleteFirstTuple(table, 0);
+      writing.wait(5000);
+    }
+    Database.reset();
+    assertEquals(1, writes.get());
+  }
+
+  /** Creates an empty table of two int fields with a B+tree index on the first. */
+  private static HeapFile createIndexedTable() throws Exception {
+    File f = File.createTempFile("complete", ".dat");
+    f.deleteOnExit();
+    ZoneMap.delete(f);
+    FreeSpaceMap.delete(f);
+    HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    File indexFile = File.createTempFile("complete", ".btree");
+    indexFile.deleteOnExit();
+    indexFile.delete();
+    Database.getCatalog().addIndex(new BTreeFile(indexFile, table, 0));
+    return table;
+  }
+
+  /** Returns the sorted first fields of the tuples of the specified iterator. */
+  private static List<Integer> keys(DbFileIterator it) throws Exception {
+    List<Integer> keys = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext()) {
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    }
+    it.close();
+    Collections.sort(keys);
+    return keys;
+  }
+
+  /** Checks the keys of the table and of its index. */
+  private static void assertKeys(HeapFile table, Integer... expected) throws Exception {
+    TransactionId tid = new TransactionId();
+    assertEquals(Arrays.asList(expected), keys(table.iterator(tid)));
+    IndexFile index = Database.getCatalog().getIndexes(table.getId()).get(0);
+    assertEquals(Arrays.asList(expected), keys(index.iterator(tid, Predicate.Op.GREATER_THAN,
+        Integer.MIN_VALUE)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Returns the number of the first numPages pages of a file that tid dirtied. */
+  private static int countDirtyPages(TransactionId tid, int fileId, int numPages)
+      throws Exception {
+    int dirtyPages = 0;
+    for (int pageNumber = 0; pageNumber < numPages; pageNumber++) {
+      Page page = Database.getBufferPool().getPage(tid, new HeapPageId(fileId, pageNumber),
+          Permissions.READ_ONLY);
+      if (tid.equals(page.isDirty())) {
+        dirtyPages++;
+      }
+    }
+    return dirtyPages;
+  }
+
+  /** Returns the number of pages of the table and of its index that tid dirtied. */
+  private static int countDirtyPages(HeapFile table, TransactionId tid) throws Exception {
+    BTreeFile index = (BTreeFile) Database.getCatalog().getIndexes(table.getId()).get(0);
+    return countDirtyPages(tid, table.getId(), table.numPages())
+        + countDirtyPages(tid, index.getId(), index.numPages());
+  }
+
+  /**
+   * Committing logs every page the transaction dirtied through inserts and
+   * deletes, the pages of the index included, once.
+   */
+  @Test
+  public void commitLogsDirtiedPages() throws Exception {
+    HeapFile table = createIndexedTable();
+    BufferPool bufferPool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    for (int key = 1; key <= 3; key++) {
+      bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(key, 2));
+    }
+    int dirtyPages = countDirtyPages(table, tid);
+    // a heap page and at least one index page
+    assertTrue(dirtyPages >= 2);
+    int records = Database.getLogFile().getTotalRecords();
+    bufferPool.transactionComplete(tid);
+    assertEquals(records + dirtyPages, Database.getLogFile().getTotalRecords());
+
+    tid = new TransactionId();
+    Tuple deleted = Utility.getHeapTuple(2, 2);
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (t.getField(0).equals(deleted.getField(0))) {
+        bufferPool.deleteTuple(tid, t);
+      }
+    }
+    it.close();
+    dirtyPages = countDirtyPages(table, tid);
+    assertTrue(dirtyPages >= 2);
+    records = Database.getLogFile().getTotalRecords();
+    bufferPool.transactionComplete(tid);
+    assertEquals(records + dirtyPages, Database.getLogFile().getTotalRecords());
+    assertKeys(table, 1, 3);
+  }
+
+  /**
+   * Aborting puts back the committed images of the pages the transaction
+   * dirtied through inserts and deletes, the pages of the index included.
+   */
+  @Test
+  public void abortRestoresDirtiedPages() throws Exception {
+    HeapFile table = createIndexedTable();
+    BufferPool bufferPool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    for (int key = 1; key <= 3; key++) {
+      bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(key, 2));
+    }
+    bufferPool.transactionComplete(tid);
+
+    tid = new TransactionId();
+    bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(4, 2));
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    bufferPool.deleteTuple(tid, it.next());
+    it.close();
+    bufferPool.transactionComplete(tid, false);
+    assertKeys(table, 1, 2, 3);
+  }
+
+  /**
+   * A page flushed while its transaction runs is clean afterwards, but still
+   * belongs to the transaction: committing makes its image the one an abort
+   * of the next transaction goes back to, and aborting rolls it back.
+   */
+  @Test
+  public void pagesFlushedWhileRunning() throws Exception {
+    HeapFile table = createIndexedTable();
+    BufferPool bufferPool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(1, 2));
+    bufferPool.flushPages(tid);
+    bufferPool.transactionComplete(tid);
+
+    tid = new TransactionId();
+    bufferPool.insertTuple(tid, table.getId(), Utility.getHeapTuple(2, 2));
+    bufferPool.transactionComplete(tid, false);
+    assertKeys(table, 1);
+
+    Transaction t = new Transaction();
+    t.start();
+    bufferPool.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(3, 2));
+    bufferPool.flushPages(t.getId());
+    bufferPool.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(4, 2));
+    t.abort();
+    assertKeys(table, 1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferPoolTest.class);
+  }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+  /**
+   * Only scans of more than a quarter of the pool get a ring, of at most an
+   * eighth of the pool.
+   */
+  @Test
+  public void getScanRing() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+    BufferPool bufferPool = Database.resetBufferPool(40);
+    assertNull(bufferPool.getScanRing(table.getId(), 10));
+    BufferRing ring = bufferPool.getScanRing(table.getId(), 11);
+    assertNotNull(ring);
+    assertEquals(5, ring.getCapacity());
+
+    bufferPool = Database.resetBufferPool(1000);
+    assertEquals(BufferPool.SCAN_RING_BYTES / table.getPageSize(), bufferPool.getScanRing(
+        table.getId(), 1000).getCapacity());
+  }
+
+  /**
+   * A scan of a table larger than the pool leaves the pages that were in the
+   * pool before it there, and reuses its own pages once the pool is full.
+   */
+  @Test
+  public void scanLeavesHotPages() throws Exception {
+    HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+    HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, null);
+    BufferPool bufferPool = Database.resetBufferPool(40);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 4; i++) {
+      bufferPool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+    SeqScan scan = new SeqScan(tid, large.getId(), "l");
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    scan.close();
+    assertEquals(504 * 100, count);
+    assertTrue(bufferPool.getScanRingHits() + bufferPool.getScanRingMisses() >= 100);
+    assertEquals(0, bufferPool.getHits() - bufferPool.getScanRingHits());
+
+    for (int i = 0; i < 4; i++) {
+      bufferPool.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+    assertEquals(4, bufferPool.getHits() - bufferPool.getScanRingHits());
+    assertEquals(4, bufferPool.getPrefetchMisses() - bufferPool.getScanRingMisses());
+    bufferPool.transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferRingTest.class);
+  }
+}
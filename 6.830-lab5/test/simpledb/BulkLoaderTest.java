@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+  private static final Type[] TWO_INTS = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+
+  private static File createTextFile(String contents) throws IOException {
+    File f = File.createTempFile("bulk", ".txt");
+    f.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(f);
+    out.write(contents.getBytes("UTF-8"));
+    out.close();
+    return f;
+  }
+
+  private static File createTempFile() throws IOException {
+    File f = File.createTempFile("bulk", ".dat");
+    f.deleteOnExit();
+    return f;
+  }
+
+  private static byte[] readFile(File f) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(f, "r");
+    byte[] data = new byte[(int) file.length()];
+    file.readFully(data);
+    file.close();
+    return data;
+  }
+
+  /**
+   * Writes tuples of two random integers, with the odd blank line, carriage
+   * return and space thrown in, and no newline at the end.
+   */
+  private static File createRandomTextFile(int rows, ArrayList<ArrayList<Integer>> tuples)
+      throws IOException {
+    Random random = new Random(6830);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < rows; i++) {
+      ArrayList<Integer> tuple = new ArrayList<Integer>();
+      tuple.add(random.nextInt() / 1000);
+      tuple.add(i);
+      tuples.add(tuple);
+      if (i % 97 == 0) {
+        text.append("\n");
+      }
+      text.append(tuple.get(0)).append(i % 13 == 0 ? " , " : ",").append(i);
+      if (i < rows - 1) {
+        text.append(i % 5 == 0 ? "\r\n" : "\n");
+      }
+    }
+    return createTextFile(text.toString());
+  }
+
+  /**
+   * Parsing in many small chunks on several threads produces exactly the same
+   * file as parsing everything on one thread, with every page but the last
+   * full.
+   */
+  @Test
+  public void chunkedLoad() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    File input = createRandomTextFile(3000, tuples);
+
+    File serial = createTempFile();
+    BulkLoader loader = BulkLoader.create(TWO_INTS, BufferPool.getPageSize(), ',', 1,
+        Integer.MAX_VALUE);
+    assertEquals(3000, loader.load(input, serial));
+    File parallel = createTempFile();
+    assertEquals(3000, BulkLoader.create(TWO_INTS, BufferPool.getPageSize(), ',', 4, 37).load(
+        input, parallel));
+    assertTrue(Arrays.equals(readFile(serial), readFile(parallel)));
+
+    HeapFile table = new HeapFile(parallel, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    int tuplesPerPage = loader.getTuplesPerPage();
+    assertEquals((3000 + tuplesPerPage - 1) / tuplesPerPage, table.numPages());
+    SystemTestUtil.matchTuples(table, tuples);
+  }
+
+  /**
+   * String fields are trimmed and truncated, and any separator can be used.
+   */
+  @Test
+  public void strings() throws Exception {
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < Type.STRING_LEN + 10; i++) {
+      longString.append((char) ('a' + i % 26));
+    }
+    File input = createTextFile("1| first\n2|" + longString + "\n3|\n");
+    File output = createTempFile();
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    HeapFileEncoder.convert(input, output, BufferPool.getPageSize(), 2, new Type[] {
+        Type.INT_TYPE, Type.STRING_TYPE }, '|');
+
+    HeapFile table = new HeapFile(output, td);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    DbFileIterator it = table.iterator(new TransactionId());
+    it.open();
+    assertEquals("first", ((StringField) it.next().getField(1)).getValue());
+    assertEquals(longString.substring(0, Type.STRING_LEN),
+        ((StringField) it.next().getField(1)).getValue());
+    assertEquals("", ((StringField) it.next().getField(1)).getValue());
+    it.close();
+  }
+
+  /**
+   * Malformed lines fail the load.
+   */
+  @Test
+  public void malformedLines() throws Exception {
+    String[] inputs = { "1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "1,99999999999\n" };
+    for (String contents : inputs) {
+      try {
+        BulkLoader.create(TWO_INTS, BufferPool.getPageSize(), ',', 2, 4).load(
+            createTextFile(contents), createTempFile());
+        fail("Expected " + contents + " to be rejected");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Loading into an existing table appends new pages after its current ones.
+   */
+  @Test
+  public void appendToTable() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+    int numPages = table.numPages();
+    ArrayList<ArrayList<Integer>> loaded = new ArrayList<ArrayList<Integer>>();
+    assertEquals(2000, table.load(createRandomTextFile(2000, loaded), ','));
+    tuples.addAll(loaded);
+
+    assertEquals(numPages + 4, table.numPages());
+    SystemTestUtil.matchTuples(table, tuples);
+  }
+
+  /** Make test compatible with older version of ant. */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BulkLoaderTest.class);
+  }
+}
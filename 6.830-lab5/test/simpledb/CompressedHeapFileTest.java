@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+  private static final String[] CITIES = { "boston", "cambridge", "somerville" };
+
+  private TupleDesc td;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE },
+        new String[] { "id", "quantity", "city" });
+  }
+
+  private Tuple createTuple(int i) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(1000000 + i));
+    t.setField(1, new IntField(i * 7919 % 100 - 50));
+    t.setField(2, new StringField(CITIES[i % CITIES.length], Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Round trip of bit-packed values of all widths.
+   */
+  @Test
+  public void bitPacking() {
+    for (int width = 0; width <= 40; width++) {
+      byte[] data = new byte[1 + CompressedPageEncoder.getPackedSize(10, width)];
+      long mask = width == 0 ? 0 : (1L << width) - 1;
+      for (int i = 0; i < 10; i++) {
+        CompressedPageEncoder.putBits(data, 1, i, width, (i * 0x5DEECE66DL) & mask);
+      }
+      for (int i = 0; i < 10; i++) {
+        assertEquals((i * 0x5DEECE66DL) & mask, CompressedPageEncoder.getBits(data, 1, i, width));
+      }
+    }
+  }
+
+  /**
+   * Small integers and repeated strings compress well, and every value and
+   * predicate comes out as it went in.
+   */
+  @Test
+  public void encodeAndFilter() throws Exception {
+    CompressedPageEncoder encoder = new CompressedPageEncoder(td, BufferPool.getPageSize());
+    int count = 0;
+    while (encoder.add(createTuple(count))) {
+      count++;
+    }
+    int heapPageTuples = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    assertTrue(count >= 20 * heapPageTuples);
+
+    CompressedPage page = new CompressedPage(new HeapPageId(-1, 0), td, encoder.encode());
+    assertEquals(count, page.getNumTuples());
+    Iterator<Tuple> it = page.iterator();
+    for (int i = 0; i < count; i++) {
+      Tuple expected = createTuple(i);
+      Tuple actual = it.next();
+      for (int j = 0; j < td.numFields(); j++) {
+        assertEquals(expected.getField(j), actual.getField(j));
+      }
+    }
+    assertFalse(it.hasNext());
+
+    ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    predicates.add(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(40)));
+    predicates.add(new Predicate(2, Predicate.Op.EQUALS, new StringField("cambridge",
+        Type.STRING_LEN)));
+    predicates.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000000 + count / 2)));
+    int expectedMatches = 0;
+    for (int i = 0; i < count / 2; i++) {
+      if (i * 7919 % 100 - 50 >= 40 && i % CITIES.length == 1) {
+        expectedMatches++;
+      }
+    }
+    it = page.iterator(new boolean[] { true, false, false }, predicates);
+    int matches = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int i = ((IntField) t.getField(0)).getValue() - 1000000;
+      assertTrue(i * 7919 % 100 - 50 >= 40 && i % CITIES.length == 1 && i < count / 2);
+      assertNull(t.getField(2));
+      matches++;
+    }
+    assertEquals(expectedMatches, matches);
+
+    predicates.clear();
+    predicates.add(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)));
+    assertFalse(page.iterator(null, predicates).hasNext());
+  }
+
+  /**
+   * Unit test for CompressedHeapFile insert, scan and delete through the
+   * BufferPool.
+   */
+  @Test
+  public void insertScanDelete() throws Exception {
+    File file = File.createTempFile("compressed", ".dat");
+    file.deleteOnExit();
+    CompressedHeapFile compressed = new CompressedHeapFile(file, td);
+    Database.getCatalog().addTable(compressed, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1000; i++) {
+      Database.getBufferPool().insertTuple(tid, compressed.getId(), createTuple(i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1, compressed.numPages());
+
+    tid = new TransactionId();
+    DbFileIterator it = compressed.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      }
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    // new tuples take the empty slots
+    tid = new TransactionId();
+    for (int i = 0; i < 10; i++) {
+      Tuple t = createTuple(2000 + 2 * i + 1);
+      Database.getBufferPool().insertTuple(tid, compressed.getId(), t);
+      assertTrue(t.getRecordId().tupleno() < 1000);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    it = compressed.iterator(tid);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      assertEquals(1, ((IntField) it.next().getField(0)).getValue() % 2);
+      count++;
+    }
+    it.close();
+    assertEquals(510, count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+  }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+  private static final EvictionPolicy.Evictable ALL = new EvictionPolicy.Evictable() {
+    @Override
+    public boolean isEvictable(PageId pageId) {
+      return true;
+    }
+  };
+
+  private static PageId page(int pageNumber) {
+    return new HeapPageId(1, pageNumber);
+  }
+
+  /** Adds the specified page to the policy and accesses it once. */
+  private static void load(EvictionPolicy policy, int pageNumber) {
+    policy.pageAdded(page(pageNumber));
+    policy.pageAccessed(page(pageNumber));
+  }
+
+  /** Evicts the victim of the policy and returns its number. */
+  private static int evict(EvictionPolicy policy, EvictionPolicy.Evictable evictable) {
+    PageId victim = policy.chooseVictim(evictable);
+    policy.pageRemoved(victim);
+    return victim.pageNumber();
+  }
+
+  /**
+   * CLOCK gives referenced pages a second chance and skips pages that may not
+   * be evicted.
+   */
+  @Test
+  public void clock() {
+    EvictionPolicy policy = new ClockEvictionPolicy();
+    for (int i = 0; i < 4; i++) {
+      policy.pageAdded(page(i));
+    }
+    policy.pageAccessed(page(0));
+    policy.pageAccessed(page(2));
+    EvictionPolicy.Evictable notOne = new EvictionPolicy.Evictable() {
+      @Override
+      public boolean isEvictable(PageId pageId) {
+        return pageId.pageNumber() != 1;
+      }
+    };
+    assertEquals(3, evict(policy, notOne));
+    assertEquals(0, evict(policy, notOne));
+    assertEquals(2, evict(policy, notOne));
+    assertNull(policy.chooseVictim(notOne));
+    assertEquals(1, evict(policy, ALL));
+  }
+
+  /**
+   * LRU-2 evicts pages used once before pages used twice, however recent,
+   * and remembers the history of evicted pages.
+   */
+  @Test
+  public void lru2() {
+    EvictionPolicy policy = new LruKEvictionPolicy(2);
+    load(policy, 0);
+    load(policy, 1);
+    policy.pageAccessed(page(0));
+    load(policy, 2);
+    load(policy, 3);
+    // correlated accesses count once
+    policy.pageAccessed(page(3));
+    assertEquals(1, evict(policy, ALL));
+    assertEquals(2, evict(policy, ALL));
+
+    // page 2 comes back and its second access makes it more valuable than 3
+    load(policy, 2);
+    assertEquals(3, evict(policy, ALL));
+    assertEquals(0, evict(policy, ALL));
+  }
+
+  /**
+   * 2Q lets a stream of pages used once pass through A1in without evicting
+   * the pages that were asked for again after they had been evicted.
+   */
+  @Test
+  public void twoQueue() {
+    EvictionPolicy policy = new TwoQueueEvictionPolicy();
+    for (int i = 0; i < 4; i++) {
+      load(policy, i);
+    }
+    assertEquals(0, evict(policy, ALL));
+    // page 0 is remembered in A1out and goes to Am
+    load(policy, 0);
+    for (int i = 4; i < 20; i++) {
+      load(policy, i);
+      assertEquals(i - 3, evict(policy, ALL));
+      policy.pageAccessed(page(0));
+    }
+  }
+
+  /**
+   * With each policy, a page that is asked for between the pages of a scan
+   * that does not fit in the pool stays in the pool, or nearly so.
+   */
+  @Test
+  public void hotPageSurvivesScan() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+    EvictionPolicy[] policies = { new ClockEvictionPolicy(), new LruKEvictionPolicy(2),
+        new TwoQueueEvictionPolicy() };
+    for (EvictionPolicy policy : policies) {
+      BufferPool bufferPool = Database.resetBufferPool(10, policy);
+      bufferPool.setReadAheadPages(0);
+      TransactionId tid = new TransactionId();
+      for (int i = 1; i < 40; i++) {
+        bufferPool.getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+      }
+      bufferPool.transactionComplete(tid);
+      // CLOCK clears every bit on its first sweep, which may cost one reread
+      assertTrue(policy.toString(), bufferPool.getHits() >= 37);
+      assertEquals(policy.toString(), 78, bufferPool.getHits()
+          + bufferPool.getPrefetchMisses());
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EvictionPolicyTest.class);
+  }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+  private File heapFile;
+
+  @Before
+  public void createFile() throws Exception {
+    heapFile = File.createTempFile("fsm", ".dat");
+    heapFile.deleteOnExit();
+    FreeSpaceMap.delete(heapFile);
+  }
+
+  @After
+  public void deleteSidecar() {
+    FreeSpaceMap.delete(heapFile);
+  }
+
+  /**
+   * Unknown pages are candidates, full pages are skipped.
+   */
+  @Test
+  public void skipsFullPages() {
+    FreeSpaceMap map = FreeSpaceMap.open(heapFile, 3);
+    assertEquals(0, map.findPageWithFreeSpace(3));
+    map.update(0, 0);
+    assertEquals(1, map.findPageWithFreeSpace(3));
+    map.update(1, 0);
+    map.update(2, 0);
+    assertEquals(-1, map.findPageWithFreeSpace(3));
+    map.update(0, 5);
+    assertEquals(0, map.findPageWithFreeSpace(3));
+  }
+
+  /**
+   * Only persisted entries survive reopening the map.
+   */
+  @Test
+  public void persistsEntries() throws Exception {
+    FreeSpaceMap map = FreeSpaceMap.open(heapFile, 2);
+    map.updateAndPersist(0, 0);
+    map.update(1, 0);
+    FreeSpaceMap reopened = FreeSpaceMap.open(heapFile, 2);
+    assertEquals(1, reopened.findPageWithFreeSpace(2));
+  }
+
+  /**
+   * Maps do not keep their sidecar open between reads and writes.
+   */
+  @Test
+  public void doesNotKeepSidecarOpen() throws Exception {
+    int openFiles = TestUtil.countOpenFiles();
+    for (int i = 0; i < 10; i++) {
+      FreeSpaceMap map = FreeSpaceMap.open(heapFile, 2);
+      map.updateAndPersist(i % 2, i);
+    }
+    assertEquals(openFiles, TestUtil.countOpenFiles());
+  }
+
+  /**
+   * Inserts into a file with a full first page go straight to the page with
+   * room.
+   */
+  @Test
+  public void heapFileInsertUsesMap() throws Exception {
+    HeapFile empty = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 505; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(2, empty.numPages());
+    Database.getBufferPool().transactionComplete(tid);
+
+    // the first page is full, so a new transaction should not touch it
+    tid = new TransactionId();
+    empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+    assertEquals(false, Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 0)));
+    assertEquals(true, Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 1)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A page filled by a transaction that aborts has room again.
+   */
+  @Test
+  public void abortRestoresEntry() throws Exception {
+    HeapFile empty = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504; ++i) {
+      Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(0, 2));
+    assertEquals(1, empty.numPages());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+  }
+}
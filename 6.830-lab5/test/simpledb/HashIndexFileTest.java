@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+  /** Small pages, so that a few thousand entries split the directory a lot. */
+  private static final int INDEX_PAGE_SIZE = 128;
+  private static final int ROWS = 2000;
+
+  private HeapFile table;
+  private File indexFile;
+
+  @Before
+  public void createFiles() throws Exception {
+    File heapFile = File.createTempFile("hash", ".dat");
+    heapFile.deleteOnExit();
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+    table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    indexFile = File.createTempFile("hash", ".hidx");
+    indexFile.deleteOnExit();
+    indexFile.delete();
+  }
+
+  private HashIndexFile addIndex() {
+    HashIndexFile index = new HashIndexFile(indexFile, table, 0, INDEX_PAGE_SIZE);
+    Database.getCatalog().addIndex(index);
+    return index;
+  }
+
+  /** Inserts tuples with the specified first fields in one transaction. */
+  private void insert(int[] keys, boolean commit) throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int key : keys) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(key, 2));
+    }
+    Database.getBufferPool().transactionComplete(tid, commit);
+  }
+
+  /** Returns the first fields of the tuples the index returns. */
+  private static List<Integer> scan(HashIndexFile index, Integer value) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = value == null ? index.iterator(tid) : index.iterator(tid,
+        Predicate.Op.EQUALS, value.intValue());
+    it.open();
+    List<Integer> keys = new ArrayList<Integer>();
+    while (it.hasNext()) {
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return keys;
+  }
+
+  private static int[] shuffledKeys() {
+    int[] keys = new int[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      keys[i] = (int) ((i * 7919L) % ROWS);
+    }
+    return keys;
+  }
+
+  /**
+   * Tuples inserted through the buffer pool are found by their key, and a
+   * full scan returns each of them once.
+   */
+  @Test
+  public void insertAndLookup() throws Exception {
+    HashIndexFile index = addIndex();
+    insert(shuffledKeys(), true);
+    assertTrue(index.numPages() > ROWS / HashIndexPage.getCapacity(INDEX_PAGE_SIZE,
+        HashIndexPage.BUCKET));
+
+    for (int key = 0; key < ROWS; key += 97) {
+      assertEquals(Arrays.asList(key), scan(index, key));
+    }
+    assertEquals(0, scan(index, ROWS).size());
+    assertEquals(0, scan(index, -1).size());
+    List<Integer> all = scan(index, null);
+    assertEquals(ROWS, all.size());
+    assertEquals(ROWS, new HashSet<Integer>(all).size());
+  }
+
+  /**
+   * Many equal keys cannot be split apart, so they are chained, and deleted
+   * entries go away while aborted inserts leave none behind.
+   */
+  @Test
+  public void duplicatesDeleteAndAbort() throws Exception {
+    HashIndexFile index = addIndex();
+    int[] keys = shuffledKeys();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] %= 10;
+    }
+    insert(keys, true);
+    assertEquals(ROWS / 10, scan(index, 3).size());
+
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = index.iterator(tid, Predicate.Op.EQUALS, 3);
+    it.open();
+    List<Tuple> deleted = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      deleted.add(it.next());
+    }
+    it.close();
+    for (Tuple t : deleted) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(0, scan(index, 3).size());
+    assertEquals(ROWS / 10, scan(index, 4).size());
+
+    insert(new int[] { 3, 3, 42 }, false);
+    assertEquals(0, scan(index, 3).size());
+    assertEquals(0, scan(index, 42).size());
+    assertEquals(ROWS / 10 * 9, scan(index, null).size());
+  }
+
+  /**
+   * Building an index over an existing table gives the same answers as
+   * maintaining it tuple by tuple, and inserts keep working afterwards.
+   */
+  @Test
+  public void build() throws Exception {
+    int[] keys = shuffledKeys();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] /= 3;
+    }
+    insert(keys, true);
+    HashIndexFile index = addIndex();
+    index.build();
+
+    assertEquals(ROWS, scan(index, null).size());
+    assertEquals(3, scan(index, 100).size());
+    assertEquals(2, scan(index, ROWS / 3).size());
+
+    insert(new int[] { 100, -1 }, true);
+    assertEquals(4, scan(index, 100).size());
+    assertEquals(Arrays.asList(-1), scan(index, -1));
+  }
+
+  /**
+   * The catalog picks the hash index for equality and the B+tree index for
+   * other comparisons on the same field.
+   */
+  @Test
+  public void catalogPrefersHashIndexForEquality() throws Exception {
+    HashIndexFile hashIndex = addIndex();
+    File btreeFile = File.createTempFile("btree", ".idx");
+    btreeFile.deleteOnExit();
+    btreeFile.delete();
+    BTreeFile btreeIndex = new BTreeFile(btreeFile, table, 0, INDEX_PAGE_SIZE);
+    Database.getCatalog().addIndex(btreeIndex);
+
+    Catalog catalog = Database.getCatalog();
+    assertEquals(hashIndex, catalog.getIndex(table.getId(), 0, Predicate.Op.EQUALS));
+    assertEquals(btreeIndex, catalog.getIndex(table.getId(), 0, Predicate.Op.LESS_THAN));
+    assertEquals(null, catalog.getIndex(table.getId(), 1, Predicate.Op.EQUALS));
+    assertEquals(null, catalog.getIndex(table.getId(), 0, Predicate.Op.NOT_EQUALS));
+
+    insert(new int[] { 5, 6, 5 }, true);
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, hashIndex, "h", new Predicate(0, Predicate.Op.EQUALS,
+        new IntField(5)));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      assertEquals(5, ((IntField) scan.next().getField(0)).getValue());
+      count++;
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(2, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileCompactionTest extends SimpleDbTestBase {
+  /** Tuples of two int fields per page of the default size. */
+  private static final int TUPLES_PER_PAGE = 504;
+  private static final int PAGES = 6;
+
+  private File heapFile;
+  private HeapFile table;
+  private File indexFile;
+
+  @Before
+  public void createFiles() throws Exception {
+    heapFile = File.createTempFile("compact", ".dat");
+    heapFile.deleteOnExit();
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+    table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    indexFile = File.createTempFile("compact", ".hidx");
+    indexFile.deleteOnExit();
+    indexFile.delete();
+  }
+
+  /** Fills PAGES pages with the keys 0, 1, ... in order. */
+  private void insertRows() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int key = 0; key < PAGES * TUPLES_PER_PAGE; key++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(key, 2));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Deletes the tuples whose key is not a multiple of the specified number. */
+  private void deleteRowsExceptMultiplesOf(int divisor) throws Exception {
+    TransactionId tid = new TransactionId();
+    List<Tuple> deleted = new ArrayList<Tuple>();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(0)).getValue() % divisor != 0) {
+        deleted.add(t);
+      }
+    }
+    it.close();
+    for (Tuple t : deleted) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Returns the sorted keys of the tuples of the specified iterator. */
+  private static List<Integer> keys(DbFileIterator it) throws Exception {
+    it.open();
+    List<Integer> keys = new ArrayList<Integer>();
+    while (it.hasNext()) {
+      keys.add(((IntField) it.next().getField(0)).getValue());
+    }
+    it.close();
+    Collections.sort(keys);
+    return keys;
+  }
+
+  private static List<Integer> multiplesOf(int divisor, int count) {
+    List<Integer> keys = new ArrayList<Integer>();
+    for (int key = 0; key < count; key += divisor) {
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  /**
+   * Compaction moves the remaining tuples into the first pages, keeps the
+   * index pointing at them, and cuts the empty pages off the file.
+   */
+  @Test
+  public void compactAndTruncate() throws Exception {
+    HashIndexFile index = new HashIndexFile(indexFile, table, 0);
+    Database.getCatalog().addIndex(index);
+    insertRows();
+    deleteRowsExceptMultiplesOf(4);
+
+    // a quarter of every page is left, which fits in two pages
+    assertEquals(PAGES - 2, table.compact());
+    assertEquals(2, table.numPages());
+    assertEquals(2L * table.getPageSize(), heapFile.length());
+
+    TransactionId tid = new TransactionId();
+    List<Integer> expected = multiplesOf(4, PAGES * TUPLES_PER_PAGE);
+    assertEquals(expected, keys(table.iterator(tid)));
+    assertEquals(expected, keys(index.iterator(tid)));
+    assertEquals(Collections.singletonList(PAGES * TUPLES_PER_PAGE - 4), keys(index.iterator(
+        tid, Predicate.Op.EQUALS, PAGES * TUPLES_PER_PAGE - 4)));
+    Database.getBufferPool().transactionComplete(tid);
+
+    // a page that was cut off reads as empty, and the file grows again
+    HeapPage cutOff = (HeapPage) table.readPage(new HeapPageId(table.getId(), 3));
+    assertEquals(TUPLES_PER_PAGE, cutOff.getNumEmptySlots());
+    tid = new TransactionId();
+    for (int key = 0; key < TUPLES_PER_PAGE; key++) {
+      Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(-1, 2));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(3, table.numPages());
+    assertEquals(expected.size() + TUPLES_PER_PAGE, keys(table.iterator(new TransactionId()))
+        .size());
+  }
+
+  /**
+   * A file without empty slots before its last page stays as it is.
+   */
+  @Test
+  public void compactDenseFile() throws Exception {
+    insertRows();
+    assertEquals(0, table.compact());
+    assertEquals(PAGES, table.numPages());
+    TransactionId tid = new TransactionId();
+    assertEquals(multiplesOf(1, PAGES * TUPLES_PER_PAGE), keys(table.iterator(tid)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Compaction keeps every tuple when the buffer pool is too small to hold
+   * the source, target and index pages at once, so that deleting a tuple
+   * evicts the target page it is moved to.
+   */
+  @Test
+  public void compactWithSmallBufferPool() throws Exception {
+    BTreeFile index = new BTreeFile(indexFile, table, 0);
+    Database.getCatalog().addIndex(index);
+    insertRows();
+    deleteRowsExceptMultiplesOf(4);
+    Database.resetBufferPool(9);
+
+    assertEquals(PAGES - 2, table.compact());
+    TransactionId tid = new TransactionId();
+    List<Integer> expected = multiplesOf(4, PAGES * TUPLES_PER_PAGE);
+    assertEquals(expected, keys(table.iterator(tid)));
+    assertEquals(expected, keys(index.iterator(tid)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapFileCompactionTest.class);
+  }
+}
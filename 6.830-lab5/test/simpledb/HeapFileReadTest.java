@@ -3,10 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -85,6 +91,66 @@ public class HeapFileReadTest extends SimpleDbTestBase {
     assertFalse(page.isSlotUsed(20));
   }
 
+  /**
+   * Unit test for HeapFile.readPages()
+   */
+  @Test
+  public void readPages() throws Exception {
+    HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+    List<Page> pages = bigFile.readPages(1, 3);
+    assertEquals(3, pages.size());
+    for (int i = 0; i < 3; i++) {
+      HeapPageId pid = new HeapPageId(bigFile.getId(), i + 1);
+      assertEquals(pid, pages.get(i).getId());
+      assertTrue(Arrays.equals(bigFile.readPage(pid).getPageData(), pages.get(i)
+          .getPageData()));
+    }
+    try {
+      bigFile.readPages(4, 2);
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+      // Exception expected but no action necessary.
+    }
+  }
+
+  /**
+   * Unit test for BufferPool.getTuples() on a HeapFile
+   */
+  @Test
+  public void getTuples() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 4 + 100, null, tuples);
+
+    // every seventh row in random order, one of them twice, and an empty slot
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < tuples.size(); i += 7) {
+      rows.add(i);
+    }
+    Collections.shuffle(rows, new Random(42));
+    rows.add(rows.get(0));
+    List<RecordId> recordIds = new ArrayList<RecordId>();
+    for (int row : rows) {
+      recordIds.add(new RecordId(new HeapPageId(bigFile.getId(), row / 504), row % 504));
+    }
+    recordIds.add(new RecordId(new HeapPageId(bigFile.getId(), 4), 503));
+
+    List<Tuple> fetched = Database.getBufferPool().getTuples(tid, bigFile, recordIds,
+        Permissions.READ_ONLY);
+    assertEquals(recordIds.size(), fetched.size());
+    for (int i = 0; i < rows.size(); i++) {
+      Tuple t = fetched.get(i);
+      assertEquals(recordIds.get(i), t.getRecordId());
+      for (int j = 0; j < 2; j++) {
+        assertEquals(tuples.get(rows.get(i)).get(j).intValue(),
+            ((IntField) t.getField(j)).getValue());
+      }
+    }
+    assertNull(fetched.get(rows.size()));
+    for (int i = 0; i < 5; i++) {
+      assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(bigFile.getId(), i)));
+    }
+  }
+
   @Test
   public void testIteratorBasic() throws Exception {
     HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null, null);
@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.After;
@@ -47,6 +50,24 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     assertEquals(3, empty.numPages());
   }
 
+  /**
+   * Unit test for HeapFile.insertTuple() on pages too small for a tuple, which
+   * must fail rather than append pages forever
+   */
+  @Test(expected = DbException.class)
+  public void addTupleTooLargeForPage() throws Exception {
+    File file = File.createTempFile("tiny", ".dat");
+    file.deleteOnExit();
+    TupleDesc td = Utility.getTupleDesc(2);
+    HeapFile tiny = new HeapFile(file, td, td.getSize());
+    Database.getCatalog().addTable(tiny, "tiny");
+    try {
+      tiny.insertTuple(tid, Utility.getHeapTuple(0, 2));
+    } finally {
+      assertEquals(0, tiny.numPages());
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -112,6 +112,42 @@ public class HeapPageReadTest extends SimpleDbTestBase {
       assertFalse(page.isSlotUsed(i));
   }
 
+  /**
+   * Unit test for HeapPage.getInt()
+   */
+  @Test
+  public void getInt() throws Exception {
+    HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+    for (int i = 0; i < 20; ++i) {
+      assertEquals(EXAMPLE_VALUES[i][0], page.getInt(i, 0));
+      assertEquals(EXAMPLE_VALUES[i][1], page.getInt(i, 1));
+    }
+  }
+
+  /**
+   * Unit test for HeapPage.iterator(List)
+   */
+  @Test
+  public void testFilteredIterator() throws Exception {
+    HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+    ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    predicates.add(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)));
+    predicates.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40000)));
+    Iterator<Tuple> it = page.iterator(predicates);
+
+    int matches = 0;
+    for (int[] values : EXAMPLE_VALUES) {
+      if (values[0] > 30000 && values[1] < 40000) {
+        Tuple tup = it.next();
+        assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        matches++;
+      }
+    }
+    assertFalse(it.hasNext());
+    assertEquals(6, matches);
+  }
+
   /**
    * JUnit suite target
    */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -47,6 +48,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
     assertFalse(dirtier != null);
   }
 
+  /**
+   * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+   */
+  @Test
+  public void testBeforeImage() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    byte[] original = page.getPageData();
+    assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+    // the first modification captures the before-image
+    page.insertTuple(Utility.getHeapTuple(7, 2));
+    page.deleteTuple(page.iterator().next());
+    assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+    // committing makes the current contents the before-image
+    page.setBeforeImage();
+    assertTrue(Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+    assertFalse(Arrays.equals(original, page.getBeforeImage().getPageData()));
+  }
+
   /**
    * Unit test for HeapPage.addTuple()
    */
@@ -89,6 +110,21 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Unit test for HeapPage.insertTuple() with a tuple that the caller changes
+   * afterwards
+   */
+  @Test
+  public void addTupleThenModify() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    Tuple addition = Utility.getHeapTuple(7, 2);
+    page.insertTuple(addition);
+    addition.setField(0, new IntField(8));
+
+    Tuple stored = page.getTuple(addition.getRecordId().tupleno());
+    assertEquals(new IntField(7), stored.getField(0));
+  }
+
   /**
    * Unit test for HeapPage.deleteTuple() with false tuples
    */
@@ -0,0 +1,227 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+  private static final String TABLE_NAME = "t";
+
+  private HeapFile table;
+  private ArrayList<ArrayList<Integer>> tuples;
+  private TransactionId tid;
+
+  /**
+   * Creates a two column table named t with columns c0 and c1.
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples, "c");
+    Database.getCatalog().addTable(table, TABLE_NAME);
+    tid = new TransactionId();
+  }
+
+  private DbIterator physicalPlan(LogicalPlan lp) throws ParsingException {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(TABLE_NAME, new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+    return lp.physicalPlan(tid, stats, false);
+  }
+
+  private LogicalPlan scanPlan() throws ParsingException {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), TABLE_NAME);
+    lp.addProjectField("*", null);
+    return lp;
+  }
+
+  /**
+   * A query without joins still produces a plan over its single table.
+   */
+  @Test
+  public void planWithoutJoins() throws Exception {
+    SystemTestUtil.matchTuples(physicalPlan(scanPlan()), tuples);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A filter on a qualified field is applied to the table it names.
+   */
+  @Test
+  public void filterOnQualifiedField() throws Exception {
+    LogicalPlan lp = scanPlan();
+    lp.addFilter(TABLE_NAME + ".c0", Predicate.Op.GREATER_THAN, "500");
+
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) > 500) {
+        expected.add(t);
+      }
+    }
+    SystemTestUtil.matchTuples(physicalPlan(lp), expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A filter naming a table that is not in the FROM list is rejected.
+   */
+  @Test(expected = ParsingException.class)
+  public void filterOnUnknownTable() throws Exception {
+    LogicalPlan lp = scanPlan();
+    lp.addFilter("u.c0", Predicate.Op.GREATER_THAN, "500");
+    physicalPlan(lp);
+  }
+
+  /**
+   * Returns the first iterator of the specified class in the specified plan,
+   * or null if there is none.
+   */
+  private static <T extends DbIterator> T find(DbIterator plan, Class<T> type) {
+    if (type.isInstance(plan)) {
+      return type.cast(plan);
+    }
+    if (plan instanceof Operator) {
+      for (DbIterator child : ((Operator) plan).getChildren()) {
+        T found = find(child, type);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Returns the tuples whose first field is less than the specified value. */
+  private ArrayList<ArrayList<Integer>> tuplesBelow(int value) {
+    ArrayList<ArrayList<Integer>> below = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) < value) {
+        below.add(t);
+      }
+    }
+    return below;
+  }
+
+  /**
+   * A filter is pushed into the scan of its table, which then returns only
+   * the tuples that satisfy it, and the Filter stays on top of the scan.
+   */
+  @Test
+  public void filterPushedIntoScan() throws Exception {
+    LogicalPlan lp = scanPlan();
+    lp.addFilter(TABLE_NAME + ".c0", Predicate.Op.LESS_THAN, "100");
+    DbIterator plan = physicalPlan(lp);
+    assertNotNull(find(plan, Filter.class));
+    SystemTestUtil.matchTuples(find(plan, SeqScan.class), tuplesBelow(100));
+    SystemTestUtil.matchTuples(plan, tuplesBelow(100));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An index answers a filter that selects a few tuples, but a filter that
+   * selects most of the table is left to the scan, which reads fewer pages.
+   */
+  @Test
+  public void indexScanOnlyWhenCheaper() throws Exception {
+    File f = File.createTempFile("plan", ".btree");
+    f.deleteOnExit();
+    f.delete();
+    BTreeFile index = new BTreeFile(f, table, 0);
+    Database.getCatalog().addIndex(index);
+    index.build();
+
+    LogicalPlan lp = scanPlan();
+    lp.addFilter(TABLE_NAME + ".c0", Predicate.Op.EQUALS, "500");
+    DbIterator plan = physicalPlan(lp);
+    assertNotNull(find(plan, IndexScan.class));
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) == 500) {
+        expected.add(t);
+      }
+    }
+    SystemTestUtil.matchTuples(plan, expected);
+
+    lp = scanPlan();
+    lp.addFilter(TABLE_NAME + ".c0", Predicate.Op.GREATER_THAN, "100");
+    plan = physicalPlan(lp);
+    assertNull(find(plan, IndexScan.class));
+    expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) > 100) {
+        expected.add(t);
+      }
+    }
+    SystemTestUtil.matchTuples(plan, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An equality filter on a field with both a hash and a B+tree index is
+   * answered by the hash index, which needs fewer page reads.
+   */
+  @Test
+  public void hashIndexForEquality() throws Exception {
+    final List<String> used = new ArrayList<String>();
+    File hashFile = File.createTempFile("plan", ".hidx");
+    hashFile.deleteOnExit();
+    hashFile.delete();
+    HashIndexFile hashIndex = new HashIndexFile(hashFile, table, 0) {
+      @Override
+      public DbFileIterator iterator(TransactionId tid, Predicate.Op op, int value) {
+        used.add("hash");
+        return super.iterator(tid, op, value);
+      }
+    };
+    File btreeFile = File.createTempFile("plan", ".btree");
+    btreeFile.deleteOnExit();
+    btreeFile.delete();
+    BTreeFile btreeIndex = new BTreeFile(btreeFile, table, 0) {
+      @Override
+      public DbFileIterator iterator(TransactionId tid, Predicate.Op op, int value) {
+        used.add("btree");
+        return super.iterator(tid, op, value);
+      }
+    };
+    Database.getCatalog().addIndex(btreeIndex);
+    Database.getCatalog().addIndex(hashIndex);
+    btreeIndex.build();
+    hashIndex.build();
+
+    LogicalPlan lp = scanPlan();
+    lp.addFilter(TABLE_NAME + ".c0", Predicate.Op.EQUALS, "500");
+    DbIterator plan = physicalPlan(lp);
+    assertEquals(Arrays.asList("hash"), used);
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) == 500) {
+        expected.add(t);
+      }
+    }
+    SystemTestUtil.matchTuples(plan, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogicalPlanTest.class);
+  }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+  private static final int TUPLES_PER_PAGE = 504;
+
+  private ArrayList<ArrayList<Integer>> tuples;
+  private File file;
+  private MappedHeapFile mapped;
+
+  /**
+   * Creates a table that covers one full extent and part of the next one.
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    int rows = (MappedHeapFile.EXTENT_PAGES + 10) * TUPLES_PER_PAGE;
+    file = SystemTestUtil.createRandomHeapFileUnopened(2, rows, 1000, null, tuples);
+    mapped = new MappedHeapFile(file, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+  }
+
+  /**
+   * Pages in and after the mapped extent read back the same tuples.
+   */
+  @Test
+  public void readPages() throws Exception {
+    assertEquals(MappedHeapFile.EXTENT_PAGES + 10, mapped.numPages());
+    SystemTestUtil.matchTuples(mapped, tuples);
+  }
+
+  /**
+   * Writes through the mapping are visible to a plain HeapFile on the same
+   * file.
+   */
+  @Test
+  public void writePages() throws Exception {
+    HeapPageId pid = new HeapPageId(mapped.getId(), 1);
+    HeapPage page = (HeapPage) mapped.readPage(pid);
+    Tuple t = page.iterator().next();
+    page.deleteTuple(t);
+    mapped.writePage(page);
+
+    HeapFile plain = new HeapFile(file, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(plain, SystemTestUtil.getUUID());
+    HeapPage reread = (HeapPage) plain.readPage(new HeapPageId(plain.getId(), 1));
+    assertEquals(1, reread.getNumEmptySlots());
+    assertTrue(mapped.numPages() == plain.numPages());
+  }
+
+  /**
+   * Deletes the tuples of the specified page, except the first ones, in a
+   * transaction of its own.
+   */
+  private void deleteTuples(int pageNumber, int keep) throws Exception {
+    TransactionId tid = new TransactionId();
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(
+        mapped.getId(), pageNumber), Permissions.READ_WRITE);
+    ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+    for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+      Tuple t = it.next();
+      if (keep-- <= 0) {
+        deleted.add(t);
+      }
+    }
+    for (Tuple t : deleted) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Compaction cannot cut off the mapped extent, and the pages of the extent
+   * that it empties read back empty, even if their changes had not been
+   * written when the file was truncated.
+   */
+  @Test
+  public void compactKeepsMappedPages() throws Exception {
+    for (int pageNumber = 0; pageNumber < mapped.numPages(); pageNumber++) {
+      if (pageNumber != 1) {
+        deleteTuples(pageNumber, pageNumber == 100 ? 1 : 0);
+      }
+    }
+    BufferPool bufferPool = Database.getBufferPool();
+    synchronized (bufferPool) {
+      // the page cleaner cannot write the moves before the truncation
+      mapped.compact();
+    }
+    assertEquals(MappedHeapFile.EXTENT_PAGES, mapped.numPages());
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = mapped.iterator(tid);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    bufferPool.transactionComplete(tid);
+    assertEquals(TUPLES_PER_PAGE + 1, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MappedHeapFileTest.class);
+  }
+}
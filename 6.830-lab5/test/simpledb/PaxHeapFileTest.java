@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapFileTest extends SimpleDbTestBase {
+  private TupleDesc td;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+        new String[] { "id", "name", "value" });
+  }
+
+  private Tuple createTuple(int i) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+    t.setField(2, new IntField(i % 7));
+    return t;
+  }
+
+  /**
+   * Tuples survive serialization, and scans return only the requested fields
+   * of the tuples that satisfy the predicates.
+   */
+  @Test
+  public void pageIterator() throws Exception {
+    PaxPage page = new PaxPage(new HeapPageId(-1, 0), td, PaxPage.createEmptyPageData());
+    int numTuples = PaxPage.getNumTuples(td);
+    ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+    for (int i = 0; i < numTuples; i++) {
+      Tuple t = createTuple(i);
+      page.insertTuple(t);
+      inserted.add(t);
+    }
+    assertEquals(0, page.getNumEmptySlots());
+    page.deleteTuple(inserted.get(3));
+
+    PaxPage reread = new PaxPage(page.getId(), td, page.getPageData());
+    Iterator<Tuple> it = reread.iterator();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int id = ((IntField) t.getField(0)).getValue();
+      assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+      assertEquals(id % 7, ((IntField) t.getField(2)).getValue());
+      count++;
+    }
+    assertEquals(numTuples - 1, count);
+
+    ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    predicates.add(new Predicate(2, Predicate.Op.EQUALS, new IntField(3)));
+    it = reread.iterator(new boolean[] { true, false, false }, predicates);
+    count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(3, ((IntField) t.getField(0)).getValue() % 7);
+      assertNull(t.getField(1));
+      assertNull(t.getField(2));
+      count++;
+    }
+    // every seventh tuple, except for the deleted one
+    assertEquals((numTuples + 3) / 7 - 1, count);
+  }
+
+  /**
+   * Unit test for PaxHeapFile insert, delete and field-pruning scans through
+   * the BufferPool.
+   */
+  @Test
+  public void insertScanDelete() throws Exception {
+    File file = File.createTempFile("pax", ".dat");
+    file.deleteOnExit();
+    PaxHeapFile pax = new PaxHeapFile(file, td);
+    Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1000; i++) {
+      Database.getBufferPool().insertTuple(tid, pax.getId(), createTuple(i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals((1000 + PaxPage.getNumTuples(td) - 1) / PaxPage.getNumTuples(td),
+        pax.numPages());
+
+    tid = new TransactionId();
+    DbFileIterator it = pax.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      }
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, pax.getId(), "t");
+    scan.setReferencedFields(new boolean[] { true, false, false });
+    scan.addPredicate(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      int id = ((IntField) t.getField(0)).getValue();
+      assertTrue(id % 2 == 1 && id < 100);
+      assertNull(t.getField(1));
+      count++;
+    }
+    scan.close();
+    assertEquals(50, count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxHeapFileTest.class);
+  }
+}
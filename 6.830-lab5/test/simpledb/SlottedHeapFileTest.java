@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+  private TupleDesc td;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE,
+        Type.STRING_TYPE });
+  }
+
+  private Tuple createTuple(int i) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(i));
+    t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+    t.setField(2, new StringField("city", Type.STRING_LEN));
+    t.setField(3, new StringField("", Type.STRING_LEN));
+    return t;
+  }
+
+  private SlottedPage createEmptyPage() {
+    return new SlottedPage(new HeapPageId(-1, 0), td, SlottedPage.createEmptyPageData());
+  }
+
+  /**
+   * Short strings take much less room than on a HeapPage.
+   */
+  @Test
+  public void density() throws Exception {
+    SlottedPage page = createEmptyPage();
+    int count = 0;
+    while (page.hasRoomFor(createTuple(count))) {
+      page.insertTuple(createTuple(count));
+      count++;
+    }
+    int heapPageTuples = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    assertTrue(count >= 5 * heapPageTuples);
+    assertEquals(count, page.getNumTuples());
+  }
+
+  /**
+   * Tuples survive serialization and keep their slots across deletes and
+   * compaction.
+   */
+  @Test
+  public void insertDeleteAndCompact() throws Exception {
+    SlottedPage page = createEmptyPage();
+    ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+    for (int i = 0; page.hasRoomFor(createTuple(i)); i++) {
+      Tuple t = createTuple(i);
+      page.insertTuple(t);
+      inserted.add(t);
+    }
+
+    // delete every other tuple, then fill the holes with longer tuples
+    for (int i = 0; i < inserted.size(); i += 2) {
+      page.deleteTuple(inserted.get(i));
+    }
+    int refilled = 0;
+    Tuple longer = createTuple(1000000);
+    while (page.hasRoomFor(longer)) {
+      page.insertTuple(longer);
+      longer = createTuple(1000000 + ++refilled);
+    }
+    assertTrue(refilled > 0);
+
+    SlottedPage reread = new SlottedPage(page.getId(), td, page.getPageData());
+    Iterator<Tuple> it = reread.iterator();
+    int odd = 0;
+    int large = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int value = ((IntField) t.getField(0)).getValue();
+      if (value >= 1000000) {
+        large++;
+      } else {
+        assertEquals(1, value % 2);
+        assertEquals(inserted.get(value).getRecordId(), t.getRecordId());
+        assertEquals("name" + value, ((StringField) t.getField(1)).getValue());
+        odd++;
+      }
+    }
+    assertEquals(inserted.size() / 2, odd);
+    assertEquals(refilled, large);
+  }
+
+  /**
+   * Unit test for SlottedHeapFile insert, scan and delete through the
+   * BufferPool.
+   */
+  @Test
+  public void insertScanDelete() throws Exception {
+    File file = File.createTempFile("slotted", ".dat");
+    file.deleteOnExit();
+    SlottedHeapFile.encode(new ArrayList<Tuple>().iterator(), file, td);
+    SlottedHeapFile slotted = new SlottedHeapFile(file, td);
+    Database.getCatalog().addTable(slotted, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1000; i++) {
+      Database.getBufferPool().insertTuple(tid, slotted.getId(), createTuple(i));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertTrue(slotted.numPages() < 1000 / 30);
+
+    tid = new TransactionId();
+    DbFileIterator it = slotted.iterator(tid);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      }
+      count++;
+    }
+    it.close();
+    assertEquals(1000, count);
+    Database.getBufferPool().transactionComplete(tid);
+
+    tid = new TransactionId();
+    it = slotted.iterator(tid);
+    it.open();
+    count = 0;
+    while (it.hasNext()) {
+      assertFalse(((IntField) it.next().getField(0)).getValue() % 2 == 0);
+      count++;
+    }
+    assertEquals(500, count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+  }
+}
@@ -8,6 +8,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class TestUtil {
@@ -196,6 +197,15 @@ public class TestUtil {
     return buf;
   }
 
+  /**
+   * @return the number of file descriptors this process has open, or -1 if
+   *         the platform does not tell
+   */
+  public static int countOpenFiles() {
+    String[] descriptors = new File("/proc/self/fd").list();
+    return descriptors == null ? -1 : descriptors.length;
+  }
+
   /**
    * Stub DbFile class for unit testing.
    */
@@ -213,6 +223,10 @@ public class TestUtil {
       throw new RuntimeException("not implemented");
     }
 
+    public List<Page> readPages(int startPageNumber, int count) {
+      throw new RuntimeException("not implemented");
+    }
+
     public int numPages() {
       throw new RuntimeException("not implemented");
     }
@@ -252,6 +266,11 @@ public class TestUtil {
     public TupleDesc getTupleDesc() {
       return td;
     }
+
+    @Override
+    public int getPageSize() {
+      return BufferPool.getPageSize();
+    }
   }
 
   /**
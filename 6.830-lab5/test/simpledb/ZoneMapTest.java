@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+  /** Two int columns fit 504 tuples on a page. */
+  private static final int TUPLES_PER_PAGE = 504;
+  private static final int PAGES = 10;
+
+  private File heapFile;
+
+  @Before
+  public void createFile() throws Exception {
+    heapFile = File.createTempFile("zonemap", ".dat");
+    heapFile.deleteOnExit();
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+  }
+
+  @After
+  public void deleteSidecars() {
+    ZoneMap.delete(heapFile);
+    FreeSpaceMap.delete(heapFile);
+  }
+
+  /**
+   * Creates a table clustered on its first column, with room for one more
+   * tuple on the last page.
+   */
+  private HeapFile createClusteredTable() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < TUPLES_PER_PAGE * PAGES - 1; i++) {
+      tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+    }
+    HeapFileEncoder.convert(tuples, heapFile, BufferPool.getPageSize(), 2);
+    HeapFile table = Utility.openHeapFile(2, heapFile);
+    assertEquals(PAGES, table.numPages());
+    return table;
+  }
+
+  private static List<Predicate> predicate(int field, Predicate.Op op, int operand) {
+    return Arrays.asList(new Predicate(field, op, new IntField(operand)));
+  }
+
+  /** Scans the table and returns the number of matching tuples. */
+  private static int scan(HeapFile table, TransactionId tid, List<Predicate> predicates)
+      throws Exception {
+    DbFileIterator it = table.iterator(tid, predicates);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    return count;
+  }
+
+  private static int scan(HeapFile table, List<Predicate> predicates) throws Exception {
+    TransactionId tid = new TransactionId();
+    int count = scan(table, tid, predicates);
+    Database.getBufferPool().transactionComplete(tid);
+    return count;
+  }
+
+  /**
+   * Entries cover exactly the values on their pages, and empty pages match
+   * nothing.
+   */
+  @Test
+  public void mayMatch() throws Exception {
+    HeapFile table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    ZoneMap map = ZoneMap.open(heapFile, table.getTupleDesc(), 2);
+    HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0),
+        HeapPage.createEmptyPageData());
+    for (int i = 10; i <= 20; i++) {
+      page.insertTuple(Utility.getHeapTuple(i, 2));
+    }
+    assertTrue(map.mayMatch(1, new Predicate(0, Predicate.Op.EQUALS, new IntField(99))));
+    map.update(0, page);
+    map.update(1, new HeapPage(new HeapPageId(table.getId(), 1),
+        HeapPage.createEmptyPageData()));
+
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.EQUALS, Predicate.Op.EQUALS,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+        Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.NOT_EQUALS };
+    int[] operands = { 9, 15, 21, 19, 20, 20, 11, 10, 10, 15 };
+    boolean[] expected = { false, true, false, true, false, true, true, false, true, true };
+    for (int i = 0; i < ops.length; i++) {
+      Predicate p = new Predicate(1, ops[i], new IntField(operands[i]));
+      assertEquals(p.toString(), expected[i], map.mayMatch(0, p));
+      assertFalse(map.mayMatch(1, p));
+    }
+  }
+
+  /**
+   * The first scan learns the entries of the pages, after which a filtered
+   * scan only reads the pages that can match, also after reopening the file.
+   */
+  @Test
+  public void skipsPages() throws Exception {
+    HeapFile table = createClusteredTable();
+    Database.getCatalog().addTable(table, "zm");
+    assertEquals(TUPLES_PER_PAGE * PAGES - 1, scan(table, null));
+
+    BufferPool bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bufferPool.setReadAheadPages(0);
+    List<Predicate> lastPage = predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TUPLES_PER_PAGE
+        * (PAGES - 1));
+    assertEquals(TUPLES_PER_PAGE - 1, scan(table, lastPage));
+    assertEquals(1, bufferPool.getPrefetchMisses());
+    assertEquals(0, scan(table, predicate(1, Predicate.Op.GREATER_THAN, 0)));
+    assertEquals(1, bufferPool.getPrefetchMisses());
+
+    ZoneMap reopened = ZoneMap.open(heapFile, table.getTupleDesc(), PAGES);
+    for (int i = 0; i < PAGES; i++) {
+      assertEquals(i == PAGES - 1, reopened.mayMatch(i, lastPage));
+    }
+  }
+
+  /**
+   * Inserted tuples are found right away, and the entry of their page narrows
+   * again once they are deleted and the page is written.
+   */
+  @Test
+  public void insertsWidenAndDeletesNarrow() throws Exception {
+    HeapFile table = createClusteredTable();
+    Database.getCatalog().addTable(table, "zm");
+    scan(table, null);
+    List<Predicate> outlier = predicate(0, Predicate.Op.EQUALS, 1000000);
+    assertEquals(0, scan(table, outlier));
+
+    TransactionId tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(1000000, 2));
+    assertEquals(1, scan(table, tid, outlier));
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1, scan(table, outlier));
+
+    tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid, outlier);
+    it.open();
+    Database.getBufferPool().deleteTuple(tid, it.next());
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+
+    BufferPool bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(0, scan(table, outlier));
+    assertEquals(0, bufferPool.getPrefetchMisses());
+  }
+
+  /**
+   * Zone maps do not keep their sidecar open between reads and writes, even
+   * though scans write the entries they learn.
+   */
+  @Test
+  public void doesNotKeepSidecarOpen() throws Exception {
+    HeapFile table = Utility.createEmptyHeapFile(heapFile.getAbsolutePath(), 2);
+    HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0),
+        HeapPage.createEmptyPageData());
+    int openFiles = TestUtil.countOpenFiles();
+    for (int i = 0; i < 10; i++) {
+      ZoneMap map = ZoneMap.open(heapFile, table.getTupleDesc(), 2);
+      map.invalidateAndPersist(i % 2);
+      map.updateAndPersist(i % 2, page);
+    }
+    assertEquals(openFiles, TestUtil.countOpenFiles());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.BufferPool;
+import simpledb.BulkLoader;
+import simpledb.Type;
+
+/**
+ * Measures how fast BulkLoader converts a comma separated file of integers
+ * into a heap file with different numbers of parsing threads. The reported
+ * throughput should grow with the number of threads until the machine runs
+ * out of cores or the disk runs out of bandwidth.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=BulkLoadBenchmark</tt>. The optional
+ * arguments are the number of rows and the number of columns of the input.
+ */
+public class BulkLoadBenchmark {
+
+  private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+  public static void main(String[] args) throws Exception {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+    File input = File.createTempFile("bulkload", ".txt");
+    input.deleteOnExit();
+    Random random = new Random(6830);
+    BufferedWriter writer = new BufferedWriter(new FileWriter(input));
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        if (j > 0) {
+          writer.write(',');
+        }
+        writer.write(Integer.toString(random.nextInt()));
+      }
+      writer.write('\n');
+    }
+    writer.close();
+    File output = File.createTempFile("bulkload", ".dat");
+    output.deleteOnExit();
+
+    Type[] types = new Type[columns];
+    for (int j = 0; j < columns; j++) {
+      types[j] = Type.INT_TYPE;
+    }
+    // warm up the OS cache and the JIT
+    BulkLoader.create(types, BufferPool.getPageSize(), ',', 1, BulkLoader.DEFAULT_CHUNK_SIZE)
+        .load(input, output);
+
+    System.out.printf("%d rows, %.1f MB of text\n", rows, input.length() / 1048576.0);
+    System.out.println("threads\tms\tMB/s\tspeedup");
+    double singleThreadRate = 0;
+    for (int threadCount : THREAD_COUNTS) {
+      BulkLoader loader = BulkLoader.create(types, BufferPool.getPageSize(), ',', threadCount,
+          BulkLoader.DEFAULT_CHUNK_SIZE);
+      long start = System.currentTimeMillis();
+      loader.load(input, output);
+      long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+      double rate = input.length() / 1048576.0 * 1000 / elapsed;
+      if (threadCount == 1) {
+        singleThreadRate = rate;
+      }
+      System.out.printf("%d\t%d\t%.1f\t%.2f\n", threadCount, elapsed, rate, rate
+          / singleThreadRate);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.Permissions;
+import simpledb.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how BufferPool.getPage scales when many threads ask for random
+ * pages of the same table at once, once with a pool that holds the whole
+ * table, so that every page is found without the lock on the pool, and once
+ * with a pool that holds half of it, so that misses read pages from the file
+ * while other threads carry on. Every thread reads the same number of pages,
+ * in read-only transactions of a hundred pages each.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=ConcurrentGetPageBenchmark</tt>. The
+ * optional arguments are the number of pages in the table and the number of
+ * pages each thread asks for.
+ */
+public class ConcurrentGetPageBenchmark {
+
+  private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+  private static final int PAGES_PER_TRANSACTION = 100;
+
+  public static void main(String[] args) throws Exception {
+    int numberOfPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+    // two int columns fit 504 tuples on a page
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, numberOfPages * 504, null, null);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    numberOfPages = table.numPages();
+
+    for (int poolPages : new int[] { numberOfPages, numberOfPages / 2 }) {
+      // warm up the OS cache and the JIT
+      runReaders(Database.resetBufferPool(poolPages), table, numberOfPages, 1, readsPerThread);
+
+      System.out.println("pool of " + poolPages + " pages");
+      System.out.println("threads\tms\tpages/s\tspeedup\thit ratio");
+      double singleThreadRate = 0;
+      for (int threadCount : THREAD_COUNTS) {
+        BufferPool bufferPool = Database.resetBufferPool(poolPages);
+        // fill the pool, so that every run starts out the same
+        runReaders(bufferPool, table, numberOfPages, 1, poolPages);
+        long hits = bufferPool.getHits();
+        long misses = bufferPool.getPrefetchMisses();
+        long elapsed = runReaders(bufferPool, table, numberOfPages, threadCount, readsPerThread);
+        hits = bufferPool.getHits() - hits;
+        misses = bufferPool.getPrefetchMisses() - misses;
+        double rate = threadCount * (double) readsPerThread * 1000 / Math.max(elapsed, 1);
+        if (threadCount == 1) {
+          singleThreadRate = rate;
+        }
+        System.out.printf("%d\t%d\t%.0f\t%.2f\t%.4f\n", threadCount, elapsed, rate, rate
+            / singleThreadRate, (double) hits / (hits + misses));
+      }
+    }
+  }
+
+  /**
+   * Starts the specified number of threads, each asking the pool for
+   * readsPerThread random pages, and returns the wall clock time in
+   * milliseconds until all finish.
+   */
+  private static long runReaders(final BufferPool bufferPool, final HeapFile table,
+      final int numberOfPages, int threadCount, final int readsPerThread) throws Exception {
+    final ArrayList<Exception> errors = new ArrayList<Exception>();
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; i++) {
+      final long seed = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          try {
+            for (int j = 0; j < readsPerThread; j += PAGES_PER_TRANSACTION) {
+              TransactionId tid = new TransactionId();
+              for (int k = j; k < Math.min(j + PAGES_PER_TRANSACTION, readsPerThread); k++) {
+                HeapPageId pid = new HeapPageId(table.getId(), random.nextInt(numberOfPages));
+                HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+                if (page.getNumEmptySlots() < 0) {
+                  throw new IllegalStateException();
+                }
+              }
+              bufferPool.transactionComplete(tid);
+            }
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      });
+    }
+    long start = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (!errors.isEmpty()) {
+      throw errors.get(0);
+    }
+    return System.currentTimeMillis() - start;
+  }
+}
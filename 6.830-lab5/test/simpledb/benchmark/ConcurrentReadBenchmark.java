@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how HeapFile.readPage scales when many threads fault in random
+ * pages of the same table at once. Every thread reads the same number of
+ * pages; the reported throughput should grow with the number of threads until
+ * the machine runs out of cores or the disk runs out of bandwidth.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=ConcurrentReadBenchmark</tt>. The optional
+ * arguments are the number of pages in the table and the number of reads per
+ * thread.
+ */
+public class ConcurrentReadBenchmark {
+
+  private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+  public static void main(String[] args) throws Exception {
+    int numberOfPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    // two int columns fit 504 tuples on a page
+    final HeapFile table = SystemTestUtil.createRandomHeapFile(2, numberOfPages * 504, null, null);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    final int tableNumberOfPages = table.numPages();
+
+    // warm up the OS cache and the JIT
+    runReaders(table, tableNumberOfPages, 1, readsPerThread);
+
+    System.out.println("threads\tms\tpages/s\tspeedup");
+    double singleThreadRate = 0;
+    for (int threadCount : THREAD_COUNTS) {
+      long elapsed = runReaders(table, tableNumberOfPages, threadCount, readsPerThread);
+      double rate = threadCount * (double) readsPerThread * 1000 / Math.max(elapsed, 1);
+      if (threadCount == 1) {
+        singleThreadRate = rate;
+      }
+      System.out.printf("%d\t%d\t%.0f\t%.2f\n", threadCount, elapsed, rate, rate
+          / singleThreadRate);
+    }
+  }
+
+  /**
+   * Starts the specified number of threads, each reading readsPerThread random
+   * pages, and returns the wall clock time in milliseconds until all finish.
+   */
+  private static long runReaders(final HeapFile table, final int numberOfPages,
+      int threadCount, final int readsPerThread) throws InterruptedException {
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < threadCount; i++) {
+      final long seed = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          for (int j = 0; j < readsPerThread; j++) {
+            HeapPageId pid = new HeapPageId(table.getId(), random.nextInt(numberOfPages));
+            HeapPage page = (HeapPage) table.readPage(pid);
+            if (page.getNumEmptySlots() < 0) {
+              throw new IllegalStateException();
+            }
+          }
+        }
+      });
+    }
+    long start = System.currentTimeMillis();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return System.currentTimeMillis() - start;
+  }
+}
@@ -0,0 +1,112 @@
+package simpledb.benchmark;
+
+import simpledb.BufferPool;
+import simpledb.ClockEvictionPolicy;
+import simpledb.Database;
+import simpledb.DbIterator;
+import simpledb.EvictionPolicy;
+import simpledb.Filter;
+import simpledb.HeapFile;
+import simpledb.IntField;
+import simpledb.Join;
+import simpledb.JoinPredicate;
+import simpledb.LruKEvictionPolicy;
+import simpledb.Predicate;
+import simpledb.SeqScan;
+import simpledb.TransactionId;
+import simpledb.TwoQueueEvictionPolicy;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the hit ratios of the eviction policies on a join-heavy workload
+ * in the spirit of systemtest.QueryTest. Every round joins a large fact table
+ * that does not fit in the buffer pool with a small dimension table, and the
+ * dimension table with a medium table that does fit. The joins are nested
+ * loops, so the tables on the inner side are read over and over while the
+ * fact table is read once per round. A policy that lets the fact table push
+ * out the medium table rereads it every round.
+ * <p>
+ * Read-ahead is off, so that every page a query asks for is a hit or a miss
+ * of the policy.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=EvictionPolicyBenchmark</tt>. The optional
+ * arguments are the number of pages in the buffer pool and the number of
+ * rounds.
+ */
+public class EvictionPolicyBenchmark {
+
+  /** Pages of the tables, of two int columns that fit 504 tuples on a page. */
+  private static final int FACT_PAGES = 1000;
+  private static final int MEDIUM_PAGES = 48;
+  private static final int DIMENSION_PAGES = 4;
+  private static final int MAX_VALUE = 1 << 12;
+
+  public static void main(String[] args) throws Exception {
+    int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    HeapFile fact = createTable(FACT_PAGES);
+    HeapFile medium = createTable(MEDIUM_PAGES);
+    HeapFile dimension = createTable(DIMENSION_PAGES);
+
+    System.out.println("policy\tms\thits\tmisses\thit ratio");
+    for (int i = 0; i < 2; i++) {
+      // the first pass warms up the OS cache and the JIT
+      boolean print = i == 1;
+      EvictionPolicy[] policies = { new ClockEvictionPolicy(), new LruKEvictionPolicy(1),
+          new LruKEvictionPolicy(2), new TwoQueueEvictionPolicy() };
+      for (EvictionPolicy policy : policies) {
+        BufferPool bufferPool = Database.resetBufferPool(poolPages, policy);
+        bufferPool.setReadAheadPages(0);
+        long start = System.currentTimeMillis();
+        for (int round = 0; round < rounds; round++) {
+          runQueries(fact, medium, dimension);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        long hits = bufferPool.getHits();
+        long misses = bufferPool.getPrefetchMisses();
+        if (print) {
+          System.out.printf("%s\t%d\t%d\t%d\t%.4f\n", policy, elapsed, hits, misses,
+              (double) hits / (hits + misses));
+        }
+      }
+    }
+  }
+
+  private static HeapFile createTable(int pages) throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * 504, MAX_VALUE, null, null);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    return table;
+  }
+
+  /**
+   * Joins a percent of the fact table with the dimension table, and a few
+   * tuples of the dimension table with the medium table, in one transaction.
+   */
+  private static void runQueries(HeapFile fact, HeapFile medium, HeapFile dimension)
+      throws Exception {
+    TransactionId tid = new TransactionId();
+    count(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), filter(tid, fact, 100),
+        new SeqScan(tid, dimension.getId(), "d")));
+    count(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), filter(tid, dimension, 200),
+        new SeqScan(tid, medium.getId(), "m")));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Returns the tuples of the table whose second field is below 1/divisor of the range. */
+  private static DbIterator filter(TransactionId tid, HeapFile table, int divisor) {
+    return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE
+        / divisor)), new SeqScan(tid, table.getId(), "t"));
+  }
+
+  private static int count(DbIterator it) throws Exception {
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    return count;
+  }
+}
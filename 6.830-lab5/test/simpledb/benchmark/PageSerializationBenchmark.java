@@ -0,0 +1,109 @@
+package simpledb.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapPage;
+import simpledb.HeapPageId;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.Tuple;
+import simpledb.TupleDesc;
+import simpledb.Utility;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares HeapPage.getPageData, which copies the page image that inserts and
+ * deletes keep up to date, with serializing the page field by field through a
+ * DataOutputStream, which is what getPageData used to do on every call.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=PageSerializationBenchmark</tt>. The
+ * optional argument is the number of serializations to time.
+ */
+public class PageSerializationBenchmark {
+
+  /** Number of two-int tuples that fit on a page. */
+  private static final int TUPLES_PER_PAGE = 504;
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+    TupleDesc td = Utility.getTupleDesc(2);
+    Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    HeapPage page = new HeapPage(new HeapPageId(-1, 0), HeapPage.createEmptyPageData());
+    for (int i = 0; i < TUPLES_PER_PAGE; i++) {
+      page.insertTuple(Utility.getHeapTuple(i, 2));
+    }
+    if (!Arrays.equals(page.getPageData(), serializeFieldByField(page, td))) {
+      throw new IllegalStateException("page images differ");
+    }
+
+    // warm up the JIT
+    time(page, td, iterations / 10, true);
+    time(page, td, iterations / 10, false);
+
+    long copyNanos = time(page, td, iterations, true);
+    long fieldNanos = time(page, td, iterations, false);
+    System.out.printf("getPageData\t%.0f ns/page\n", copyNanos / (double) iterations);
+    System.out.printf("field by field\t%.0f ns/page\n", fieldNanos / (double) iterations);
+    System.out.printf("speedup\t%.1fx\n", fieldNanos / (double) copyNanos);
+  }
+
+  private static long time(HeapPage page, TupleDesc td, int iterations, boolean copy)
+      throws IOException {
+    long checksum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      byte[] data = copy ? page.getPageData() : serializeFieldByField(page, td);
+      checksum += data[i % data.length];
+    }
+    long elapsed = System.nanoTime() - start;
+    if (checksum == Long.MIN_VALUE) {
+      System.out.println(checksum);
+    }
+    return elapsed;
+  }
+
+  /**
+   * Serializes the page the way HeapPage.getPageData used to: header bytes,
+   * then every slot field by field or as zeroes, then padding.
+   */
+  private static byte[] serializeFieldByField(HeapPage page, TupleDesc td) throws IOException {
+    // every slot of the benchmark page is used
+    int numberOfSlots = page.getNumEmptySlots() + TUPLES_PER_PAGE;
+    int headerSize = (numberOfSlots + 7) / 8;
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+    DataOutputStream dos = new DataOutputStream(baos);
+    for (int i = 0; i < headerSize; i++) {
+      int headerByte = 0;
+      for (int bit = 0; bit < 8 && i * 8 + bit < numberOfSlots; bit++) {
+        if (page.isSlotUsed(i * 8 + bit)) {
+          headerByte |= 1 << bit;
+        }
+      }
+      dos.writeByte(headerByte);
+    }
+    Iterator<Tuple> it = page.iterator();
+    for (int i = 0; i < numberOfSlots; i++) {
+      if (!page.isSlotUsed(i)) {
+        for (int j = 0; j < td.getSize(); j++) {
+          dos.writeByte(0);
+        }
+        continue;
+      }
+      Tuple t = it.next();
+      for (int j = 0; j < td.numFields(); j++) {
+        t.getField(j).serialize(dos);
+      }
+    }
+    int padding = BufferPool.getPageSize() - (headerSize + td.getSize() * numberOfSlots);
+    dos.write(new byte[padding], 0, padding);
+    dos.flush();
+    return baos.toByteArray();
+  }
+}
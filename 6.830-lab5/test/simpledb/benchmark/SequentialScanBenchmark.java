@@ -0,0 +1,68 @@
+package simpledb.benchmark;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.DbFileIterator;
+import simpledb.HeapFile;
+import simpledb.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures full scans of a table that does not fit in the buffer pool with
+ * different read-ahead windows. Without read-ahead every page is a separate
+ * 4 KB read made by the scan itself; with it the pages are read in runs of up
+ * to {@link BufferPool#MAX_READ_AHEAD_BYTES} in the background.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=SequentialScanBenchmark</tt>. The optional
+ * arguments are the number of pages in the table and the size of the buffer
+ * pool in pages.
+ */
+public class SequentialScanBenchmark {
+
+  private static final int[] READ_AHEAD_PAGES = { 0, 16, 64, 256 };
+  private static final int SCANS = 5;
+
+  public static void main(String[] args) throws Exception {
+    int numberOfPages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int poolPages = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+
+    // two int columns fit 504 tuples on a page
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, numberOfPages * 504, null, null);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    // warm up the OS cache and the JIT
+    scan(table, poolPages, 0);
+
+    System.out.println("read-ahead\tms/scan\thits\tmisses");
+    for (int readAheadPages : READ_AHEAD_PAGES) {
+      long start = System.currentTimeMillis();
+      BufferPool bufferPool = null;
+      for (int i = 0; i < SCANS; i++) {
+        bufferPool = scan(table, poolPages, readAheadPages);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      System.out.printf("%d\t\t%d\t%d\t%d\n", readAheadPages, elapsed / SCANS,
+          bufferPool.getPrefetchHits(), bufferPool.getPrefetchMisses());
+    }
+  }
+
+  /** Scans the table with a fresh buffer pool and returns the pool. */
+  private static BufferPool scan(HeapFile table, int poolPages, int readAheadPages)
+      throws Exception {
+    BufferPool bufferPool = Database.resetBufferPool(poolPages);
+    bufferPool.setReadAheadPages(readAheadPages);
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    long sum = 0;
+    while (it.hasNext()) {
+      sum += it.next().getField(0).hashCode();
+    }
+    it.close();
+    bufferPool.transactionComplete(tid);
+    if (sum == 42) {
+      System.out.println();
+    }
+    return bufferPool;
+  }
+}
@@ -0,0 +1,93 @@
+package simpledb.benchmark;
+
+import simpledb.BufferPool;
+import simpledb.Database;
+import simpledb.HeapFile;
+import simpledb.HeapPageId;
+import simpledb.Page;
+import simpledb.Permissions;
+import simpledb.TransactionId;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the cost of completing short transactions as the buffer pool
+ * grows. The pool is filled with pages of a table first; then every
+ * transaction reads a few pages, and every tenth one also changes a page and
+ * aborts, so that no page is written. The work of each transaction is the
+ * same whatever the size of the pool, so the time per transaction should not
+ * grow with the pool.
+ * <p>
+ * Run with <tt>ant runbench -Dbench=TransactionCompleteBenchmark</tt>. The
+ * optional arguments are the number of transactions and the sizes of the pool
+ * to try, in pages.
+ */
+public class TransactionCompleteBenchmark {
+
+  private static final int PAGES_PER_TRANSACTION = 4;
+
+  public static void main(String[] args) throws Exception {
+    int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int[] poolSizes = { 1000, 4000, 16000 };
+    if (args.length > 1) {
+      poolSizes = new int[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        poolSizes[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    int maxPoolSize = 0;
+    for (int poolSize : poolSizes) {
+      maxPoolSize = Math.max(maxPoolSize, poolSize);
+    }
+
+    // two int columns fit 504 tuples on a page
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, maxPoolSize * 504, null, null);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+    // warm up the JIT
+    runTransactions(fillPool(table, poolSizes[0]), table, poolSizes[0], transactions);
+
+    System.out.println("pool pages\tms\tus/transaction");
+    for (int poolSize : poolSizes) {
+      BufferPool bufferPool = fillPool(table, poolSize);
+      long elapsed = runTransactions(bufferPool, table, poolSize, transactions);
+      System.out.printf("%d\t%d\t%.2f\n", poolSize, elapsed, elapsed * 1000.0 / transactions);
+    }
+  }
+
+  /** Returns a new pool holding the first poolSize pages of the table. */
+  private static BufferPool fillPool(HeapFile table, int poolSize) throws Exception {
+    BufferPool bufferPool = Database.resetBufferPool(poolSize);
+    bufferPool.setReadAheadPages(0);
+    TransactionId tid = new TransactionId();
+    for (int pageNumber = 0; pageNumber < poolSize; pageNumber++) {
+      bufferPool.getPage(tid, new HeapPageId(table.getId(), pageNumber), Permissions.READ_ONLY);
+    }
+    bufferPool.transactionComplete(tid);
+    return bufferPool;
+  }
+
+  /**
+   * Runs the transactions over the pages in the pool and returns the time
+   * they took in milliseconds.
+   */
+  private static long runTransactions(BufferPool bufferPool, HeapFile table, int poolSize,
+      int transactions) throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < transactions; i++) {
+      TransactionId tid = new TransactionId();
+      for (int j = 0; j < PAGES_PER_TRANSACTION; j++) {
+        int pageNumber = (i * PAGES_PER_TRANSACTION + j) % poolSize;
+        bufferPool.getPage(tid, new HeapPageId(table.getId(), pageNumber), Permissions.READ_ONLY);
+      }
+      if (i % 10 == 0) {
+        Page page = bufferPool.getPage(tid, new HeapPageId(table.getId(), i % poolSize),
+            Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        bufferPool.transactionComplete(tid, false);
+      } else {
+        bufferPool.transactionComplete(tid, true);
+      }
+    }
+    return System.currentTimeMillis() - start;
+  }
+}
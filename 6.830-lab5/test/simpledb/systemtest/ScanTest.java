@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -15,6 +16,7 @@ import simpledb.BufferPool;
 import simpledb.Database;
 import simpledb.DbException;
 import simpledb.HeapFile;
+import simpledb.HeapFileEncoder;
 import simpledb.Page;
 import simpledb.PageId;
 import simpledb.SeqScan;
@@ -85,7 +87,7 @@ public class ScanTest extends SimpleDbTestBase {
    */
   @Test
   public void testCache() throws IOException, DbException, TransactionAbortedException {
-    /** Counts the number of readPage operations. */
+    /** Counts the number of pages read by readPage and readPages. */
     class InstrumentedHeapFile extends HeapFile {
       public InstrumentedHeapFile(File f, TupleDesc td) {
         super(f, td);
@@ -97,6 +99,12 @@ public class ScanTest extends SimpleDbTestBase {
         return super.readPage(pid);
       }
 
+      @Override
+      public List<Page> readPages(int startPageNumber, int count) {
+        readCount += count;
+        return super.readPages(startPageNumber, count);
+      }
+
       public int readCount = 0;
     }
 
@@ -118,6 +126,59 @@ public class ScanTest extends SimpleDbTestBase {
     assertEquals(0, table.readCount);
   }
 
+  /**
+   * Sequential scans read pages ahead in the background, so that only the
+   * first two pages of a scan are read by the scan itself.
+   */
+  @Test
+  public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+    final int PAGES = 30;
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, 1000, null, tuples);
+
+    BufferPool bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    SystemTestUtil.matchTuples(table, tuples);
+    assertEquals(2, bufferPool.getPrefetchMisses());
+    assertEquals(PAGES - 2, bufferPool.getPrefetchHits());
+
+    bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bufferPool.setReadAheadPages(0);
+    SystemTestUtil.matchTuples(table, tuples);
+    assertEquals(PAGES, bufferPool.getPrefetchMisses());
+    assertEquals(0, bufferPool.getPrefetchHits());
+  }
+
+  /**
+   * Scans a table with 64 KB pages, and checks that the buffer pool accounts
+   * for them by size.
+   */
+  @Test
+  public void testLargePages() throws IOException, DbException, TransactionAbortedException {
+    final int PAGE_SIZE = 65536;
+    final int PAGES = 5;
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    // 8065 two-column tuples fit on a 64 KB page
+    for (int i = 0; i < 8065 * PAGES; i++) {
+      ArrayList<Integer> tuple = new ArrayList<Integer>();
+      tuple.add(r.nextInt(1000));
+      tuple.add(i);
+      tuples.add(tuple);
+    }
+    File f = File.createTempFile("table", ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(tuples, f, PAGE_SIZE, 2);
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(2), PAGE_SIZE);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    assertEquals(PAGE_SIZE, Database.getCatalog().getPageSize(table.getId()));
+    assertEquals(PAGES, table.numPages());
+
+    // room for three large pages, or 48 pages of the default size
+    BufferPool bufferPool = Database.resetBufferPoolCapacity(3 * PAGE_SIZE);
+    SystemTestUtil.matchTuples(table, tuples);
+    assertTrue(bufferPool.getUsedBytes() <= bufferPool.getCapacity());
+    assertEquals(3 * PAGE_SIZE, bufferPool.getUsedBytes());
+  }
+
   /** Make test compatible with older version of ant. */
   public static junit.framework.Test suite() {
     return new junit.framework.JUnit4TestAdapter(ScanTest.class);